@@ -0,0 +1,72 @@
+package com.example.demo.aggregate;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// 按时间分桶的环形缓冲：每个桶覆盖bucketMillis，环上保存最近size个时段。时段过去size个之后桶被新的时段复用，
+// 复用时先清零；晚到的事件若其时段的桶已被复用则不再计入。查询只访问环上的桶，耗时与事件数无关
+final class BucketRing<B extends BucketRing.Bucket> {
+    
+    abstract static class Bucket {
+        // 桶当前对应的时段（时间戳除以bucketMillis），复用时在桶的锁内更新
+        volatile long period = Long.MIN_VALUE;
+        
+        abstract void reset();
+    }
+    
+    private final long bucketMillis;
+    private final Bucket[] buckets;
+    
+    BucketRing(long bucketMillis, int size, Supplier<B> factory) {
+        if (bucketMillis <= 0 || size <= 0) {
+            throw new IllegalArgumentException("bucketMillis and size must be positive");
+        }
+        this.bucketMillis = bucketMillis;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = factory.get();
+        }
+    }
+    
+    long bucketMillis() {
+        return bucketMillis;
+    }
+    
+    int size() {
+        return buckets.length;
+    }
+    
+    // 返回时间戳所在时段的桶，该时段已经移出环时返回null
+    @SuppressWarnings("unchecked")
+    B bucketFor(long timestamp) {
+        long period = timestamp / bucketMillis;
+        Bucket bucket = buckets[(int) (period % buckets.length)];
+        long current = bucket.period;
+        if (current == period) {
+            return (B) bucket;
+        }
+        if (current > period) {
+            return null;
+        }
+        synchronized (bucket) {
+            if (bucket.period < period) {
+                bucket.reset();
+                bucket.period = period;
+            }
+            return bucket.period == period ? (B) bucket : null;
+        }
+    }
+    
+    // 从now所在的时段起向前依次访问count个时段的桶（最多size个），跳过没有数据的时段
+    @SuppressWarnings("unchecked")
+    void forEachRecent(long now, int count, Consumer<B> action) {
+        long newest = now / bucketMillis;
+        for (int i = 0; i < Math.min(count, buckets.length); i++) {
+            long period = newest - i;
+            Bucket bucket = buckets[(int) (period % buckets.length)];
+            if (bucket.period == period) {
+                action.accept((B) bucket);
+            }
+        }
+    }
+}
\ No newline at end of file
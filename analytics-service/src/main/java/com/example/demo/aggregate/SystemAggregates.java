@@ -0,0 +1,220 @@
+package com.example.demo.aggregate;
+
+import com.example.demo.feed.OrderChangeListener;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// 系统级数据的实时聚合：由订单变更流驱动，累计订单数、支付数和金额、取消和退款数、不同用户数，
+// 以及按小时的下单分布；最近一段时间的同类数据放在按分钟分桶的环上。计数用分段累加器（LongAdder/DoubleAdder），
+// 多个线程同时写入不互相等待；查询只合并环上的桶和固定大小的计数，耗时与订单量无关。
+// 支付成功和退款在订单上表现为PAID、REFUNDING状态变更，由同一个变更流得到
+public class SystemAggregates implements OrderChangeListener {
+    
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int PEAK_HOURS = 3;
+    
+    private final BucketRing<Bucket> window;
+    private final TimeZone zone = TimeZone.getDefault();
+    private final long startedAt = System.currentTimeMillis();
+    // 见过的最新事件时间，订单服务的时钟比本机快时查询窗口以它为准
+    private volatile long newestEvent;
+    
+    private final Counts totals = new Counts();
+    private final DistinctCounter users = new DistinctCounter();
+    private final LongAdder[] ordersByHour = new LongAdder[24];
+    private final LongAdder events = new LongAdder();
+    private final LongAdder lateEvents = new LongAdder();
+    private final LongAdder gaps = new LongAdder();
+    
+    public SystemAggregates(long bucketMillis, int buckets) {
+        this.window = new BucketRing<>(bucketMillis, buckets, Bucket::new);
+        for (int i = 0; i < ordersByHour.length; i++) {
+            ordersByHour[i] = new LongAdder();
+        }
+    }
+    
+    @Override
+    public void onChanges(long streamId, List<Map<String, Object>> changes) {
+        for (Map<String, Object> change : changes) {
+            record(change);
+        }
+    }
+    
+    // 缺口中的事件无法补回，累计值从此偏低，由feedGaps提示
+    @Override
+    public void onGap() {
+        gaps.increment();
+    }
+    
+    // 记录一个订单变更事件，结构见OrderService.pollOrderChanges；可由多个线程同时调用
+    public void record(Map<String, Object> change) {
+        events.increment();
+        Object time = change.get("timestamp");
+        long timestamp = time instanceof Number ? ((Number) time).longValue() : System.currentTimeMillis();
+        if (timestamp > newestEvent) {
+            newestEvent = timestamp;
+        }
+        Bucket bucket = window.bucketFor(timestamp);
+        if (bucket == null) {
+            lateEvents.increment();
+        }
+        String userId = (String) change.get("userId");
+        Object amount = change.get("totalAmount");
+        double totalAmount = amount instanceof Number ? ((Number) amount).doubleValue() : 0.0;
+        if ("CREATED".equals(change.get("type"))) {
+            totals.created.increment();
+            ordersByHour[(int) (Math.floorMod(timestamp + zone.getOffset(timestamp), DAY_MILLIS) / HOUR_MILLIS)].increment();
+            if (bucket != null) {
+                bucket.counts.created.increment();
+            }
+        } else {
+            String newStatus = (String) change.get("newStatus");
+            // 状态没有变化的事件（支付回调重试）和其他状态只计入事件数
+            if (newStatus == null || newStatus.equals(change.get("oldStatus")) || !totals.recordStatus(newStatus, totalAmount)) {
+                return;
+            }
+            if (bucket != null) {
+                bucket.counts.recordStatus(newStatus, totalAmount);
+            }
+        }
+        // 下单和支付、取消、退款都算作用户的活动
+        if (userId != null) {
+            users.add(userId);
+            if (bucket != null) {
+                bucket.users.add(userId);
+            }
+        }
+    }
+    
+    // 当前的聚合结果：累计值、最近一个窗口内的值和下单最多的几个小时
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new HashMap<>();
+        long created = totals.created.sum();
+        long paid = totals.paid.sum();
+        double sales = totals.paidAmount.sum();
+        snapshot.put("totalUsers", users.estimate());
+        snapshot.put("totalOrders", created);
+        snapshot.put("paidOrders", paid);
+        snapshot.put("cancelledOrders", totals.cancelled.sum());
+        snapshot.put("refundingOrders", totals.refunding.sum());
+        snapshot.put("totalSales", sales);
+        snapshot.put("refundAmount", totals.refundAmount.sum());
+        snapshot.put("avgOrderValue", paid == 0 ? 0.0 : sales / paid);
+        // 下单后完成支付的比例（百分比）；聚合开始前下单、之后支付的订单只计入支付数
+        snapshot.put("conversionRate", created == 0 ? 0.0 : paid * 100.0 / created);
+        snapshot.put("peakHours", peakHours());
+        
+        // 最近一个窗口：合并环上仍有效的桶
+        Counts recent = new Counts();
+        int[] activeUsers = new int[DistinctCounter.REGISTERS];
+        window.forEachRecent(Math.max(System.currentTimeMillis(), newestEvent), window.size(), bucket -> {
+            recent.add(bucket.counts);
+            bucket.users.mergeInto(activeUsers);
+        });
+        long windowMinutes = TimeUnit.MILLISECONDS.toMinutes(window.bucketMillis() * window.size());
+        snapshot.put("activeUsers", DistinctCounter.estimate(activeUsers));
+        Map<String, Object> recentWindow = new HashMap<>();
+        recentWindow.put("windowMinutes", windowMinutes);
+        recentWindow.put("orders", recent.created.sum());
+        recentWindow.put("paidOrders", recent.paid.sum());
+        recentWindow.put("cancelledOrders", recent.cancelled.sum());
+        recentWindow.put("refundingOrders", recent.refunding.sum());
+        recentWindow.put("sales", recent.paidAmount.sum());
+        recentWindow.put("refundAmount", recent.refundAmount.sum());
+        recentWindow.put("ordersPerMinute", windowMinutes == 0 ? 0.0 : (double) recent.created.sum() / windowMinutes);
+        snapshot.put("recentWindow", recentWindow);
+        
+        snapshot.put("aggregatedSince", new Date(startedAt));
+        snapshot.put("aggregatedEvents", events.sum());
+        snapshot.put("lateEvents", lateEvents.sum());
+        snapshot.put("feedGaps", gaps.sum());
+        return snapshot;
+    }
+    
+    // 下单最多的几个小时（本地时区），没有数据的小时不列出
+    private List<String> peakHours() {
+        long[] counts = new long[ordersByHour.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = ordersByHour[i].sum();
+        }
+        List<String> peaks = new ArrayList<>();
+        for (int n = 0; n < PEAK_HOURS; n++) {
+            int best = -1;
+            for (int hour = 0; hour < counts.length; hour++) {
+                if (counts[hour] > 0 && (best < 0 || counts[hour] > counts[best])) {
+                    best = hour;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            peaks.add(String.format("%02d:00", best));
+            counts[best] = 0;
+        }
+        return peaks;
+    }
+    
+    // 一组订单计数和金额，累计值和每个桶各一组
+    private static final class Counts {
+        final LongAdder created = new LongAdder();
+        final LongAdder paid = new LongAdder();
+        final LongAdder cancelled = new LongAdder();
+        final LongAdder refunding = new LongAdder();
+        final DoubleAdder paidAmount = new DoubleAdder();
+        final DoubleAdder refundAmount = new DoubleAdder();
+        
+        // 按新状态计数，返回该状态是否被统计
+        boolean recordStatus(String status, double amount) {
+            if ("PAID".equals(status)) {
+                paid.increment();
+                paidAmount.add(amount);
+            } else if ("CANCELLED".equals(status)) {
+                cancelled.increment();
+            } else if ("REFUNDING".equals(status)) {
+                refunding.increment();
+                refundAmount.add(amount);
+            } else {
+                return false;
+            }
+            return true;
+        }
+        
+        void add(Counts other) {
+            created.add(other.created.sum());
+            paid.add(other.paid.sum());
+            cancelled.add(other.cancelled.sum());
+            refunding.add(other.refunding.sum());
+            paidAmount.add(other.paidAmount.sum());
+            refundAmount.add(other.refundAmount.sum());
+        }
+        
+        void reset() {
+            created.reset();
+            paid.reset();
+            cancelled.reset();
+            refunding.reset();
+            paidAmount.reset();
+            refundAmount.reset();
+        }
+    }
+    
+    private static final class Bucket extends BucketRing.Bucket {
+        final Counts counts = new Counts();
+        final DistinctCounter users = new DistinctCounter();
+        
+        @Override
+        void reset() {
+            counts.reset();
+            users.clear();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,452 @@
+package com.example.demo.cache;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// 分析结果的本地缓存：按估算的字节数和条目数限制总量，每个条目有自己的ttl。
+// 淘汰用带访问计数的CLOCK：时钟指针扫过时计数减一，减到零且仍未被访问的条目成为淘汰对象；
+// 缓存已满时新条目先与淘汰对象比较近期访问频率（计数草图估算，包括已不在缓存中的键），频率不高于淘汰对象的新条目不被接纳，
+// 一次性查询大量不同用户不会把经常查询的报告挤出去。读取不加锁，写入和淘汰在一把锁内完成。
+// getOrLoad对同一个键同一时刻只进行一次计算，并发未命中的调用方共用计算结果；条目过期后的一段时间内仍可先返回旧值，同时在后台重新计算
+public class AnalyticsCache {
+    
+    // 访问计数的上限，CLOCK最多绕过一个常用条目这么多圈
+    private static final int MAX_FREQUENCY = 3;
+    
+    private final long maxWeight;
+    private final int maxEntries;
+    private final Map<String, Node> entries = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+    // 正在计算的条目：加载开始时登记，失效时移除，计算结果只有在登记仍有效时才写入缓存；失效之后的调用方开始新的计算
+    private final Map<String, CompletableFuture<Object>> loads = new ConcurrentHashMap<>();
+    
+    // 以下字段由锁保护
+    private final ArrayDeque<Node> clock = new ArrayDeque<>();
+    private long weight;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+    private final LongAdder staleLoads = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder loadsStarted = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    
+    public AnalyticsCache(long maxWeightBytes, int maxEntries) {
+        if (maxWeightBytes <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("maxWeightBytes and maxEntries must be positive");
+        }
+        this.maxWeight = maxWeightBytes;
+        this.maxEntries = maxEntries;
+        this.sketch = new FrequencySketch(maxEntries);
+    }
+    
+    // 返回未过期的值，不存在或已过期时返回null
+    public Object get(String key) {
+        sketch.increment(key);
+        Node node = entries.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        long now = System.nanoTime();
+        if (now - node.expiresAt > 0) {
+            misses.increment();
+            removeExpired(node, now);
+            return null;
+        }
+        node.touch();
+        hits.increment();
+        return node.value;
+    }
+    
+    // 返回缓存的值，未命中时调用loader计算：同一个键已有计算在进行时不再调用loader，而是等待同一个结果。
+    // 计算结果满足cacheable且计算期间该键没有失效时写入缓存，新鲜期ttlMillis，之后staleMillis内的调用先得到旧值，
+    // 由第一个这样的调用在后台开始重新计算（同样只有一次），重新计算失败时旧值继续使用到staleMillis结束。
+    // 返回的future各调用方独有，取消它不影响其他调用方和正在进行的计算
+    @SuppressWarnings("unchecked")
+    public <V> CompletableFuture<V> getOrLoad(String key, Supplier<CompletableFuture<V>> loader, Predicate<? super V> cacheable,
+                                             long ttlMillis, long staleMillis) {
+        sketch.increment(key);
+        Node node = entries.get(key);
+        long now = System.nanoTime();
+        if (node != null && now - node.expiresAt <= 0) {
+            node.touch();
+            hits.increment();
+            return CompletableFuture.completedFuture((V) node.value);
+        }
+        if (node != null && now - node.staleUntil <= 0) {
+            node.touch();
+            staleHits.increment();
+            load(key, loader, cacheable, ttlMillis, staleMillis, true);
+            return CompletableFuture.completedFuture((V) node.value);
+        }
+        misses.increment();
+        if (node != null) {
+            removeExpired(node, now);
+        }
+        return load(key, loader, cacheable, ttlMillis, staleMillis, false).thenApply(value -> (V) value);
+    }
+    
+    // 写入一个条目，返回是否被接纳；估算大小超过总量上限或访问频率不如淘汰对象时不接纳
+    public boolean put(String key, Object value, long ttlMillis) {
+        return put(key, value, ttlMillis, 0L);
+    }
+    
+    // 同上，过期后staleMillis内的条目仍可由getOrLoad返回
+    public boolean put(String key, Object value, long ttlMillis, long staleMillis) {
+        long entryWeight = weigh(key, value);
+        long now = System.nanoTime();
+        puts.increment();
+        synchronized (this) {
+            Node old = entries.get(key);
+            if (old != null) {
+                remove(old);
+            }
+            if (entryWeight > maxWeight) {
+                rejected.increment();
+                return false;
+            }
+            long expiresAt = now + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+            Node node = new Node(key, value, entryWeight, expiresAt, expiresAt + TimeUnit.MILLISECONDS.toNanos(staleMillis));
+            entries.put(key, node);
+            clock.addLast(node);
+            weight += entryWeight;
+            return evict(node, now);
+        }
+    }
+    
+    // 失效的条目不再作为旧值返回；与计算结果的写入在同一把锁内，失效之前开始的计算不会在失效之后写入
+    public void invalidate(String key) {
+        synchronized (this) {
+            loads.remove(key);
+            Node node = entries.get(key);
+            if (node != null && remove(node)) {
+                invalidated.increment();
+            }
+        }
+    }
+    
+    // 使某一类条目全部失效，包括正在计算的
+    public void invalidatePrefix(String prefix) {
+        synchronized (this) {
+            loads.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+        for (Node node : entries.values()) {
+            if (node.key.startsWith(prefix)) {
+                synchronized (this) {
+                    if (remove(node)) {
+                        invalidated.increment();
+                    }
+                }
+            }
+        }
+    }
+    
+    public Map<String, Object> stats() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("weightBytes", weight);
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("maxWeightBytes", maxWeight);
+        stats.put("sketchBytes", sketch.bytes());
+        stats.put("lookups", lookups);
+        stats.put("hits", hitCount);
+        stats.put("misses", lookups - hitCount);
+        stats.put("hitRatio", lookups == 0 ? 0.0 : (double) hitCount / lookups);
+        stats.put("puts", puts.sum());
+        stats.put("evicted", evicted.sum());
+        stats.put("expired", expired.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("invalidated", invalidated.sum());
+        stats.put("staleLoads", staleLoads.sum());
+        long staleHitCount = staleHits.sum();
+        long coalescedCount = coalesced.sum();
+        long refreshCount = refreshes.sum();
+        stats.put("staleHits", staleHitCount);
+        stats.put("coalesced", coalescedCount);
+        stats.put("loads", loadsStarted.sum());
+        stats.put("refreshes", refreshCount);
+        stats.put("loadFailures", loadFailures.sum());
+        stats.put("loading", loads.size());
+        // 没有单次计算和旧值时这些调用都要各自计算一次；返回旧值的调用中有refreshes次引起了后台的重新计算
+        stats.put("loadsSaved", coalescedCount + staleHitCount - refreshCount);
+        return stats;
+    }
+    
+    // 登记并开始一次计算，该键已有计算在进行时返回它
+    private <V> CompletableFuture<Object> load(String key, Supplier<CompletableFuture<V>> loader, Predicate<? super V> cacheable,
+                                               long ttlMillis, long staleMillis, boolean refresh) {
+        CompletableFuture<Object> flight = loads.get(key);
+        if (flight == null) {
+            CompletableFuture<Object> created = new CompletableFuture<>();
+            flight = loads.putIfAbsent(key, created);
+            if (flight == null) {
+                loadsStarted.increment();
+                if (refresh) {
+                    refreshes.increment();
+                }
+                start(key, created, loader, cacheable, ttlMillis, staleMillis);
+                return created;
+            }
+        }
+        if (!refresh) {
+            coalesced.increment();
+        }
+        return flight;
+    }
+    
+    private <V> void start(String key, CompletableFuture<Object> flight, Supplier<CompletableFuture<V>> loader,
+                           Predicate<? super V> cacheable, long ttlMillis, long staleMillis) {
+        CompletableFuture<V> future;
+        try {
+            future = loader.get();
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((value, error) -> {
+            // 先写入缓存再注销登记，之后到达的调用方直接命中，不会在两者之间开始新的计算
+            synchronized (this) {
+                if (loads.get(key) != flight) {
+                    if (error == null) {
+                        staleLoads.increment();
+                    }
+                } else if (error == null && cacheable.test(value)) {
+                    put(key, value, ttlMillis, staleMillis);
+                }
+                loads.remove(key, flight);
+            }
+            if (error != null) {
+                loadFailures.increment();
+                flight.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            } else {
+                flight.complete(value);
+            }
+        });
+    }
+    
+    private void removeExpired(Node node, long now) {
+        if (now - node.staleUntil > 0) {
+            synchronized (this) {
+                if (remove(node)) {
+                    expired.increment();
+                }
+            }
+        }
+    }
+    
+    // 超出总量时转动时钟，直到回到上限以内；新条目未被接纳时返回false
+    private boolean evict(Node candidate, long now) {
+        boolean admitted = true;
+        while (weight > maxWeight || entries.size() > maxEntries) {
+            Node victim = clock.pollFirst();
+            if (victim == null) {
+                break;
+            }
+            if (victim.removed) {
+                continue;
+            }
+            if (victim == candidate) {
+                clock.addLast(victim);
+                continue;
+            }
+            if (now - victim.staleUntil > 0) {
+                remove(victim);
+                expired.increment();
+                continue;
+            }
+            if (victim.frequency > 0) {
+                victim.frequency--;
+                clock.addLast(victim);
+                continue;
+            }
+            if (admitted && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                clock.addFirst(victim);
+                remove(candidate);
+                rejected.increment();
+                admitted = false;
+                continue;
+            }
+            remove(victim);
+            evicted.increment();
+        }
+        // 失效和覆盖留下的已删除节点在时钟扫到时才出队，积压过多时整体清理一次
+        if (clock.size() > 2 * entries.size() + 1024) {
+            clock.removeIf(node -> node.removed);
+        }
+        return admitted;
+    }
+    
+    // 持有锁时调用
+    private boolean remove(Node node) {
+        if (node.removed || !entries.remove(node.key, node)) {
+            return false;
+        }
+        node.removed = true;
+        weight -= node.weight;
+        return true;
+    }
+    
+    // 估算条目占用的堆内存，只在写入时计算一次
+    static long weigh(String key, Object value) {
+        return 64 + sizeOf(key, 0) + sizeOf(value, 0);
+    }
+    
+    private static long sizeOf(Object value, int depth) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Date) {
+            return 24;
+        }
+        if (depth > 8) {
+            return 64;
+        }
+        if (value instanceof Map) {
+            long size = 64;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += 40 + sizeOf(entry.getKey(), depth + 1) + sizeOf(entry.getValue(), depth + 1);
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = 40;
+            for (Iterator<?> it = ((Collection<?>) value).iterator(); it.hasNext(); ) {
+                size += 8 + sizeOf(it.next(), depth + 1);
+            }
+            return size;
+        }
+        return 64;
+    }
+    
+    private static final class Node {
+        final String key;
+        final Object value;
+        final long weight;
+        final long expiresAt;
+        // 过期后仍可作为旧值返回的截止时间
+        final long staleUntil;
+        volatile int frequency;
+        // 由锁保护
+        boolean removed;
+        
+        Node(String key, Object value, long weight, long expiresAt, long staleUntil) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+            this.staleUntil = staleUntil;
+        }
+        
+        // 并发读取时计数可能少加，只影响淘汰的先后
+        void touch() {
+            int current = frequency;
+            if (current < MAX_FREQUENCY) {
+                frequency = current + 1;
+            }
+        }
+    }
+    
+    // 近期访问频率的计数草图：4行4位计数器（每个long放16个），每个键在每行命中一个计数器，估计值取4个计数器的最小值；
+    // 每行的计数器数为容量的4到8倍，累计访问达到容量的10倍时全部减半，使频率反映近期访问。内存固定，与键的数量无关
+    static final class FrequencySketch {
+        private static final int ROWS = 4;
+        private static final int MAX_COUNT = 15;
+        private static final long HALF_MASK = 0x7777777777777777L;
+        private static final int[] SEEDS = {0x97CB3127, 0xB1A83721, 0xC2B2AE35, 0x27D4EB2F};
+        
+        private final AtomicLongArray table;
+        private final int width;
+        private final int mask;
+        private final long sampleSize;
+        private final AtomicLong additions = new AtomicLong();
+        
+        FrequencySketch(int expectedKeys) {
+            int w = Integer.highestOneBit(Math.max(64, expectedKeys - 1)) << 3;
+            this.width = w;
+            this.mask = w - 1;
+            this.table = new AtomicLongArray(ROWS * w / 16);
+            this.sampleSize = 10L * Math.max(64, expectedKeys);
+        }
+        
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            for (int row = 0; row < ROWS; row++) {
+                int counter = row * width + indexOf(hash, row);
+                int word = counter >>> 4;
+                int shift = (counter & 15) << 2;
+                long value;
+                do {
+                    value = table.get(word);
+                } while (((value >>> shift) & MAX_COUNT) < MAX_COUNT && !table.compareAndSet(word, value, value + (1L << shift)));
+            }
+            if (additions.incrementAndGet() == sampleSize) {
+                reset();
+            }
+        }
+        
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < ROWS; row++) {
+                int counter = row * width + indexOf(hash, row);
+                frequency = Math.min(frequency, (int) (table.get(counter >>> 4) >>> ((counter & 15) << 2)) & MAX_COUNT);
+            }
+            return frequency;
+        }
+        
+        long bytes() {
+            return 8L * table.length();
+        }
+        
+        private void reset() {
+            for (int i = 0; i < table.length(); i++) {
+                long value;
+                do {
+                    value = table.get(i);
+                } while (!table.compareAndSet(i, value, (value >>> 1) & HALF_MASK));
+            }
+            additions.set(0L);
+        }
+        
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+        
+        private static int spread(int h) {
+            h ^= h >>> 17;
+            h *= 0xED5AD4BB;
+            h ^= h >>> 11;
+            return h;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,40 @@
+package com.example.demo.cache;
+
+import com.example.demo.feed.OrderChangeListener;
+import com.example.demo.feed.PaymentChangeListener;
+
+import java.util.List;
+import java.util.Map;
+
+// 按订单和支付变更流使用户报告失效：订单新建和状态变更（包括支付成功、退款引起的PAID、REFUNDING），
+// 以及支付新建和状态变更（包括不影响订单的FAILED、TIMEOUT）时，删除该用户缓存的报告。两个流的事件都带userId，
+// 由各自的拉取线程调用。变更流有缺口（调用方落后导致事件被覆盖、服务重启）时无法知道哪些用户受影响，全部用户报告失效
+public class UserReportInvalidator implements OrderChangeListener, PaymentChangeListener {
+    
+    public static final String KEY_PREFIX = "user_report:";
+    
+    private final AnalyticsCache cache;
+    
+    public UserReportInvalidator(AnalyticsCache cache) {
+        this.cache = cache;
+    }
+    
+    public static String keyOf(String userId) {
+        return KEY_PREFIX + userId;
+    }
+    
+    @Override
+    public void onChanges(long streamId, List<Map<String, Object>> events) {
+        for (Map<String, Object> event : events) {
+            String userId = (String) event.get("userId");
+            if (userId != null) {
+                cache.invalidate(keyOf(userId));
+            }
+        }
+    }
+    
+    @Override
+    public void onGap() {
+        cache.invalidatePrefix(KEY_PREFIX);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.example.demo.config;
+
+import com.example.demo.aggregate.SystemAggregates;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class AnalyticsAggregatesConfiguration {
+    
+    // 最近窗口由buckets个bucket-seconds秒的桶组成，默认为最近一小时
+    @Bean
+    public SystemAggregates systemAggregates(@Value("${analytics.aggregates.bucket-seconds:60}") long bucketSeconds,
+                                             @Value("${analytics.aggregates.buckets:60}") int buckets) {
+        return new SystemAggregates(TimeUnit.SECONDS.toMillis(bucketSeconds), buckets);
+    }
+}
\ No newline at end of file
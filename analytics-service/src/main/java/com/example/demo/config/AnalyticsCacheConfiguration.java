@@ -0,0 +1,24 @@
+package com.example.demo.config;
+
+import com.example.demo.cache.AnalyticsCache;
+import com.example.demo.cache.UserReportInvalidator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class AnalyticsCacheConfiguration {
+    
+    // 总量按估算的字节数和条目数双重限制，用户再多也不会超出
+    @Bean
+    public AnalyticsCache analyticsCache(@Value("${analytics.cache.max-weight-mb:64}") long maxWeightMb,
+                                         @Value("${analytics.cache.max-entries:100000}") int maxEntries) {
+        return new AnalyticsCache(maxWeightMb << 20, maxEntries);
+    }
+    
+    // 订阅订单和支付变更流；变更流关闭时用户报告只依赖ttl过期
+    @Bean
+    public UserReportInvalidator userReportInvalidator(AnalyticsCache analyticsCache) {
+        return new UserReportInvalidator(analyticsCache);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,15 @@
+package com.example.demo.config;
+
+import com.example.demo.report.ReportDeadlines;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class AnalyticsReportConfiguration {
+    
+    // 用户报告的时间预算由analytics.report.budget-ms控制，到期的报告用已经到达的数据组装
+    @Bean(destroyMethod = "close")
+    public ReportDeadlines reportDeadlines() {
+        return new ReportDeadlines();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,25 @@
+package com.example.demo.config;
+
+import com.example.demo.trend.SalesTrendStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.File;
+import java.io.IOException;
+
+@Configuration
+public class AnalyticsTrendConfiguration {
+    
+    // 分钟、小时、天三种分辨率的保留时长决定各自的时段数，修改后旧文件改名保留、重新开始记录
+    @Bean(destroyMethod = "close")
+    public SalesTrendStore salesTrendStore(@Value("${analytics.trend.file:data/analytics/sales-trend.dat}") String file,
+                                           @Value("${analytics.trend.minute-retention-hours:48}") int minuteRetentionHours,
+                                           @Value("${analytics.trend.hour-retention-days:90}") int hourRetentionDays,
+                                           @Value("${analytics.trend.day-retention-days:1825}") int dayRetentionDays,
+                                           @Value("${analytics.trend.flush-interval-ms:5000}") long flushIntervalMillis) throws IOException {
+        SalesTrendStore store = new SalesTrendStore(new File(file), minuteRetentionHours * 60, hourRetentionDays * 24, dayRetentionDays);
+        store.start(flushIntervalMillis);
+        return store;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,35 @@
+package com.example.demo.config;
+
+import com.example.demo.feed.ChangeFeed;
+import com.example.demo.feed.OrderChangeListener;
+import com.example.demo.service.OrderService;
+import com.example.demo.shard.UserShardLoadBalance;
+import org.apache.dubbo.config.annotation.Reference;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+@Configuration
+public class OrderChangeFeedConfiguration {
+    
+    // 变更流逐个实例定向拉取，需要usershard负载均衡
+    @Reference(loadbalance = UserShardLoadBalance.NAME)
+    private OrderService orderService;
+    
+    // 用户报告的失效和系统数据的聚合共用一个变更流。订单服务分片部署时逐个实例拉取，每个实例分别记录位置
+    @Bean(destroyMethod = "close")
+    public ChangeFeed orderChangeFeed(List<OrderChangeListener> listeners,
+                                      @Value("${analytics.change-feed.enabled:true}") boolean enabled,
+                                      @Value("${analytics.change-feed.poll-interval-ms:200}") long pollIntervalMillis,
+                                      @Value("${analytics.change-feed.poll-batch:1000}") int pollBatch) {
+        ChangeFeed feed = new ChangeFeed("order", orderService::pollOrderChanges,
+                () -> UserShardLoadBalance.providers(OrderService.class), pollBatch);
+        listeners.forEach(feed::addListener);
+        if (enabled) {
+            feed.start(pollIntervalMillis);
+        }
+        return feed;
+    }
+}
\ No newline at end of file
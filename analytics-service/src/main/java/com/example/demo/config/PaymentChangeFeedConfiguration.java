@@ -0,0 +1,36 @@
+package com.example.demo.config;
+
+import com.example.demo.feed.ChangeFeed;
+import com.example.demo.feed.PaymentChangeListener;
+import com.example.demo.service.PaymentService;
+import com.example.demo.shard.UserShardLoadBalance;
+import org.apache.dubbo.config.annotation.Reference;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+@Configuration
+public class PaymentChangeFeedConfiguration {
+    
+    // 每个支付服务实例有自己的流，逐个实例定向拉取，需要usershard负载均衡
+    @Reference(loadbalance = UserShardLoadBalance.NAME)
+    private PaymentService paymentService;
+    
+    // 支付变更流：新建支付和支付状态变更（FAILED、TIMEOUT不会引起订单变更）使用户报告失效，
+    // 关闭时这部分变更只依赖ttl过期。多个支付服务实例的流分别记录位置，拉取落到其他实例不算缺口
+    @Bean(destroyMethod = "close")
+    public ChangeFeed paymentChangeFeed(List<PaymentChangeListener> listeners,
+                                        @Value("${analytics.payment-feed.enabled:true}") boolean enabled,
+                                        @Value("${analytics.payment-feed.poll-interval-ms:200}") long pollIntervalMillis,
+                                        @Value("${analytics.payment-feed.poll-batch:1000}") int pollBatch) {
+        ChangeFeed feed = new ChangeFeed("payment", paymentService::pollPaymentChanges,
+                () -> UserShardLoadBalance.providers(PaymentService.class), pollBatch);
+        listeners.forEach(feed::addListener);
+        if (enabled) {
+            feed.start(pollIntervalMillis);
+        }
+        return feed;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,164 @@
+package com.example.demo.feed;
+
+import com.example.demo.shard.UserShardLoadBalance;
+import com.example.demo.stream.StreamCursors;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// 按间隔拉取一个变更流（订单或支付）并依次交给各订阅方：用户报告的失效和系统数据的聚合共用一次拉取。
+// 服务有多个实例时每个实例有自己的流，逐个提供者地址定向拉取，位置按streamId分别记录，其他实例的streamId不算缺口。
+// 某个订阅方处理失败不影响其他订阅方，也不重新拉取同一批事件，避免其他订阅方重复处理
+public class ChangeFeed implements Closeable {
+    
+    private final String name;
+    private final ChangeSource source;
+    private final Supplier<List<String>> providers;
+    private final int pollBatch;
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService feedExecutor;
+    
+    // 以下字段只由变更流线程访问
+    private final StreamCursors cursors = new StreamCursors();
+    private boolean feedFailing;
+    private volatile int instances;
+    
+    private final LongAdder feedEvents = new LongAdder();
+    private final LongAdder feedGaps = new LongAdder();
+    private final LongAdder feedErrors = new LongAdder();
+    private final LongAdder listenerErrors = new LongAdder();
+    
+    // name用于线程名和日志，例如order、payment；只有一个提供者时不定向拉取
+    public ChangeFeed(String name, ChangeSource source, int pollBatch) {
+        this(name, source, Collections::emptyList, pollBatch);
+    }
+    
+    // providers给出当前的提供者地址，例如UserShardLoadBalance.providers，为空时不定向拉取。
+    // source的引用需要使用usershard负载均衡，定向调用才会落到指定地址
+    public ChangeFeed(String name, ChangeSource source, Supplier<List<String>> providers, int pollBatch) {
+        this.name = name;
+        this.source = source;
+        this.providers = providers;
+        this.pollBatch = pollBatch;
+    }
+    
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+    
+    // 开始按间隔拉取，每个间隔依次拉取每个实例直到追上积压
+    public void start(long pollIntervalMillis) {
+        feedExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "analytics-" + name + "-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        feedExecutor.scheduleWithFixedDelay(this::pollFeed, 0L, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("feedEnabled", feedExecutor != null);
+        stats.put("feedInstances", instances);
+        stats.put("feedEvents", feedEvents.sum());
+        stats.put("feedGaps", feedGaps.sum());
+        stats.put("feedErrors", feedErrors.sum());
+        stats.put("feedListenerErrors", listenerErrors.sum());
+        return stats;
+    }
+    
+    @Override
+    public void close() {
+        if (feedExecutor != null) {
+            feedExecutor.shutdownNow();
+        }
+    }
+    
+    // 拉取直到追上积压，返回本次处理的事件数；由变更流线程调用，未开启时可由调用方自己驱动
+    public long pollFeed() {
+        List<String> addresses = providers.get();
+        if (addresses.isEmpty()) {
+            addresses = Collections.singletonList(null);
+        }
+        cursors.retain(addresses);
+        long events = 0;
+        boolean failed = false;
+        for (String address : addresses) {
+            try {
+                // 追上积压后再拉取下一个实例。不定向的拉取在负载均衡看到多个提供者后停止，下个间隔改为定向拉取
+                int polled;
+                do {
+                    polled = pollOnce(address);
+                    events += polled;
+                } while (polled == pollBatch && !Thread.currentThread().isInterrupted()
+                        && (address != null || providers.get().isEmpty()));
+            } catch (RuntimeException e) {
+                // 一个实例拉取失败不影响其他实例，它的位置保留到下个间隔
+                failed = true;
+                feedErrors.increment();
+                if (!feedFailing) {
+                    feedFailing = true;
+                    System.err.println("Analytics " + name + " change feed failed" + (address == null ? "" : " at " + address)
+                            + ": " + e.getMessage());
+                }
+            }
+        }
+        if (!failed && feedFailing) {
+            feedFailing = false;
+            System.out.println("Analytics " + name + " change feed recovered");
+        }
+        instances = cursors.size();
+        return events;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private int pollOnce(String address) {
+        long after = cursors.after(address);
+        Map<String, Object> result = UserShardLoadBalance.callAt(address, () -> source.poll(after, pollBatch));
+        long streamId = ((Number) result.get("streamId")).longValue();
+        if (cursors.restarted(address, streamId)) {
+            // 该地址上的实例重启过，重启期间的变更无从得知
+            gap();
+        }
+        if (!cursors.inPosition(streamId, after)) {
+            // 应答来自另一个流（实例重启或地址换了实例），按该流的位置重新拉取
+            return pollBatch;
+        }
+        if (((Number) result.get("dropped")).longValue() > 0) {
+            gap();
+        }
+        List<Map<String, Object>> events = (List<Map<String, Object>>) result.get("events");
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.onChanges(streamId, events);
+            } catch (RuntimeException e) {
+                listenerErrors.increment();
+                System.err.println("Analytics " + name + " change listener " + listener.getClass().getSimpleName() + " failed: " + e.getMessage());
+            }
+        }
+        feedEvents.add(events.size());
+        cursors.advance(streamId, ((Number) result.get("nextSequence")).longValue());
+        return events.size();
+    }
+    
+    private void gap() {
+        feedGaps.increment();
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.onGap();
+            } catch (RuntimeException e) {
+                listenerErrors.increment();
+                System.err.println("Analytics " + name + " change listener " + listener.getClass().getSimpleName() + " failed: " + e.getMessage());
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,14 @@
+package com.example.demo.feed;
+
+import java.util.List;
+import java.util.Map;
+
+// 变更流的订阅方，回调都在所订阅变更流的线程上依次执行
+public interface ChangeListener {
+    
+    // 一批按序号排列的事件，结构见变更流对应的拉取接口；streamId与sequence一起唯一确定一个事件
+    void onChanges(long streamId, List<Map<String, Object>> events);
+    
+    // 变更流出现缺口（调用方落后导致事件被覆盖、服务重启），缺口中的事件无从得知
+    void onGap();
+}
\ No newline at end of file
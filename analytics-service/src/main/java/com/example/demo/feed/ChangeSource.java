@@ -0,0 +1,9 @@
+package com.example.demo.feed;
+
+import java.util.Map;
+
+// 按序号拉取的变更流，返回events、nextSequence、dropped、lag和streamId，例如OrderService.pollOrderChanges
+public interface ChangeSource {
+    
+    Map<String, Object> poll(long afterSequence, int maxEvents);
+}
\ No newline at end of file
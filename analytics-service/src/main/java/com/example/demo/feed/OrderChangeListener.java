@@ -0,0 +1,5 @@
+package com.example.demo.feed;
+
+// 订单变更流的订阅方，事件结构见OrderService.pollOrderChanges
+public interface OrderChangeListener extends ChangeListener {
+}
\ No newline at end of file
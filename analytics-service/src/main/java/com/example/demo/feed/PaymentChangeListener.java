@@ -0,0 +1,5 @@
+package com.example.demo.feed;
+
+// 支付变更流的订阅方，事件结构见PaymentService.pollPaymentChanges
+public interface PaymentChangeListener extends ChangeListener {
+}
\ No newline at end of file
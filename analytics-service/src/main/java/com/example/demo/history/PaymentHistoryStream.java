@@ -0,0 +1,132 @@
+package com.example.demo.history;
+
+import com.example.demo.service.PaymentService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+// 按块拉取用户的支付历史并逐条交给调用方处理。处理完一块才请求下一块，同一时刻只有一块在途，
+// 内存占用只取决于块大小，与用户的支付总数无关；支付服务较慢时拉取随之放慢，不会在本地堆积
+public class PaymentHistoryStream {
+    
+    private final PaymentService paymentService;
+    private final int pageSize;
+    private final LongAdder pageRequests = new LongAdder();
+    
+    public PaymentHistoryStream(PaymentService paymentService, int pageSize) {
+        this.paymentService = paymentService;
+        this.pageSize = pageSize;
+    }
+    
+    // 依次把每笔支付交给consumer累加到accumulator，全部读完后返回accumulator；任何一块失败时future以该异常结束
+    public <A> CompletableFuture<A> fold(String userId, A accumulator, BiConsumer<A, Map<String, Object>> consumer) {
+        return foldUntil(userId, accumulator, consumer, new CompletableFuture<>()).thenApply(complete -> accumulator);
+    }
+    
+    // 与fold相同，但stop完成后不再处理后续的块：全部读完时以true结束，提前停止时以false结束，accumulator中是已经处理的块。
+    // stop在处理一块的中途完成时等这一块处理完；返回的future结束后accumulator不会再被修改
+    public <A> CompletableFuture<Boolean> foldUntil(String userId, A accumulator, BiConsumer<A, Map<String, Object>> consumer,
+                                                   CompletableFuture<?> stop) {
+        Pull<A> pull = new Pull<>(userId, accumulator, consumer);
+        stop.whenComplete((ignored, error) -> pull.stop());
+        pull.next();
+        return pull.result;
+    }
+    
+    // 累计发出的块请求数
+    public long getPageRequests() {
+        return pageRequests.sum();
+    }
+    
+    private final class Pull<A> implements BiConsumer<Map<String, Object>, Throwable> {
+        private final String userId;
+        private final A accumulator;
+        private final BiConsumer<A, Map<String, Object>> consumer;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private String cursor;
+        // 以下两个字段由Pull的锁保护，保证停止时不会有一块处理到一半
+        private boolean stopped;
+        private boolean finished;
+        
+        Pull(String userId, A accumulator, BiConsumer<A, Map<String, Object>> consumer) {
+            this.userId = userId;
+            this.accumulator = accumulator;
+            this.consumer = consumer;
+        }
+        
+        void stop() {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                stopped = true;
+            }
+            result.complete(false);
+        }
+        
+        // 已经完成的块在当前线程循环处理，避免本地调用同步返回时回调层层嵌套
+        void next() {
+            while (!result.isDone()) {
+                CompletableFuture<Map<String, Object>> page;
+                pageRequests.increment();
+                try {
+                    page = paymentService.getUserPaymentHistoryPageAsync(userId, cursor, pageSize);
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                if (!page.isDone() || page.isCompletedExceptionally()) {
+                    page.whenComplete(this);
+                    return;
+                }
+                if (!consume(page.join())) {
+                    return;
+                }
+            }
+        }
+        
+        // 远程调用返回后在响应线程上处理这一块，再发出下一块的请求
+        @Override
+        public void accept(Map<String, Object> page, Throwable error) {
+            if (error != null) {
+                result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+                return;
+            }
+            if (consume(page)) {
+                next();
+            }
+        }
+        
+        // 处理一块，返回是否还有下一块；已经停止时丢弃这一块
+        @SuppressWarnings("unchecked")
+        private boolean consume(Map<String, Object> page) {
+            synchronized (this) {
+                if (stopped) {
+                    return false;
+                }
+                try {
+                    for (Map<String, Object> payment : (List<Map<String, Object>>) page.get("payments")) {
+                        consumer.accept(accumulator, payment);
+                    }
+                } catch (RuntimeException e) {
+                    finished = true;
+                    result.completeExceptionally(e);
+                    return false;
+                }
+                String nextCursor = (String) page.get("nextCursor");
+                if (Boolean.TRUE.equals(page.get("hasMore")) && nextCursor != null) {
+                    cursor = nextCursor;
+                    return true;
+                }
+                finished = true;
+            }
+            result.complete(true);
+            return false;
+        }
+    }
+}
\ No newline at end of file
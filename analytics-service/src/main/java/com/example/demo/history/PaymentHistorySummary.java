@@ -0,0 +1,60 @@
+package com.example.demo.history;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 逐条累加的支付历史摘要：支付笔数、成功支付的笔数和金额、各支付方式的笔数，以及最近的若干笔支付。
+// 只由一个拉取过程依次写入
+public class PaymentHistorySummary {
+    
+    private final int maxRecent;
+    private final ArrayDeque<Map<String, Object>> recent;
+    private final Map<String, Integer> methodCounts = new HashMap<>();
+    private long paymentCount;
+    private long successCount;
+    private double successAmount;
+    
+    public PaymentHistorySummary(int maxRecent) {
+        this.maxRecent = maxRecent;
+        this.recent = new ArrayDeque<>(Math.min(maxRecent, 256));
+    }
+    
+    public void add(Map<String, Object> payment) {
+        paymentCount++;
+        methodCounts.merge((String) payment.get("paymentMethod"), 1, Integer::sum);
+        if ("SUCCESS".equals(payment.get("status")) && payment.get("amount") instanceof Number) {
+            successCount++;
+            successAmount += ((Number) payment.get("amount")).doubleValue();
+        }
+        if (maxRecent > 0) {
+            if (recent.size() == maxRecent) {
+                recent.pollFirst();
+            }
+            recent.addLast(payment);
+        }
+    }
+    
+    public long getPaymentCount() {
+        return paymentCount;
+    }
+    
+    public long getSuccessCount() {
+        return successCount;
+    }
+    
+    public double getSuccessAmount() {
+        return successAmount;
+    }
+    
+    public Map<String, Integer> getPaymentMethodCounts() {
+        return methodCounts;
+    }
+    
+    // 按创建顺序，最后一笔是最新的
+    public List<Map<String, Object>> getRecentPayments() {
+        return new ArrayList<>(recent);
+    }
+}
\ No newline at end of file
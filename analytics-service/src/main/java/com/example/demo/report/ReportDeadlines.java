@@ -0,0 +1,35 @@
+package com.example.demo.report;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// 报告的时间预算计时：所有报告共用一个守护线程，预算到期时完成对应的future；报告提前组装完成时取消计时，不在队列中积压
+public class ReportDeadlines implements Closeable {
+    
+    private final ScheduledThreadPoolExecutor timer;
+    
+    public ReportDeadlines() {
+        timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "analytics-report-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+    
+    // 返回在millis毫秒后完成的future；调用方提前完成它时同时取消计时
+    public CompletableFuture<Void> after(long millis) {
+        CompletableFuture<Void> deadline = new CompletableFuture<>();
+        ScheduledFuture<?> task = timer.schedule(() -> deadline.complete(null), millis, TimeUnit.MILLISECONDS);
+        deadline.whenComplete((ignored, error) -> task.cancel(false));
+        return deadline;
+    }
+    
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
\ No newline at end of file
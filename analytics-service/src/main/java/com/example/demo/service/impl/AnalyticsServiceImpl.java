@@ -1,15 +1,30 @@
 package com.example.demo.service.impl;
 
+import com.example.demo.aggregate.SystemAggregates;
+import com.example.demo.cache.AnalyticsCache;
+import com.example.demo.cache.UserReportInvalidator;
+import com.example.demo.feed.ChangeFeed;
+import com.example.demo.history.PaymentHistoryStream;
+import com.example.demo.history.PaymentHistorySummary;
+import com.example.demo.report.ReportDeadlines;
 import com.example.demo.service.*;
+import com.example.demo.trend.SalesTrendStore;
 import org.apache.dubbo.config.annotation.Reference;
 import org.apache.dubbo.config.annotation.Service;
 import org.apache.skywalking.apm.toolkit.trace.Tag;
 import org.apache.skywalking.apm.toolkit.trace.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 @Component
@@ -24,8 +39,57 @@ public class AnalyticsServiceImpl implements AnalyticsService {
     @Reference
     private PaymentService paymentService;
     
-    // 模拟缓存
-    private Map<String, Object> analyticsCache = new ConcurrentHashMap<>();
+    // 支付历史按块拉取，报告中只保留最近的若干笔，其余只计入汇总
+    @Value("${analytics.payment-history.page-size:200}")
+    private int paymentHistoryPageSize;
+    
+    @Value("${analytics.payment-history.recent:100}")
+    private int recentPayments;
+    
+    private PaymentHistoryStream paymentHistory;
+    
+    // 有容量上限的缓存，用户报告在该用户的订单或支付变更时失效
+    @Autowired
+    private AnalyticsCache analyticsCache;
+    
+    @Autowired
+    @Qualifier("orderChangeFeed")
+    private ChangeFeed orderChangeFeed;
+    
+    @Autowired
+    @Qualifier("paymentChangeFeed")
+    private ChangeFeed paymentChangeFeed;
+    
+    @Value("${analytics.cache.report-ttl-seconds:300}")
+    private long reportTtlSeconds;
+    
+    // 用户报告过期后仍先返回旧报告的时长，期间在后台重新计算；订单变更引起的失效不在此列
+    @Value("${analytics.cache.report-stale-seconds:60}")
+    private long reportStaleSeconds;
+    
+    // 报告计算次数和计算中发出的订单服务调用数（支付服务的块请求另由paymentHistory计数）
+    private final LongAdder reportLoads = new LongAdder();
+    private final LongAdder reportOrderCalls = new LongAdder();
+    
+    // 由订单变更流驱动的系统级聚合，查询直接读取，不经过缓存
+    @Autowired
+    private SystemAggregates systemAggregates;
+    
+    // 按分钟、小时、天汇总的销售趋势，保存在内存映射文件中，重启后保留
+    @Autowired
+    private SalesTrendStore salesTrendStore;
+    
+    // 每个用户报告的时间预算，到期时用已经到达的数据组装
+    @Autowired
+    private ReportDeadlines reportDeadlines;
+    
+    @Value("${analytics.report.budget-ms:2000}")
+    private long reportBudgetMillis;
+    
+    @PostConstruct
+    public void init() {
+        paymentHistory = new PaymentHistoryStream(paymentService, paymentHistoryPageSize);
+    }
     
     @Override
     @Tags({
@@ -33,13 +97,68 @@ public class AnalyticsServiceImpl implements AnalyticsService {
         @Tag(key = "result", value = "returnedObj")
     })
     public Map<String, Object> getUserAnalyticsReport(String userId) {
-        // 检查缓存
-        String cacheKey = "user_report:" + userId;
-        Object cached = getFromCache(cacheKey);
-        if (cached != null) {
-            return (Map<String, Object>) cached;
+        return await(getUserAnalyticsReportAsync(userId));
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]")
+    })
+    public CompletableFuture<Map<String, Object>> getUserAnalyticsReportAsync(String userId) {
+        // 同一用户的报告同一时刻只计算一次，缓存未命中的并发请求共用这次计算的结果；只缓存完整的报告。
+        // 计算期间用户的订单发生变更时，算出的报告已经过时，不写入缓存，之后的请求重新计算
+        return analyticsCache.getOrLoad(UserReportInvalidator.keyOf(userId), () -> generateReport(userId),
+                report -> !Boolean.TRUE.equals(report.get("partial")),
+                TimeUnit.SECONDS.toMillis(reportTtlSeconds), TimeUnit.SECONDS.toMillis(reportStaleSeconds));
+    }
+    
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]")
+    })
+    private CompletableFuture<Map<String, Object>> generateReport(String userId) {
+        reportLoads.increment();
+        reportOrderCalls.add(2);
+        // 订单统计和支付历史相互独立，同时发出；预算到期时还没返回的部分不再等待，报告用已经到达的数据组装并标记为部分结果。
+        // 支付历史逐块拉取并累加，到期时保留已经处理的块，之后的块不再请求
+        CompletableFuture<Void> deadline = reportDeadlines.after(reportBudgetMillis);
+        CompletableFuture<Map<String, Object>> orderStatsFuture;
+        try {
+            orderStatsFuture = orderService.getOrderStatisticsAsync(userId);
+        } catch (RuntimeException e) {
+            orderStatsFuture = failedFuture(e);
         }
-        
+        PaymentHistorySummary payments = new PaymentHistorySummary(recentPayments);
+        CompletableFuture<Boolean> paymentsFuture =
+                paymentHistory.foldUntil(userId, payments, PaymentHistorySummary::add, deadline);
+        CompletableFuture<Map<String, Object>> orderStats = orderStatsFuture;
+        // 支付历史在到期时由foldUntil自己结束，只有订单统计需要与预算比较先后
+        return CompletableFuture.allOf(CompletableFuture.anyOf(settled(orderStats), deadline), settled(paymentsFuture))
+                .thenApply(ignored -> {
+                    // 提前完成时取消计时
+                    deadline.complete(null);
+                    Map<String, Object> report = buildReport(userId, orderStats, paymentsFuture, payments);
+                    
+                    // 异步处理用户行为分析，回调在订单服务返回后执行，不再为每个报告新建线程
+                    getUserBehaviorAnalysisAsync(userId).whenComplete((behaviorAnalysis, error) -> {
+                        // 这里简化处理，实际可能会更新报告或存储单独的分析结果
+                        if (error != null) {
+                            logError("Behavior analysis failed", unwrap(error));
+                        }
+                    });
+                    
+                    logReportGeneration(userId, report);
+                    return report;
+                });
+    }
+    
+    // 用已经到达的数据组装报告。sections记录每部分的状态：OK、TIMEOUT（预算内未返回）或FAILED；
+    // 订单统计缺失时，客户价值、平均订单金额和购买频率按已读到的成功支付估算
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    private Map<String, Object> buildReport(String userId, CompletableFuture<Map<String, Object>> orderStatsFuture,
+                                            CompletableFuture<Boolean> paymentsFuture, PaymentHistorySummary payments) {
         Map<String, Object> report = new HashMap<>();
         
         // 模拟用户信息（由于getUserInfo方法不存在）
@@ -49,59 +168,66 @@ public class AnalyticsServiceImpl implements AnalyticsService {
         userInfo.put("registered", new Date(System.currentTimeMillis() - 30 * 24 * 60 * 60 * 1000)); // 30天前注册
         report.put("userInfo", userInfo);
         
-        // 调用订单服务获取订单统计
-        Map<String, Object> orderStats = orderService.getOrderStatistics(userId);
-        report.put("orderStatistics", orderStats);
+        String orderSection = sectionStatus(orderStatsFuture, "Order statistics");
+        String paymentSection = sectionStatus(paymentsFuture, "Payment history");
+        if ("OK".equals(paymentSection) && !paymentsFuture.join()) {
+            paymentSection = "TIMEOUT";
+        }
+        Map<String, String> sections = new HashMap<>();
+        sections.put("orderStatistics", orderSection);
+        sections.put("paymentHistory", paymentSection);
+        report.put("sections", sections);
+        report.put("partial", !"OK".equals(orderSection) || !"OK".equals(paymentSection));
         
-        // 调用支付服务获取支付历史
-        List<Map<String, Object>> payments = paymentService.getUserPaymentHistory(userId);
-        report.put("paymentHistory", payments);
+        Map<String, Object> orderStats = "OK".equals(orderSection) ? orderStatsFuture.join() : null;
+        report.put("orderStatistics", orderStats);
+        report.put("paymentHistory", payments.getRecentPayments());
+        report.put("paymentCount", payments.getPaymentCount());
+        report.put("totalPaid", payments.getSuccessAmount());
+        report.put("paymentMethodPreferences", payments.getPaymentMethodCounts());
         
         // 计算额外指标
-        report.put("lifetimeValue", calculateLifetimeValue(userId, orderStats, payments));
-        report.put("averageOrderValue", calculateAverageOrderValue(orderStats));
-        report.put("purchaseFrequency", calculatePurchaseFrequency(orderStats));
-        report.put("paymentMethodPreferences", analyzePaymentMethods(payments));
-        
-        // 异步处理用户行为分析
-        new Thread(() -> {
-            try {
-                Map<String, Object> behaviorAnalysis = getUserBehaviorAnalysis(userId);
-                // 这里简化处理，实际可能会更新报告或存储单独的分析结果
-            } catch (Exception e) {
-                logError("Behavior analysis failed", e);
-            }
-        }).start();
-        
-        // 存入缓存
-        putToCache(cacheKey, report);
-        
-        logReportGeneration(userId, report);
+        Map<String, Object> metricsBase = orderStats != null ? orderStats : orderStatsOf(payments);
+        report.put("metricsSource", orderStats != null ? "orders" : "payments");
+        report.put("lifetimeValue", calculateLifetimeValue(userId, metricsBase, payments));
+        report.put("averageOrderValue", calculateAverageOrderValue(metricsBase));
+        report.put("purchaseFrequency", calculatePurchaseFrequency(metricsBase));
         return report;
     }
     
+    // 把成功的支付当作订单，得到与订单统计相同字段的估算值
+    private static Map<String, Object> orderStatsOf(PaymentHistorySummary payments) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalOrders", (int) payments.getSuccessCount());
+        stats.put("totalSpent", payments.getSuccessAmount());
+        return stats;
+    }
+    
+    private String sectionStatus(CompletableFuture<?> future, String section) {
+        if (!future.isDone()) {
+            return "TIMEOUT";
+        }
+        try {
+            future.join();
+            return "OK";
+        } catch (CompletionException | CancellationException e) {
+            logError(section + " unavailable", unwrap(e));
+            return "FAILED";
+        }
+    }
+    
+    // 在future结束（成功或失败）时正常完成，用于等待多个可能失败的调用
+    private static CompletableFuture<Void> settled(CompletableFuture<?> future) {
+        return future.handle((ignored, error) -> null);
+    }
+    
     @Override
     @Tags({
         @Tag(key = "result", value = "returnedObj")
     })
     public Map<String, Object> getSystemAnalyticsData() {
-        // 检查缓存
-        String cacheKey = "system_analytics:" + System.currentTimeMillis() / 60000; // 每分钟更新一次
-        Object cached = getFromCache(cacheKey);
-        if (cached != null) {
-            return (Map<String, Object>) cached;
-        }
-        
-        Map<String, Object> analytics = new HashMap<>();
-        
-        // 模拟系统级数据
-        analytics.put("totalUsers", 1000 + (int)(Math.random() * 500));
-        analytics.put("activeUsers", 300 + (int)(Math.random() * 200));
-        analytics.put("totalOrders", 5000 + (int)(Math.random() * 1000));
-        analytics.put("totalSales", 100000.0 + Math.random() * 50000.0);
-        analytics.put("avgOrderValue", 250.0 + Math.random() * 50.0);
-        analytics.put("conversionRate", 5.0 + Math.random() * 2.0);
-        analytics.put("peakHours", Arrays.asList("12:00", "18:00", "20:00"));
+        // 用户、订单、销售额、转化率和高峰时段来自订单变更流的实时聚合，查询耗时只取决于窗口的桶数
+        Map<String, Object> analytics = systemAggregates.snapshot();
         
         // 模拟错误率和延迟数据（用于监控展示）
         Map<String, Object> healthMetrics = new HashMap<>();
@@ -138,9 +264,6 @@ public class AnalyticsServiceImpl implements AnalyticsService {
         
         analytics.put("healthMetrics", healthMetrics);
         
-        // 存入缓存
-        putToCache(cacheKey, analytics);
-        
         return analytics;
     }
     
@@ -149,18 +272,28 @@ public class AnalyticsServiceImpl implements AnalyticsService {
         @Tag(key = "result", value = "returnedObj")
     })
     public List<Map<String, Object>> getSalesTrend() {
-        // 模拟销售趋势数据
-        List<Map<String, Object>> dailySales = new ArrayList<>();
-        for (int i = 0; i < 7; i++) {
-            Map<String, Object> dayData = new HashMap<>();
-            dayData.put("date", "2024-01-" + (i + 10));
-            dayData.put("orders", 100 + (int)(Math.random() * 50));
-            dayData.put("sales", 20000.0 + Math.random() * 10000.0);
-            dayData.put("avgOrderValue", 200.0 + Math.random() * 50.0);
-            dailySales.add(dayData);
+        // 包括今天在内的最近7天
+        long now = System.currentTimeMillis();
+        return getSalesTrend(now - TimeUnit.DAYS.toMillis(6), now, "day");
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "from", value = "arg[0]"),
+        @Tag(key = "to", value = "arg[1]"),
+        @Tag(key = "resolution", value = "arg[2]")
+    })
+    public List<Map<String, Object>> getSalesTrend(long from, long to, String resolution) {
+        if (to == 0) {
+            to = System.currentTimeMillis();
         }
-        
-        return dailySales;
+        if (from > to) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+        // 销售趋势来自订单变更流写入的分钟、小时、天三级汇总，只读取所选分辨率在范围内的时段
+        SalesTrendStore.Resolution selected = resolution == null || resolution.isEmpty() || "auto".equalsIgnoreCase(resolution)
+                ? salesTrendStore.resolve(from, to) : SalesTrendStore.Resolution.valueOf(resolution.toUpperCase());
+        return salesTrendStore.query(from, to, selected);
     }
     
     @Override
@@ -169,6 +302,29 @@ public class AnalyticsServiceImpl implements AnalyticsService {
         @Tag(key = "result", value = "returnedObj")
     })
     public Map<String, Object> getUserBehaviorAnalysis(String userId) {
+        return await(getUserBehaviorAnalysisAsync(userId));
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]")
+    })
+    public CompletableFuture<Map<String, Object>> getUserBehaviorAnalysisAsync(String userId) {
+        // 分析购买模式
+        CompletableFuture<List<Map<String, Object>>> ordersFuture;
+        try {
+            ordersFuture = orderService.getUserOrdersAsync(userId);
+        } catch (RuntimeException e) {
+            return failedFuture(e);
+        }
+        return ordersFuture.thenApply(orders -> analyzeBehavior(userId, orders));
+    }
+    
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    private Map<String, Object> analyzeBehavior(String userId, List<Map<String, Object>> orders) {
         Map<String, Object> analysis = new HashMap<>();
         
         // 模拟用户信息（由于getUserInfo方法不存在）
@@ -187,7 +343,6 @@ public class AnalyticsServiceImpl implements AnalyticsService {
         analysis.put("browsePattern", "Evening Shopping");
         
         // 分析购买模式
-        List<Map<String, Object>> orders = orderService.getUserOrders(userId);
         analysis.put("orderCount", orders.size());
         
         if (!orders.isEmpty()) {
@@ -251,20 +406,45 @@ public class AnalyticsServiceImpl implements AnalyticsService {
         return analysis;
     }
     
+    @Override
     @Tags({
-        @Tag(key = "key", value = "arg[0]"),
         @Tag(key = "result", value = "returnedObj")
     })
-    private Object getFromCache(String key) {
-        return analyticsCache.get(key);
+    public Map<String, Object> getAnalyticsCacheStats() {
+        Map<String, Object> stats = analyticsCache.stats();
+        stats.putAll(orderChangeFeed.stats());
+        stats.put("paymentFeed", paymentChangeFeed.stats());
+        // 每次报告计算平均发出的下游调用数，乘以少做的计算次数估算省下的下游调用
+        long loads = reportLoads.sum();
+        long downstreamCalls = reportOrderCalls.sum() + paymentHistory.getPageRequests();
+        stats.put("reportLoads", loads);
+        stats.put("reportDownstreamCalls", downstreamCalls);
+        stats.put("reportDownstreamCallsSaved",
+                loads == 0 ? 0L : Math.round((Long) stats.get("loadsSaved") * (double) downstreamCalls / loads));
+        return stats;
     }
     
-    @Tags({
-        @Tag(key = "key", value = "arg[0]"),
-        @Tag(key = "value", value = "arg[1]")
-    })
-    private void putToCache(String key, Object value) {
-        analyticsCache.put(key, value);
+    // 同步接口等待异步结果，业务异常原样抛出
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+    
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+    
+    private static <T> CompletableFuture<T> failedFuture(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
     }
     
     @Tags({
@@ -279,17 +459,17 @@ public class AnalyticsServiceImpl implements AnalyticsService {
         @Tag(key = "message", value = "arg[0]"),
         @Tag(key = "error", value = "arg[1].getMessage()")
     })
-    private void logError(String message, Exception error) {
+    private void logError(String message, Throwable error) {
         System.err.println(message + ": " + error.getMessage());
     }
     
     @Tags({
         @Tag(key = "userId", value = "arg[0]"),
         @Tag(key = "orderStats", value = "arg[1]"),
-        @Tag(key = "payments", value = "arg[2]"),
+        @Tag(key = "paymentCount", value = "arg[2].getPaymentCount()"),
         @Tag(key = "result", value = "returnedObj")
     })
-    private double calculateLifetimeValue(String userId, Map<String, Object> orderStats, List<Map<String, Object>> payments) {
+    private double calculateLifetimeValue(String userId, Map<String, Object> orderStats, PaymentHistorySummary payments) {
         double totalSpent = (Double) orderStats.getOrDefault("totalSpent", 0.0);
         int orderCount = (int) orderStats.getOrDefault("totalOrders", 0);
         
@@ -320,16 +500,4 @@ public class AnalyticsServiceImpl implements AnalyticsService {
         // 简化计算：假设用户注册了30天
         return orderCount / 30.0;
     }
-    
-    @Tags({
-        @Tag(key = "payments", value = "arg[0]"),
-        @Tag(key = "result", value = "returnedObj")
-    })
-    private Map<String, Integer> analyzePaymentMethods(List<Map<String, Object>> payments) {
-        return payments.stream()
-                .collect(Collectors.groupingBy(
-                    p -> (String) p.get("paymentMethod"),
-                    Collectors.summingInt(p -> 1)
-                ));
-    }
 }
\ No newline at end of file
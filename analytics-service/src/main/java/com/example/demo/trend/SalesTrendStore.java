@@ -0,0 +1,343 @@
+package com.example.demo.trend;
+
+import com.example.demo.feed.OrderChangeListener;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 销售趋势的时间序列：按分钟、小时、天三种分辨率各保存一个环，每个时段记录下单数、支付数和支付金额。
+// 事件到达时同时累加到三个环，降采样在写入时完成，查询只读取对应分辨率的时段，不扫描原始事件；
+// 环的长度就是保留时长，时段过期后其位置由新的时段复用。
+// 全部数据在一个内存映射文件中，文件头记录格式，文件末尾按streamId记录每个变更流已经计入的位置（订单服务每个实例一个流），
+// 重启后重新拉取到的已计入事件被跳过。
+// 进程退出时修改仍在页缓存中不会丢失，只有机器崩溃会丢失最近一次force之后的修改
+public class SalesTrendStore implements OrderChangeListener, Closeable {
+    
+    public enum Resolution {
+        MINUTE(TimeUnit.MINUTES.toMillis(1), "yyyy-MM-dd HH:mm"),
+        HOUR(TimeUnit.HOURS.toMillis(1), "yyyy-MM-dd HH:00"),
+        DAY(TimeUnit.DAYS.toMillis(1), "yyyy-MM-dd");
+        
+        final long millis;
+        final String pattern;
+        
+        Resolution(long millis, String pattern) {
+            this.millis = millis;
+            this.pattern = pattern;
+        }
+    }
+    
+    // 一次查询最多返回的时段数
+    public static final int MAX_POINTS = 2000;
+    
+    private static final int MAGIC = 0x54524E44;
+    private static final int VERSION = 2;
+    // 文件头：[int 魔数][int 版本][long 时区偏移][long 变更流ID][long 已计入的序号][int 分钟/小时/天的时段数]，其余保留。
+    // 版本1只记录一个变更流的位置，版本2改为文件末尾的位置表，打开版本1的文件时把文件头中的位置移入表中
+    private static final int HEADER_SIZE = 64;
+    private static final int STREAM_ID = 16;
+    private static final int LAST_SEQUENCE = 24;
+    private static final int SLOTS = 32;
+    // 每个时段：[long 时段号+1，0表示空][long 下单数][long 支付数][double 支付金额]
+    private static final int SLOT_SIZE = 32;
+    // 位置表的每一项：[long streamId，0表示空][long 已计入的序号][long 最近写入时间]。表满时复用最久未写入的一项，即已下线实例的流
+    private static final int STREAMS = 16;
+    private static final int STREAM_ENTRY_SIZE = 24;
+    
+    private final File file;
+    private final int[] slots;
+    private final int[] offsets;
+    private final int streamsOffset;
+    // 时段按本地标准时间对齐（不随夏令时变化），天的分界为本地零点
+    private final long zoneOffset;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private ScheduledExecutorService flusher;
+    
+    // 以下计数由锁保护
+    private long recordedEvents;
+    private long duplicateEvents;
+    private long lateEvents;
+    
+    public SalesTrendStore(File file, int minuteSlots, int hourSlots, int daySlots) throws IOException {
+        if (minuteSlots <= 0 || hourSlots <= 0 || daySlots <= 0) {
+            throw new IllegalArgumentException("slots must be positive");
+        }
+        this.file = file;
+        this.slots = new int[]{minuteSlots, hourSlots, daySlots};
+        this.offsets = new int[3];
+        int size = HEADER_SIZE;
+        for (int i = 0; i < 3; i++) {
+            offsets[i] = size;
+            size += slots[i] * SLOT_SIZE;
+        }
+        this.streamsOffset = size;
+        size += STREAMS * STREAM_ENTRY_SIZE;
+        this.zoneOffset = TimeZone.getDefault().getRawOffset();
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create sales trend directory " + dir);
+        }
+        // 保留时长或时区改变后旧文件的时段无法对应，改名保留后重新开始
+        if (file.exists() && !compatible(file, size)) {
+            File old = new File(file.getPath() + ".old");
+            old.delete();
+            if (!file.renameTo(old)) {
+                throw new IOException("Cannot move incompatible sales trend file " + file);
+            }
+            System.err.println("Sales trend file layout changed, previous data moved to " + old);
+        }
+        this.raf = new RandomAccessFile(file, "rw");
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, zoneOffset);
+            for (int i = 0; i < 3; i++) {
+                buffer.putInt(SLOTS + 4 * i, slots[i]);
+            }
+            // 魔数最后写入，写到一半的文件头下次启动时重新初始化
+            buffer.putInt(0, MAGIC);
+            buffer.force();
+        } else if (buffer.getInt(4) == 1) {
+            // 映射时文件已扩展出位置表，版本号最后写入
+            buffer.putLong(streamsOffset, buffer.getLong(STREAM_ID));
+            buffer.putLong(streamsOffset + 8, buffer.getLong(LAST_SEQUENCE));
+            buffer.putInt(4, VERSION);
+            buffer.force();
+        }
+    }
+    
+    // 定期把修改写入磁盘
+    public void start(long flushIntervalMillis) {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "analytics-trend-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    public void flush() {
+        buffer.force();
+    }
+    
+    // 计入一批订单变更：新建订单计入下单数，变为PAID计入支付数和支付金额；同一变更流中已经计入的序号跳过
+    @Override
+    public synchronized void onChanges(long streamId, List<Map<String, Object>> events) {
+        int entry = streamEntry(streamId);
+        long applied = buffer.getLong(entry + 8);
+        buffer.putLong(entry + 16, System.currentTimeMillis());
+        for (Map<String, Object> event : events) {
+            long sequence = ((Number) event.get("sequence")).longValue();
+            if (sequence <= applied) {
+                duplicateEvents++;
+                continue;
+            }
+            Object time = event.get("timestamp");
+            long timestamp = time instanceof Number ? ((Number) time).longValue() : System.currentTimeMillis();
+            if ("CREATED".equals(event.get("type"))) {
+                record(timestamp, 1, 0, 0.0);
+            } else if ("PAID".equals(event.get("newStatus")) && !"PAID".equals(event.get("oldStatus"))) {
+                // PAID->PAID是支付回调重试，不重复计入
+                Object amount = event.get("totalAmount");
+                record(timestamp, 0, 1, amount instanceof Number ? ((Number) amount).doubleValue() : 0.0);
+            }
+            // 每个事件之后更新位置，进程中途退出时已计入的部分不会重复
+            buffer.putLong(entry + 8, sequence);
+        }
+    }
+    
+    // 缺口中的事件无法补回，趋势中对应的时段偏低
+    @Override
+    public void onGap() {
+    }
+    
+    // 把一笔变更累加到三种分辨率的时段；某个环上该时段已经过期时只计入仍保留它的分辨率
+    public synchronized void record(long timestamp, long orders, long paidOrders, double sales) {
+        long now = System.currentTimeMillis();
+        boolean late = false;
+        for (Resolution resolution : Resolution.values()) {
+            long period = Math.floorDiv(timestamp + zoneOffset, resolution.millis);
+            if (period < oldestPeriod(resolution, now)) {
+                late = true;
+                continue;
+            }
+            int position = position(resolution, period);
+            long stored = buffer.getLong(position);
+            if (stored != period + 1) {
+                if (stored > period + 1) {
+                    late = true;
+                    continue;
+                }
+                buffer.putLong(position, period + 1);
+                buffer.putLong(position + 8, 0L);
+                buffer.putLong(position + 16, 0L);
+                buffer.putDouble(position + 24, 0.0);
+            }
+            buffer.putLong(position + 8, buffer.getLong(position + 8) + orders);
+            buffer.putLong(position + 16, buffer.getLong(position + 16) + paidOrders);
+            buffer.putDouble(position + 24, buffer.getDouble(position + 24) + sales);
+        }
+        recordedEvents++;
+        if (late) {
+            lateEvents++;
+        }
+    }
+    
+    // 能完整覆盖[from, to)且时段数不超过MAX_POINTS的最细分辨率
+    public Resolution resolve(long from, long to) {
+        long now = System.currentTimeMillis();
+        for (Resolution resolution : Resolution.values()) {
+            if (from >= oldestRetained(resolution, now) && points(resolution, from, to) <= MAX_POINTS) {
+                return resolution;
+            }
+        }
+        return Resolution.DAY;
+    }
+    
+    // [from, to)内每个时段一个点（没有数据的时段为0），按时间升序；早于保留时长的时段不返回
+    public synchronized List<Map<String, Object>> query(long from, long to, Resolution resolution) {
+        List<Map<String, Object>> points = new ArrayList<>();
+        if (to <= from) {
+            return points;
+        }
+        long first = Math.max(Math.floorDiv(from + zoneOffset, resolution.millis), oldestPeriod(resolution, System.currentTimeMillis()));
+        long last = Math.floorDiv(to - 1 + zoneOffset, resolution.millis);
+        if (last - first + 1 > MAX_POINTS) {
+            throw new IllegalArgumentException("Sales trend range has more than " + MAX_POINTS + " "
+                    + resolution.name().toLowerCase() + " points, use a coarser resolution");
+        }
+        SimpleDateFormat format = new SimpleDateFormat(resolution.pattern);
+        format.setTimeZone(new SimpleTimeZone((int) zoneOffset, "trend"));
+        for (long period = first; period <= last; period++) {
+            int position = position(resolution, period);
+            boolean present = buffer.getLong(position) == period + 1;
+            long orders = present ? buffer.getLong(position + 8) : 0L;
+            long paidOrders = present ? buffer.getLong(position + 16) : 0L;
+            double sales = present ? buffer.getDouble(position + 24) : 0.0;
+            long start = period * resolution.millis - zoneOffset;
+            Map<String, Object> point = new HashMap<>();
+            point.put("date", format.format(new Date(start)));
+            point.put("timestamp", start);
+            point.put("orders", orders);
+            point.put("paidOrders", paidOrders);
+            point.put("sales", sales);
+            point.put("avgOrderValue", paidOrders == 0 ? 0.0 : sales / paidOrders);
+            points.add(point);
+        }
+        return points;
+    }
+    
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("file", file.getPath());
+        stats.put("bytes", buffer.capacity());
+        stats.put("recordedEvents", recordedEvents);
+        stats.put("duplicateEvents", duplicateEvents);
+        stats.put("lateEvents", lateEvents);
+        int streams = 0;
+        for (int i = 0; i < STREAMS; i++) {
+            if (buffer.getLong(streamsOffset + i * STREAM_ENTRY_SIZE) != 0L) {
+                streams++;
+            }
+        }
+        stats.put("streams", streams);
+        for (Resolution resolution : Resolution.values()) {
+            stats.put(resolution.name().toLowerCase() + "RetentionMillis", slots[resolution.ordinal()] * resolution.millis);
+        }
+        return stats;
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        buffer.force();
+        try {
+            raf.close();
+        } catch (IOException e) {
+            System.err.println("Cannot close sales trend file: " + e.getMessage());
+        }
+    }
+    
+    private int position(Resolution resolution, long period) {
+        int index = resolution.ordinal();
+        return offsets[index] + (int) Math.floorMod(period, (long) slots[index]) * SLOT_SIZE;
+    }
+    
+    // 环上仍保留的最早时段
+    private long oldestPeriod(Resolution resolution, long now) {
+        return Math.floorDiv(now + zoneOffset, resolution.millis) - slots[resolution.ordinal()] + 1;
+    }
+    
+    private long oldestRetained(Resolution resolution, long now) {
+        return oldestPeriod(resolution, now) * resolution.millis - zoneOffset;
+    }
+    
+    private long points(Resolution resolution, long from, long to) {
+        if (to <= from) {
+            return 0;
+        }
+        return Math.floorDiv(to - 1 + zoneOffset, resolution.millis) - Math.floorDiv(from + zoneOffset, resolution.millis) + 1;
+    }
+    
+    // streamId在位置表中的项，没有时占用空项或最久未写入的一项，位置从0开始
+    private int streamEntry(long streamId) {
+        int oldest = streamsOffset;
+        for (int i = 0; i < STREAMS; i++) {
+            int entry = streamsOffset + i * STREAM_ENTRY_SIZE;
+            long stored = buffer.getLong(entry);
+            if (stored == streamId) {
+                return entry;
+            }
+            if (stored == 0L || buffer.getLong(entry + 16) < buffer.getLong(oldest + 16)) {
+                oldest = entry;
+                if (stored == 0L) {
+                    break;
+                }
+            }
+        }
+        buffer.putLong(oldest + 8, 0L);
+        buffer.putLong(oldest, streamId);
+        return oldest;
+    }
+    
+    // 版本1的文件没有位置表，其余布局相同
+    private boolean compatible(File existing, int size) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(existing, "r")) {
+            if (in.readInt() != MAGIC) {
+                return false;
+            }
+            int version = in.readInt();
+            if (version == 1 ? in.length() != streamsOffset : version != VERSION || in.length() != size) {
+                return false;
+            }
+            if (in.readLong() != zoneOffset) {
+                return false;
+            }
+            in.seek(SLOTS);
+            for (int slot : slots) {
+                if (in.readInt() != slot) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,244 @@
+package com.example.demo.aggregate;
+
+import com.example.demo.feed.ChangeFeed;
+import com.example.demo.service.OrderService;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// 系统数据实时聚合的写入吞吐和查询耗时：java -cp <analytics-service类路径>:analytics-service/target/test-classes com.example.demo.aggregate.SystemAggregatesBenchmark [事件数]
+// 先用已知的事件核对累计值、窗口和不同用户数的估计；再测直接写入（1个和4个线程）与经过变更流拉取（订单服务用代理代替，
+// 每批1000个事件在拉取时生成）的吞吐；最后按50k事件/秒的速率写入，同时每10ms查询一次，统计实际速率和查询耗时，
+// 并对比不同事件量下的查询耗时
+public class SystemAggregatesBenchmark {
+    
+    private static final int TARGET_RATE = 50000;
+    
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        System.out.println("events=" + events + " cpus=" + Runtime.getRuntime().availableProcessors());
+        checkAggregates();
+        System.out.println("aggregate checks passed");
+        
+        List<Map<String, Object>> pool = events(100000, System.currentTimeMillis());
+        direct(pool, events, 1);
+        direct(pool, events, 4);
+        throughFeed(events);
+        paced(pool, 5);
+        queryCost(pool);
+    }
+    
+    private static void checkAggregates() {
+        SystemAggregates aggregates = new SystemAggregates(TimeUnit.MINUTES.toMillis(1), 60);
+        long now = System.currentTimeMillis();
+        long twoHoursAgo = now - TimeUnit.HOURS.toMillis(2);
+        // 2小时前的事件计入累计值，不计入最近一小时；窗口内的桶复用之后再到达的同一时段事件才算晚到
+        for (int i = 0; i < 1000; i++) {
+            aggregates.record(event("CREATED", "O" + i, "old-" + (i % 100), null, "PENDING_PAYMENT", 10.0, twoHoursAgo));
+        }
+        for (int i = 0; i < 20000; i++) {
+            aggregates.record(event("CREATED", "N" + i, "user-" + (i % 5000), null, "PENDING_PAYMENT", 100.0, now));
+        }
+        for (int i = 0; i < 8000; i++) {
+            aggregates.record(event("STATUS_CHANGED", "N" + i, "user-" + (i % 5000), "PENDING_PAYMENT", "PAID", 100.0, now));
+        }
+        for (int i = 8000; i < 9000; i++) {
+            aggregates.record(event("STATUS_CHANGED", "N" + i, "user-" + (i % 5000), "PENDING_PAYMENT", "CANCELLED", 100.0, now));
+        }
+        for (int i = 0; i < 500; i++) {
+            aggregates.record(event("STATUS_CHANGED", "N" + i, "user-" + (i % 5000), "PAID", "REFUNDING", 100.0, now));
+        }
+        // 支付回调重试产生的PAID->PAID不重复计入支付数和销售额
+        for (int i = 0; i < 500; i++) {
+            aggregates.record(event("STATUS_CHANGED", "N" + i, "user-" + (i % 5000), "PAID", "PAID", 100.0, now));
+        }
+        Map<String, Object> snapshot = aggregates.snapshot();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> recent = (Map<String, Object>) snapshot.get("recentWindow");
+        long totalUsers = (Long) snapshot.get("totalUsers");
+        long activeUsers = (Long) snapshot.get("activeUsers");
+        System.out.println("snapshot: " + snapshot);
+        if ((Long) snapshot.get("totalOrders") != 21000 || (Long) snapshot.get("paidOrders") != 8000
+                || (Long) snapshot.get("cancelledOrders") != 1000 || (Long) snapshot.get("refundingOrders") != 500
+                || Math.abs((Double) snapshot.get("totalSales") - 800000.0) > 1e-6
+                || Math.abs((Double) snapshot.get("avgOrderValue") - 100.0) > 1e-9
+                || Math.abs((Double) snapshot.get("conversionRate") - 8000 * 100.0 / 21000) > 1e-9
+                || (Long) recent.get("orders") != 20000 || (Long) recent.get("paidOrders") != 8000
+                || Math.abs(totalUsers - 5100) > 5100 * 0.1 || Math.abs(activeUsers - 5000) > 5000 * 0.1
+                || ((List<?>) snapshot.get("peakHours")).isEmpty()) {
+            throw new AssertionError("unexpected aggregates: " + snapshot);
+        }
+        
+        // 大量不同用户时的估计误差
+        DistinctCounter counter = new DistinctCounter();
+        for (int i = 0; i < 1000000; i++) {
+            counter.add("u" + i);
+        }
+        double error = Math.abs(counter.estimate() - 1000000) / 1e6;
+        System.out.printf("distinct estimate for 1000000 users: %d (error %.2f%%)%n", counter.estimate(), error * 100);
+        if (error > 0.1) {
+            throw new AssertionError("distinct estimate off by " + error);
+        }
+    }
+    
+    // 直接写入，threads个线程各写一部分
+    private static void direct(List<Map<String, Object>> pool, int events, int threads) throws Exception {
+        SystemAggregates aggregates = new SystemAggregates(TimeUnit.MINUTES.toMillis(1), 60);
+        // 预热
+        for (Map<String, Object> event : pool) {
+            aggregates.record(event);
+        }
+        Thread[] writers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int share = events / threads;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < share; i++) {
+                    aggregates.record(pool.get(i % pool.size()));
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("direct ingest threads=%d  %10.0f events/s%n", threads, (double) (events / threads) * threads * 1e9 / nanos);
+    }
+    
+    // 经过变更流：变更流上积压了events个事件，一次pollFeed按批拉取直到追上；代理在拉取时生成每批事件，包括事件对象的创建
+    private static void throughFeed(int events) {
+        SystemAggregates aggregates = new SystemAggregates(TimeUnit.MINUTES.toMillis(1), 60);
+        ChangeFeed feed = new ChangeFeed("order", orderService(events)::pollOrderChanges, 1000);
+        feed.addListener(aggregates);
+        long start = System.nanoTime();
+        long ingested = feed.pollFeed();
+        long nanos = System.nanoTime() - start;
+        System.out.printf("ingest through feed      %10.0f events/s  (feed %s)%n", ingested * 1e9 / nanos, feed.stats());
+        if ((Long) aggregates.snapshot().get("aggregatedEvents") < ingested) {
+            throw new AssertionError("events lost through feed");
+        }
+    }
+    
+    // 按目标速率写入，同时查询
+    private static void paced(List<Map<String, Object>> pool, int seconds) throws Exception {
+        SystemAggregates aggregates = new SystemAggregates(TimeUnit.MINUTES.toMillis(1), 60);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Long> queryNanos = new ArrayList<>();
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                long start = System.nanoTime();
+                aggregates.snapshot();
+                queryNanos.add(System.nanoTime() - start);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        });
+        reader.start();
+        long start = System.nanoTime();
+        long written = 0;
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        while (System.nanoTime() < end) {
+            // 每毫秒补齐到应写入的数量
+            long due = (System.nanoTime() - start) * TARGET_RATE / 1000000000L;
+            while (written < due) {
+                aggregates.record(pool.get((int) (written % pool.size())));
+                written++;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        running.set(false);
+        reader.join();
+        long[] sorted = queryNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("paced ingest target=%d/s achieved=%.0f/s over %ds  queries=%d p50=%.3fms p99=%.3fms max=%.3fms%n",
+                TARGET_RATE, written / elapsed, seconds, sorted.length, sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.99)] / 1e6, sorted[sorted.length - 1] / 1e6);
+        if (written / elapsed < TARGET_RATE * 0.95) {
+            throw new AssertionError("could not sustain " + TARGET_RATE + " events/s");
+        }
+    }
+    
+    // 查询耗时与已写入的事件数无关
+    private static void queryCost(List<Map<String, Object>> pool) {
+        SystemAggregates aggregates = new SystemAggregates(TimeUnit.MINUTES.toMillis(1), 60);
+        long written = 0;
+        for (long target : new long[]{100000, 1000000, 10000000}) {
+            while (written < target) {
+                aggregates.record(pool.get((int) (written % pool.size())));
+                written++;
+            }
+            long[] nanos = new long[200];
+            for (int i = 0; i < nanos.length; i++) {
+                long start = System.nanoTime();
+                aggregates.snapshot();
+                nanos[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            System.out.printf("query after %8d events  p50=%.3fms%n", written, nanos[nanos.length / 2] / 1e6);
+        }
+    }
+    
+    // 约一半为下单，其余为支付、取消和退款；时间分布在最近一小时内
+    private static List<Map<String, Object>> events(int count, long now) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Map<String, Object>> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long timestamp = now - random.nextLong(TimeUnit.HOURS.toMillis(1));
+            String userId = "user-" + random.nextInt(50000);
+            double amount = 10 + random.nextInt(1000);
+            int kind = random.nextInt(10);
+            if (kind < 5) {
+                events.add(event("CREATED", "O" + i, userId, null, "PENDING_PAYMENT", amount, timestamp));
+            } else if (kind < 8) {
+                events.add(event("STATUS_CHANGED", "O" + i, userId, "PENDING_PAYMENT", "PAID", amount, timestamp));
+            } else if (kind < 9) {
+                events.add(event("STATUS_CHANGED", "O" + i, userId, "PENDING_PAYMENT", "CANCELLED", amount, timestamp));
+            } else {
+                events.add(event("STATUS_CHANGED", "O" + i, userId, "PAID", "REFUNDING", amount, timestamp));
+            }
+        }
+        return events;
+    }
+    
+    private static Map<String, Object> event(String type, String orderId, String userId, String oldStatus, String newStatus,
+                                             double amount, long timestamp) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("type", type);
+        event.put("orderId", orderId);
+        event.put("userId", userId);
+        event.put("oldStatus", oldStatus);
+        event.put("newStatus", newStatus);
+        event.put("totalAmount", amount);
+        event.put("timestamp", timestamp);
+        return event;
+    }
+    
+    // 变更流上积压了backlog个事件
+    private static OrderService orderService(long backlog) {
+        long streamId = System.nanoTime();
+        return (OrderService) Proxy.newProxyInstance(OrderService.class.getClassLoader(),
+                new Class<?>[]{OrderService.class}, (proxy, method, methodArgs) -> {
+                    if (!"pollOrderChanges".equals(method.getName())) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    long after = (Long) methodArgs[0];
+                    int max = (int) Math.min((Integer) methodArgs[1], backlog - after);
+                    List<Map<String, Object>> batch = events(max, System.currentTimeMillis());
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("streamId", streamId);
+                    result.put("events", batch);
+                    result.put("nextSequence", after + max);
+                    result.put("dropped", 0L);
+                    result.put("lag", 0L);
+                    return result;
+                });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,194 @@
+package com.example.demo.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// 分析缓存的命中率和堆占用：java -cp <analytics-service类路径>:analytics-service/target/test-classes com.example.demo.cache.AnalyticsCacheBenchmark [用户数] [查询数] [缓存MB]
+// 用户报告的查询服从Zipf分布（少数用户被频繁查询），每隔一段时间插入一轮对大量冷门用户的一次性扫描。
+// 对比同样条目数上限的LRU，统计命中率；最后核对堆占用是否停在上限附近，以及失效与计算期间失效的处理
+public class AnalyticsCacheBenchmark {
+    
+    private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 4000000;
+        long maxWeight = (args.length > 2 ? Long.parseLong(args[2]) : 64L) << 20;
+        
+        long reportWeight = AnalyticsCache.weigh(UserReportInvalidator.keyOf("user-0"), report(0));
+        int maxEntries = (int) Math.min(100000, maxWeight / reportWeight);
+        System.out.printf("users=%d lookups=%d report≈%dB cache=%dMB maxEntries=%d%n",
+                users, lookups, reportWeight, maxWeight >> 20, maxEntries);
+        long baseline = usedHeap();
+        
+        AnalyticsCache cache = new AnalyticsCache(maxWeight, maxEntries);
+        Lru lru = new Lru(maxEntries);
+        double[] cdf = zipf(users, 0.9);
+        Random random = new Random(42);
+        BitSet seen = new BitSet(users);
+        long lruHits = 0;
+        int scanUser = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            int user;
+            // 每10万次查询中有2万次是对冷门用户的顺序扫描
+            if (i % 100000 < 20000) {
+                user = users - 1 - (scanUser++ % users);
+            } else {
+                user = sample(cdf, random);
+            }
+            seen.set(user);
+            String key = UserReportInvalidator.keyOf("user-" + user);
+            if (cache.get(key) == null) {
+                cache.put(key, report(user), TTL_MILLIS);
+            }
+            if (lru.get(key) != null) {
+                lruHits++;
+            } else {
+                lru.put(key, Boolean.TRUE);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        Map<String, Object> stats = cache.stats();
+        System.out.printf("analytics cache hitRatio=%.3f  lru hitRatio=%.3f  entries=%d weight=%dMB evicted=%d rejected=%d  %.0f lookups/s%n",
+                (Double) stats.get("hitRatio"), (double) lruHits / lookups, (Integer) stats.get("entries"),
+                (Long) stats.get("weightBytes") >> 20, (Long) stats.get("evicted"), (Long) stats.get("rejected"),
+                lookups * 1e9 / nanos);
+        
+        lru = null;
+        cdf = null;
+        long cacheHeap = usedHeap() - baseline;
+        System.out.printf("heap held by cache: %dMB (limit %dMB, sketch %dKB); unbounded map would hold ≈%dMB for %d distinct users%n",
+                cacheHeap >> 20, maxWeight >> 20, (Long) stats.get("sketchBytes") >> 10,
+                (reportWeight * seen.cardinality()) >> 20, seen.cardinality());
+        // 测量之后再读一次，保证测量时缓存仍然可达
+        stats = cache.stats();
+        if ((Long) stats.get("weightBytes") > maxWeight || (Integer) stats.get("entries") > maxEntries) {
+            throw new AssertionError("cache exceeded its bound: " + stats);
+        }
+        
+        checkInvalidation();
+        System.out.println("invalidation checks passed");
+    }
+    
+    private static void checkInvalidation() {
+        AnalyticsCache cache = new AnalyticsCache(1 << 20, 100);
+        String key = UserReportInvalidator.keyOf("u1");
+        cache.put(key, report(1), TTL_MILLIS);
+        cache.invalidate(key);
+        if (cache.get(key) != null) {
+            throw new AssertionError("invalidated entry still cached");
+        }
+        // 计算期间发生变更，算出的报告不写入
+        CompletableFuture<Map<String, Object>> pending = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> loaded = cache.getOrLoad(key, () -> pending, r -> true, TTL_MILLIS, 0L);
+        cache.invalidate(key);
+        pending.complete(report(1));
+        if (loaded.join() == null || cache.get(key) != null) {
+            throw new AssertionError("stale report cached after invalidation");
+        }
+        // 没有变更时正常写入
+        cache.getOrLoad(key, () -> CompletableFuture.completedFuture(report(1)), r -> true, TTL_MILLIS, 0L).join();
+        if (cache.get(key) == null) {
+            throw new AssertionError("report not cached");
+        }
+        // 变更流缺口使全部用户报告失效，其他条目保留
+        cache.put("system_analytics", new HashMap<>(), TTL_MILLIS);
+        CompletableFuture<Map<String, Object>> pending2 = new CompletableFuture<>();
+        cache.getOrLoad(UserReportInvalidator.keyOf("u2"), () -> pending2, r -> true, TTL_MILLIS, 0L);
+        cache.invalidatePrefix(UserReportInvalidator.KEY_PREFIX);
+        pending2.complete(report(2));
+        if (cache.get(key) != null || cache.get("system_analytics") == null || cache.get(UserReportInvalidator.keyOf("u2")) != null) {
+            throw new AssertionError("prefix invalidation failed");
+        }
+        // ttl到期
+        cache.put("short", "x", 1L);
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (cache.get("short") != null) {
+            throw new AssertionError("expired entry returned");
+        }
+    }
+    
+    // 与服务生成的报告结构相近：订单统计、最近20笔支付和若干汇总字段
+    private static Map<String, Object> report(int user) {
+        Map<String, Object> report = new HashMap<>();
+        Map<String, Object> orderStats = new HashMap<>();
+        orderStats.put("totalOrders", 12);
+        orderStats.put("totalSpent", 1234.5);
+        orderStats.put("userId", "user-" + user);
+        report.put("orderStatistics", orderStats);
+        List<Map<String, Object>> payments = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Map<String, Object> payment = new HashMap<>();
+            payment.put("paymentId", "PAY_036968320123430" + i);
+            payment.put("orderId", "ORDER_036968320123430" + i);
+            payment.put("amount", 99.9);
+            payment.put("status", "SUCCESS");
+            payment.put("paymentMethod", "Alipay");
+            payments.add(payment);
+        }
+        report.put("paymentHistory", payments);
+        report.put("paymentCount", 20L);
+        report.put("totalPaid", 1998.0);
+        report.put("lifetimeValue", 2000.0);
+        report.put("averageOrderValue", 102.9);
+        report.put("purchaseFrequency", 0.4);
+        report.put("paymentMethodPreferences", new HashMap<>(Collections.singletonMap("Alipay", 20)));
+        return report;
+    }
+    
+    private static double[] zipf(int n, double s) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / Math.pow(i + 1, s);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+    
+    private static int sample(double[] cdf, Random random) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return index >= 0 ? index : Math.min(cdf.length - 1, -index - 1);
+    }
+    
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    // 对照：只按条目数限制的LRU，只记录键
+    private static final class Lru extends LinkedHashMap<String, Boolean> {
+        private final int maxEntries;
+        
+        Lru(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
\ No newline at end of file
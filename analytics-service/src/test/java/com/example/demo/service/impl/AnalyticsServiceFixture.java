@@ -0,0 +1,69 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.cache.AnalyticsCache;
+import com.example.demo.feed.ChangeFeed;
+import com.example.demo.report.ReportDeadlines;
+import com.example.demo.service.OrderService;
+import com.example.demo.service.PaymentService;
+
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 基准共用的分析服务装配：不启动Spring，按注入的字段名逐个赋值后调用init。
+// 默认与配置文件的缺省值一致，报告缓存用新的AnalyticsCache，基准只替换它要测的参数
+public class AnalyticsServiceFixture {
+    
+    private final Map<String, Object> fields = new LinkedHashMap<>();
+    
+    public AnalyticsServiceFixture(OrderService orders, PaymentService payments) {
+        fields.put("orderService", orders);
+        fields.put("paymentService", payments);
+        fields.put("paymentHistoryPageSize", 200);
+        fields.put("recentPayments", 100);
+        fields.put("analyticsCache", new AnalyticsCache(64L << 20, 1000));
+        fields.put("orderChangeFeed", new ChangeFeed("order", orders::pollOrderChanges, 1000));
+        fields.put("paymentChangeFeed", new ChangeFeed("payment", payments::pollPaymentChanges, 1000));
+        fields.put("reportDeadlines", new ReportDeadlines());
+        reportTtl(300L, 60L);
+        reportBudget(2000L);
+    }
+    
+    public AnalyticsServiceFixture paymentHistoryPageSize(int pageSize) {
+        fields.put("paymentHistoryPageSize", pageSize);
+        return this;
+    }
+    
+    // 报告缓存的有效期和过期后仍可返回旧值的时间，单位秒
+    public AnalyticsServiceFixture reportTtl(long ttlSeconds, long staleSeconds) {
+        fields.put("reportTtlSeconds", ttlSeconds);
+        fields.put("reportStaleSeconds", staleSeconds);
+        return this;
+    }
+    
+    public AnalyticsServiceFixture reportBudget(long budgetMillis) {
+        fields.put("reportBudgetMillis", budgetMillis);
+        return this;
+    }
+    
+    public AnalyticsServiceImpl build() throws Exception {
+        AnalyticsServiceImpl service = new AnalyticsServiceImpl();
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            field(entry.getKey()).set(service, entry.getValue());
+        }
+        service.init();
+        return service;
+    }
+    
+    // 读取服务的内部状态，例如检查报告缓存
+    @SuppressWarnings("unchecked")
+    public static <T> T get(AnalyticsServiceImpl service, String name) throws Exception {
+        return (T) field(name).get(service);
+    }
+    
+    private static Field field(String name) throws NoSuchFieldException {
+        Field field = AnalyticsServiceImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.service.OrderService;
+import com.example.demo.service.PaymentService;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 用户报告的并行获取与时间预算：java -cp <analytics-service类路径>:analytics-service/target/test-classes com.example.demo.service.impl.ReportFanOutBenchmark
+// 订单服务和支付服务用代理代替，按场景设置订单统计的延迟（或失败）和每块支付历史的延迟，
+// 对比依次调用两个服务的耗时，核对超出预算时报告按时返回、标记为部分结果、不写入缓存，且不再请求后续的支付块
+public class ReportFanOutBenchmark {
+    
+    private static final ScheduledExecutorService REMOTE = Executors.newScheduledThreadPool(4, r -> {
+        Thread thread = new Thread(r, "remote");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int PAGE_SIZE = 100;
+    private static final AtomicInteger PAGE_CALLS = new AtomicInteger();
+    private static final AtomicInteger STATS_CALLS = new AtomicInteger();
+    
+    private static volatile long orderDelayMillis;
+    private static volatile boolean orderFails;
+    private static volatile long pageDelayMillis;
+    private static volatile int pages;
+    
+    public static void main(String[] args) throws Exception {
+        OrderService orders = orderService();
+        PaymentService payments = paymentService();
+        
+        scenario("both fast", orders, payments, 200, false, 20, 10, 2000);
+        scenario("slow orders", orders, payments, 5000, false, 20, 10, 500);
+        scenario("slow payments", orders, payments, 200, false, 100, 20, 500);
+        scenario("orders fail", orders, payments, 200, true, 20, 10, 2000);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void scenario(String name, OrderService orders, PaymentService payments, long orderDelay, boolean fails,
+                                 long pageDelay, int pageCount, long budgetMillis) throws Exception {
+        orderDelayMillis = orderDelay;
+        orderFails = fails;
+        pageDelayMillis = pageDelay;
+        pages = pageCount;
+        AnalyticsServiceImpl service = new AnalyticsServiceFixture(orders, payments)
+                .paymentHistoryPageSize(PAGE_SIZE)
+                .reportTtl(300L, 0L)
+                .reportBudget(budgetMillis)
+                .build();
+        
+        // 原来的做法：依次调用
+        long start = System.nanoTime();
+        try {
+            orders.getOrderStatisticsAsync("u1").join();
+        } catch (RuntimeException expected) {
+            // 订单服务失败时原来的报告直接失败
+        }
+        String cursor = null;
+        do {
+            Map<String, Object> page = payments.getUserPaymentHistoryPageAsync("u1", cursor, PAGE_SIZE).join();
+            cursor = (String) page.get("nextCursor");
+        } while (cursor != null);
+        double sequentialMillis = (System.nanoTime() - start) / 1e6;
+        
+        PAGE_CALLS.set(0);
+        STATS_CALLS.set(0);
+        start = System.nanoTime();
+        Map<String, Object> report = service.getUserAnalyticsReport("u1");
+        double reportMillis = (System.nanoTime() - start) / 1e6;
+        int pagesAtReturn = PAGE_CALLS.get();
+        // 超时后迟到的块不再引出新的请求
+        Thread.sleep(pageDelay * 3);
+        int pagesLater = PAGE_CALLS.get();
+        boolean partial = (Boolean) report.get("partial");
+        
+        // 部分结果不缓存，再查一次会重新计算
+        service.getUserAnalyticsReport("u1");
+        boolean recomputed = STATS_CALLS.get() == 2;
+        
+        System.out.printf("%-14s budget=%4dms sequential=%7.1fms report=%7.1fms partial=%-5s sections=%s payments=%d metrics=%s pages=%d/%d (after return %d) recomputed=%s%n",
+                name, budgetMillis, sequentialMillis, reportMillis, partial, report.get("sections"), report.get("paymentCount"),
+                report.get("metricsSource"), pagesAtReturn, pageCount, pagesLater - pagesAtReturn, recomputed);
+        if (reportMillis > budgetMillis + 200 || partial != recomputed || pagesLater - pagesAtReturn > 1) {
+            throw new AssertionError(name + ": unexpected report " + report);
+        }
+        ((Map<String, String>) report.get("sections")).forEach((section, status) -> {
+            if (!"OK".equals(status) && !partial) {
+                throw new AssertionError(name + ": " + section + " " + status + " but report not partial");
+            }
+        });
+    }
+    
+    private static OrderService orderService() {
+        return (OrderService) Proxy.newProxyInstance(OrderService.class.getClassLoader(),
+                new Class<?>[]{OrderService.class}, (proxy, method, methodArgs) -> {
+                    switch (method.getName()) {
+                        case "getOrderStatisticsAsync":
+                            STATS_CALLS.incrementAndGet();
+                            CompletableFuture<Map<String, Object>> stats = new CompletableFuture<>();
+                            REMOTE.schedule(() -> {
+                                if (orderFails) {
+                                    stats.completeExceptionally(new IllegalStateException("order service unavailable"));
+                                    return;
+                                }
+                                Map<String, Object> result = new HashMap<>();
+                                result.put("totalOrders", 10);
+                                result.put("totalSpent", 1000.0);
+                                stats.complete(result);
+                            }, orderDelayMillis, TimeUnit.MILLISECONDS);
+                            return stats;
+                        case "getUserOrdersAsync":
+                            return CompletableFuture.completedFuture(Collections.emptyList());
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+    
+    private static PaymentService paymentService() {
+        return (PaymentService) Proxy.newProxyInstance(PaymentService.class.getClassLoader(),
+                new Class<?>[]{PaymentService.class}, (proxy, method, methodArgs) -> {
+                    if (!"getUserPaymentHistoryPageAsync".equals(method.getName())) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    PAGE_CALLS.incrementAndGet();
+                    int index = methodArgs[1] == null ? 0 : Integer.parseInt((String) methodArgs[1]);
+                    CompletableFuture<Map<String, Object>> page = new CompletableFuture<>();
+                    REMOTE.schedule(() -> {
+                        List<Map<String, Object>> items = new ArrayList<>();
+                        for (int i = 0; i < PAGE_SIZE; i++) {
+                            Map<String, Object> payment = new HashMap<>();
+                            payment.put("paymentId", "PAY_" + index + "_" + i);
+                            payment.put("status", "SUCCESS");
+                            payment.put("amount", 10.0);
+                            payment.put("paymentMethod", "Alipay");
+                            items.add(payment);
+                        }
+                        Map<String, Object> result = new HashMap<>();
+                        result.put("payments", items);
+                        result.put("hasMore", index + 1 < pages);
+                        result.put("nextCursor", index + 1 < pages ? String.valueOf(index + 1) : null);
+                        page.complete(result);
+                    }, pageDelayMillis, TimeUnit.MILLISECONDS);
+                    return page;
+                });
+    }
+}
\ No newline at end of file
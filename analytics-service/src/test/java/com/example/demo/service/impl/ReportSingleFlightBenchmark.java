@@ -0,0 +1,212 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.cache.AnalyticsCache;
+import com.example.demo.cache.UserReportInvalidator;
+import com.example.demo.service.OrderService;
+import com.example.demo.service.PaymentService;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 热门用户报告失效时的并发请求：java -cp <analytics-service类路径>:analytics-service/target/test-classes com.example.demo.service.impl.ReportSingleFlightBenchmark [并发数]
+// 订单服务和支付服务用代理代替（订单统计50ms，支付历史5块、每块20ms），同一时刻放出一批对同一用户报告的请求，
+// 统计下游调用数：对照组每个请求各自计算一次（原来缓存未命中时的做法），合并后只计算一次；
+// 再核对计算期间失效时结果不写入缓存，以及报告过期后请求立即得到旧报告、后台只重新计算一次
+public class ReportSingleFlightBenchmark {
+    
+    private static final ScheduledExecutorService REMOTE = Executors.newScheduledThreadPool(4, r -> {
+        Thread thread = new Thread(r, "remote");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int PAGE_SIZE = 100;
+    private static final int PAGES = 5;
+    private static final AtomicInteger CALLS = new AtomicInteger();
+    
+    public static void main(String[] args) throws Exception {
+        int callers = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        OrderService orders = orderService();
+        PaymentService payments = paymentService();
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        System.out.println("callers=" + callers + " cpus=" + Runtime.getRuntime().availableProcessors());
+        
+        // 对照：每个请求各自计算
+        AnalyticsServiceImpl service = newService(orders, payments, 300L);
+        Method generate = AnalyticsServiceImpl.class.getDeclaredMethod("generateReport", String.class);
+        generate.setAccessible(true);
+        AnalyticsServiceImpl baseline = service;
+        Herd herd = herd(pool, callers, () -> ((CompletableFuture<?>) generate.invoke(baseline, "hot")).join());
+        herd.print("per-caller computation");
+        
+        // 合并：同一时刻只计算一次
+        service = newService(orders, payments, 300L);
+        AnalyticsServiceImpl coalescing = service;
+        herd = herd(pool, callers, () -> coalescing.getUserAnalyticsReport("hot"));
+        herd.print("single-flight");
+        Map<String, Object> stats = service.getAnalyticsCacheStats();
+        System.out.printf("  stats: loads=%s coalesced=%s loadsSaved=%s reportDownstreamCalls=%s reportDownstreamCallsSaved=%s%n",
+                stats.get("loads"), stats.get("coalesced"), stats.get("loadsSaved"),
+                stats.get("reportDownstreamCalls"), stats.get("reportDownstreamCallsSaved"));
+        if (herd.distinctResults != 1 || herd.calls != PAGES + 2 || (Long) stats.get("coalesced") != callers - 1) {
+            throw new AssertionError("requests not coalesced: " + herd.distinctResults + " reports, " + herd.calls + " calls");
+        }
+        
+        // 计算期间用户的订单变更：已经在等的请求拿到这次的结果，但它不写入缓存，变更之后的请求重新计算
+        service = newService(orders, payments, 300L);
+        AnalyticsCache cache = AnalyticsServiceFixture.get(service, "analyticsCache");
+        CompletableFuture<Map<String, Object>> first = service.getUserAnalyticsReportAsync("hot");
+        Thread.sleep(20);
+        cache.invalidate(UserReportInvalidator.keyOf("hot"));
+        CompletableFuture<Map<String, Object>> second = service.getUserAnalyticsReportAsync("hot");
+        if (first.join() == second.join() || cache.get(UserReportInvalidator.keyOf("hot")) != second.join()
+                || (Long) cache.stats().get("staleLoads") != 1L) {
+            throw new AssertionError("report computed before invalidation was cached: " + cache.stats());
+        }
+        System.out.println("invalidation during computation: first result discarded, second cached");
+        
+        // 过期后先返回旧报告，后台只重新计算一次
+        service = newService(orders, payments, 1L);
+        AnalyticsServiceImpl refreshing = service;
+        Map<String, Object> old = refreshing.getUserAnalyticsReport("hot");
+        Thread.sleep(1100);
+        herd = herd(pool, callers, () -> refreshing.getUserAnalyticsReport("hot"));
+        herd.print("stale-while-revalidate");
+        cache = AnalyticsServiceFixture.get(service, "analyticsCache");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.get(UserReportInvalidator.keyOf("hot")) == null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        stats = service.getAnalyticsCacheStats();
+        System.out.printf("  stats: staleHits=%s refreshes=%s loadsSaved=%s reportDownstreamCallsSaved=%s%n",
+                stats.get("staleHits"), stats.get("refreshes"), stats.get("loadsSaved"), stats.get("reportDownstreamCallsSaved"));
+        if (herd.distinctResults != 1 || herd.first != old || herd.maxMillis > 50 || (Long) stats.get("refreshes") != 1L
+                || cache.get(UserReportInvalidator.keyOf("hot")) == old) {
+            throw new AssertionError("stale report not served or not refreshed once: " + stats);
+        }
+        pool.shutdown();
+    }
+    
+    // 同时放出callers个请求，统计耗时和下游调用数（包括请求返回后才完成的后台调用）
+    private static Herd herd(ExecutorService pool, int callers, Callable<Object> request) throws Exception {
+        CountDownLatch ready = new CountDownLatch(callers);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<long[]>> latencies = new ArrayList<>();
+        List<Object> results = Collections.synchronizedList(new ArrayList<>());
+        CALLS.set(0);
+        for (int i = 0; i < callers; i++) {
+            latencies.add(pool.submit(() -> {
+                ready.countDown();
+                go.await();
+                long start = System.nanoTime();
+                results.add(request.call());
+                return new long[]{System.nanoTime() - start};
+            }));
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        long[] nanos = new long[callers];
+        for (int i = 0; i < callers; i++) {
+            nanos[i] = latencies.get(i).get()[0];
+        }
+        Herd herd = new Herd();
+        herd.wallMillis = (System.nanoTime() - start) / 1e6;
+        Arrays.sort(nanos);
+        herd.p50Millis = nanos[callers / 2] / 1e6;
+        herd.maxMillis = nanos[callers - 1] / 1e6;
+        // 等后台的行为分析和重新计算结束
+        Thread.sleep(300);
+        herd.calls = CALLS.get();
+        herd.first = results.get(0);
+        herd.distinctResults = (int) results.stream().map(System::identityHashCode).distinct().count();
+        return herd;
+    }
+    
+    private static OrderService orderService() {
+        return (OrderService) Proxy.newProxyInstance(OrderService.class.getClassLoader(),
+                new Class<?>[]{OrderService.class}, (proxy, method, methodArgs) -> {
+                    switch (method.getName()) {
+                        case "getOrderStatisticsAsync":
+                            CALLS.incrementAndGet();
+                            CompletableFuture<Map<String, Object>> stats = new CompletableFuture<>();
+                            REMOTE.schedule(() -> {
+                                Map<String, Object> result = new HashMap<>();
+                                result.put("totalOrders", 10);
+                                result.put("totalSpent", 1000.0);
+                                stats.complete(result);
+                            }, 50, TimeUnit.MILLISECONDS);
+                            return stats;
+                        case "getUserOrdersAsync":
+                            CALLS.incrementAndGet();
+                            return CompletableFuture.completedFuture(Collections.emptyList());
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+    
+    private static PaymentService paymentService() {
+        return (PaymentService) Proxy.newProxyInstance(PaymentService.class.getClassLoader(),
+                new Class<?>[]{PaymentService.class}, (proxy, method, methodArgs) -> {
+                    if (!"getUserPaymentHistoryPageAsync".equals(method.getName())) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    CALLS.incrementAndGet();
+                    int index = methodArgs[1] == null ? 0 : Integer.parseInt((String) methodArgs[1]);
+                    CompletableFuture<Map<String, Object>> page = new CompletableFuture<>();
+                    REMOTE.schedule(() -> {
+                        List<Map<String, Object>> items = new ArrayList<>();
+                        for (int i = 0; i < PAGE_SIZE; i++) {
+                            Map<String, Object> payment = new HashMap<>();
+                            payment.put("paymentId", "PAY_" + index + "_" + i);
+                            payment.put("status", "SUCCESS");
+                            payment.put("amount", 10.0);
+                            payment.put("paymentMethod", "Alipay");
+                            items.add(payment);
+                        }
+                        Map<String, Object> result = new HashMap<>();
+                        result.put("payments", items);
+                        result.put("hasMore", index + 1 < PAGES);
+                        result.put("nextCursor", index + 1 < PAGES ? String.valueOf(index + 1) : null);
+                        page.complete(result);
+                    }, 20, TimeUnit.MILLISECONDS);
+                    return page;
+                });
+    }
+    
+    private static AnalyticsServiceImpl newService(OrderService orders, PaymentService payments, long ttlSeconds) throws Exception {
+        return new AnalyticsServiceFixture(orders, payments)
+                .paymentHistoryPageSize(PAGE_SIZE)
+                .reportTtl(ttlSeconds, 60L)
+                .build();
+    }
+    
+    private static final class Herd {
+        double wallMillis;
+        double p50Millis;
+        double maxMillis;
+        int calls;
+        Object first;
+        int distinctResults;
+        
+        void print(String name) {
+            System.out.printf("%-24s wall=%7.1fms p50=%7.1fms max=%7.1fms downstream calls=%5d distinct reports=%d%n",
+                    name, wallMillis, p50Millis, maxMillis, calls, distinctResults);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,231 @@
+package com.example.demo.trend;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// 销售趋势存储的写入吞吐、查询耗时和重启后的数据：java -cp <analytics-service类路径>:analytics-service/target/test-classes com.example.demo.trend.SalesTrendStoreBenchmark [事件数]
+// 用最近30天内随机时间的下单和支付事件写入（落盘到临时目录），核对三种分辨率的合计一致、重启后数据保留、
+// 重新投递的同一批事件和PAID->PAID不重复计入、超出分钟保留时长的事件只计入小时和天；
+// 对比各分辨率的查询与扫描原始事件（内存中的时间戳和金额数组）计算同样结果的耗时
+public class SalesTrendStoreBenchmark {
+    
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        File dir = Files.createTempDirectory("trend-bench").toFile();
+        File file = new File(dir, "sales-trend.dat");
+        try {
+            run(file, events);
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+    
+    private static void run(File file, int events) throws Exception {
+        long now = System.currentTimeMillis();
+        Random random = new Random(42);
+        long[] times = new long[events];
+        double[] amounts = new double[events];
+        for (int i = 0; i < events; i++) {
+            times[i] = now - (long) (random.nextDouble() * 30 * DAY);
+            // 约一半为下单（金额记为负数以区分），一半为支付
+            amounts[i] = random.nextBoolean() ? -1 : 10 + random.nextInt(1000);
+        }
+        
+        SalesTrendStore store = new SalesTrendStore(file, 48 * 60, 90 * 24, 1825);
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            if (amounts[i] < 0) {
+                store.record(times[i], 1, 0, 0.0);
+            } else {
+                store.record(times[i], 0, 1, amounts[i]);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("events=%d  ingest %.0f events/s  file=%dKB  %s%n", events, events * 1e9 / nanos,
+                file.length() >> 10, store.stats());
+        
+        // 三种分辨率覆盖最近24小时的合计一致，且与原始事件一致
+        long from = now - DAY;
+        long[] expected = scan(times, amounts, from, now);
+        for (SalesTrendStore.Resolution resolution : SalesTrendStore.Resolution.values()) {
+            long[] actual = totals(store.query(alignUp(store, from, resolution), now, resolution));
+            long[] raw = scan(times, amounts, alignUp(store, from, resolution), now);
+            if (actual[0] != raw[0] || actual[1] != raw[1]) {
+                throw new AssertionError(resolution + " totals " + actual[0] + "/" + actual[1] + " != raw " + raw[0] + "/" + raw[1]);
+            }
+        }
+        System.out.printf("last 24h: orders=%d paid=%d, minute/hour/day rollups agree with raw events%n", expected[0], expected[1]);
+        
+        // 查询耗时：各分辨率对比扫描原始事件
+        query(store, times, amounts, now - 30 * DAY, now, SalesTrendStore.Resolution.DAY);
+        query(store, times, amounts, now - 30 * DAY, now, SalesTrendStore.Resolution.HOUR);
+        query(store, times, amounts, now - DAY, now, SalesTrendStore.Resolution.MINUTE);
+        System.out.println("auto resolution: 6h=" + store.resolve(now - 6 * HOUR, now) + " 7d=" + store.resolve(now - 7 * DAY, now)
+                + " 30d=" + store.resolve(now - 30 * DAY, now) + " 1y=" + store.resolve(now - 365 * DAY, now));
+        if (store.resolve(now - 6 * HOUR, now) != SalesTrendStore.Resolution.MINUTE
+                || store.resolve(now - 7 * DAY, now) != SalesTrendStore.Resolution.HOUR
+                || store.resolve(now - 365 * DAY, now) != SalesTrendStore.Resolution.DAY) {
+            throw new AssertionError("unexpected auto resolution");
+        }
+        try {
+            store.query(now - 30 * DAY, now, SalesTrendStore.Resolution.MINUTE);
+            throw new AssertionError("oversized minute range accepted");
+        } catch (IllegalArgumentException expectedError) {
+            // 超过2000个点
+        }
+        
+        // 超出分钟保留时长的事件只计入小时和天
+        long[] before = totals(store.query(now - 3 * DAY, now, SalesTrendStore.Resolution.HOUR));
+        store.record(now - 3 * DAY + HOUR, 1, 0, 0.0);
+        long[] after = totals(store.query(now - 3 * DAY, now, SalesTrendStore.Resolution.HOUR));
+        if (after[0] != before[0] + 1 || (Long) store.stats().get("lateEvents") < 1) {
+            throw new AssertionError("late event not counted in hour rollup");
+        }
+        
+        // 变更流投递：同一批事件重新投递时跳过
+        List<Map<String, Object>> batch = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            batch.add(event(i, i % 2 == 0 ? "CREATED" : "STATUS_CHANGED", i % 2 == 0 ? "PENDING_PAYMENT" : "PAID", now));
+        }
+        // 支付回调重试产生的PAID->PAID
+        for (int i = 1; i <= 100; i++) {
+            Map<String, Object> retry = event(1000 + i, "STATUS_CHANGED", "PAID", now);
+            retry.put("oldStatus", "PAID");
+            batch.add(retry);
+        }
+        long[] beforeFeed = totals(store.query(now - HOUR, now + 1, SalesTrendStore.Resolution.MINUTE));
+        store.onChanges(7L, batch);
+        long[] afterFeed = totals(store.query(now - HOUR, now + 1, SalesTrendStore.Resolution.MINUTE));
+        Map<String, Object> dayBefore = lastPoint(store, now);
+        store.close();
+        
+        // 重启：重新打开文件，数据保留；订单服务未重启时重新拉取到的同一批事件不再计入
+        store = new SalesTrendStore(file, 48 * 60, 90 * 24, 1825);
+        store.onChanges(7L, batch);
+        long[] reopened = totals(store.query(now - HOUR, now + 1, SalesTrendStore.Resolution.MINUTE));
+        Map<String, Object> dayAfter = lastPoint(store, now);
+        System.out.printf("feed batch: +%d orders +%d paid; after restart and redelivery: duplicates=%s, today %s -> %s%n",
+                afterFeed[0] - beforeFeed[0], afterFeed[1] - beforeFeed[1], store.stats().get("duplicateEvents"),
+                dayBefore.get("orders"), dayAfter.get("orders"));
+        if (afterFeed[0] - beforeFeed[0] != 500 || afterFeed[1] - beforeFeed[1] != 500
+                || reopened[0] != afterFeed[0] || reopened[1] != afterFeed[1] || !dayBefore.equals(dayAfter)
+                || (Long) store.stats().get("duplicateEvents") != 1100) {
+            throw new AssertionError("trend data not preserved across restart");
+        }
+        // 订单服务的另一个实例（或重启后）是新的流，序号从头开始；两个流交替投递时各自的位置互不影响
+        store.onChanges(8L, batch.subList(0, 10));
+        store.onChanges(7L, batch);
+        store.onChanges(8L, batch.subList(0, 10));
+        if (totals(store.query(now - HOUR, now + 1, SalesTrendStore.Resolution.MINUTE))[0] != reopened[0] + 5) {
+            throw new AssertionError("new stream not counted, or interleaved streams counted twice");
+        }
+        store.close();
+        
+        // 保留时长改变后旧文件改名保留
+        store = new SalesTrendStore(file, 24 * 60, 90 * 24, 1825);
+        boolean moved = new File(file.getPath() + ".old").exists();
+        boolean empty = totals(store.query(now - HOUR, now + 1, SalesTrendStore.Resolution.MINUTE))[0] == 0;
+        store.close();
+        if (!moved || !empty) {
+            throw new AssertionError("incompatible file not replaced");
+        }
+        System.out.println("restart, redelivery and layout change checks passed");
+    }
+    
+    private static void query(SalesTrendStore store, long[] times, double[] amounts, long from, long to,
+                              SalesTrendStore.Resolution resolution) {
+        int points = 0;
+        long start = System.nanoTime();
+        int rounds = 50;
+        for (int i = 0; i < rounds; i++) {
+            points = store.query(from, to, resolution).size();
+        }
+        double storeMillis = (System.nanoTime() - start) / 1e6 / rounds;
+        start = System.nanoTime();
+        scanByPeriod(times, amounts, from, to, resolution.millis);
+        double scanMillis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("query %-6s %4d points  store %.3fms  raw scan of %d events %.1fms%n",
+                resolution, points, storeMillis, times.length, scanMillis);
+    }
+    
+    // 查询范围的起点按分辨率对齐到下一个时段，使各分辨率覆盖完全相同的时间
+    private static long alignUp(SalesTrendStore store, long from, SalesTrendStore.Resolution resolution) {
+        List<Map<String, Object>> points = store.query(from, from + resolution.millis, resolution);
+        long start = (Long) points.get(0).get("timestamp");
+        return start == from ? from : start + resolution.millis;
+    }
+    
+    private static long[] totals(List<Map<String, Object>> points) {
+        long orders = 0;
+        long paid = 0;
+        for (Map<String, Object> point : points) {
+            orders += (Long) point.get("orders");
+            paid += (Long) point.get("paidOrders");
+        }
+        return new long[]{orders, paid};
+    }
+    
+    private static long[] scan(long[] times, double[] amounts, long from, long to) {
+        long orders = 0;
+        long paid = 0;
+        for (int i = 0; i < times.length; i++) {
+            if (times[i] >= from && times[i] < to) {
+                if (amounts[i] < 0) {
+                    orders++;
+                } else {
+                    paid++;
+                }
+            }
+        }
+        return new long[]{orders, paid};
+    }
+    
+    private static Map<Long, double[]> scanByPeriod(long[] times, double[] amounts, long from, long to, long millis) {
+        Map<Long, double[]> periods = new HashMap<>();
+        for (int i = 0; i < times.length; i++) {
+            if (times[i] >= from && times[i] < to) {
+                double[] sums = periods.computeIfAbsent(times[i] / millis, p -> new double[3]);
+                if (amounts[i] < 0) {
+                    sums[0]++;
+                } else {
+                    sums[1]++;
+                    sums[2] += amounts[i];
+                }
+            }
+        }
+        return periods;
+    }
+    
+    private static Map<String, Object> lastPoint(SalesTrendStore store, long now) {
+        List<Map<String, Object>> points = store.query(now - DAY, now + 1, SalesTrendStore.Resolution.DAY);
+        return points.get(points.size() - 1);
+    }
+    
+    private static Map<String, Object> event(long sequence, String type, String newStatus, long timestamp) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("sequence", sequence);
+        event.put("type", type);
+        event.put("orderId", "O" + sequence);
+        event.put("userId", "u" + sequence);
+        event.put("oldStatus", "CREATED".equals(type) ? null : "PENDING_PAYMENT");
+        event.put("newStatus", newStatus);
+        event.put("totalAmount", 100.0);
+        event.put("timestamp", timestamp);
+        return event;
+    }
+}
\ No newline at end of file
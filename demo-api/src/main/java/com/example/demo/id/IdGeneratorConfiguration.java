@@ -0,0 +1,32 @@
+package com.example.demo.id;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+
+import javax.annotation.PreDestroy;
+
+// ID生成器配置，需要生成ID的服务在启动类上@Import。
+// 不标注@Configuration：各服务扫描com.example.demo下的全部包，标注后不需要ID的服务也会去ZooKeeper登记节点号
+public class IdGeneratorConfiguration {
+    
+    private ZookeeperWorkerIdAssigner workerIdAssigner;
+    
+    // 配置了demo.id.worker-id时直接使用，否则通过注册中心所在的ZooKeeper分配节点号，会话丢失期间生成器拒绝生成
+    @Bean
+    public SnowflakeIdGenerator idGenerator(@Value("${demo.id.worker-id:-1}") int workerId,
+                                            @Value("${demo.id.zookeeper:${dubbo.registry.address}}") String zookeeper,
+                                            @Value("${spring.application.name}") String application) throws Exception {
+        if (workerId >= 0) {
+            return new SnowflakeIdGenerator(workerId);
+        }
+        workerIdAssigner = new ZookeeperWorkerIdAssigner(ZookeeperWorkerIdAssigner.connectString(zookeeper), application);
+        return new SnowflakeIdGenerator(workerIdAssigner.getWorkerId(), workerIdAssigner::isOwned);
+    }
+    
+    @PreDestroy
+    public void releaseWorkerId() {
+        if (workerIdAssigner != null) {
+            workerIdAssigner.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,106 @@
+package com.example.demo.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+// 按时间递增的64位ID：41位毫秒时间戳(相对EPOCH) + 10位节点号 + 12位毫秒内序号。
+// 生成过程只有一次CAS，不加锁；同一毫秒内序号用完时借用下一毫秒，时钟回拨时沿用上次的时间戳，
+// 因此同一节点生成的ID严格递增。节点号由外部分配时，分配方确认不再持有节点号期间拒绝生成
+public class SnowflakeIdGenerator {
+    
+    // 2024-01-01T00:00:00Z，41位毫秒可用约69年
+    public static final long EPOCH = 1704067200000L;
+    public static final int WORKER_ID_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final int MAX_WORKER_ID = (1 << WORKER_ID_BITS) - 1;
+    
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = WORKER_ID_BITS + SEQUENCE_BITS;
+    // 正数long的最大位数，字符串ID统一补齐到该宽度，字典序与数值顺序一致
+    private static final int DECIMAL_WIDTH = 19;
+    
+    private final int workerId;
+    private final long workerBits;
+    private final BooleanSupplier owned;
+    // 高位为最近一次使用的时间戳，低12位为序号
+    private final AtomicLong state = new AtomicLong();
+    
+    public SnowflakeIdGenerator(int workerId) {
+        this(workerId, () -> true);
+    }
+    
+    // owned返回false时nextId抛出IllegalStateException，避免与接手该节点号的进程生成重复ID
+    public SnowflakeIdGenerator(int workerId, BooleanSupplier owned) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("workerId must be between 0 and " + MAX_WORKER_ID + ": " + workerId);
+        }
+        this.workerId = workerId;
+        this.workerBits = (long) workerId << SEQUENCE_BITS;
+        this.owned = owned;
+    }
+    
+    public long nextId() {
+        if (!owned.getAsBoolean()) {
+            throw new IllegalStateException("Id worker " + workerId + " is not owned by this process");
+        }
+        long current;
+        long next;
+        do {
+            current = state.get();
+            long now = System.currentTimeMillis() - EPOCH;
+            // 序号溢出时自然进位到时间戳
+            next = now > (current >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : current + 1;
+        } while (!state.compareAndSet(current, next));
+        return ((next >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT) | workerBits | (next & SEQUENCE_MASK);
+    }
+    
+    // 带前缀的定宽字符串ID，例如 ORDER_0000123456789012345
+    public String nextId(String prefix) {
+        return format(prefix, nextId());
+    }
+    
+    public int getWorkerId() {
+        return workerId;
+    }
+    
+    public static String format(String prefix, long id) {
+        char[] chars = new char[prefix.length() + DECIMAL_WIDTH];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        long value = id;
+        for (int i = chars.length - 1; i >= prefix.length(); i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(chars);
+    }
+    
+    // 解析format生成的字符串ID，格式不符时返回-1
+    public static long parse(String prefix, String value) {
+        if (value == null || value.length() != prefix.length() + DECIMAL_WIDTH || !value.startsWith(prefix)) {
+            return -1L;
+        }
+        long id = 0L;
+        for (int i = prefix.length(); i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1L;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+    
+    // ID中的生成时间(epoch毫秒)
+    public static long timestampOf(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+    }
+    
+    // 该时刻之后生成的ID都不小于返回值，用于按时间范围查询以ID为键的索引
+    public static long minIdAt(long timeMillis) {
+        return Math.max(0L, timeMillis - EPOCH) << TIMESTAMP_SHIFT;
+    }
+    
+    public static int workerIdOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_WORKER_ID);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+package com.example.demo.id;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// 通过ZooKeeper临时节点为每个进程分配唯一的节点号：依次尝试创建 /demo/id/workers/{0..1023}，
+// 创建成功即占用该号，进程退出或会话过期后节点自动删除。会话丢失后节点号可能已分给其他进程，
+// 此时isOwned返回false，生成器拒绝生成ID，直到会话重建后确认重新占用了原来的节点号
+public class ZookeeperWorkerIdAssigner implements Closeable {
+    
+    private static final String ROOT = "/demo/id/workers";
+    private static final int SESSION_TIMEOUT_MS = 60000;
+    private static final int CONNECTION_TIMEOUT_MS = 15000;
+    
+    private final CuratorFramework client;
+    private final byte[] owner;
+    private final int workerId;
+    // 会话丢失时置为false，重连后确认节点仍归本进程才恢复
+    private volatile boolean owned;
+    
+    public ZookeeperWorkerIdAssigner(String connectString, String application) throws Exception {
+        this.owner = (application + "@" + ManagementFactory.getRuntimeMXBean().getName()).getBytes(StandardCharsets.UTF_8);
+        this.client = CuratorFrameworkFactory.newClient(connectString, SESSION_TIMEOUT_MS, CONNECTION_TIMEOUT_MS,
+                new ExponentialBackoffRetry(1000, 3));
+        client.start();
+        try {
+            if (!client.blockUntilConnected(CONNECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Cannot connect to ZooKeeper for worker id: " + connectString);
+            }
+            this.workerId = acquire();
+            this.owned = true;
+        } catch (Exception e) {
+            client.close();
+            throw e;
+        }
+        client.getConnectionStateListenable().addListener((c, state) -> {
+            if (state == ConnectionState.RECONNECTED) {
+                reclaim();
+            } else if (state == ConnectionState.LOST) {
+                owned = false;
+                System.err.println("ZooKeeper session lost, id worker " + workerId
+                        + " may be reassigned; refusing to generate ids until it is reclaimed");
+            }
+        });
+        System.out.println("Assigned id worker " + workerId + " to " + new String(owner, StandardCharsets.UTF_8));
+    }
+    
+    // 将Dubbo注册中心地址(zookeeper://host:port?backup=host2:port2)转换为ZooKeeper连接串
+    public static String connectString(String registryAddress) {
+        String address = registryAddress;
+        int scheme = address.indexOf("://");
+        if (scheme >= 0) {
+            address = address.substring(scheme + 3);
+        }
+        String backup = null;
+        int query = address.indexOf('?');
+        if (query >= 0) {
+            for (String param : address.substring(query + 1).split("&")) {
+                if (param.startsWith("backup=")) {
+                    backup = param.substring("backup=".length());
+                }
+            }
+            address = address.substring(0, query);
+        }
+        return backup == null ? address : address + "," + backup;
+    }
+    
+    public int getWorkerId() {
+        return workerId;
+    }
+    
+    public boolean isOwned() {
+        return owned;
+    }
+    
+    @Override
+    public void close() {
+        client.close();
+    }
+    
+    private int acquire() throws Exception {
+        for (int id = 0; id <= SnowflakeIdGenerator.MAX_WORKER_ID; id++) {
+            try {
+                client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(pathOf(id), owner);
+                return id;
+            } catch (KeeperException.NodeExistsException e) {
+                // 已被其他进程占用，尝试下一个
+            }
+        }
+        throw new IllegalStateException("No free id worker slot under " + ROOT);
+    }
+    
+    // 会话过期期间节点可能被删除，重连后尽量重新占用。确认节点归本进程后才恢复生成；
+    // 被其他进程占用或确认失败时继续拒绝生成，等下次重连再试
+    private void reclaim() {
+        String path = pathOf(workerId);
+        try {
+            client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path, owner);
+            recovered();
+        } catch (KeeperException.NodeExistsException e) {
+            try {
+                if (Arrays.equals(client.getData().forPath(path), owner)) {
+                    recovered();
+                } else {
+                    owned = false;
+                    System.err.println("Id worker " + workerId + " was taken by another process, refusing to generate ids");
+                }
+            } catch (Exception readFailure) {
+                System.err.println("Failed to verify id worker " + workerId + ": " + readFailure.getMessage());
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to reclaim id worker " + workerId + ": " + e.getMessage());
+        }
+    }
+    
+    private void recovered() {
+        if (!owned) {
+            owned = true;
+            System.out.println("Reclaimed id worker " + workerId + ", generating ids again");
+        }
+    }
+    
+    private static String pathOf(int id) {
+        return ROOT + "/" + id;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.example.demo.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 按用户的ID索引：每个用户一个只追加的无锁ID日志，按写入顺序编号，位置可直接用作分页游标。
+// 订单服务的用户订单和支付服务的用户支付共用
+public class UserIdIndex {
+    
+    private final Map<String, IdLog> logs = new ConcurrentHashMap<>();
+    
+    public void append(String userId, String id) {
+        logs.computeIfAbsent(userId, k -> new IdLog()).append(id);
+    }
+    
+    // 用户已写入完成的ID数量
+    public int count(String userId) {
+        IdLog log = logs.get(userId);
+        return log == null ? 0 : log.size();
+    }
+    
+    public List<String> list(String userId) {
+        return range(userId, 0, Integer.MAX_VALUE);
+    }
+    
+    // 从position开始最多读取limit个ID
+    public List<String> range(String userId, int position, int limit) {
+        IdLog log = logs.get(userId);
+        if (log == null) {
+            return Collections.emptyList();
+        }
+        int end = (int) Math.min((long) position + limit, log.size());
+        if (position >= end) {
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>(end - position);
+        for (int i = position; i < end; i++) {
+            ids.add(log.get(i));
+        }
+        return ids;
+    }
+    
+    // 分块数组：第k块容量为 8 << k，扩容时不复制已有元素
+    static final class IdLog {
+        private static final int FIRST_CHUNK_BITS = 3;
+        private static final int MAX_CHUNKS = 28;
+        
+        private final AtomicReferenceArray<AtomicReferenceArray<String>> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+        private final AtomicInteger reserved = new AtomicInteger();
+        // 连续写入完成的前缀长度，只会前进；读者只看到这个前缀内的元素
+        private final AtomicInteger published = new AtomicInteger();
+        
+        void append(String id) {
+            int position = reserved.getAndIncrement();
+            if (position < 0) {
+                throw new IllegalStateException("User index is full");
+            }
+            int chunkIndex = chunkIndex(position);
+            AtomicReferenceArray<String> chunk = chunks.get(chunkIndex);
+            if (chunk == null) {
+                chunks.compareAndSet(chunkIndex, null, new AtomicReferenceArray<>(1 << (chunkIndex + FIRST_CHUNK_BITS)));
+                chunk = chunks.get(chunkIndex);
+            }
+            chunk.set(offset(position, chunkIndex), id);
+            advance();
+        }
+        
+        int size() {
+            return advance();
+        }
+        
+        String get(int position) {
+            int chunkIndex = chunkIndex(position);
+            return chunks.get(chunkIndex).get(offset(position, chunkIndex));
+        }
+        
+        // 把已发布前缀推进到第一个尚未写入的位置，写者和读者都可以推进，不需要等待
+        private int advance() {
+            int current = published.get();
+            int limit = reserved.get();
+            int next = current;
+            while (next < limit && isWritten(next)) {
+                next++;
+            }
+            while (next > current) {
+                if (published.compareAndSet(current, next)) {
+                    return next;
+                }
+                current = published.get();
+            }
+            return current;
+        }
+        
+        private boolean isWritten(int position) {
+            int chunkIndex = chunkIndex(position);
+            AtomicReferenceArray<String> chunk = chunks.get(chunkIndex);
+            return chunk != null && chunk.get(offset(position, chunkIndex)) != null;
+        }
+        
+        private static int chunkIndex(int position) {
+            int biased = position + (1 << FIRST_CHUNK_BITS);
+            return 31 - Integer.numberOfLeadingZeros(biased) - FIRST_CHUNK_BITS;
+        }
+        
+        private static int offset(int position, int chunkIndex) {
+            return position + (1 << FIRST_CHUNK_BITS) - (1 << (chunkIndex + FIRST_CHUNK_BITS));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+package com.example.demo.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 有界环形缓冲区，按序号保存最近capacity条变更事件。写入方从不阻塞，写满后覆盖最旧的事件；
+// 读取方按序号拉取，落后超过容量时跳到仍保留的最旧事件，并在结果中报告被覆盖的条数
+public class ChangeRing<T> {
+    
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Entry<T>> slots;
+    // 序号从1开始，afterSequence为0表示从最早保留的事件读起
+    private final AtomicLong nextSequence = new AtomicLong(1L);
+    
+    public ChangeRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        // 向上取整到2的幂，用位运算定位槽位
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = this.capacity - 1;
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+    }
+    
+    public long publish(T value) {
+        long sequence = nextSequence.getAndIncrement();
+        Entry<T> entry = new Entry<>(sequence, value);
+        int index = (int) (sequence & mask);
+        Entry<T> current;
+        do {
+            current = slots.get(index);
+            // 写得慢的线程不能覆盖已经绕过一圈的新事件
+            if (current != null && current.sequence > sequence) {
+                return sequence;
+            }
+        } while (!slots.compareAndSet(index, current, entry));
+        return sequence;
+    }
+    
+    // 已分配的最大序号，对应事件可能仍在写入中
+    public long lastSequence() {
+        return nextSequence.get() - 1;
+    }
+    
+    public long oldestSequence() {
+        return Math.max(1L, lastSequence() - capacity + 1);
+    }
+    
+    // 因写满而被覆盖的事件总数
+    public long overwritten() {
+        return Math.max(0L, lastSequence() - capacity);
+    }
+    
+    public int capacity() {
+        return capacity;
+    }
+    
+    public Batch<T> poll(long afterSequence, int maxEvents) {
+        long last = lastSequence();
+        long sequence = Math.max(afterSequence, 0L) + 1;
+        long dropped = 0L;
+        long oldest = Math.max(1L, last - capacity + 1);
+        if (sequence < oldest) {
+            dropped = oldest - sequence;
+            sequence = oldest;
+        }
+        
+        List<T> events = new ArrayList<>(Math.max(0, (int) Math.min(maxEvents, last - sequence + 1)));
+        long delivered = sequence - 1;
+        while (sequence <= last && events.size() < maxEvents) {
+            Entry<T> entry = slots.get((int) (sequence & mask));
+            if (entry == null || entry.sequence < sequence) {
+                // 序号已分配但事件还没写入，后面的事件留到下次拉取，保证按序交付
+                break;
+            }
+            if (entry.sequence > sequence) {
+                // 读取过程中被写入方追上。已读到事件时先返回，保证一批内的序号连续；
+                // 否则跳到当前仍保留的最旧事件
+                if (!events.isEmpty()) {
+                    break;
+                }
+                long skipTo = Math.max(sequence + 1, lastSequence() - capacity + 1);
+                dropped += skipTo - sequence;
+                sequence = skipTo;
+                delivered = sequence - 1;
+                continue;
+            }
+            events.add(entry.value);
+            delivered = sequence;
+            sequence++;
+        }
+        return new Batch<>(events, delivered, dropped, Math.max(0L, lastSequence() - delivered));
+    }
+    
+    private static final class Entry<T> {
+        final long sequence;
+        final T value;
+        
+        Entry(long sequence, T value) {
+            this.sequence = sequence;
+            this.value = value;
+        }
+    }
+    
+    public static final class Batch<T> {
+        private final List<T> events;
+        private final long lastDeliveredSequence;
+        private final long dropped;
+        private final long lag;
+        
+        Batch(List<T> events, long lastDeliveredSequence, long dropped, long lag) {
+            this.events = events;
+            this.lastDeliveredSequence = lastDeliveredSequence;
+            this.dropped = dropped;
+            this.lag = lag;
+        }
+        
+        public List<T> getEvents() {
+            return events;
+        }
+        
+        // 下次拉取时作为afterSequence传入。一批内序号连续，第i个事件的序号为 该值 - events.size() + 1 + i
+        public long getLastDeliveredSequence() {
+            return lastDeliveredSequence;
+        }
+        
+        public long getDropped() {
+            return dropped;
+        }
+        
+        // 本次拉取后仍未读取的事件数
+        public long getLag() {
+            return lag;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.example.demo.stream;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+// 订阅方逐个实例拉取变更流时的位置。服务的每个实例有自己的流，streamId在实例每次启动时生成，序号各自从1开始；
+// 订阅方按提供者地址定向拉取，位置按应答的streamId保存，地址只用来选出下次拉取的起点。
+// Dubbo只剩一个提供者时不经过负载均衡，发往旧地址的定向调用会落到唯一的实例上，同一个流出现在两个地址下，
+// 两个地址共用一个位置，事件不会重复投递。只由订阅方的拉取线程访问
+public class StreamCursors {
+    
+    // 地址 -> 该地址上次应答的streamId；未分片时地址为null
+    private final Map<String, Long> streams = new HashMap<>();
+    // streamId -> 下次拉取传入的序号
+    private final Map<Long, Long> positions = new HashMap<>();
+    
+    // address下次拉取传入的afterSequence
+    public long after(String address) {
+        Long streamId = streams.get(address);
+        Long position = streamId == null ? null : positions.get(streamId);
+        return position == null ? 0L : position;
+    }
+    
+    // 登记address的应答来自streamId，返回该地址上的实例是否重启过：地址原来对应另一个流，应答的流此前没有见过。
+    // 重启前未拉取的事件无从得知，调用方按缺口处理
+    public boolean restarted(String address, long streamId) {
+        Long previous = streams.put(address, streamId);
+        boolean known = positions.containsKey(streamId);
+        if (!known) {
+            positions.put(streamId, 0L);
+        }
+        if (previous != null && previous != streamId) {
+            release(previous);
+            return !known;
+        }
+        return false;
+    }
+    
+    // 应答是否从该流当前的位置开始。实例重启或地址换了实例时，按该流的位置重新拉取
+    public boolean inPosition(long streamId, long after) {
+        Long position = positions.get(streamId);
+        return position != null && position == after;
+    }
+    
+    public void advance(long streamId, long nextSequence) {
+        positions.put(streamId, nextSequence);
+    }
+    
+    // 只保留当前提供者的地址，已下线实例的流不再跟踪
+    public void retain(Collection<String> addresses) {
+        Map<String, Long> removed = new HashMap<>(streams);
+        removed.keySet().removeAll(addresses);
+        for (Map.Entry<String, Long> entry : removed.entrySet()) {
+            streams.remove(entry.getKey());
+            release(entry.getValue());
+        }
+    }
+    
+    // 正在跟踪的流的数量，即已知的实例数
+    public int size() {
+        return new HashSet<>(streams.values()).size();
+    }
+    
+    private void release(long streamId) {
+        if (!streams.containsValue(streamId)) {
+            positions.remove(streamId);
+        }
+    }
+}
\ No newline at end of file
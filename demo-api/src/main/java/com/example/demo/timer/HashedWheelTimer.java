@@ -0,0 +1,287 @@
+package com.example.demo.timer;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// 哈希时间轮：一个tick线程按固定间隔推进时间轮，到期的任务交给固定大小的工作线程池执行。
+// 新任务先进入无锁队列，由tick线程在下一次推进时放入对应槽位，槽位链表只由tick线程访问；
+// 取消只打标记，tick线程走到该槽位时丢弃。任务的执行精度为一个tick
+public class HashedWheelTimer implements Closeable {
+    
+    private static final int LAG_BUCKETS = 32;
+    private static final long SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    private final String name;
+    private final long tickNanos;
+    private final int mask;
+    private final Task[] wheel;
+    private final ConcurrentLinkedQueue<Task> incoming = new ConcurrentLinkedQueue<>();
+    private final ThreadPoolExecutor workers;
+    private final Thread ticker;
+    private final long startNanos = System.nanoTime();
+    private volatile boolean running = true;
+    
+    private final AtomicLong pending = new AtomicLong();
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder lagNanos = new LongAdder();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    // 调度延迟直方图（到期到开始执行），第i个桶为 [2^(i-1), 2^i) 毫秒
+    private final AtomicLongArray lagHistogram = new AtomicLongArray(LAG_BUCKETS);
+    private volatile double executedPerSecond;
+    
+    public HashedWheelTimer(String name, long tickMillis, int wheelSize, int workerThreads) {
+        if (tickMillis <= 0 || wheelSize <= 0 || workerThreads <= 0) {
+            throw new IllegalArgumentException("tickMillis, wheelSize and workerThreads must be positive");
+        }
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        // 向上取整到2的幂，用位运算定位槽位
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.wheel = new Task[size];
+        this.mask = size - 1;
+        
+        AtomicInteger workerIndex = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, name + "-worker-" + workerIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.ticker = new Thread(this::tickLoop, name + "-ticker");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+    
+    public Timeout schedule(Runnable action, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("Timer " + name + " is closed");
+        }
+        Task task = new Task(action, System.nanoTime() + unit.toNanos(Math.max(0L, delay)));
+        pending.incrementAndGet();
+        scheduled.increment();
+        incoming.add(task);
+        return task;
+    }
+    
+    // 已调度但尚未到期、也未取消的任务数
+    public long pending() {
+        return pending.get();
+    }
+    
+    public Map<String, Object> stats() {
+        long executedCount = executed.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("name", name);
+        stats.put("tickMillis", TimeUnit.NANOSECONDS.toMillis(tickNanos));
+        stats.put("wheelSize", wheel.length);
+        stats.put("workerThreads", workers.getCorePoolSize());
+        stats.put("pending", pending.get());
+        stats.put("workerQueue", workers.getQueue().size());
+        stats.put("scheduled", scheduled.sum());
+        stats.put("executed", executedCount);
+        stats.put("cancelled", cancelled.sum());
+        stats.put("failed", failed.sum());
+        stats.put("executedPerSecond", executedPerSecond);
+        stats.put("lagAvgMillis", executedCount == 0 ? 0.0 : lagNanos.sum() / 1e6 / executedCount);
+        stats.put("lagP99Millis", lagPercentile(0.99));
+        stats.put("lagMaxMillis", maxLagNanos.get() / 1e6);
+        return stats;
+    }
+    
+    // 停止推进时间轮，未到期的任务不再执行；已交给工作线程的任务最多等待5秒
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join(TimeUnit.SECONDS.toMillis(5));
+            workers.shutdown();
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long dropped = pending.get();
+        if (dropped > 0) {
+            System.out.println("Timer " + name + " closed with " + dropped + " pending tasks");
+        }
+    }
+    
+    private void tickLoop() {
+        long tick = 0L;
+        long sampleNanos = System.nanoTime();
+        long sampleExecuted = 0L;
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long now = System.nanoTime();
+            while (now < deadline && running) {
+                LockSupport.parkNanos(this, deadline - now);
+                now = System.nanoTime();
+            }
+            if (!running) {
+                break;
+            }
+            transferIncoming(tick);
+            expire(tick);
+            tick++;
+            
+            if (now - sampleNanos >= SAMPLE_NANOS) {
+                long executedCount = executed.sum();
+                executedPerSecond = (executedCount - sampleExecuted) * 1e9 / (now - sampleNanos);
+                sampleExecuted = executedCount;
+                sampleNanos = now;
+            }
+        }
+    }
+    
+    // 把新任务放入到期tick对应的槽位，已经过期的任务放入当前槽位
+    private void transferIncoming(long tick) {
+        Task task;
+        while ((task = incoming.poll()) != null) {
+            if (task.state.get() != Task.WAITING) {
+                continue;
+            }
+            long expiryTick = Math.max(tick, (task.deadline - startNanos) / tickNanos);
+            task.remainingRounds = (expiryTick - tick) / wheel.length;
+            int slot = (int) (expiryTick & mask);
+            task.next = wheel[slot];
+            wheel[slot] = task;
+        }
+    }
+    
+    private void expire(long tick) {
+        int slot = (int) (tick & mask);
+        Task previous = null;
+        Task task = wheel[slot];
+        while (task != null) {
+            Task next = task.next;
+            boolean remove;
+            if (task.state.get() != Task.WAITING) {
+                remove = true;
+            } else if (task.remainingRounds <= 0) {
+                remove = true;
+                if (task.state.compareAndSet(Task.WAITING, Task.EXPIRED)) {
+                    pending.decrementAndGet();
+                    workers.execute(task);
+                }
+            } else {
+                remove = false;
+                task.remainingRounds--;
+            }
+            if (remove) {
+                if (previous == null) {
+                    wheel[slot] = next;
+                } else {
+                    previous.next = next;
+                }
+                task.next = null;
+            } else {
+                previous = task;
+            }
+            task = next;
+        }
+    }
+    
+    private void recordLag(long nanos) {
+        lagNanos.add(nanos);
+        long max;
+        while (nanos > (max = maxLagNanos.get()) && !maxLagNanos.compareAndSet(max, nanos)) {
+            // 并发更新最大值时重试
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = millis == 0 ? 0 : Math.min(LAG_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+        lagHistogram.incrementAndGet(bucket);
+    }
+    
+    // 返回百分位所在桶的上界
+    private long lagPercentile(double percentile) {
+        long total = 0L;
+        long[] counts = new long[LAG_BUCKETS];
+        for (int i = 0; i < LAG_BUCKETS; i++) {
+            counts[i] = lagHistogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0L;
+        }
+        long threshold = (long) Math.ceil(total * percentile);
+        long seen = 0L;
+        for (int i = 0; i < LAG_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= threshold) {
+                return 1L << i;
+            }
+        }
+        return 1L << (LAG_BUCKETS - 1);
+    }
+    
+    // 已调度任务的句柄
+    public interface Timeout {
+        
+        // 任务尚未到期时取消并返回true；已经到期或已取消时返回false
+        boolean cancel();
+        
+        boolean isCancelled();
+    }
+    
+    private final class Task implements Timeout, Runnable {
+        static final int WAITING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+        
+        final Runnable action;
+        final long deadline;
+        final AtomicInteger state = new AtomicInteger(WAITING);
+        // 以下字段只由tick线程访问
+        long remainingRounds;
+        Task next;
+        
+        Task(Runnable action, long deadline) {
+            this.action = action;
+            this.deadline = deadline;
+        }
+        
+        @Override
+        public boolean cancel() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                pending.decrementAndGet();
+                cancelled.increment();
+                return true;
+            }
+            return false;
+        }
+        
+        @Override
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+        
+        @Override
+        public void run() {
+            recordLag(Math.max(0L, System.nanoTime() - deadline));
+            try {
+                action.run();
+            } catch (Throwable e) {
+                failed.increment();
+                System.err.println("Timer " + name + " task failed: " + e);
+            } finally {
+                executed.increment();
+            }
+        }
+    }
+}
\ No newline at end of file
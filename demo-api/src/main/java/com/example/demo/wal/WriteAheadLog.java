@@ -0,0 +1,407 @@
+package com.example.demo.wal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+// 内存映射的只追加日志。日志按固定大小分段，文件名为段起始位置(LSN)；
+// 每条记录为 [int 长度][int CRC32][负载]，长度为0表示段内数据结束。
+// 刷盘由单独的线程完成：group模式下调用方等待刷盘，一次force覆盖这段时间内的所有写入。
+// force失败后无法确认哪些页已经写入磁盘，日志进入失败状态：未落盘的等待者收到异常，之后的追加被拒绝，重启后从磁盘重放。
+// 订单服务的WAL和支付服务的退款账本共用
+public class WriteAheadLog implements Closeable {
+    
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 8;
+    
+    public enum Durability {
+        // 等待批量fsync完成后才返回
+        GROUP,
+        // 写入映射内存后立即返回，进程崩溃不丢数据，由刷盘线程定期fsync
+        ASYNC
+    }
+    
+    private final File dir;
+    private final int segmentSize;
+    private final Durability durability;
+    private final long flushIntervalNanos;
+    
+    private final Object appendLock = new Object();
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+    private final List<Segment> sealed = new ArrayList<>();
+    private Segment active;
+    private long writePosition;
+    
+    private volatile long flushedPosition;
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushedCondition = flushLock.newCondition();
+    // whenDurable登记的等待者，按LSN排序，在flushLock内访问
+    private final PriorityQueue<DurableWaiter> waiters = new PriorityQueue<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+    // 第一次刷盘失败的原因，设置后不再清除
+    private volatile IOException failure;
+    
+    // name用于刷盘线程的名称
+    public WriteAheadLog(String name, File dir, int segmentSize, Durability durability, long flushIntervalMillis) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.durability = durability;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create WAL directory: " + dir);
+        }
+        File[] files = dir.listFiles((d, fileName) -> fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String fileName = file.getName();
+                segments.put(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        this.flusher = new Thread(this::flushLoop, name + "-wal-flusher");
+        this.flusher.setDaemon(true);
+    }
+    
+    // 从fromLsn开始重放日志，回调参数为记录的LSN和负载；返回日志末尾位置并打开末尾段用于继续追加
+    public long replay(long fromLsn, BiConsumer<Long, byte[]> consumer) throws IOException {
+        long end = 0L;
+        Long lastBase = null;
+        for (Long base : segments.keySet()) {
+            if (base + segmentSize <= fromLsn) {
+                continue;
+            }
+            end = scanSegment(base, segments.get(base), fromLsn, consumer);
+            lastBase = base;
+        }
+        if (lastBase == null) {
+            long base = segments.isEmpty() ? fromLsn : Math.max(fromLsn, segments.lastKey() + segmentSize);
+            active = openSegment(base);
+            writePosition = base;
+        } else {
+            active = openSegment(lastBase);
+            writePosition = end;
+        }
+        active.buffer.position((int) (writePosition - active.base));
+        flushedPosition = writePosition;
+        flusher.start();
+        return writePosition;
+    }
+    
+    // 追加一条记录，返回记录结束后的LSN，调用awaitDurable(lsn)或whenDurable(lsn)等待它落盘
+    public long append(byte[] payload) {
+        int recordSize = HEADER_BYTES + payload.length;
+        if (recordSize + 4 > segmentSize) {
+            throw new IllegalArgumentException("WAL record too large: " + payload.length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        long lsn;
+        synchronized (appendLock) {
+            checkHealthy();
+            if (active.buffer.remaining() < recordSize + 4) {
+                roll();
+            }
+            active.buffer.putInt(payload.length);
+            active.buffer.putInt((int) crc.getValue());
+            active.buffer.put(payload);
+            writePosition = active.base + active.buffer.position();
+            lsn = writePosition;
+        }
+        if (durability == Durability.GROUP) {
+            LockSupport.unpark(flusher);
+        }
+        return lsn;
+    }
+    
+    // 刷盘失败时抛出UncheckedIOException，记录没有确认落盘
+    public void awaitDurable(long lsn) {
+        if (durability != Durability.GROUP || flushedPosition >= lsn) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            while (flushedPosition < lsn && running && failure == null) {
+                LockSupport.unpark(flusher);
+                flushedCondition.await(10, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flushLock.unlock();
+        }
+        if (flushedPosition < lsn) {
+            checkHealthy();
+        }
+    }
+    
+    // 记录落盘后完成，不阻塞调用线程。future由刷盘线程完成，后续回调应当很轻，重活请换到其他线程执行
+    public CompletableFuture<Void> whenDurable(long lsn) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (durability != Durability.GROUP || flushedPosition >= lsn) {
+            future.complete(null);
+            return future;
+        }
+        flushLock.lock();
+        try {
+            // 刷盘线程在flushLock内推进flushedPosition和记录失败，锁内判断后登记不会错过唤醒
+            if (flushedPosition < lsn && failure != null) {
+                future.completeExceptionally(failed());
+                return future;
+            }
+            if (flushedPosition < lsn && running) {
+                waiters.add(new DurableWaiter(lsn, future));
+                LockSupport.unpark(flusher);
+                return future;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+        future.complete(null);
+        return future;
+    }
+    
+    public long position() {
+        synchronized (appendLock) {
+            return writePosition;
+        }
+    }
+    
+    // 删除完全位于lsn之前的日志段，快照完成后调用
+    public void deleteSegmentsBefore(long lsn) {
+        List<File> obsolete = new ArrayList<>();
+        synchronized (appendLock) {
+            while (!segments.isEmpty()) {
+                long base = segments.firstKey();
+                if (base + segmentSize > lsn || base == active.base) {
+                    break;
+                }
+                obsolete.add(segments.remove(base));
+            }
+        }
+        for (File file : obsolete) {
+            if (!file.delete()) {
+                System.err.println("Failed to delete WAL segment: " + file);
+            }
+        }
+    }
+    
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            synchronized (appendLock) {
+                for (Segment segment : sealed) {
+                    segment.force();
+                }
+                sealed.clear();
+                active.force();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            fail(e);
+            return;
+        }
+        if (failure == null) {
+            completeWaiters(Long.MAX_VALUE);
+        }
+    }
+    
+    public boolean isFailed() {
+        return failure != null;
+    }
+    
+    private void flushLoop() {
+        while (running && failure == null) {
+            long target;
+            Segment current;
+            List<Segment> toForce;
+            synchronized (appendLock) {
+                target = writePosition;
+                current = active;
+                toForce = new ArrayList<>(sealed);
+                sealed.clear();
+            }
+            if (target > flushedPosition) {
+                try {
+                    for (Segment segment : toForce) {
+                        segment.force();
+                        segment.close();
+                    }
+                    current.force();
+                } catch (IOException | UncheckedIOException e) {
+                    // flushedPosition保持不变，不能把这批写入当作已落盘
+                    fail(e);
+                    return;
+                }
+                flushLock.lock();
+                try {
+                    flushedPosition = target;
+                    flushedCondition.signalAll();
+                } finally {
+                    flushLock.unlock();
+                }
+                completeWaiters(target);
+            }
+            // group模式下有新写入会被立即唤醒，force期间到达的写入组成下一批
+            LockSupport.parkNanos(this, flushIntervalNanos);
+        }
+    }
+    
+    // 记录刷盘失败，唤醒awaitDurable的等待者并让whenDurable的future异常完成
+    private void fail(Exception e) {
+        IOException cause = e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        flushLock.lock();
+        try {
+            if (failure == null) {
+                failure = cause;
+                System.err.println("WAL flush failed, refusing further appends: " + cause.getMessage());
+            }
+            while (!waiters.isEmpty()) {
+                pending.add(waiters.poll().future);
+            }
+            flushedCondition.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+        UncheckedIOException error = failed();
+        for (CompletableFuture<Void> future : pending) {
+            future.completeExceptionally(error);
+        }
+    }
+    
+    private void checkHealthy() {
+        if (failure != null) {
+            throw failed();
+        }
+    }
+    
+    private UncheckedIOException failed() {
+        return new UncheckedIOException("WAL is unavailable after a failed flush", failure);
+    }
+    
+    // 在锁外完成future，回调不会拖住等待锁的写入线程
+    private void completeWaiters(long position) {
+        List<CompletableFuture<Void>> durable = new ArrayList<>();
+        flushLock.lock();
+        try {
+            while (!waiters.isEmpty() && waiters.peek().lsn <= position) {
+                durable.add(waiters.poll().future);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+        for (CompletableFuture<Void> future : durable) {
+            future.complete(null);
+        }
+    }
+    
+    private void roll() {
+        sealed.add(active);
+        long base = active.base + segmentSize;
+        try {
+            active = openSegment(base);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot roll WAL segment", e);
+        }
+    }
+    
+    private Segment openSegment(long base) throws IOException {
+        File file = segments.get(base);
+        if (file == null) {
+            file = new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, base, SEGMENT_SUFFIX));
+            segments.put(base, file);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        return new Segment(base, raf, buffer);
+    }
+    
+    private long scanSegment(long base, File file, long fromLsn, BiConsumer<Long, byte[]> consumer) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = Math.min(raf.length(), segmentSize);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= HEADER_BYTES) {
+                int start = buffer.position();
+                int size = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (size <= 0 || size > buffer.remaining()) {
+                    buffer.position(start);
+                    break;
+                }
+                byte[] payload = new byte[size];
+                buffer.get(payload);
+                crc.reset();
+                crc.update(payload, 0, size);
+                // 校验失败说明是崩溃时写了一半的记录，之后的内容丢弃
+                if ((int) crc.getValue() != checksum) {
+                    buffer.position(start);
+                    break;
+                }
+                long lsn = base + buffer.position();
+                if (lsn > fromLsn) {
+                    consumer.accept(lsn, payload);
+                }
+            }
+            return base + buffer.position();
+        }
+    }
+    
+    private static final class DurableWaiter implements Comparable<DurableWaiter> {
+        final long lsn;
+        final CompletableFuture<Void> future;
+        
+        DurableWaiter(long lsn, CompletableFuture<Void> future) {
+            this.lsn = lsn;
+            this.future = future;
+        }
+        
+        @Override
+        public int compareTo(DurableWaiter other) {
+            return Long.compare(lsn, other.lsn);
+        }
+    }
+    
+    private static final class Segment {
+        final long base;
+        final RandomAccessFile file;
+        final MappedByteBuffer buffer;
+        
+        Segment(long base, RandomAccessFile file, MappedByteBuffer buffer) {
+            this.base = base;
+            this.file = file;
+            this.buffer = buffer;
+        }
+        
+        void force() throws IOException {
+            buffer.force();
+        }
+        
+        void close() throws IOException {
+            file.close();
+        }
+    }
+}
\ No newline at end of file
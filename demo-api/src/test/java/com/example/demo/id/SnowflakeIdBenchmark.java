@@ -0,0 +1,97 @@
+package com.example.demo.id;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 多线程生成基准：java -cp demo-api/target/classes:demo-api/target/test-classes com.example.demo.id.SnowflakeIdBenchmark [线程数] [每线程个数]
+// 校验每个线程拿到的ID严格递增、所有ID不重复，并与原来的 UUID.randomUUID() 截断方式对比吞吐；
+// 最后校验节点号不归本进程期间生成器拒绝生成，重新占用后恢复
+public class SnowflakeIdBenchmark {
+    
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1);
+        // 预热
+        run(threads, perThread / 10, (thread, i) -> generator.nextId());
+        
+        long[][] ids = new long[threads][perThread];
+        long nanos = run(threads, perThread, (thread, i) -> ids[thread][i] = generator.nextId());
+        long total = (long) threads * perThread;
+        System.out.printf("snowflake long: %d threads x %d ids in %d ms, %.1f M ids/s%n",
+                threads, perThread, TimeUnit.NANOSECONDS.toMillis(nanos), total * 1000.0 / nanos);
+        
+        for (long[] perThreadIds : ids) {
+            for (int i = 1; i < perThreadIds.length; i++) {
+                if (perThreadIds[i] <= perThreadIds[i - 1]) {
+                    throw new IllegalStateException("ids not increasing within a thread");
+                }
+            }
+        }
+        long[] all = new long[(int) total];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(ids[t], 0, all, t * perThread, perThread);
+        }
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            if (all[i] == all[i - 1]) {
+                throw new IllegalStateException("duplicate id: " + all[i]);
+            }
+        }
+        System.out.println("all " + total + " ids unique and increasing per thread");
+        
+        nanos = run(threads, perThread, (thread, i) -> generator.nextId("ORDER_"));
+        System.out.printf("snowflake string: %.1f M ids/s%n", total * 1000.0 / nanos);
+        
+        nanos = run(threads, perThread, (thread, i) -> UUID.randomUUID().toString().substring(0, 8));
+        System.out.printf("UUID substring baseline: %.1f M ids/s%n", total * 1000.0 / nanos);
+        
+        AtomicBoolean owned = new AtomicBoolean(true);
+        SnowflakeIdGenerator guarded = new SnowflakeIdGenerator(2, owned::get);
+        long before = guarded.nextId();
+        owned.set(false);
+        try {
+            guarded.nextId();
+            throw new IllegalStateException("generated an id without owning the worker id");
+        } catch (IllegalStateException expected) {
+            System.out.println("refused while not owned: " + expected.getMessage());
+        }
+        owned.set(true);
+        if (guarded.nextId() <= before) {
+            throw new IllegalStateException("ids not increasing after the worker id was reclaimed");
+        }
+    }
+    
+    private static long run(int threads, int perThread, Task task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    task.run(thread, i);
+                }
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - begin;
+    }
+    
+    private interface Task {
+        void run(int thread, int index);
+    }
+}
\ No newline at end of file
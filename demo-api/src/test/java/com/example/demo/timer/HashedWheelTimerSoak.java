@@ -0,0 +1,101 @@
+package com.example.demo.timer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// 持续负载测试：java -cp demo-api/target/classes:demo-api/target/test-classes com.example.demo.timer.HashedWheelTimerSoak [每秒任务数] [秒数] [对照秒数]
+// 按支付流程的节奏调度1~1.5秒后执行的任务，其中一成在到期前取消（对应被回调取消的超时任务），
+// 每5秒打印线程数、待执行任务数、吞吐和调度延迟；最后用原来的每任务一个线程的方式跑一段作对照
+public class HashedWheelTimerSoak {
+    
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        int baselineSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        
+        int threadsBefore = THREADS.getThreadCount();
+        HashedWheelTimer timer = new HashedWheelTimer("soak", 10, 512, 4);
+        LongAdder ran = new LongAdder();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long nextReport = start + TimeUnit.SECONDS.toNanos(5);
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long submitted = 0L;
+        int minThreads = Integer.MAX_VALUE;
+        int maxThreads = 0;
+        System.out.println("threads before timer: " + threadsBefore);
+        while (System.nanoTime() < end) {
+            long due = start + submitted * intervalNanos;
+            long now = System.nanoTime();
+            if (now < due) {
+                LockSupport.parkNanos(due - now);
+                continue;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            HashedWheelTimer.Timeout timeout = timer.schedule(ran::increment, 1000 + random.nextInt(500), TimeUnit.MILLISECONDS);
+            if (random.nextInt(10) == 0) {
+                timer.schedule(timeout::cancel, 500, TimeUnit.MILLISECONDS);
+            }
+            submitted++;
+            if (now >= nextReport) {
+                int threadCount = THREADS.getThreadCount();
+                minThreads = Math.min(minThreads, threadCount);
+                maxThreads = Math.max(maxThreads, threadCount);
+                Map<String, Object> stats = timer.stats();
+                System.out.printf("t=%3ds threads=%d pending=%s executed/s=%.0f lagAvg=%.2fms lagP99<=%sms lagMax=%.1fms heap=%dMB%n",
+                        TimeUnit.NANOSECONDS.toSeconds(now - start), threadCount, stats.get("pending"),
+                        (Double) stats.get("executedPerSecond"), (Double) stats.get("lagAvgMillis"),
+                        stats.get("lagP99Millis"), (Double) stats.get("lagMaxMillis"), usedHeapMb());
+                nextReport += TimeUnit.SECONDS.toNanos(5);
+            }
+        }
+        Thread.sleep(2000);
+        System.out.println("timer: submitted=" + submitted + " ran=" + ran.sum() + " threads min/max=" + minThreads + "/" + maxThreads
+                + " final stats=" + timer.stats());
+        timer.close();
+        
+        if (baselineSeconds <= 0) {
+            return;
+        }
+        // 对照：每个任务一个睡眠线程
+        start = System.nanoTime();
+        end = start + TimeUnit.SECONDS.toNanos(baselineSeconds);
+        nextReport = start + TimeUnit.SECONDS.toNanos(1);
+        submitted = 0L;
+        while (System.nanoTime() < end) {
+            long due = start + submitted * intervalNanos;
+            long now = System.nanoTime();
+            if (now < due) {
+                LockSupport.parkNanos(due - now);
+                continue;
+            }
+            long delay = 1000 + ThreadLocalRandom.current().nextInt(500);
+            new Thread(() -> {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                ran.increment();
+            }).start();
+            submitted++;
+            if (now >= nextReport) {
+                System.out.printf("thread-per-task t=%2ds threads=%d heap=%dMB%n",
+                        TimeUnit.NANOSECONDS.toSeconds(now - start), THREADS.getThreadCount(), usedHeapMb());
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+            }
+        }
+    }
+    
+    private static long usedHeapMb() {
+        Runtime runtime = Runtime.getRuntime();
+        return (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+    }
+}
\ No newline at end of file
@@ -1,11 +1,14 @@
 package com.example.demo;
 
+import com.example.demo.id.IdGeneratorConfiguration;
 import org.apache.dubbo.config.spring.context.annotation.EnableDubbo;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Import;
 
 @SpringBootApplication
 @EnableDubbo
+@Import(IdGeneratorConfiguration.class)
 public class ProviderApplication {
     
     public static void main(String[] args) {
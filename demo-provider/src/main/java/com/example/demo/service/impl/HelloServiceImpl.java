@@ -1,10 +1,12 @@
 package com.example.demo.service.impl;
 
+import com.example.demo.id.SnowflakeIdGenerator;
 import com.example.demo.service.HelloService;
 import org.apache.dubbo.config.annotation.DubboService;
 import org.apache.skywalking.apm.toolkit.trace.Trace;
 import org.apache.skywalking.apm.toolkit.trace.Tag;
 import org.apache.skywalking.apm.toolkit.trace.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
@@ -19,6 +21,9 @@ public class HelloServiceImpl implements HelloService {
     // 模拟缓存
     private final Map<String, String> cache = new ConcurrentHashMap<>();
     
+    @Autowired
+    private SnowflakeIdGenerator idGenerator;
+    
     @Trace
     @Tags({@Tag(key = "name", value = "arg[0]"), @Tag(key = "result", value = "returnedObj")})
     public String sayHello(String name) {
@@ -60,7 +65,7 @@ public class HelloServiceImpl implements HelloService {
     public Map<String, Object> createUser(String name, String email) {
         logRequest("createUser", name);
         // 模拟创建用户操作
-        String userId = "user_" + UUID.randomUUID().toString().substring(0, 8);
+        String userId = idGenerator.nextId("user_");
         Map<String, Object> userInfo = new HashMap<>();
         userInfo.put("id", userId);
         userInfo.put("name", name);
@@ -11,6 +11,7 @@ import org.apache.skywalking.apm.toolkit.trace.Tags;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 public class HelloController {
@@ -107,8 +108,9 @@ public class HelloController {
         @Tag(key = "items", value = "arg[1]"),
         @Tag(key = "result", value = "returnedObj")
     })
-    public Map<String, Object> createOrder(@RequestParam String userId, @RequestBody List<Map<String, Object>> items) {
-        return orderService.createOrder(userId, items);
+    public CompletableFuture<Map<String, Object>> createOrder(@RequestParam String userId, @RequestBody List<Map<String, Object>> items) {
+        // 返回future走异步Servlet，等待订单服务期间释放容器线程
+        return orderService.createOrderAsync(userId, items);
     }
     
     @GetMapping("/order/{orderId}")
@@ -117,8 +119,8 @@ public class HelloController {
         @Tag(key = "orderId", value = "arg[0]"),
         @Tag(key = "result", value = "returnedObj")
     })
-    public Map<String, Object> getOrder(@PathVariable String orderId) {
-        return orderService.getOrderById(orderId);
+    public CompletableFuture<Map<String, Object>> getOrder(@PathVariable String orderId) {
+        return orderService.getOrderByIdAsync(orderId);
     }
     
     @GetMapping("/user/{userId}/orders")
@@ -127,8 +129,80 @@ public class HelloController {
         @Tag(key = "userId", value = "arg[0]"),
         @Tag(key = "result", value = "returnedObj")
     })
-    public List<Map<String, Object>> getUserOrders(@PathVariable String userId) {
-        return orderService.getUserOrders(userId);
+    public CompletableFuture<List<Map<String, Object>>> getUserOrders(@PathVariable String userId) {
+        return orderService.getUserOrdersAsync(userId);
+    }
+    
+    @GetMapping("/user/{userId}/orders/page")
+    @Trace
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]"),
+        @Tag(key = "cursor", value = "arg[1]"),
+        @Tag(key = "limit", value = "arg[2]")
+    })
+    public Map<String, Object> getUserOrdersPage(
+            @PathVariable String userId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int limit) {
+        return orderService.getUserOrdersPage(userId, cursor, limit);
+    }
+    
+    @GetMapping("/orders/status/{status}")
+    @Trace
+    @Tags({
+        @Tag(key = "status", value = "arg[0]"),
+        @Tag(key = "from", value = "arg[1]"),
+        @Tag(key = "to", value = "arg[2]"),
+        @Tag(key = "cursor", value = "arg[3]"),
+        @Tag(key = "limit", value = "arg[4]")
+    })
+    public Map<String, Object> getOrdersByStatus(
+            @PathVariable String status,
+            @RequestParam(defaultValue = "0") long from,
+            @RequestParam(defaultValue = "0") long to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int limit) {
+        return orderService.getOrdersByStatus(status, from, to, cursor, limit);
+    }
+    
+    @GetMapping("/orders/created")
+    @Trace
+    @Tags({
+        @Tag(key = "from", value = "arg[0]"),
+        @Tag(key = "to", value = "arg[1]"),
+        @Tag(key = "cursor", value = "arg[2]"),
+        @Tag(key = "limit", value = "arg[3]")
+    })
+    public Map<String, Object> getOrdersByCreateTime(
+            @RequestParam(defaultValue = "0") long from,
+            @RequestParam(defaultValue = "0") long to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int limit) {
+        return orderService.getOrdersByCreateTime(from, to, cursor, limit);
+    }
+    
+    @GetMapping("/orders/changes")
+    @Trace
+    @Tags({
+        @Tag(key = "after", value = "arg[0]"),
+        @Tag(key = "max", value = "arg[1]")
+    })
+    public Map<String, Object> pollOrderChanges(
+            @RequestParam(defaultValue = "0") long after,
+            @RequestParam(defaultValue = "100") int max) {
+        return orderService.pollOrderChanges(after, max);
+    }
+    
+    @GetMapping("/orders/changes/stats")
+    @Trace
+    public Map<String, Object> getOrderChangeStreamStats() {
+        return orderService.getOrderChangeStreamStats();
+    }
+    
+    @GetMapping("/orders/tier/stats")
+    @Trace
+    public Map<String, Object> getOrderTierStats() {
+        return orderService.getOrderTierStats();
     }
     
     // 支付相关接口
@@ -139,14 +213,16 @@ public class HelloController {
         @Tag(key = "userId", value = "arg[1]"),
         @Tag(key = "amount", value = "arg[2]"),
         @Tag(key = "paymentMethod", value = "arg[3]"),
+        @Tag(key = "idempotencyKey", value = "arg[4]"),
         @Tag(key = "result", value = "returnedObj")
     })
-    public Map<String, Object> createPayment(
+    public CompletableFuture<Map<String, Object>> createPayment(
             @RequestParam String orderId,
             @RequestParam String userId,
             @RequestParam double amount,
-            @RequestParam String paymentMethod) {
-        return paymentService.createPayment(orderId, userId, amount, paymentMethod);
+            @RequestParam String paymentMethod,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return paymentService.createPaymentAsync(orderId, userId, amount, paymentMethod, idempotencyKey);
     }
     
     @GetMapping("/payment/{paymentId}")
@@ -155,8 +231,134 @@ public class HelloController {
         @Tag(key = "paymentId", value = "arg[0]"),
         @Tag(key = "result", value = "returnedObj")
     })
-    public Map<String, Object> getPaymentStatus(@PathVariable String paymentId) {
-        return paymentService.getPaymentStatus(paymentId);
+    public CompletableFuture<Map<String, Object>> getPaymentStatus(@PathVariable String paymentId) {
+        return paymentService.getPaymentStatusAsync(paymentId);
+    }
+    
+    @PostMapping("/payment/callbacks")
+    @Trace
+    @Tags({
+        @Tag(key = "callbacks", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Boolean> handlePaymentCallbacks(@RequestBody List<Map<String, Object>> callbacks) {
+        return paymentService.handlePaymentCallbacks(callbacks);
+    }
+    
+    @GetMapping("/payment/order-updates/stats")
+    @Trace
+    public Map<String, Object> getOrderUpdateStats() {
+        return paymentService.getOrderUpdateStats();
+    }
+    
+    @GetMapping("/payment/order-cache/stats")
+    @Trace
+    public Map<String, Object> getOrderCacheStats() {
+        return paymentService.getOrderCacheStats();
+    }
+    
+    @PostMapping("/payment/reconcile")
+    @Trace
+    @Tags({
+        @Tag(key = "resume", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Object> startReconciliation(@RequestParam(defaultValue = "false") boolean resume) {
+        return paymentService.startReconciliation(resume);
+    }
+    
+    @GetMapping("/payment/reconcile")
+    @Trace
+    public Map<String, Object> getReconciliationStatus() {
+        return paymentService.getReconciliationStatus();
+    }
+    
+    @GetMapping("/user/{userId}/payments/page")
+    @Trace
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]"),
+        @Tag(key = "cursor", value = "arg[1]"),
+        @Tag(key = "limit", value = "arg[2]")
+    })
+    public Map<String, Object> getUserPaymentHistoryPage(
+            @PathVariable String userId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "100") int limit) {
+        return paymentService.getUserPaymentHistoryPage(userId, cursor, limit);
+    }
+    
+    @PostMapping("/payment/bulk/settlement")
+    @Trace
+    @Tags({
+        @Tag(key = "settlements", value = "arg[0].size()"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Object> submitBulkSettlement(@RequestBody List<Map<String, Object>> settlements) {
+        return paymentService.submitBulkSettlement(settlements);
+    }
+    
+    @PostMapping("/payment/bulk/refund")
+    @Trace
+    @Tags({
+        @Tag(key = "refunds", value = "arg[0].size()"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Object> submitBulkRefund(@RequestBody List<Map<String, Object>> refunds) {
+        return paymentService.submitBulkRefund(refunds);
+    }
+    
+    @GetMapping("/payment/bulk/{jobId}")
+    @Trace
+    @Tags({
+        @Tag(key = "jobId", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Object> getBulkJobStatus(@PathVariable String jobId) {
+        return paymentService.getBulkJobStatus(jobId);
+    }
+    
+    @GetMapping("/payment/{paymentId}/refunds")
+    @Trace
+    @Tags({
+        @Tag(key = "paymentId", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public List<Map<String, Object>> getRefundsByPayment(@PathVariable String paymentId) {
+        return paymentService.getRefundsByPayment(paymentId);
+    }
+    
+    @GetMapping("/refund/{refundId}")
+    @Trace
+    @Tags({
+        @Tag(key = "refundId", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Object> getRefund(@PathVariable String refundId) {
+        return paymentService.getRefund(refundId);
+    }
+    
+    @GetMapping("/payment/timer/stats")
+    @Trace
+    public Map<String, Object> getPaymentTimerStats() {
+        return paymentService.getPaymentTimerStats();
+    }
+    
+    @GetMapping("/payment/changes")
+    @Trace
+    @Tags({
+        @Tag(key = "after", value = "arg[0]"),
+        @Tag(key = "max", value = "arg[1]")
+    })
+    public Map<String, Object> pollPaymentChanges(
+            @RequestParam(defaultValue = "0") long after,
+            @RequestParam(defaultValue = "100") int max) {
+        return paymentService.pollPaymentChanges(after, max);
+    }
+    
+    @GetMapping("/payment/changes/stats")
+    @Trace
+    public Map<String, Object> getPaymentChangeStreamStats() {
+        return paymentService.getPaymentChangeStreamStats();
     }
     
     // 数据分析相关接口
@@ -166,8 +368,8 @@ public class HelloController {
         @Tag(key = "userId", value = "arg[0]"),
         @Tag(key = "result", value = "returnedObj")
     })
-    public Map<String, Object> getUserAnalytics(@PathVariable String userId) {
-        return analyticsService.getUserAnalyticsReport(userId);
+    public CompletableFuture<Map<String, Object>> getUserAnalytics(@PathVariable String userId) {
+        return analyticsService.getUserAnalyticsReportAsync(userId);
     }
     
     @GetMapping("/analytics/system")
@@ -179,6 +381,29 @@ public class HelloController {
         return analyticsService.getSystemAnalyticsData();
     }
     
+    @GetMapping("/analytics/sales-trend")
+    @Trace
+    @Tags({
+        @Tag(key = "from", value = "arg[0]"),
+        @Tag(key = "to", value = "arg[1]"),
+        @Tag(key = "resolution", value = "arg[2]")
+    })
+    public List<Map<String, Object>> getSalesTrend(
+            @RequestParam(defaultValue = "0") long from,
+            @RequestParam(defaultValue = "0") long to,
+            @RequestParam(defaultValue = "auto") String resolution) {
+        return analyticsService.getSalesTrend(from, to, resolution);
+    }
+    
+    @GetMapping("/analytics/cache/stats")
+    @Trace
+    @Tags({
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Object> getAnalyticsCacheStats() {
+        return analyticsService.getAnalyticsCacheStats();
+    }
+    
     // 超复杂调用链路示例
     @GetMapping("/super-complex-flow/{userId}")
     @Trace
@@ -216,9 +441,9 @@ public class HelloController {
         
         // 3. 创建支付
         Map<String, Object> payment = paymentService.createPayment(
-                orderId, 
-                createdUserId, 
-                399.98, 
+                orderId,
+                createdUserId,
+                399.98,
                 "Credit Card"
         );
         String paymentId = (String) payment.get("paymentId");
@@ -1,24 +1,84 @@
 package com.example.demo.service;
 
+import com.example.demo.shard.ShardKey;
+
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+// 带@ShardKey的方法在分片部署时路由到该用户所在的实例。按状态/时间的查询和状态扫描由接收请求的实例
+// 扇出到所有实例并合并结果；变更流只覆盖一个实例，分片部署时由订阅方逐个实例拉取（见pollOrderChanges）
 public interface OrderService {
     // 创建订单
-    Map<String, Object> createOrder(String userId, List<Map<String, Object>> items);
+    Map<String, Object> createOrder(@ShardKey String userId, List<Map<String, Object>> items);
     
     // 获取订单详情
-    Map<String, Object> getOrderById(String orderId);
+    Map<String, Object> getOrderById(@ShardKey String orderId);
     
     // 获取用户订单列表
-    List<Map<String, Object>> getUserOrders(String userId);
+    List<Map<String, Object>> getUserOrders(@ShardKey String userId);
+    
+    // 分页获取用户订单列表，cursor为空时从第一页开始，返回orders、nextCursor和hasMore
+    Map<String, Object> getUserOrdersPage(@ShardKey String userId, String cursor, int limit);
+    
+    // 按状态分页查询订单，按创建时间升序。createdFrom/createdTo为epoch毫秒，范围为[createdFrom, createdTo)，
+    // createdTo为0表示不限上界；cursor为空时从头开始，返回orders、nextCursor和hasMore。分片部署时合并所有实例的结果
+    Map<String, Object> getOrdersByStatus(String status, long createdFrom, long createdTo, String cursor, int limit);
+    
+    // 按创建时间范围分页查询订单，参数和返回结构同getOrdersByStatus
+    Map<String, Object> getOrdersByCreateTime(long createdFrom, long createdTo, String cursor, int limit);
+    
+    // 分块扫描全部订单的状态，供对账使用。cursor为空时从头开始，返回orderIds及与之一一对应的statuses、totalAmounts、
+    // updateTimes和排序键keys，以及nextCursor和hasMore；生成器格式的订单按订单ID升序返回，历史格式的订单按创建时间穿插其中。
+    // 最后一块的nextCursor同样有效，之后新建的订单可从该位置继续扫描。分片部署时合并所有实例的结果
+    Map<String, Object> scanOrderStatuses(String cursor, int limit);
     
     // 更新订单状态
-    boolean updateOrderStatus(String orderId, String status);
+    boolean updateOrderStatus(@ShardKey String orderId, String status);
+    
+    // 批量更新订单状态，参数为 订单ID -> 状态，返回每个订单是否更新成功，整批只等待一次刷盘。
+    // 分片部署时整批路由到第一个订单所在的实例，调用方应按UserShardLoadBalance.ownerOf分组，只把同一实例上的订单放在一批
+    Map<String, Boolean> updateOrderStatuses(@ShardKey Map<String, String> orderStatuses);
     
     // 取消订单
-    boolean cancelOrder(String orderId);
+    boolean cancelOrder(@ShardKey String orderId);
+    
+    // 拉取afterSequence之后的订单变更事件（首次传0），返回events、nextSequence、dropped、lag和streamId。
+    // 下次拉取传入nextSequence；dropped大于0表示调用方落后太多，部分事件已被覆盖；streamId变化表示服务重启，应从0重新拉取。
+    // 每个实例的流只含自己的订单，streamId各不相同。分片部署时订阅方应通过UserShardLoadBalance.TARGET
+    // 逐个提供者地址拉取，按streamId分别记录位置（见StreamCursors），不能把其他实例的streamId当作重启
+    Map<String, Object> pollOrderChanges(long afterSequence, int maxEvents);
+    
+    // 订单变更流的容量、已发布事件数、被覆盖事件数和日志线程积压
+    Map<String, Object> getOrderChangeStreamStats();
+    
+    // 订单冷热分层统计：冷热订单数、热/冷命中率、冷读取平均和P99耗时(微秒)、迁移和读回次数、冷数据压缩率
+    Map<String, Object> getOrderTierStats();
     
     // 获取订单统计信息
-    Map<String, Object> getOrderStatistics(String userId);
+    Map<String, Object> getOrderStatistics(@ShardKey String userId);
+    
+    // 接收请求的实例的instanceId（每次启动生成）、地址、订单数和它确认过的实例列表，用于在提供者地址中识别实例
+    Map<String, Object> getShardInfo();
+    
+    // 桶迁移：写入从其他实例迁来的订单，参数为 订单ID -> 订单（字段同getOrderById，不含支付和物流状态）。
+    // 本实例没有的订单直接写入，已有的只在迁来的更新时间更晚时采用其状态；返回接收实例的instanceId及created、updated。
+    // 由实例之间通过UserShardLoadBalance.TARGET定向调用
+    Map<String, Object> importOrders(Map<String, Map<String, Object>> orders);
+    
+    // 以下为常用方法的异步版本，参数和结果与同名的同步方法相同。消费端调用后立即返回，不占用调用线程；
+    // 提供端的写操作在WAL落盘后才完成，等待刷盘期间不占用Dubbo线程
+    CompletableFuture<Map<String, Object>> createOrderAsync(@ShardKey String userId, List<Map<String, Object>> items);
+    
+    CompletableFuture<Map<String, Object>> getOrderByIdAsync(@ShardKey String orderId);
+    
+    CompletableFuture<List<Map<String, Object>>> getUserOrdersAsync(@ShardKey String userId);
+    
+    CompletableFuture<Boolean> updateOrderStatusAsync(@ShardKey String orderId, String status);
+    
+    CompletableFuture<Map<String, Boolean>> updateOrderStatusesAsync(@ShardKey Map<String, String> orderStatuses);
+    
+    CompletableFuture<Boolean> cancelOrderAsync(@ShardKey String orderId);
+    
+    CompletableFuture<Map<String, Object>> getOrderStatisticsAsync(@ShardKey String userId);
 }
\ No newline at end of file
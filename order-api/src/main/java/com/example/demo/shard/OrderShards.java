@@ -0,0 +1,78 @@
+package com.example.demo.shard;
+
+// 订单分片规则：用户ID哈希到固定的4096个桶，桶再通过一致性哈希映射到服务实例。
+// 订单ID格式为 ORDER_ + 19位按时间递增的数字 + 4位桶号，只凭订单ID就能路由到下单用户所在的分片
+public final class OrderShards {
+    
+    public static final String ORDER_ID_PREFIX = "ORDER_";
+    public static final int BUCKETS = 4096;
+    
+    private static final int ID_WIDTH = 19;
+    private static final int BUCKET_WIDTH = 4;
+    private static final int ORDER_ID_LENGTH = ORDER_ID_PREFIX.length() + ID_WIDTH + BUCKET_WIDTH;
+    
+    private OrderShards() {
+    }
+    
+    // String.hashCode在各JVM上结果一致，再打散一次避免相近的用户ID落在相邻的桶
+    public static int bucketOfUser(String userId) {
+        int h = userId.hashCode();
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        h ^= h >>> 16;
+        return h & (BUCKETS - 1);
+    }
+    
+    // 订单ID取其中的桶号，其他值按用户ID计算
+    public static int bucketOf(String key) {
+        int bucket = bucketOfOrder(key);
+        return bucket >= 0 ? bucket : bucketOfUser(key);
+    }
+    
+    public static String orderId(long id, int bucket) {
+        char[] chars = new char[ORDER_ID_LENGTH];
+        ORDER_ID_PREFIX.getChars(0, ORDER_ID_PREFIX.length(), chars, 0);
+        writeDigits(chars, ORDER_ID_PREFIX.length(), ID_WIDTH, id);
+        writeDigits(chars, ORDER_ID_PREFIX.length() + ID_WIDTH, BUCKET_WIDTH, bucket);
+        return new String(chars);
+    }
+    
+    // 订单ID中按时间递增的数字部分，格式不符时返回-1
+    public static long idOf(String orderId) {
+        if (!isShardedOrderId(orderId)) {
+            return -1L;
+        }
+        return readDigits(orderId, ORDER_ID_PREFIX.length(), ID_WIDTH);
+    }
+    
+    public static int bucketOfOrder(String orderId) {
+        if (!isShardedOrderId(orderId)) {
+            return -1;
+        }
+        long bucket = readDigits(orderId, ORDER_ID_PREFIX.length() + ID_WIDTH, BUCKET_WIDTH);
+        return bucket >= 0 && bucket < BUCKETS ? (int) bucket : -1;
+    }
+    
+    private static boolean isShardedOrderId(String value) {
+        return value != null && value.length() == ORDER_ID_LENGTH && value.startsWith(ORDER_ID_PREFIX);
+    }
+    
+    private static void writeDigits(char[] chars, int offset, int width, long value) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+    
+    private static long readDigits(String value, int offset, int width) {
+        long result = 0L;
+        for (int i = offset; i < offset + width; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1L;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,12 @@
+package com.example.demo.shard;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// 标记服务接口中决定路由分片的参数(用户ID或订单ID)，UserShardLoadBalance按该参数选择提供者
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ShardKey {
+}
\ No newline at end of file
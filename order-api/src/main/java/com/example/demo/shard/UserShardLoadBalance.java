@@ -0,0 +1,260 @@
+package com.example.demo.shard;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.RpcContext;
+import org.apache.dubbo.rpc.RpcException;
+import org.apache.dubbo.rpc.cluster.loadbalance.AbstractLoadBalance;
+import org.apache.dubbo.rpc.cluster.loadbalance.RandomLoadBalance;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// 按用户分片的负载均衡(SPI名usershard)。方法中带@ShardKey的参数决定桶号，桶用最高随机权重(rendezvous)
+// 一致性哈希映射到提供者：每个桶归属于 hash(桶号, 地址) 最大的实例。提供者列表来自注册中心(ZooKeeper)，
+// 实例加入时只有被新实例夺走的桶迁移，退出时只有它拥有的桶迁移，比虚拟节点环分布更均匀。
+// 没有@ShardKey参数的方法随机选择提供者；@ShardKey参数为Map或集合（批量调用）时按第一个键路由。
+// 调用方在RpcContext附件TARGET中给出提供者地址时直接选该实例，用于跨分片查询的扇出和桶迁移
+public class UserShardLoadBalance extends AbstractLoadBalance {
+    
+    public static final String NAME = "usershard";
+    public static final String TARGET = "order.shard.target";
+    
+    private static final int NO_SHARD_KEY = -1;
+    
+    // 每个接口最近一次的桶分配，供调用方在批量调用前按实例分组
+    private static final Map<String, Assignment<?>> LATEST = new ConcurrentHashMap<>();
+    
+    private final Map<String, Assignment<?>> assignments = new ConcurrentHashMap<>();
+    private final Map<MethodKey, Integer> shardKeyIndexes = new ConcurrentHashMap<>();
+    private final RandomLoadBalance fallback = new RandomLoadBalance();
+    
+    @Override
+    protected <T> Invoker<T> doSelect(List<Invoker<T>> invokers, URL url, Invocation invocation) {
+        // 每次选择都核对提供者列表，没有分片键的调用也会刷新providers的结果
+        Assignment<T> assignment = assignmentOf(invokers);
+        String target = invocation.getAttachment(TARGET);
+        if (target != null) {
+            Invoker<T> invoker = assignment.byAddress.get(target);
+            if (invoker == null) {
+                throw new RpcException("No provider of " + invokers.get(0).getInterface().getName() + " at " + target);
+            }
+            return invoker;
+        }
+        String key = shardKeyOf(invokers.get(0).getInterface(), invocation);
+        if (key == null) {
+            return fallback.select(invokers, url, invocation);
+        }
+        return assignment.select(OrderShards.bucketOf(key));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <T> Assignment<T> assignmentOf(List<Invoker<T>> invokers) {
+        String serviceKey = invokers.get(0).getUrl().getServiceKey();
+        int identity = invokers.hashCode();
+        Assignment<T> assignment = (Assignment<T>) assignments.get(serviceKey);
+        if (assignment == null || assignment.identity != identity) {
+            Assignment<T> rebuilt = new Assignment<>(invokers, identity);
+            if (assignment != null) {
+                System.out.println("Order shard assignment for " + serviceKey + " rebuilt with " + invokers.size()
+                        + " providers, " + rebuilt.movedFrom(assignment) + " of " + OrderShards.BUCKETS + " buckets moved");
+            }
+            assignments.put(serviceKey, rebuilt);
+            LATEST.put(invokers.get(0).getInterface().getName(), rebuilt);
+            assignment = rebuilt;
+        }
+        return assignment;
+    }
+    
+    // 返回key所在桶当前归属的提供者地址；只有一个提供者或尚未发生过分片路由时返回null
+    public static String ownerOf(Class<?> type, String key) {
+        Assignment<?> assignment = LATEST.get(type.getName());
+        return assignment == null ? null : assignment.addresses[OrderShards.bucketOf(key)];
+    }
+    
+    // 定向调用address上的提供者，address为null时照常选择；调用方的引用需要使用本负载均衡
+    public static <T> T callAt(String address, Supplier<T> invocation) {
+        if (address == null) {
+            return invocation.get();
+        }
+        RpcContext context = RpcContext.getContext();
+        context.setAttachment(TARGET, address);
+        try {
+            return invocation.get();
+        } finally {
+            context.removeAttachment(TARGET);
+        }
+    }
+    
+    // 最近一次选择时看到的提供者地址，按地址排序。Dubbo在只剩一个提供者时不经过负载均衡，
+    // 列表可能停留在缩容前，调用方需要用实例的应答核对
+    public static List<String> providers(Class<?> type) {
+        Assignment<?> assignment = LATEST.get(type.getName());
+        return assignment == null ? Collections.emptyList() : assignment.providers;
+    }
+    
+    private String shardKeyOf(Class<?> type, Invocation invocation) {
+        Object[] arguments = invocation.getArguments();
+        if (arguments == null || arguments.length == 0) {
+            return null;
+        }
+        int index = shardKeyIndexes.computeIfAbsent(
+                new MethodKey(type, invocation.getMethodName(), invocation.getParameterTypes()),
+                UserShardLoadBalance::findShardKey);
+        if (index == NO_SHARD_KEY || index >= arguments.length) {
+            return null;
+        }
+        Object argument = arguments[index];
+        if (argument instanceof Map) {
+            argument = first(((Map<?, ?>) argument).keySet());
+        } else if (argument instanceof Collection) {
+            argument = first((Collection<?>) argument);
+        }
+        return argument instanceof String ? (String) argument : null;
+    }
+    
+    private static Object first(Collection<?> values) {
+        return values.isEmpty() ? null : values.iterator().next();
+    }
+    
+    private static int findShardKey(MethodKey key) {
+        Method method;
+        try {
+            method = key.type.getMethod(key.name, key.parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return NO_SHARD_KEY;
+        }
+        Annotation[][] annotations = method.getParameterAnnotations();
+        for (int i = 0; i < annotations.length; i++) {
+            for (Annotation annotation : annotations[i]) {
+                if (annotation instanceof ShardKey) {
+                    return i;
+                }
+            }
+        }
+        return NO_SHARD_KEY;
+    }
+    
+    // 反射查找方法较慢，按接口、方法名和参数类型缓存@ShardKey参数的位置
+    private static final class MethodKey {
+        final Class<?> type;
+        final String name;
+        final Class<?>[] parameterTypes;
+        
+        MethodKey(Class<?> type, String name, Class<?>[] parameterTypes) {
+            this.type = type;
+            this.name = name;
+            this.parameterTypes = parameterTypes;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MethodKey)) {
+                return false;
+            }
+            MethodKey other = (MethodKey) o;
+            return type == other.type && name.equals(other.name) && Arrays.equals(parameterTypes, other.parameterTypes);
+        }
+        
+        @Override
+        public int hashCode() {
+            return type.hashCode() * 31 + name.hashCode();
+        }
+    }
+    
+    // 桶到提供者的映射在提供者列表变化时一次算好，选择时只是一次数组访问
+    private static final class Assignment<T> {
+        final int identity;
+        final Invoker<T>[] buckets;
+        final String[] addresses;
+        final Map<String, Invoker<T>> byAddress = new HashMap<>();
+        final List<String> providers;
+        
+        @SuppressWarnings("unchecked")
+        Assignment(List<Invoker<T>> invokers, int identity) {
+            this.identity = identity;
+            for (Invoker<T> invoker : invokers) {
+                byAddress.put(invoker.getUrl().getAddress(), invoker);
+            }
+            List<String> sorted = new ArrayList<>(byAddress.keySet());
+            Collections.sort(sorted);
+            this.providers = Collections.unmodifiableList(sorted);
+            this.addresses = owners(sorted);
+            this.buckets = new Invoker[OrderShards.BUCKETS];
+            for (int bucket = 0; bucket < OrderShards.BUCKETS; bucket++) {
+                buckets[bucket] = byAddress.get(addresses[bucket]);
+            }
+        }
+        
+        Invoker<T> select(int bucket) {
+            return buckets[bucket];
+        }
+        
+        int movedFrom(Assignment<?> previous) {
+            int moved = 0;
+            for (int bucket = 0; bucket < addresses.length; bucket++) {
+                if (!addresses[bucket].equals(previous.addresses[bucket])) {
+                    moved++;
+                }
+            }
+            return moved;
+        }
+    }
+    
+    // 按给定的提供者地址算出每个桶归属的地址，与消费者路由的结果一致；桶迁移用它排除正在下线的实例
+    public static String[] owners(List<String> providers) {
+        long[] seeds = new long[providers.size()];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = hash(providers.get(i));
+        }
+        String[] owners = new String[OrderShards.BUCKETS];
+        for (int bucket = 0; bucket < OrderShards.BUCKETS; bucket++) {
+            // 每个桶选权重最大的提供者；权重只取决于桶号和地址，所有消费者得到相同的映射
+            int owner = 0;
+            long best = Long.MIN_VALUE;
+            for (int i = 0; i < seeds.length; i++) {
+                long weight = mix(seeds[i] ^ (bucket * 0x9E3779B97F4A7C15L));
+                if (weight > best || (weight == best && providers.get(i).compareTo(providers.get(owner)) < 0)) {
+                    best = weight;
+                    owner = i;
+                }
+            }
+            owners[bucket] = providers.get(owner);
+        }
+        return owners;
+    }
+    
+    // 64位混淆函数(SplitMix64的收尾步骤)
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    // 取地址MD5的前8个字节
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long h = 0L;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,53 @@
+package com.example.demo.config;
+
+import com.example.demo.service.impl.OrderServiceImpl;
+import com.example.demo.shard.OrderBucketHandoff;
+import com.example.demo.shard.OrderShardPeers;
+import com.example.demo.store.OrderStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class OrderShardConfiguration {
+    
+    @Value("${order.shard.handoff.drain-on-shutdown:true}")
+    private boolean drainOnShutdown;
+    
+    // 实例列表变化后，本地查不到的订单在handoff-window内转到其他实例查找和更新；扇出查询并行调用各实例
+    @Bean(destroyMethod = "close")
+    public OrderShardPeers orderShardPeers(@Value("${order.shard.handoff-window-seconds:300}") long handoffWindowSeconds,
+                                           @Value("${order.shard.fan-out-threads:8}") int fanOutThreads) {
+        return new OrderShardPeers(TimeUnit.SECONDS.toMillis(handoffWindowSeconds), fanOutThreads);
+    }
+    
+    // 按间隔确认实例列表，列表变化后把不再归本实例的订单迁给新的归属实例
+    @Bean(destroyMethod = "close")
+    public OrderBucketHandoff orderBucketHandoff(OrderShardPeers orderShardPeers,
+                                                 OrderStore orderStore,
+                                                 OrderServiceImpl orderService,
+                                                 @Value("${order.shard.handoff.enabled:true}") boolean enabled,
+                                                 @Value("${order.shard.handoff.interval-seconds:10}") long intervalSeconds,
+                                                 @Value("${order.shard.handoff.batch-size:500}") int batchSize) {
+        OrderBucketHandoff handoff = new OrderBucketHandoff(orderShardPeers, orderStore, orderService::removeHandedOff, batchSize);
+        if (enabled) {
+            handoff.start(TimeUnit.SECONDS.toMillis(intervalSeconds));
+        }
+        return handoff;
+    }
+    
+    // 停机时先于Dubbo注销服务和销毁引用执行，趁还能调用其他实例把订单迁出
+    @EventListener(ContextClosedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void drainOrders(ContextClosedEvent event) {
+        if (drainOnShutdown) {
+            event.getApplicationContext().getBean(OrderBucketHandoff.class).drain();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,98 @@
+package com.example.demo.config;
+
+import com.example.demo.event.OrderChangeStream;
+import com.example.demo.store.ColumnarOrderStore;
+import com.example.demo.store.HeapOrderStore;
+import com.example.demo.store.OrderChangeListener;
+import com.example.demo.store.OrderSecondaryIndex;
+import com.example.demo.store.OrderStore;
+import com.example.demo.store.persistence.OrderPersistence;
+import com.example.demo.store.tier.TieredOrderStore;
+import com.example.demo.wal.WriteAheadLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class OrderStoreConfiguration {
+    
+    // heap: 每个订单一个OrderRecord对象；columnar: 堆内列式数组；offheap: 数值列放在堆外。
+    // 开启分层时以上存储只保存热数据，完结的旧订单迁到冷数据段；冷数据依赖WAL和快照恢复热数据，未开启WAL时不分层
+    @Bean
+    public OrderStore orderStore(@Value("${order.store.mode:heap}") String mode,
+                                 @Value("${order.wal.enabled:true}") boolean walEnabled,
+                                 @Value("${order.tier.enabled:false}") boolean tierEnabled,
+                                 @Value("${order.tier.dir:${order.wal.dir:data/order}/cold}") String tierDir,
+                                 @Value("${order.tier.segment-size-mb:64}") int tierSegmentSizeMb,
+                                 @Value("${order.tier.statuses:PAID,CANCELLED}") String tierStatuses,
+                                 @Value("${order.tier.cold-after-minutes:1440}") long coldAfterMinutes,
+                                 @Value("${order.tier.block-records:32}") int blockRecords) throws IOException {
+        OrderStore store;
+        switch (mode) {
+            case "heap":
+                store = new HeapOrderStore();
+                break;
+            case "columnar":
+                store = new ColumnarOrderStore(false);
+                break;
+            case "offheap":
+                store = new ColumnarOrderStore(true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown order.store.mode: " + mode);
+        }
+        if (!tierEnabled) {
+            return store;
+        }
+        if (!walEnabled) {
+            System.err.println("order.tier.enabled requires order.wal.enabled, tiering disabled");
+            return store;
+        }
+        return new TieredOrderStore(store, new File(tierDir), tierSegmentSizeMb << 20, Arrays.asList(tierStatuses.split(",")),
+                TimeUnit.MINUTES.toMillis(coldAfterMinutes), blockRecords);
+    }
+    
+    // 环形缓冲区容量，订阅方落后超过该条数时会丢失最旧的事件
+    @Bean(destroyMethod = "close")
+    public OrderChangeStream orderChangeStream(@Value("${order.events.capacity:65536}") int capacity,
+                                               @Value("${order.events.log-changes:true}") boolean logChanges) {
+        return new OrderChangeStream(capacity, logChanges);
+    }
+    
+    // 状态和创建时间索引，与变更事件一样在持久化层的锁内维护
+    @Bean
+    public OrderSecondaryIndex orderSecondaryIndex() {
+        return new OrderSecondaryIndex();
+    }
+    
+    // 创建时完成快照加载和WAL重放，订单服务拿到的是已经恢复好的存储
+    @Bean(destroyMethod = "close")
+    public OrderPersistence orderPersistence(OrderStore orderStore,
+                                             OrderChangeStream orderChangeStream,
+                                             OrderSecondaryIndex orderSecondaryIndex,
+                                             @Value("${order.wal.enabled:true}") boolean enabled,
+                                             @Value("${order.wal.dir:data/order}") String dir,
+                                             @Value("${order.wal.segment-size-mb:64}") int segmentSizeMb,
+                                             @Value("${order.wal.durability:group}") String durability,
+                                             @Value("${order.wal.flush-interval-ms:2}") long flushIntervalMillis,
+                                             @Value("${order.wal.snapshot-interval-seconds:300}") long snapshotIntervalSeconds,
+                                             @Value("${order.tier.scan-interval-seconds:60}") long tierScanIntervalSeconds) throws IOException {
+        OrderChangeListener listener = OrderChangeListener.composite(orderSecondaryIndex, orderChangeStream);
+        if (!enabled) {
+            return OrderPersistence.inMemory(orderStore, listener);
+        }
+        OrderPersistence persistence = OrderPersistence.durable(orderStore, listener, new File(dir), segmentSizeMb << 20,
+                WriteAheadLog.Durability.valueOf(durability.toUpperCase()), flushIntervalMillis, snapshotIntervalSeconds);
+        persistence.open();
+        // 恢复完成后才开始迁移，迁移队列需要包含从快照和WAL恢复的全部热订单
+        if (orderStore instanceof TieredOrderStore) {
+            ((TieredOrderStore) orderStore).start(TimeUnit.SECONDS.toMillis(tierScanIntervalSeconds));
+        }
+        return persistence;
+    }
+}
\ No newline at end of file
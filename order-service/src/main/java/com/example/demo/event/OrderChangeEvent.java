@@ -0,0 +1,74 @@
+package com.example.demo.event;
+
+import com.example.demo.store.OrderStatusCodes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// 订单变更事件，只保存订阅方需要的字段，不引用订单明细
+public final class OrderChangeEvent {
+    
+    public static final String CREATED = "CREATED";
+    public static final String STATUS_CHANGED = "STATUS_CHANGED";
+    
+    private final String type;
+    private final String orderId;
+    private final String userId;
+    // 新建订单时为-1
+    private final int oldStatusCode;
+    private final int newStatusCode;
+    private final double totalAmount;
+    private final long timestamp;
+    
+    public OrderChangeEvent(String type, String orderId, String userId, int oldStatusCode, int newStatusCode,
+                            double totalAmount, long timestamp) {
+        this.type = type;
+        this.orderId = orderId;
+        this.userId = userId;
+        this.oldStatusCode = oldStatusCode;
+        this.newStatusCode = newStatusCode;
+        this.totalAmount = totalAmount;
+        this.timestamp = timestamp;
+    }
+    
+    public String getType() {
+        return type;
+    }
+    
+    public String getOrderId() {
+        return orderId;
+    }
+    
+    public String getUserId() {
+        return userId;
+    }
+    
+    public int getOldStatusCode() {
+        return oldStatusCode;
+    }
+    
+    public int getNewStatusCode() {
+        return newStatusCode;
+    }
+    
+    public double getTotalAmount() {
+        return totalAmount;
+    }
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public Map<String, Object> toMap(long sequence) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("sequence", sequence);
+        map.put("type", type);
+        map.put("orderId", orderId);
+        map.put("userId", userId);
+        map.put("oldStatus", oldStatusCode < 0 ? null : OrderStatusCodes.nameOf(oldStatusCode));
+        map.put("newStatus", OrderStatusCodes.nameOf(newStatusCode));
+        map.put("totalAmount", totalAmount);
+        map.put("timestamp", timestamp);
+        return map;
+    }
+}
\ No newline at end of file
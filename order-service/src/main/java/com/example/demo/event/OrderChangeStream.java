@@ -0,0 +1,118 @@
+package com.example.demo.event;
+
+import com.example.demo.store.OrderChangeListener;
+import com.example.demo.store.OrderRecord;
+import com.example.demo.store.OrderStatusCodes;
+import com.example.demo.stream.ChangeRing;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// 订单变更事件流：持久化层在分段锁内把变更写入环形缓冲区，写入不阻塞也不创建线程。
+// 外部订阅方按序号拉取；内部只有一个日志线程消费事件，代替原来每次状态变更新建线程打日志
+public class OrderChangeStream implements OrderChangeListener, Closeable {
+    
+    private static final int LOGGER_BATCH = 256;
+    private static final long LOGGER_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    private final ChangeRing<OrderChangeEvent> ring;
+    // 进程启动时间，服务重启后序号从1重新开始，订阅方据此判断需要重置位置
+    private final long streamId = System.currentTimeMillis();
+    
+    private final Thread logger;
+    private volatile boolean running = true;
+    private volatile long loggerSequence;
+    private final AtomicLong loggerDropped = new AtomicLong();
+    
+    public OrderChangeStream(int capacity, boolean logChanges) {
+        this.ring = new ChangeRing<>(capacity);
+        if (logChanges) {
+            logger = new Thread(this::logLoop, "order-change-logger");
+            logger.setDaemon(true);
+            logger.start();
+        } else {
+            logger = null;
+        }
+    }
+    
+    @Override
+    public void onCreated(OrderRecord record) {
+        ring.publish(new OrderChangeEvent(OrderChangeEvent.CREATED, record.getOrderId(), record.getUserId(),
+                -1, record.getStatusCode(), record.getTotalAmount(), record.getCreateTime()));
+    }
+    
+    @Override
+    public void onStatusChanged(OrderRecord previous, int statusCode, long updateTime) {
+        ring.publish(new OrderChangeEvent(OrderChangeEvent.STATUS_CHANGED, previous.getOrderId(), previous.getUserId(),
+                previous.getStatusCode(), statusCode, previous.getTotalAmount(), updateTime));
+    }
+    
+    // 拉取afterSequence之后的事件，返回结构见OrderService.pollOrderChanges
+    public Map<String, Object> poll(long afterSequence, int maxEvents) {
+        ChangeRing.Batch<OrderChangeEvent> batch = ring.poll(afterSequence, maxEvents);
+        List<OrderChangeEvent> events = batch.getEvents();
+        long sequence = batch.getLastDeliveredSequence() - events.size() + 1;
+        List<Map<String, Object>> eventMaps = new ArrayList<>(events.size());
+        for (OrderChangeEvent event : events) {
+            eventMaps.add(event.toMap(sequence++));
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("streamId", streamId);
+        result.put("events", eventMaps);
+        result.put("nextSequence", batch.getLastDeliveredSequence());
+        result.put("dropped", batch.getDropped());
+        result.put("lag", batch.getLag());
+        return result;
+    }
+    
+    public Map<String, Object> stats() {
+        long last = ring.lastSequence();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("streamId", streamId);
+        stats.put("capacity", ring.capacity());
+        stats.put("published", last);
+        stats.put("oldestSequence", ring.oldestSequence());
+        stats.put("lastSequence", last);
+        stats.put("overwritten", ring.overwritten());
+        if (logger != null) {
+            stats.put("loggerLag", Math.max(0L, last - loggerSequence));
+            stats.put("loggerDropped", loggerDropped.get());
+        }
+        return stats;
+    }
+    
+    @Override
+    public void close() {
+        running = false;
+        if (logger != null) {
+            LockSupport.unpark(logger);
+        }
+    }
+    
+    private void logLoop() {
+        while (running) {
+            ChangeRing.Batch<OrderChangeEvent> batch = ring.poll(loggerSequence, LOGGER_BATCH);
+            if (batch.getDropped() > 0) {
+                loggerDropped.addAndGet(batch.getDropped());
+                System.err.println("Order change logger fell behind, skipped " + batch.getDropped() + " events");
+            }
+            for (OrderChangeEvent event : batch.getEvents()) {
+                if (OrderChangeEvent.STATUS_CHANGED.equals(event.getType())) {
+                    System.out.println("Order updated: " + event.getOrderId()
+                            + " to status: " + OrderStatusCodes.nameOf(event.getNewStatusCode()));
+                }
+            }
+            loggerSequence = batch.getLastDeliveredSequence();
+            if (batch.getEvents().isEmpty()) {
+                LockSupport.parkNanos(this, LOGGER_IDLE_NANOS);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -1,25 +1,102 @@
 package com.example.demo.service.impl;
 
+import com.example.demo.event.OrderChangeStream;
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.index.UserIdIndex;
 import com.example.demo.service.HelloService;
 import com.example.demo.service.OrderService;
+import com.example.demo.service.PaymentService;
+import com.example.demo.shard.OrderShardPeers;
+import com.example.demo.shard.OrderShards;
+import com.example.demo.shard.ShardedResults;
+import com.example.demo.store.OrderRecord;
+import com.example.demo.store.OrderSecondaryIndex;
+import com.example.demo.store.OrderStatusCodes;
+import com.example.demo.store.OrderStore;
+import com.example.demo.store.UserOrderStats;
+import com.example.demo.store.persistence.OrderPersistence;
+import com.example.demo.store.tier.TieredOrderStore;
 import org.apache.dubbo.config.annotation.Reference;
 import org.apache.dubbo.config.annotation.Service;
 import org.apache.skywalking.apm.toolkit.trace.Tag;
 import org.apache.skywalking.apm.toolkit.trace.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @Component
 public class OrderServiceImpl implements OrderService {
     
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int DEFAULT_EVENT_BATCH = 100;
+    private static final int MAX_EVENT_BATCH = 1000;
+    private static final int DEFAULT_SCAN_CHUNK = 1000;
+    private static final int MAX_SCAN_CHUNK = 10000;
+    // 补全支付状态时单次批量查询的订单数上限
+    private static final int PAYMENT_LOOKUP_BATCH = 500;
+    
     @Reference
     private HelloService helloService;
     
-    private Map<String, Map<String, Object>> orderStore = new ConcurrentHashMap<>();
-    private Map<String, List<String>> userOrderMap = new ConcurrentHashMap<>();
+    // 订单列表的支付状态由支付服务批量查询补全，每页一次调用
+    @Reference
+    private PaymentService paymentService;
+    
+    @Autowired
+    private OrderStore orderStore;
+    
+    // 所有订单写操作都经过持久化层，先写内存再追加WAL
+    @Autowired
+    private OrderPersistence orderPersistence;
+    
+    // 订单变更事件，状态变更日志由事件流的日志线程统一输出
+    @Autowired
+    private OrderChangeStream orderChangeStream;
+    
+    @Autowired
+    private SnowflakeIdGenerator idGenerator;
+    
+    @Autowired
+    private OrderSecondaryIndex orderSecondaryIndex;
+    
+    // 分片部署时跨实例的查询扇出，以及桶迁移期间对其他实例的读取回退
+    @Autowired
+    private OrderShardPeers orderShardPeers;
+    
+    private final UserIdIndex userOrderIndex = new UserIdIndex();
+    private final UserOrderStats userOrderStats = new UserOrderStats();
+    
+    // 开启后每次查询统计都会与全量重算结果比对
+    @Value("${order.stats.verify:false}")
+    private boolean verifyStatistics;
+    
+    // 关闭后订单列表不再查询支付服务，支付状态保持UNPAID
+    @Value("${order.payment-status.enabled:true}")
+    private boolean paymentStatusEnabled;
+    
+    // 存储从快照和WAL恢复后重建用户索引和统计。边遍历边登记统计和二级索引，不保留订单记录，冷订单不解码商品明细；
+    // 用户订单列表需要按下单时间追加，只暂存下单时间和两个ID排序，用户ID按用户去重
+    @PostConstruct
+    public void rebuildUserIndexes() {
+        List<CreatedOrder> created = new ArrayList<>(orderStore.size());
+        Map<String, String> userIds = new HashMap<>();
+        orderStore.forEachWithoutItems(record -> {
+            userOrderStats.recordCreated(record.getUserId(), record.getStatusCode(), record.getTotalAmount(), record.getCreateTime());
+            orderSecondaryIndex.onCreated(record);
+            String userId = userIds.computeIfAbsent(record.getUserId(), k -> k);
+            created.add(new CreatedOrder(record.getCreateTime(), userId, record.getOrderId()));
+        });
+        created.sort(Comparator.comparingLong(order -> order.createTime));
+        for (CreatedOrder order : created) {
+            userOrderIndex.append(order.userId, order.orderId);
+        }
+    }
     
     @Override
     @Tags({
@@ -28,22 +105,9 @@ public class OrderServiceImpl implements OrderService {
         @Tag(key = "result", value = "returnedObj")
     })
     public Map<String, Object> createOrder(String userId, List<Map<String, Object>> items) {
-        // 生成订单ID
-        String orderId = "ORDER_" + UUID.randomUUID().toString().substring(0, 8);
-        Map<String, Object> order = new HashMap<>();
-        order.put("orderId", orderId);
-        order.put("userId", userId);
-        order.put("items", items);
-        order.put("createTime", new Date());
-        order.put("status", "PENDING_PAYMENT");
-        order.put("totalAmount", calculateTotal(items));
-        order.put("userVerified", true); // 用户验证在系统其他层完成
-        
-        orderStore.put(orderId, order);
-        userOrderMap.computeIfAbsent(userId, k -> new ArrayList<>()).add(orderId);
-        
-        logOrderCreation(orderId, userId);
-        return order;
+        OrderRecord record = newOrder(userId, items);
+        orderPersistence.create(record);
+        return onOrderCreated(record);
     }
     
     @Override
@@ -52,12 +116,12 @@ public class OrderServiceImpl implements OrderService {
         @Tag(key = "result", value = "returnedObj")
     })
     public Map<String, Object> getOrderById(String orderId) {
-        Map<String, Object> order = orderStore.get(orderId);
-        if (order != null) {
-            // 调用内部方法处理订单数据
-            return enrichOrderData(order);
+        Map<String, Object> order = localOrder(orderId);
+        if (order == null && orderShardPeers.handoffActive()) {
+            // 订单所在的桶刚迁入本实例，订单可能还在原来的实例上
+            return orderShardPeers.findOrder(orderId);
         }
-        return null;
+        return order;
     }
     
     @Override
@@ -66,17 +130,116 @@ public class OrderServiceImpl implements OrderService {
         @Tag(key = "result", value = "returnedObj")
     })
     public List<Map<String, Object>> getUserOrders(String userId) {
-        List<String> orderIds = userOrderMap.getOrDefault(userId, Collections.emptyList());
-        List<Map<String, Object>> orders = new ArrayList<>();
+        return withPaymentStatus(localOrders(userOrderIndex.list(userId)));
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]"),
+        @Tag(key = "cursor", value = "arg[1]"),
+        @Tag(key = "limit", value = "arg[2]")
+    })
+    public Map<String, Object> getUserOrdersPage(String userId, String cursor, int limit) {
+        int position = parseCursor(cursor);
+        int pageSize = pageSizeOf(limit);
         
-        for (String orderId : orderIds) {
-            Map<String, Object> order = getOrderById(orderId);
-            if (order != null) {
-                orders.add(order);
+        // 只读取本页范围内的订单ID，游标即用户订单日志中的位置
+        List<String> orderIds = userOrderIndex.range(userId, position, pageSize);
+        List<Map<String, Object>> orders = withPaymentStatus(localOrders(orderIds));
+        
+        int nextPosition = position + orderIds.size();
+        boolean hasMore = nextPosition < userOrderIndex.count(userId);
+        
+        Map<String, Object> page = new HashMap<>();
+        page.put("orders", orders);
+        page.put("nextCursor", hasMore ? String.valueOf(nextPosition) : null);
+        page.put("hasMore", hasMore);
+        return page;
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "status", value = "arg[0]"),
+        @Tag(key = "createdFrom", value = "arg[1]"),
+        @Tag(key = "createdTo", value = "arg[2]"),
+        @Tag(key = "cursor", value = "arg[3]"),
+        @Tag(key = "limit", value = "arg[4]")
+    })
+    public Map<String, Object> getOrdersByStatus(String status, long createdFrom, long createdTo, String cursor, int limit) {
+        List<Map<String, Object>> pages = orderShardPeers.fanOut(peer -> peer.getOrdersByStatus(status, createdFrom, createdTo, cursor, limit));
+        if (pages != null) {
+            return ShardedResults.mergePages(pages, pageSizeOf(limit));
+        }
+        int statusCode = OrderStatusCodes.find(status);
+        if (statusCode < 0) {
+            // 没有订单处于未登记的状态
+            Map<String, Object> page = new HashMap<>();
+            page.put("orders", new ArrayList<>());
+            page.put("nextCursor", null);
+            page.put("hasMore", false);
+            return page;
+        }
+        return queryIndex(statusCode, createdFrom, createdTo, cursor, limit);
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "createdFrom", value = "arg[0]"),
+        @Tag(key = "createdTo", value = "arg[1]"),
+        @Tag(key = "cursor", value = "arg[2]"),
+        @Tag(key = "limit", value = "arg[3]")
+    })
+    public Map<String, Object> getOrdersByCreateTime(long createdFrom, long createdTo, String cursor, int limit) {
+        List<Map<String, Object>> pages = orderShardPeers.fanOut(peer -> peer.getOrdersByCreateTime(createdFrom, createdTo, cursor, limit));
+        if (pages != null) {
+            return ShardedResults.mergePages(pages, pageSizeOf(limit));
+        }
+        return queryIndex(-1, createdFrom, createdTo, cursor, limit);
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "cursor", value = "arg[0]"),
+        @Tag(key = "limit", value = "arg[1]")
+    })
+    public Map<String, Object> scanOrderStatuses(String cursor, int limit) {
+        long afterKey = parseKeyCursor(cursor);
+        int chunkSize = limit <= 0 ? DEFAULT_SCAN_CHUNK : Math.min(limit, MAX_SCAN_CHUNK);
+        List<Map<String, Object>> chunks = orderShardPeers.fanOut(peer -> peer.scanOrderStatuses(cursor, limit));
+        if (chunks != null) {
+            return ShardedResults.mergeChunks(chunks, cursor, chunkSize);
+        }
+        // 生成器格式的订单ID，索引键就是ID的数值部分，键的顺序与订单ID的字典序一致
+        OrderSecondaryIndex.Page result = orderSecondaryIndex.query(-1, 0L, 0L, afterKey, chunkSize);
+        
+        // 只返回对账需要的字段，并行列表比逐个订单的Map小得多
+        int size = result.getOrderIds().size();
+        List<String> orderIds = new ArrayList<>(size);
+        List<String> statuses = new ArrayList<>(size);
+        List<Double> totalAmounts = new ArrayList<>(size);
+        List<Long> updateTimes = new ArrayList<>(size);
+        List<Long> keys = new ArrayList<>(size);
+        for (String orderId : result.getOrderIds()) {
+            OrderRecord record = orderStore.get(orderId);
+            if (record != null) {
+                orderIds.add(orderId);
+                statuses.add(record.getStatus());
+                totalAmounts.add(record.getTotalAmount());
+                updateTimes.add(record.getUpdateTime());
+                keys.add(OrderSecondaryIndex.keyOf(record));
             }
         }
         
-        return orders;
+        Map<String, Object> chunk = new HashMap<>();
+        chunk.put("orderIds", orderIds);
+        chunk.put("statuses", statuses);
+        chunk.put("totalAmounts", totalAmounts);
+        chunk.put("updateTimes", updateTimes);
+        chunk.put("keys", keys);
+        // 最后一块也返回游标，之后新建的订单可以从这里继续扫描
+        chunk.put("nextCursor", result.getLastKey() >= 0 ? String.valueOf(result.getLastKey()) : null);
+        chunk.put("hasMore", result.hasMore());
+        return chunk;
     }
     
     @Override
@@ -86,16 +249,12 @@ public class OrderServiceImpl implements OrderService {
         @Tag(key = "result", value = "returnedObj")
     })
     public boolean updateOrderStatus(String orderId, String status) {
-        Map<String, Object> order = orderStore.get(orderId);
-        if (order != null) {
-            order.put("status", status);
-            order.put("updateTime", new Date());
-            
-            // 模拟异步日志记录
-            new Thread(() -> logOrderUpdate(orderId, status)).start();
-            return true;
+        int statusCode = statusCodeForUpdate(orderId, status);
+        OrderRecord previous = statusCode < 0 ? null : orderPersistence.updateStatus(orderId, statusCode, System.currentTimeMillis());
+        if (previous == null) {
+            return forwardStatus(orderId, status);
         }
-        return false;
+        return onStatusChanged(previous, statusCode);
     }
     
     @Override
@@ -107,64 +266,382 @@ public class OrderServiceImpl implements OrderService {
         return updateOrderStatus(orderId, "CANCELLED");
     }
     
+    @Override
+    @Tags({
+        @Tag(key = "orderStatuses", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Boolean> updateOrderStatuses(Map<String, String> orderStatuses) {
+        String[] orderIds = orderStatuses.keySet().toArray(new String[0]);
+        int[] statusCodes = statusCodesOf(orderIds, orderStatuses);
+        // 整批只等待一次WAL刷盘
+        OrderRecord[] previous = orderPersistence.updateStatuses(orderIds, statusCodes, System.currentTimeMillis());
+        Map<String, Boolean> results = onStatusesChanged(orderIds, statusCodes, previous);
+        return orderShardPeers.handoffActive() ? forwardMissing(orderStatuses, results) : results;
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "afterSequence", value = "arg[0]"),
+        @Tag(key = "maxEvents", value = "arg[1]")
+    })
+    public Map<String, Object> pollOrderChanges(long afterSequence, int maxEvents) {
+        // 只返回本实例的流，分片部署时订阅方逐个实例定向拉取
+        int batchSize = maxEvents <= 0 ? DEFAULT_EVENT_BATCH : Math.min(maxEvents, MAX_EVENT_BATCH);
+        return orderChangeStream.poll(afterSequence, batchSize);
+    }
+    
+    @Override
+    public Map<String, Object> getOrderChangeStreamStats() {
+        return orderChangeStream.stats();
+    }
+    
+    @Override
+    public Map<String, Object> getOrderTierStats() {
+        if (orderStore instanceof TieredOrderStore) {
+            return ((TieredOrderStore) orderStore).stats();
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", false);
+        stats.put("hotOrders", orderStore.size());
+        return stats;
+    }
+    
+    @Override
+    public Map<String, Object> getShardInfo() {
+        Map<String, Object> info = new HashMap<>();
+        info.put("instanceId", orderShardPeers.instanceId());
+        info.put("address", orderShardPeers.self());
+        info.put("members", new ArrayList<>(orderShardPeers.members()));
+        info.put("orders", orderStore.size());
+        return info;
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "orderCount", value = "arg[0].size()")
+    })
+    public Map<String, Object> importOrders(Map<String, Map<String, Object>> orders) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("instanceId", orderShardPeers.instanceId());
+        if (orderShardPeers.draining()) {
+            // 本实例正在把订单迁出，写入的订单会随停机留在本地
+            result.put("rejected", true);
+            return result;
+        }
+        int created = 0;
+        int updated = 0;
+        for (Map<String, Object> order : orders.values()) {
+            OrderRecord record = OrderRecord.fromMap(order);
+            if (orderPersistence.createIfAbsent(record)) {
+                userOrderStats.recordCreated(record.getUserId(), record.getStatusCode(), record.getTotalAmount(), record.getCreateTime());
+                userOrderIndex.append(record.getUserId(), record.getOrderId());
+                created++;
+                continue;
+            }
+            // 本实例已有该订单（上一轮迁移的重发，或迁移期间在这里更新过），只采用更晚的状态
+            OrderRecord current = orderStore.get(record.getOrderId());
+            if (current != null && record.getUpdateTime() > current.getUpdateTime() && record.getStatusCode() != current.getStatusCode()
+                    && onStatusChanged(orderPersistence.updateStatus(record.getOrderId(), record.getStatusCode(), record.getUpdateTime()),
+                    record.getStatusCode())) {
+                updated++;
+            }
+        }
+        result.put("created", created);
+        result.put("updated", updated);
+        return result;
+    }
+    
+    // 订单迁到其他实例后删除本地副本并撤销统计；用户索引中留下的订单ID在读取时跳过
+    public boolean removeHandedOff(OrderRecord exported) {
+        OrderRecord removed = orderPersistence.removeIfUnchanged(exported);
+        if (removed == null) {
+            return false;
+        }
+        userOrderStats.recordRemoved(removed.getUserId(), removed.getStatusCode(), removed.getTotalAmount());
+        return true;
+    }
+    
     @Override
     @Tags({
         @Tag(key = "userId", value = "arg[0]"),
         @Tag(key = "result", value = "returnedObj")
     })
     public Map<String, Object> getOrderStatistics(String userId) {
-        List<Map<String, Object>> orders = getUserOrders(userId);
-        
-        Map<String, Object> stats = new HashMap<>();
-        stats.put("totalOrders", orders.size());
-        
-        Map<String, Long> statusCount = new HashMap<>();
-        double totalAmount = 0;
+        // 读取增量维护的统计快照，不再遍历用户的全部订单
+        Map<String, Object> stats = toStatisticsMap(userOrderStats.get(userId));
         
-        for (Map<String, Object> order : orders) {
-            String status = (String) order.get("status");
-            statusCount.put(status, statusCount.getOrDefault(status, 0L) + 1);
-            totalAmount += (Double) order.get("totalAmount");
+        if (verifyStatistics) {
+            Map<String, Object> recomputed = recomputeStatistics(userId);
+            boolean consistent = sameStatistics(stats, recomputed);
+            if (!consistent) {
+                System.err.println("Order statistics mismatch for user: " + userId
+                        + " aggregated=" + stats + " recomputed=" + recomputed);
+            }
+            stats.put("consistent", consistent);
         }
         
-        stats.put("statusDistribution", statusCount);
-        stats.put("totalSpent", totalAmount);
-        stats.put("lastOrderTime", orders.isEmpty() ? null : orders.get(0).get("createTime"));
-        
         return stats;
     }
     
+    @Override
     @Tags({
-        @Tag(key = "orderId", value = "arg[0]"),
-        @Tag(key = "userId", value = "arg[1]")
+        @Tag(key = "userId", value = "arg[0]"),
+        @Tag(key = "itemCount", value = "arg[1].size()")
     })
-    private void logOrderCreation(String orderId, String userId) {
-        // 模拟日志记录
-        System.out.println("Order created: " + orderId + " for user: " + userId);
+    public CompletableFuture<Map<String, Object>> createOrderAsync(String userId, List<Map<String, Object>> items) {
+        // 订单写入内存和WAL后立即释放调用线程，落盘由WAL刷盘线程回调完成
+        OrderRecord record = newOrder(userId, items);
+        return orderPersistence.createAsync(record).thenApply(ignored -> onOrderCreated(record));
     }
     
+    @Override
+    @Tags({
+        @Tag(key = "orderId", value = "arg[0]")
+    })
+    public CompletableFuture<Map<String, Object>> getOrderByIdAsync(String orderId) {
+        // 读操作只访问内存（冷数据为一次本地文件读取），直接在调用线程完成
+        return CompletableFuture.completedFuture(getOrderById(orderId));
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]")
+    })
+    public CompletableFuture<List<Map<String, Object>>> getUserOrdersAsync(String userId) {
+        // 订单从本地读取，等待支付服务批量查询期间不占用调用线程
+        return withPaymentStatusAsync(localOrders(userOrderIndex.list(userId)));
+    }
+    
+    @Override
     @Tags({
         @Tag(key = "orderId", value = "arg[0]"),
         @Tag(key = "status", value = "arg[1]")
     })
-    private void logOrderUpdate(String orderId, String status) {
-        // 模拟日志记录
-        System.out.println("Order updated: " + orderId + " to status: " + status);
+    public CompletableFuture<Boolean> updateOrderStatusAsync(String orderId, String status) {
+        int statusCode = statusCodeForUpdate(orderId, status);
+        if (statusCode < 0 || orderStore.get(orderId) == null) {
+            // 本地没有的订单不会写日志，转发（如需要）在调用线程完成
+            return CompletableFuture.completedFuture(updateOrderStatus(orderId, status));
+        }
+        return orderPersistence.updateStatusAsync(orderId, statusCode, System.currentTimeMillis())
+                .thenApply(previous -> onStatusChanged(previous, statusCode));
     }
     
+    @Override
     @Tags({
-        @Tag(key = "order", value = "arg[0]"),
-        @Tag(key = "result", value = "returnedObj")
+        @Tag(key = "orderStatuses", value = "arg[0]")
     })
-    private Map<String, Object> enrichOrderData(Map<String, Object> order) {
-        Map<String, Object> enriched = new HashMap<>(order);
-        // 添加一些额外信息
-        enriched.put("paymentStatus", "UNPAID");
-        enriched.put("shippingStatus", "NOT_SHIPPED");
-        enriched.put("orderNumber", generateOrderNumber((String) order.get("orderId")));
+    public CompletableFuture<Map<String, Boolean>> updateOrderStatusesAsync(Map<String, String> orderStatuses) {
+        String[] orderIds = orderStatuses.keySet().toArray(new String[0]);
+        int[] statusCodes = statusCodesOf(orderIds, orderStatuses);
+        CompletableFuture<Map<String, Boolean>> results = orderPersistence.updateStatusesAsync(orderIds, statusCodes, System.currentTimeMillis())
+                .thenApply(previous -> onStatusesChanged(orderIds, statusCodes, previous));
+        if (!orderShardPeers.handoffActive()) {
+            return results;
+        }
+        // 转发是阻塞的远程调用，不放在WAL刷盘线程上
+        return results.thenApplyAsync(updated -> forwardMissing(orderStatuses, updated), orderShardPeers.executor());
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "orderId", value = "arg[0]")
+    })
+    public CompletableFuture<Boolean> cancelOrderAsync(String orderId) {
+        return updateOrderStatusAsync(orderId, "CANCELLED");
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]")
+    })
+    public CompletableFuture<Map<String, Object>> getOrderStatisticsAsync(String userId) {
+        return CompletableFuture.completedFuture(getOrderStatistics(userId));
+    }
+    
+    // 视图每次从记录构建，订单号由记录得出，多次读取结果一致
+    private Map<String, Object> localOrder(String orderId) {
+        OrderRecord record = orderStore.get(orderId);
+        return record == null ? null : record.view();
+    }
+    
+    private List<Map<String, Object>> localOrders(List<String> orderIds) {
+        List<Map<String, Object>> orders = new ArrayList<>(orderIds.size());
+        for (String orderId : orderIds) {
+            Map<String, Object> order = localOrder(orderId);
+            if (order != null) {
+                orders.add(order);
+            }
+        }
+        return orders;
+    }
+    
+    // 按批查询支付服务补全订单的支付状态，每批一次调用而不是每个订单一次
+    private List<Map<String, Object>> withPaymentStatus(List<Map<String, Object>> orders) {
+        if (!paymentStatusEnabled || orders.isEmpty()) {
+            return orders;
+        }
+        List<Map<String, Object>> enriched = new ArrayList<>(orders.size());
+        for (int from = 0; from < orders.size(); from += PAYMENT_LOOKUP_BATCH) {
+            List<Map<String, Object>> batch = orders.subList(from, Math.min(orders.size(), from + PAYMENT_LOOKUP_BATCH));
+            Map<String, Map<String, Object>> payments;
+            try {
+                payments = paymentService.getPaymentsByOrderIds(orderIdsOf(batch));
+            } catch (RuntimeException e) {
+                logPaymentLookupFailure(batch.size(), e);
+                payments = null;
+            }
+            applyPayments(batch, payments, enriched);
+        }
         return enriched;
     }
     
+    private CompletableFuture<List<Map<String, Object>>> withPaymentStatusAsync(List<Map<String, Object>> orders) {
+        if (!paymentStatusEnabled || orders.isEmpty()) {
+            return CompletableFuture.completedFuture(orders);
+        }
+        // 各批同时发出
+        List<List<Map<String, Object>>> batches = new ArrayList<>();
+        List<CompletableFuture<Map<String, Map<String, Object>>>> lookups = new ArrayList<>();
+        for (int from = 0; from < orders.size(); from += PAYMENT_LOOKUP_BATCH) {
+            List<Map<String, Object>> batch = orders.subList(from, Math.min(orders.size(), from + PAYMENT_LOOKUP_BATCH));
+            CompletableFuture<Map<String, Map<String, Object>>> lookup;
+            try {
+                lookup = paymentService.getPaymentsByOrderIdsAsync(orderIdsOf(batch));
+            } catch (RuntimeException e) {
+                lookup = new CompletableFuture<>();
+                lookup.completeExceptionally(e);
+            }
+            batches.add(batch);
+            lookups.add(lookup.exceptionally(error -> {
+                logPaymentLookupFailure(batch.size(), error);
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<Map<String, Object>> enriched = new ArrayList<>(orders.size());
+            for (int i = 0; i < batches.size(); i++) {
+                applyPayments(batches.get(i), lookups.get(i).join(), enriched);
+            }
+            return enriched;
+        });
+    }
+    
+    private static List<String> orderIdsOf(List<Map<String, Object>> orders) {
+        List<String> orderIds = new ArrayList<>(orders.size());
+        for (Map<String, Object> order : orders) {
+            orderIds.add((String) order.get("orderId"));
+        }
+        return orderIds;
+    }
+    
+    // 订单视图是记录上缓存的不可修改Map，没有支付的订单原样返回，有支付或查询失败的订单复制后再补全；
+    // payments为null表示查询失败，支付状态记为UNKNOWN
+    private static void applyPayments(List<Map<String, Object>> orders, Map<String, Map<String, Object>> payments,
+                                      List<Map<String, Object>> enriched) {
+        for (Map<String, Object> order : orders) {
+            Map<String, Object> payment = payments == null ? null : payments.get(order.get("orderId"));
+            if (payments != null && payment == null) {
+                enriched.add(order);
+                continue;
+            }
+            Map<String, Object> copy = new HashMap<>(order);
+            if (payment == null) {
+                copy.put("paymentStatus", "UNKNOWN");
+            } else {
+                copy.put("paymentStatus", payment.get("status"));
+                copy.put("paymentId", payment.get("paymentId"));
+                copy.put("refundedAmount", payment.get("refundedAmount"));
+            }
+            enriched.add(copy);
+        }
+    }
+    
+    @Tags({
+        @Tag(key = "orderCount", value = "arg[0]"),
+        @Tag(key = "error", value = "arg[1].getMessage()")
+    })
+    private void logPaymentLookupFailure(int orderCount, Throwable error) {
+        // 支付服务不可用时订单照常返回
+        System.err.println("Payment lookup failed for " + orderCount + " orders: " + error.getMessage());
+    }
+    
+    // 生成订单ID，按创建时间递增并带上用户所在的分片桶；下单时间取自ID，与时间索引的排序键一致
+    private OrderRecord newOrder(String userId, List<Map<String, Object>> items) {
+        long id = idGenerator.nextId();
+        String orderId = OrderShards.orderId(id, OrderShards.bucketOfUser(userId));
+        OrderRecord record = new OrderRecord(orderId, userId, items, SnowflakeIdGenerator.timestampOf(id),
+                OrderStatusCodes.PENDING_PAYMENT, calculateTotal(items), 0L);
+        return record;
+    }
+    
+    // 订单落盘后登记统计和用户索引，写入失败的订单不会出现在统计中
+    private Map<String, Object> onOrderCreated(OrderRecord record) {
+        userOrderStats.recordCreated(record.getUserId(), record.getStatusCode(), record.getTotalAmount(), record.getCreateTime());
+        userOrderIndex.append(record.getUserId(), record.getOrderId());
+        logOrderCreation(record.getOrderId(), record.getUserId());
+        return record.toMap();
+    }
+    
+    private boolean onStatusChanged(OrderRecord previous, int statusCode) {
+        if (previous == null) {
+            return false;
+        }
+        userOrderStats.recordStatusChange(previous.getUserId(), previous.getStatusCode(), statusCode);
+        return true;
+    }
+    
+    // 不存在的订单编码为-1，持久化层跳过
+    private int[] statusCodesOf(String[] orderIds, Map<String, String> orderStatuses) {
+        int[] statusCodes = new int[orderIds.length];
+        for (int i = 0; i < orderIds.length; i++) {
+            statusCodes[i] = statusCodeForUpdate(orderIds[i], orderStatuses.get(orderIds[i]));
+        }
+        return statusCodes;
+    }
+    
+    // 新状态只在订单存在时登记，对不存在的订单提交任意状态不会占用编码表；订单不存在且状态未知时返回-1
+    private int statusCodeForUpdate(String orderId, String status) {
+        int statusCode = OrderStatusCodes.find(status);
+        if (statusCode >= 0 || status == null || orderStore.get(orderId) == null) {
+            return statusCode;
+        }
+        return OrderStatusCodes.codeOf(status);
+    }
+    
+    // 订单所在的桶刚迁入本实例时，订单可能还在原来的实例上，转给其他实例更新
+    private boolean forwardStatus(String orderId, String status) {
+        return orderShardPeers.handoffActive() && orderShardPeers.forward(peer -> peer.updateOrderStatus(orderId, status));
+    }
+    
+    private Map<String, Boolean> forwardMissing(Map<String, String> orderStatuses, Map<String, Boolean> results) {
+        for (Map.Entry<String, Boolean> result : results.entrySet()) {
+            String orderId = result.getKey();
+            if (!result.getValue() && orderStore.get(orderId) == null) {
+                result.setValue(orderShardPeers.forward(peer -> peer.updateOrderStatus(orderId, orderStatuses.get(orderId))));
+            }
+        }
+        return results;
+    }
+    
+    private Map<String, Boolean> onStatusesChanged(String[] orderIds, int[] statusCodes, OrderRecord[] previous) {
+        Map<String, Boolean> results = new HashMap<>();
+        for (int i = 0; i < orderIds.length; i++) {
+            results.put(orderIds[i], onStatusChanged(previous[i], statusCodes[i]));
+        }
+        return results;
+    }
+    
+    @Tags({
+        @Tag(key = "orderId", value = "arg[0]"),
+        @Tag(key = "userId", value = "arg[1]")
+    })
+    private void logOrderCreation(String orderId, String userId) {
+        // 模拟日志记录
+        System.out.println("Order created: " + orderId + " for user: " + userId);
+    }
+    
     private double calculateTotal(List<Map<String, Object>> items) {
         return items.stream()
                 .mapToDouble(item -> {
@@ -175,7 +652,125 @@ public class OrderServiceImpl implements OrderService {
                 .sum();
     }
     
-    private String generateOrderNumber(String orderId) {
-        return "ORD-" + System.currentTimeMillis() + "-" + orderId.substring(orderId.length() - 4);
+    private static int pageSizeOf(int limit) {
+        return limit <= 0 ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+    }
+    
+    // 游标为上一页最后一个订单的索引键
+    private Map<String, Object> queryIndex(int statusCode, long createdFrom, long createdTo, String cursor, int limit) {
+        long afterKey = parseKeyCursor(cursor);
+        int pageSize = pageSizeOf(limit);
+        OrderSecondaryIndex.Page result = orderSecondaryIndex.query(statusCode, createdFrom, createdTo, afterKey, pageSize);
+        
+        List<Map<String, Object>> orders = new ArrayList<>(result.getOrderIds().size());
+        for (String orderId : result.getOrderIds()) {
+            OrderRecord record = orderStore.get(orderId);
+            // 索引读取与状态变更并发时，跳过已经离开该状态的订单
+            if (record != null && (statusCode < 0 || record.getStatusCode() == statusCode)) {
+                orders.add(record.view());
+            }
+        }
+        
+        Map<String, Object> page = new HashMap<>();
+        page.put("orders", orders);
+        page.put("nextCursor", result.hasMore() ? String.valueOf(result.getLastKey()) : null);
+        page.put("hasMore", result.hasMore());
+        return page;
+    }
+    
+    private Map<String, Object> toStatisticsMap(UserOrderStats.Snapshot snapshot) {
+        Map<String, Long> statusCount = new HashMap<>();
+        for (int code = 0; code < snapshot.getStatusCodeLimit(); code++) {
+            long count = snapshot.getStatusCount(code);
+            if (count > 0) {
+                statusCount.put(OrderStatusCodes.nameOf(code), count);
+            }
+        }
+        
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalOrders", snapshot.getOrderCount());
+        stats.put("statusDistribution", statusCount);
+        stats.put("totalSpent", snapshot.getTotalSpent());
+        stats.put("lastOrderTime", snapshot.getLastOrderTime() == 0L ? null : new Date(snapshot.getLastOrderTime()));
+        return stats;
+    }
+    
+    // 全量重算统计，仅在一致性校验模式下使用
+    private Map<String, Object> recomputeStatistics(String userId) {
+        Map<String, Long> statusCount = new HashMap<>();
+        double totalAmount = 0;
+        int totalOrders = 0;
+        long lastOrderTime = 0L;
+        
+        for (String orderId : userOrderIndex.list(userId)) {
+            OrderRecord record = orderStore.get(orderId);
+            if (record == null) {
+                continue;
+            }
+            totalOrders++;
+            statusCount.merge(record.getStatus(), 1L, Long::sum);
+            totalAmount += record.getTotalAmount();
+            lastOrderTime = Math.max(lastOrderTime, record.getCreateTime());
+        }
+        
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalOrders", totalOrders);
+        stats.put("statusDistribution", statusCount);
+        stats.put("totalSpent", totalAmount);
+        stats.put("lastOrderTime", lastOrderTime == 0L ? null : new Date(lastOrderTime));
+        return stats;
+    }
+    
+    private boolean sameStatistics(Map<String, Object> aggregated, Map<String, Object> recomputed) {
+        double spent = (Double) aggregated.get("totalSpent");
+        double expectedSpent = (Double) recomputed.get("totalSpent");
+        // 累加顺序不同会带来浮点误差
+        boolean spentMatches = Math.abs(spent - expectedSpent) <= 1e-6 * Math.max(1.0, Math.abs(expectedSpent));
+        return spentMatches
+                && aggregated.get("totalOrders").equals(recomputed.get("totalOrders"))
+                && aggregated.get("statusDistribution").equals(recomputed.get("statusDistribution"))
+                && Objects.equals(aggregated.get("lastOrderTime"), recomputed.get("lastOrderTime"));
+    }
+    
+    private long parseKeyCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return -1L;
+        }
+        try {
+            long key = Long.parseLong(cursor);
+            if (key >= 0) {
+                return key;
+            }
+        } catch (NumberFormatException e) {
+            // 落到下方统一抛出
+        }
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+    
+    private int parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            int position = Integer.parseInt(cursor);
+            if (position >= 0) {
+                return position;
+            }
+        } catch (NumberFormatException e) {
+            // 落到下方统一抛出
+        }
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+    
+    private static final class CreatedOrder {
+        final long createTime;
+        final String userId;
+        final String orderId;
+        
+        CreatedOrder(long createTime, String userId, String orderId) {
+            this.createTime = createTime;
+            this.userId = userId;
+            this.orderId = orderId;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+package com.example.demo.shard;
+
+import com.example.demo.store.OrderRecord;
+import com.example.demo.store.OrderStore;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+// 桶迁移：实例加入或退出后，按新的桶分配把不再归本实例所有的订单批量发给归属实例(importOrders)，
+// 对方写入后删除本地副本。按间隔确认实例列表，列表变化后扫描一遍存储；迁移期间又被修改的订单留在本地，下一轮带着新状态重发。
+// 停机时按去掉本实例之后的分配把全部订单迁出
+public class OrderBucketHandoff implements Closeable {
+    
+    private final OrderShardPeers peers;
+    private final OrderStore store;
+    // 删除已迁出的订单，订单自导出后被修改过时返回false
+    private final Predicate<OrderRecord> remover;
+    private final int batchSize;
+    private ScheduledExecutorService handoffExecutor;
+    
+    // 以下字段只由迁移线程访问
+    private boolean pending;
+    private boolean failing;
+    
+    public OrderBucketHandoff(OrderShardPeers peers, OrderStore store, Predicate<OrderRecord> remover, int batchSize) {
+        this.peers = peers;
+        this.store = store;
+        this.remover = remover;
+        this.batchSize = batchSize;
+    }
+    
+    public synchronized void start(long intervalMillis) {
+        handoffExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "order-shard-handoff");
+            thread.setDaemon(true);
+            return thread;
+        });
+        handoffExecutor.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    // 确认实例列表，列表变化或上一轮有订单没迁完时再迁移一轮
+    public void tick() {
+        try {
+            if (peers.refresh() || pending) {
+                List<String> members = peers.members();
+                pending = members.size() > 1 && peers.self() != null
+                        && handOff(UserShardLoadBalance.owners(members), peers.self()) > 0;
+            }
+            if (failing) {
+                failing = false;
+                System.out.println("Order shard handoff recovered");
+            }
+        } catch (RuntimeException e) {
+            pending = true;
+            if (!failing) {
+                failing = true;
+                System.err.println("Order shard handoff failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    // 停机前把全部订单迁给其余实例；注册中心注销本实例之前请求仍可能到达，这期间本地查不到的订单转到其他实例
+    public synchronized void drain() {
+        if (handoffExecutor == null) {
+            return;
+        }
+        handoffExecutor.shutdownNow();
+        String self = peers.self();
+        List<String> others = new ArrayList<>(peers.members());
+        if (self == null || !others.remove(self) || others.isEmpty()) {
+            return;
+        }
+        peers.startDraining();
+        try {
+            String[] owners = UserShardLoadBalance.owners(others);
+            // 第一轮中被修改的订单再发一次
+            if (handOff(owners, self) > 0) {
+                handOff(owners, self);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Order shard drain failed, " + store.size() + " orders left on this instance: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (handoffExecutor != null) {
+            handoffExecutor.shutdownNow();
+        }
+    }
+    
+    // 把归属不是self的订单发给各自的归属实例，返回因迁移期间被修改而留在本地的订单数
+    private int handOff(String[] owners, String self) {
+        Map<String, List<OrderRecord>> moving = new HashMap<>();
+        store.forEach(record -> {
+            String owner = owners[OrderShards.bucketOf(record.getOrderId())];
+            if (!owner.equals(self)) {
+                moving.computeIfAbsent(owner, k -> new ArrayList<>()).add(record);
+            }
+        });
+        int left = 0;
+        for (Map.Entry<String, List<OrderRecord>> entry : moving.entrySet()) {
+            left += send(entry.getKey(), entry.getValue());
+        }
+        return left;
+    }
+    
+    private int send(String owner, List<OrderRecord> records) {
+        // 按下单时间发送，接收方的用户订单列表保持时间顺序
+        records.sort(Comparator.comparingLong(OrderRecord::getCreateTime));
+        long start = System.nanoTime();
+        int moved = 0;
+        int left = 0;
+        for (int from = 0; from < records.size(); from += batchSize) {
+            List<OrderRecord> batch = records.subList(from, Math.min(records.size(), from + batchSize));
+            Map<String, Map<String, Object>> orders = new LinkedHashMap<>();
+            for (OrderRecord record : batch) {
+                orders.put(record.getOrderId(), record.toMap());
+            }
+            Map<String, Object> ack = peers.call(owner, peer -> peer.importOrders(orders));
+            // 列表过时时定向调用可能落回本实例，对方正在停机时也不会保留这些订单，两种情况删除都会丢失订单
+            if (peers.instanceId().equals(ack.get("instanceId"))) {
+                throw new IllegalStateException("handoff to " + owner + " was answered by this instance");
+            }
+            if (Boolean.TRUE.equals(ack.get("rejected"))) {
+                throw new IllegalStateException("handoff to " + owner + " rejected, the instance is shutting down");
+            }
+            for (OrderRecord record : batch) {
+                if (remover.test(record)) {
+                    moved++;
+                } else {
+                    left++;
+                }
+            }
+        }
+        System.out.println("Order shard handoff to " + owner + ": " + moved + " orders moved, " + left
+                + " changed during transfer, " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return left;
+    }
+}
\ No newline at end of file
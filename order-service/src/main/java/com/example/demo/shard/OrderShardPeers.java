@@ -0,0 +1,202 @@
+package com.example.demo.shard;
+
+import com.example.demo.service.OrderService;
+import org.apache.dubbo.config.annotation.Reference;
+import org.apache.dubbo.rpc.RpcContext;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// 本实例眼中的订单服务集群：按间隔向注册中心列出的每个提供者定向询问instanceId，得出本实例的地址和实际的实例数。
+// Dubbo在只剩一个提供者时不经过负载均衡，UserShardLoadBalance.providers可能停留在缩容前，
+// 此时各地址的应答来自同一个实例，按instanceId去重后即为单实例。
+// 跨分片查询的扇出、桶迁移期间的读取回退都经由这里按地址定向调用其他实例
+public class OrderShardPeers implements Closeable {
+    
+    private static final View SINGLE = new View(Collections.emptyList(), null, 0L);
+    
+    // 每次启动生成，用来在提供者地址中认出本实例
+    private final String instanceId = UUID.randomUUID().toString();
+    private final long handoffWindowMillis;
+    private final ExecutorService fanOutExecutor;
+    
+    // 调用其他实例（包括经注册中心调用本实例自己）
+    @Reference
+    private OrderService orderService;
+    
+    private volatile View view = SINGLE;
+    private volatile boolean draining;
+    
+    public OrderShardPeers(long handoffWindowMillis, int fanOutThreads) {
+        this.handoffWindowMillis = handoffWindowMillis;
+        AtomicInteger threads = new AtomicInteger();
+        this.fanOutExecutor = Executors.newFixedThreadPool(fanOutThreads, r -> {
+            Thread thread = new Thread(r, "order-shard-fanout-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    public String instanceId() {
+        return instanceId;
+    }
+    
+    // 当前请求是否是其他实例的定向调用；定向调用只读写本实例的数据，不再扇出或转发
+    public static boolean targeted() {
+        return RpcContext.getContext().getAttachment(UserShardLoadBalance.TARGET) != null;
+    }
+    
+    // 多于一个实例，且当前请求不是定向调用
+    public boolean sharded() {
+        return view.members.size() > 1 && !targeted();
+    }
+    
+    // 实例列表变化后的一段时间内，迁入本实例的桶里可能还有订单留在原来的实例上；停机迁出期间本地的订单随时可能已经迁走
+    public boolean handoffActive() {
+        View current = view;
+        return current.members.size() > 1 && !targeted()
+                && (draining || System.currentTimeMillis() - current.changedAt < handoffWindowMillis);
+    }
+    
+    public void startDraining() {
+        draining = true;
+    }
+    
+    // 停机迁出中的实例不再接收迁入的订单
+    public boolean draining() {
+        return draining;
+    }
+    
+    // 按地址排序的实例地址，单实例时为空
+    public List<String> members() {
+        return view.members;
+    }
+    
+    // 本实例的地址，单实例或尚未确认时为null
+    public String self() {
+        return view.self;
+    }
+    
+    // 重新确认实例列表，返回列表是否有变化；任一地址调用失败时抛出异常，视图保持不变。由迁移线程按间隔调用
+    public boolean refresh() {
+        // 先经负载均衡调用一次，让UserShardLoadBalance看到当前的提供者列表
+        orderService.getShardInfo();
+        List<String> providers = UserShardLoadBalance.providers(OrderService.class);
+        Map<String, String> instances = new HashMap<>();
+        for (String address : providers) {
+            instances.put(address, (String) call(address, OrderService::getShardInfo).get("instanceId"));
+        }
+        Set<String> distinct = new HashSet<>(instances.values());
+        View current = view;
+        View next;
+        if (distinct.size() <= 1) {
+            next = SINGLE;
+        } else if (distinct.size() < instances.size()) {
+            // 两个地址应答了同一个实例，说明列表正在变化，等下一轮再确认
+            return false;
+        } else {
+            String self = null;
+            for (Map.Entry<String, String> entry : instances.entrySet()) {
+                if (instanceId.equals(entry.getValue())) {
+                    self = entry.getKey();
+                }
+            }
+            next = new View(providers, self, current.changedAt);
+        }
+        if (next.members.equals(current.members) && Objects.equals(next.self, current.self)) {
+            return false;
+        }
+        view = new View(next.members, next.self, System.currentTimeMillis());
+        System.out.println("Order shard members changed: " + next.members + ", self=" + next.self);
+        return true;
+    }
+    
+    // 定向调用address上的实例
+    public <T> T call(String address, Function<OrderService, T> invocation) {
+        return UserShardLoadBalance.callAt(address, () -> invocation.apply(orderService));
+    }
+    
+    // 向每个实例（包括本实例）并行发出同一调用，返回各实例的应答；单实例或定向调用时返回null，由调用方直接读本地
+    public <T> List<T> fanOut(Function<OrderService, T> invocation) {
+        if (!sharded()) {
+            return null;
+        }
+        List<CompletableFuture<T>> calls = new ArrayList<>();
+        for (String address : view.members) {
+            calls.add(CompletableFuture.supplyAsync(() -> call(address, invocation), fanOutExecutor));
+        }
+        List<T> results = new ArrayList<>(calls.size());
+        try {
+            for (CompletableFuture<T> call : calls) {
+                results.add(call.join());
+            }
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        return results;
+    }
+    
+    // 在其他实例上查找订单，用于桶迁移期间本地查不到的订单
+    public Map<String, Object> findOrder(String orderId) {
+        for (String address : others()) {
+            Map<String, Object> order = call(address, peer -> peer.getOrderById(orderId));
+            if (order != null) {
+                return order;
+            }
+        }
+        return null;
+    }
+    
+    // 依次交给其他实例执行，直到有一个实例返回true；用于桶迁移期间更新本地还没有的订单
+    public boolean forward(Function<OrderService, Boolean> invocation) {
+        for (String address : others()) {
+            if (Boolean.TRUE.equals(call(address, invocation))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // 转发可能阻塞的工作不应留在WAL刷盘线程上
+    public ExecutorService executor() {
+        return fanOutExecutor;
+    }
+    
+    @Override
+    public void close() {
+        fanOutExecutor.shutdownNow();
+    }
+    
+    private List<String> others() {
+        View current = view;
+        List<String> others = new ArrayList<>(current.members);
+        others.remove(current.self);
+        return others;
+    }
+    
+    private static final class View {
+        final List<String> members;
+        final String self;
+        final long changedAt;
+        
+        View(List<String> members, String self, long changedAt) {
+            this.members = members;
+            this.self = self;
+            this.changedAt = changedAt;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+package com.example.demo.shard;
+
+import com.example.demo.store.OrderSecondaryIndex;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 扇出查询的结果合并。各实例按同一游标返回排序键大于游标的一页，还有后续的实例只保证其最后一个键之前的订单已全部返回，
+// 合并时只取不超过这些键中最小者的订单，按排序键取前limit条。桶迁移期间同一订单可能同时出现在两个实例上，保留更新时间较晚的一份
+public final class ShardedResults {
+    
+    private ShardedResults() {
+    }
+    
+    // 合并getOrdersByStatus/getOrdersByCreateTime的分页，返回结构与单个实例相同
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> mergePages(List<Map<String, Object>> pages, int limit) {
+        Map<String, Row> rows = new HashMap<>();
+        long bound = Long.MAX_VALUE;
+        for (Map<String, Object> page : pages) {
+            if (Boolean.TRUE.equals(page.get("hasMore"))) {
+                bound = Math.min(bound, Long.parseLong((String) page.get("nextCursor")));
+            }
+            for (Map<String, Object> order : (List<Map<String, Object>>) page.get("orders")) {
+                String orderId = (String) order.get("orderId");
+                Object updateTime = order.get("updateTime");
+                add(rows, new Row(OrderSecondaryIndex.keyOf(orderId, ((Date) order.get("createTime")).getTime()), orderId,
+                        updateTime instanceof Date ? ((Date) updateTime).getTime() : 0L, order));
+            }
+        }
+        List<Row> taken = take(rows, bound, limit);
+        List<Map<String, Object>> orders = new ArrayList<>(taken.size());
+        for (Row row : taken) {
+            orders.add((Map<String, Object>) row.value);
+        }
+        boolean hasMore = bound != Long.MAX_VALUE || taken.size() < rows.size();
+        Map<String, Object> page = new HashMap<>();
+        page.put("orders", orders);
+        page.put("nextCursor", hasMore ? String.valueOf(lastKey(taken, bound)) : null);
+        page.put("hasMore", hasMore);
+        return page;
+    }
+    
+    // 合并scanOrderStatuses的分块，返回结构与单个实例相同
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> mergeChunks(List<Map<String, Object>> chunks, String cursor, int limit) {
+        Map<String, Row> rows = new HashMap<>();
+        long bound = Long.MAX_VALUE;
+        for (Map<String, Object> chunk : chunks) {
+            if (Boolean.TRUE.equals(chunk.get("hasMore"))) {
+                bound = Math.min(bound, Long.parseLong((String) chunk.get("nextCursor")));
+            }
+            List<String> orderIds = (List<String>) chunk.get("orderIds");
+            List<String> statuses = (List<String>) chunk.get("statuses");
+            List<Double> totalAmounts = (List<Double>) chunk.get("totalAmounts");
+            List<Long> updateTimes = (List<Long>) chunk.get("updateTimes");
+            List<Long> keys = (List<Long>) chunk.get("keys");
+            for (int i = 0; i < orderIds.size(); i++) {
+                add(rows, new Row(keys.get(i), orderIds.get(i), updateTimes.get(i),
+                        new Object[]{statuses.get(i), totalAmounts.get(i)}));
+            }
+        }
+        List<Row> taken = take(rows, bound, limit);
+        List<String> orderIds = new ArrayList<>(taken.size());
+        List<String> statuses = new ArrayList<>(taken.size());
+        List<Double> totalAmounts = new ArrayList<>(taken.size());
+        List<Long> updateTimes = new ArrayList<>(taken.size());
+        List<Long> keys = new ArrayList<>(taken.size());
+        for (Row row : taken) {
+            Object[] fields = (Object[]) row.value;
+            orderIds.add(row.orderId);
+            statuses.add((String) fields[0]);
+            totalAmounts.add((Double) fields[1]);
+            updateTimes.add(row.updateTime);
+            keys.add(row.key);
+        }
+        boolean hasMore = bound != Long.MAX_VALUE || taken.size() < rows.size();
+        Map<String, Object> chunk = new HashMap<>();
+        chunk.put("orderIds", orderIds);
+        chunk.put("statuses", statuses);
+        chunk.put("totalAmounts", totalAmounts);
+        chunk.put("updateTimes", updateTimes);
+        chunk.put("keys", keys);
+        // 与单个实例一样，最后一块也返回游标
+        String nextCursor = cursor == null || cursor.isEmpty() ? null : cursor;
+        if (!taken.isEmpty() || bound != Long.MAX_VALUE) {
+            nextCursor = String.valueOf(lastKey(taken, bound));
+        }
+        chunk.put("nextCursor", nextCursor);
+        chunk.put("hasMore", hasMore);
+        return chunk;
+    }
+    
+    private static void add(Map<String, Row> rows, Row row) {
+        rows.merge(row.orderId, row, (a, b) -> b.updateTime > a.updateTime ? b : a);
+    }
+    
+    private static List<Row> take(Map<String, Row> rows, long bound, int limit) {
+        List<Row> sorted = new ArrayList<>(rows.values());
+        sorted.sort(Comparator.comparingLong(row -> row.key));
+        List<Row> taken = new ArrayList<>(Math.min(limit, sorted.size()));
+        for (Row row : sorted) {
+            if (taken.size() == limit || row.key > bound) {
+                break;
+            }
+            taken.add(row);
+        }
+        return taken;
+    }
+    
+    // 没有取到订单时游标推进到仍有后续的实例已返回的位置
+    private static long lastKey(List<Row> taken, long bound) {
+        return taken.isEmpty() ? bound : taken.get(taken.size() - 1).key;
+    }
+    
+    private static final class Row {
+        final long key;
+        final String orderId;
+        final long updateTime;
+        final Object value;
+        
+        Row(long key, String orderId, long updateTime, Object value) {
+            this.key = key;
+            this.orderId = orderId;
+            this.updateTime = updateTime;
+            this.value = value;
+        }
+    }
+}
\ No newline at end of file
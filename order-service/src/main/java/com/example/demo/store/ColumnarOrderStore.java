@@ -0,0 +1,340 @@
+package com.example.demo.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+// 列式存储：订单按槽位顺序写入分块的列数组，数值列集中在一块ByteBuffer中，
+// offHeap为true时数值列分配在堆外，不参与GC扫描。删除订单释放引用列并回收槽位，新订单优先复用空闲槽位，
+// 迁出到冷数据的订单腾出的槽位不会让存储持续增长
+public class ColumnarOrderStore implements OrderStore {
+    
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MAX_CHUNKS = 1 << 16;
+    
+    // 数值列中每个槽位的字节布局
+    private static final int CREATE_TIME_OFFSET = 0;
+    private static final int UPDATE_TIME_OFFSET = 8;
+    private static final int AMOUNT_OFFSET = 16;
+    private static final int STATUS_OFFSET = 24;
+    private static final int SLOT_BYTES = 25;
+    
+    private static final int PARTITION_BITS = 6;
+    private static final int PARTITION_MASK = (1 << PARTITION_BITS) - 1;
+    
+    private final boolean offHeap;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicInteger size = new AtomicInteger();
+    private final FreeSlots freeSlots = new FreeSlots();
+    private final AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final Partition[] partitions = new Partition[1 << PARTITION_BITS];
+    
+    public ColumnarOrderStore(boolean offHeap) {
+        this.offHeap = offHeap;
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition();
+        }
+    }
+    
+    @Override
+    public void put(OrderRecord record) {
+        String orderId = record.getOrderId();
+        int hash = spread(orderId.hashCode());
+        Partition partition = partitions[hash & PARTITION_MASK];
+        long stamp = partition.lock.writeLock();
+        try {
+            if (partition.find(orderId, hash) >= 0) {
+                throw new IllegalStateException("Duplicate order id: " + orderId);
+            }
+            int slot = freeSlots.poll();
+            if (slot < 0) {
+                slot = nextSlot.getAndIncrement();
+                if ((slot >>> CHUNK_BITS) >= MAX_CHUNKS) {
+                    throw new IllegalStateException("Order store is full");
+                }
+            }
+            Chunk chunk = chunkFor(slot);
+            int index = slot & CHUNK_MASK;
+            long chunkStamp = chunk.lock.writeLock();
+            try {
+                chunk.orderIds[index] = orderId;
+                chunk.userIds[index] = record.getUserId();
+                chunk.items[index] = record.getItems();
+                int base = index * SLOT_BYTES;
+                chunk.numbers.putLong(base + CREATE_TIME_OFFSET, record.getCreateTime());
+                chunk.numbers.putLong(base + UPDATE_TIME_OFFSET, record.getUpdateTime());
+                chunk.numbers.putDouble(base + AMOUNT_OFFSET, record.getTotalAmount());
+                chunk.numbers.put(base + STATUS_OFFSET, (byte) record.getStatusCode());
+            } finally {
+                chunk.lock.unlockWrite(chunkStamp);
+            }
+            partition.insert(slot, hash);
+            size.incrementAndGet();
+        } finally {
+            partition.lock.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    public OrderRecord get(String orderId) {
+        int slot = slotOf(orderId);
+        if (slot < 0) {
+            return null;
+        }
+        Chunk chunk = chunks.get(slot >>> CHUNK_BITS);
+        int index = slot & CHUNK_MASK;
+        long stamp = chunk.lock.tryOptimisticRead();
+        OrderRecord record = chunk.read(index);
+        if (!chunk.lock.validate(stamp)) {
+            stamp = chunk.lock.readLock();
+            try {
+                record = chunk.read(index);
+            } finally {
+                chunk.lock.unlockRead(stamp);
+            }
+        }
+        // 查到槽位后订单被删除、槽位又被其他订单复用时，按订单不存在处理
+        return record != null && orderId.equals(record.getOrderId()) ? record : null;
+    }
+    
+    @Override
+    public OrderRecord updateStatus(String orderId, int statusCode, long updateTime) {
+        int slot = slotOf(orderId);
+        if (slot < 0) {
+            return null;
+        }
+        Chunk chunk = chunks.get(slot >>> CHUNK_BITS);
+        int index = slot & CHUNK_MASK;
+        long stamp = chunk.lock.writeLock();
+        try {
+            if (!orderId.equals(chunk.orderIds[index])) {
+                return null;
+            }
+            OrderRecord previous = chunk.read(index);
+            int base = index * SLOT_BYTES;
+            chunk.numbers.putLong(base + UPDATE_TIME_OFFSET, updateTime);
+            chunk.numbers.put(base + STATUS_OFFSET, (byte) statusCode);
+            return previous;
+        } finally {
+            chunk.lock.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    public OrderRecord remove(String orderId) {
+        int hash = spread(orderId.hashCode());
+        Partition partition = partitions[hash & PARTITION_MASK];
+        long stamp = partition.lock.writeLock();
+        try {
+            int slot = partition.find(orderId, hash);
+            if (slot < 0) {
+                return null;
+            }
+            partition.delete(slot, hash);
+            Chunk chunk = chunks.get(slot >>> CHUNK_BITS);
+            int index = slot & CHUNK_MASK;
+            OrderRecord previous;
+            long chunkStamp = chunk.lock.writeLock();
+            try {
+                previous = chunk.read(index);
+                chunk.orderIds[index] = null;
+                chunk.userIds[index] = null;
+                chunk.items[index] = null;
+            } finally {
+                chunk.lock.unlockWrite(chunkStamp);
+            }
+            freeSlots.push(slot);
+            size.decrementAndGet();
+            return previous;
+        } finally {
+            partition.lock.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    public int size() {
+        return size.get();
+    }
+    
+    @Override
+    public void forEach(Consumer<OrderRecord> action) {
+        int limit = nextSlot.get();
+        for (int slot = 0; slot < limit; slot++) {
+            Chunk chunk = chunks.get(slot >>> CHUNK_BITS);
+            if (chunk == null) {
+                continue;
+            }
+            OrderRecord record;
+            long stamp = chunk.lock.readLock();
+            try {
+                record = chunk.read(slot & CHUNK_MASK);
+            } finally {
+                chunk.lock.unlockRead(stamp);
+            }
+            // 槽位已分配但尚未写完或已删除的订单跳过
+            if (record != null) {
+                action.accept(record);
+            }
+        }
+    }
+    
+    private int slotOf(String orderId) {
+        int hash = spread(orderId.hashCode());
+        Partition partition = partitions[hash & PARTITION_MASK];
+        long stamp = partition.lock.tryOptimisticRead();
+        int slot = partition.find(orderId, hash);
+        if (!partition.lock.validate(stamp)) {
+            stamp = partition.lock.readLock();
+            try {
+                slot = partition.find(orderId, hash);
+            } finally {
+                partition.lock.unlockRead(stamp);
+            }
+        }
+        return slot;
+    }
+    
+    private Chunk chunkFor(int slot) {
+        int chunkIndex = slot >>> CHUNK_BITS;
+        Chunk chunk = chunks.get(chunkIndex);
+        if (chunk == null) {
+            chunks.compareAndSet(chunkIndex, null, new Chunk(offHeap));
+            chunk = chunks.get(chunkIndex);
+        }
+        return chunk;
+    }
+    
+    private String orderIdAt(int slot) {
+        Chunk chunk = chunks.get(slot >>> CHUNK_BITS);
+        return chunk == null ? null : chunk.orderIds[slot & CHUNK_MASK];
+    }
+    
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) & 0x7fffffff;
+    }
+    
+    private static final class Chunk {
+        final String[] orderIds = new String[CHUNK_SIZE];
+        final String[] userIds = new String[CHUNK_SIZE];
+        final Object[] items = new Object[CHUNK_SIZE];
+        final ByteBuffer numbers;
+        final StampedLock lock = new StampedLock();
+        
+        Chunk(boolean offHeap) {
+            numbers = offHeap
+                    ? ByteBuffer.allocateDirect(CHUNK_SIZE * SLOT_BYTES)
+                    : ByteBuffer.allocate(CHUNK_SIZE * SLOT_BYTES);
+        }
+        
+        @SuppressWarnings("unchecked")
+        OrderRecord read(int index) {
+            String orderId = orderIds[index];
+            if (orderId == null) {
+                return null;
+            }
+            int base = index * SLOT_BYTES;
+            return new OrderRecord(
+                    orderId,
+                    userIds[index],
+                    (List<Map<String, Object>>) items[index],
+                    numbers.getLong(base + CREATE_TIME_OFFSET),
+                    numbers.get(base + STATUS_OFFSET) & 0xff,
+                    numbers.getDouble(base + AMOUNT_OFFSET),
+                    numbers.getLong(base + UPDATE_TIME_OFFSET));
+        }
+    }
+    
+    // 已删除订单的槽位，按后进先出复用
+    private static final class FreeSlots {
+        private int[] slots = new int[64];
+        private int count;
+        
+        synchronized void push(int slot) {
+            if (count == slots.length) {
+                slots = Arrays.copyOf(slots, count << 1);
+            }
+            slots[count++] = slot;
+        }
+        
+        synchronized int poll() {
+            return count == 0 ? -1 : slots[--count];
+        }
+    }
+    
+    // orderId到槽位的开放寻址索引，表中保存slot+1，0表示空位
+    private final class Partition {
+        final StampedLock lock = new StampedLock();
+        int[] table = new int[64];
+        int size;
+        
+        int find(String orderId, int hash) {
+            int[] current = table;
+            int mask = current.length - 1;
+            for (int i = (hash >>> PARTITION_BITS) & mask; ; i = (i + 1) & mask) {
+                int entry = current[i];
+                if (entry == 0) {
+                    return -1;
+                }
+                if (orderId.equals(orderIdAt(entry - 1))) {
+                    return entry - 1;
+                }
+            }
+        }
+        
+        void insert(int slot, int hash) {
+            if ((size + 1) * 10 > table.length * 6) {
+                resize();
+            }
+            place(table, slot, hash);
+            size++;
+        }
+        
+        // 线性探测的后移删除：把探测链上可以前移的条目补到空位，查找不会在空位处提前结束
+        void delete(int slot, int hash) {
+            int[] current = table;
+            int mask = current.length - 1;
+            int i = (hash >>> PARTITION_BITS) & mask;
+            while (current[i] != slot + 1) {
+                i = (i + 1) & mask;
+            }
+            for (int j = (i + 1) & mask; current[j] != 0; j = (j + 1) & mask) {
+                int entry = current[j];
+                int home = (spread(orderIdAt(entry - 1).hashCode()) >>> PARTITION_BITS) & mask;
+                // home不在(i, j]区间内时，该条目可以移到i
+                boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+                if (movable) {
+                    current[i] = entry;
+                    i = j;
+                }
+            }
+            current[i] = 0;
+            size--;
+        }
+        
+        private void resize() {
+            int[] resized = new int[table.length << 1];
+            for (int entry : table) {
+                if (entry != 0) {
+                    place(resized, entry - 1, spread(orderIdAt(entry - 1).hashCode()));
+                }
+            }
+            table = resized;
+        }
+        
+        private void place(int[] target, int slot, int hash) {
+            int mask = target.length - 1;
+            int i = (hash >>> PARTITION_BITS) & mask;
+            while (target[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            target[i] = slot + 1;
+        }
+    }
+}
\ No newline at end of file
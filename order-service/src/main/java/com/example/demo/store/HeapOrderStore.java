@@ -0,0 +1,48 @@
+package com.example.demo.store;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// 堆内存储：每个订单一个不可变OrderRecord对象
+public class HeapOrderStore implements OrderStore {
+    
+    private final Map<String, OrderRecord> records = new ConcurrentHashMap<>();
+    
+    @Override
+    public void put(OrderRecord record) {
+        if (records.putIfAbsent(record.getOrderId(), record) != null) {
+            throw new IllegalStateException("Duplicate order id: " + record.getOrderId());
+        }
+    }
+    
+    @Override
+    public OrderRecord get(String orderId) {
+        return records.get(orderId);
+    }
+    
+    @Override
+    public OrderRecord updateStatus(String orderId, int statusCode, long updateTime) {
+        OrderRecord[] previous = new OrderRecord[1];
+        records.computeIfPresent(orderId, (id, record) -> {
+            previous[0] = record;
+            return record.withStatus(statusCode, updateTime);
+        });
+        return previous[0];
+    }
+    
+    @Override
+    public OrderRecord remove(String orderId) {
+        return records.remove(orderId);
+    }
+    
+    @Override
+    public int size() {
+        return records.size();
+    }
+    
+    @Override
+    public void forEach(Consumer<OrderRecord> action) {
+        records.values().forEach(action);
+    }
+}
\ No newline at end of file
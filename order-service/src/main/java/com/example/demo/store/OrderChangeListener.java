@@ -0,0 +1,50 @@
+package com.example.demo.store;
+
+// 订单变更回调，在持久化层的分段锁内调用，同一订单的回调顺序与修改顺序一致。
+// 实现不能阻塞，也不能再修改订单
+public interface OrderChangeListener {
+    
+    OrderChangeListener NONE = new OrderChangeListener() {
+        @Override
+        public void onCreated(OrderRecord record) {
+        }
+        
+        @Override
+        public void onStatusChanged(OrderRecord previous, int statusCode, long updateTime) {
+        }
+    };
+    
+    // 按注册顺序依次通知多个监听器
+    static OrderChangeListener composite(OrderChangeListener... listeners) {
+        return new OrderChangeListener() {
+            @Override
+            public void onCreated(OrderRecord record) {
+                for (OrderChangeListener listener : listeners) {
+                    listener.onCreated(record);
+                }
+            }
+            
+            @Override
+            public void onStatusChanged(OrderRecord previous, int statusCode, long updateTime) {
+                for (OrderChangeListener listener : listeners) {
+                    listener.onStatusChanged(previous, statusCode, updateTime);
+                }
+            }
+            
+            @Override
+            public void onRemoved(OrderRecord record) {
+                for (OrderChangeListener listener : listeners) {
+                    listener.onRemoved(record);
+                }
+            }
+        };
+    }
+    
+    void onCreated(OrderRecord record);
+    
+    void onStatusChanged(OrderRecord previous, int statusCode, long updateTime);
+    
+    // 订单迁到了其他实例，不是业务上的删除；变更流不需要发出事件
+    default void onRemoved(OrderRecord record) {
+    }
+}
\ No newline at end of file
@@ -0,0 +1,116 @@
+package com.example.demo.store;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 订单记录：时间使用epoch毫秒，状态使用驻留编码，对象创建后不可变
+public final class OrderRecord {
+    
+    private final String orderId;
+    private final String userId;
+    private final List<Map<String, Object>> items;
+    private final long createTime;
+    private final long updateTime;
+    private final double totalAmount;
+    private final int statusCode;
+    // 首次读取时构建的订单视图；状态变更由存储换成新的记录，旧视图随旧记录一起丢弃
+    private volatile Map<String, Object> view;
+    
+    public OrderRecord(String orderId, String userId, List<Map<String, Object>> items,
+                       long createTime, int statusCode, double totalAmount, long updateTime) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.items = items;
+        this.createTime = createTime;
+        this.statusCode = statusCode;
+        this.totalAmount = totalAmount;
+        this.updateTime = updateTime;
+    }
+    
+    public String getOrderId() {
+        return orderId;
+    }
+    
+    public String getUserId() {
+        return userId;
+    }
+    
+    public List<Map<String, Object>> getItems() {
+        return items;
+    }
+    
+    public long getCreateTime() {
+        return createTime;
+    }
+    
+    // 0表示订单创建后从未更新过
+    public long getUpdateTime() {
+        return updateTime;
+    }
+    
+    public double getTotalAmount() {
+        return totalAmount;
+    }
+    
+    public int getStatusCode() {
+        return statusCode;
+    }
+    
+    public String getStatus() {
+        return OrderStatusCodes.nameOf(statusCode);
+    }
+    
+    public OrderRecord withStatus(int newStatusCode, long newUpdateTime) {
+        return new OrderRecord(orderId, userId, items, createTime, newStatusCode, totalAmount, newUpdateTime);
+    }
+    
+    // 转换为对外接口使用的订单Map，字段与原有返回结构保持一致
+    public Map<String, Object> toMap() {
+        Map<String, Object> order = new HashMap<>();
+        order.put("orderId", orderId);
+        order.put("userId", userId);
+        order.put("items", items);
+        order.put("createTime", new Date(createTime));
+        order.put("status", getStatus());
+        order.put("totalAmount", totalAmount);
+        order.put("userVerified", true); // 用户验证在系统其他层完成
+        if (updateTime != 0L) {
+            order.put("updateTime", new Date(updateTime));
+        }
+        return order;
+    }
+    
+    // toMap的逆操作，用于接收从其他实例迁来的订单
+    @SuppressWarnings("unchecked")
+    public static OrderRecord fromMap(Map<String, Object> order) {
+        Object updateTime = order.get("updateTime");
+        return new OrderRecord((String) order.get("orderId"), (String) order.get("userId"),
+                (List<Map<String, Object>>) order.get("items"), ((Date) order.get("createTime")).getTime(),
+                OrderStatusCodes.codeOf((String) order.get("status")), ((Number) order.get("totalAmount")).doubleValue(),
+                updateTime instanceof Date ? ((Date) updateTime).getTime() : 0L);
+    }
+    
+    // 查询接口返回的订单视图，多次读取共享同一个不可修改的Map，调用方需要修改时先复制。
+    // 并发的首次读取可能各自构建一份，内容相同，保留哪一份都可以。
+    // Hessian按类名还原Map，不可修改的包装类没有公开的无参构造器，消费方收到的是HashMap
+    public Map<String, Object> view() {
+        Map<String, Object> cached = view;
+        if (cached == null) {
+            Map<String, Object> order = toMap();
+            order.put("paymentStatus", "UNPAID");
+            order.put("shippingStatus", "NOT_SHIPPED");
+            order.put("orderNumber", getOrderNumber());
+            cached = Collections.unmodifiableMap(order);
+            view = cached;
+        }
+        return cached;
+    }
+    
+    // 由下单时间和订单ID得出，同一订单每次读取结果一致
+    public String getOrderNumber() {
+        return "ORD-" + createTime + "-" + orderId.substring(orderId.length() - 4);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+package com.example.demo.store;
+
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.shard.OrderShards;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 订单的创建时间索引和按状态划分的索引，均为 排序键 -> 订单ID 的跳表。
+// 订单ID中的数值部分由SnowflakeIdGenerator生成，本身按创建时间递增，直接作为排序键；
+// 作为OrderChangeListener在持久化层的分段锁内维护，同一订单的状态迁移不会交错
+public class OrderSecondaryIndex implements OrderChangeListener {
+    
+    private static final long HASH_MASK = (1L << (SnowflakeIdGenerator.WORKER_ID_BITS + SnowflakeIdGenerator.SEQUENCE_BITS)) - 1;
+    
+    private final ConcurrentSkipListMap<Long, String> byCreateTime = new ConcurrentSkipListMap<>();
+    private final AtomicReferenceArray<ConcurrentSkipListMap<Long, String>> byStatus =
+            new AtomicReferenceArray<>(OrderStatusCodes.MAX_CODES);
+    
+    @Override
+    public void onCreated(OrderRecord record) {
+        Long key = keyOf(record);
+        byCreateTime.put(key, record.getOrderId());
+        statusMap(record.getStatusCode()).put(key, record.getOrderId());
+    }
+    
+    @Override
+    public void onStatusChanged(OrderRecord previous, int statusCode, long updateTime) {
+        if (previous.getStatusCode() == statusCode) {
+            return;
+        }
+        Long key = keyOf(previous);
+        statusMap(previous.getStatusCode()).remove(key);
+        statusMap(statusCode).put(key, previous.getOrderId());
+    }
+    
+    @Override
+    public void onRemoved(OrderRecord record) {
+        Long key = keyOf(record);
+        byCreateTime.remove(key, record.getOrderId());
+        statusMap(record.getStatusCode()).remove(key, record.getOrderId());
+    }
+    
+    // 按创建时间升序返回 [fromTime, toTime) 内、排序键大于afterKey的订单；statusCode小于0时不限状态。
+    // toTime小于等于0表示不限上界
+    public Page query(int statusCode, long fromTime, long toTime, long afterKey, int limit) {
+        ConcurrentSkipListMap<Long, String> map = statusCode < 0 ? byCreateTime : byStatus.get(statusCode);
+        List<String> orderIds = new ArrayList<>(Math.min(limit, 256));
+        if (map == null) {
+            return new Page(orderIds, afterKey, false);
+        }
+        long fromKey = Math.max(SnowflakeIdGenerator.minIdAt(fromTime), afterKey + 1);
+        ConcurrentNavigableMap<Long, String> range = toTime > 0
+                ? map.subMap(fromKey, true, SnowflakeIdGenerator.minIdAt(toTime), false)
+                : map.tailMap(fromKey, true);
+        long lastKey = afterKey;
+        boolean hasMore = false;
+        for (Map.Entry<Long, String> entry : range.entrySet()) {
+            if (orderIds.size() == limit) {
+                hasMore = true;
+                break;
+            }
+            orderIds.add(entry.getValue());
+            lastKey = entry.getKey();
+        }
+        return new Page(orderIds, lastKey, hasMore);
+    }
+    
+    // 生成器格式的订单ID直接取数值；其他格式的历史订单用创建时间加ID哈希拼出同样布局的键
+    public static long keyOf(OrderRecord record) {
+        return keyOf(record.getOrderId(), record.getCreateTime());
+    }
+    
+    public static long keyOf(String orderId, long createTime) {
+        long id = OrderShards.idOf(orderId);
+        if (id >= 0) {
+            return id;
+        }
+        return SnowflakeIdGenerator.minIdAt(createTime) | (orderId.hashCode() & HASH_MASK);
+    }
+    
+    private ConcurrentSkipListMap<Long, String> statusMap(int statusCode) {
+        ConcurrentSkipListMap<Long, String> map = byStatus.get(statusCode);
+        if (map == null) {
+            byStatus.compareAndSet(statusCode, null, new ConcurrentSkipListMap<>());
+            map = byStatus.get(statusCode);
+        }
+        return map;
+    }
+    
+    public static final class Page {
+        private final List<String> orderIds;
+        private final long lastKey;
+        private final boolean hasMore;
+        
+        Page(List<String> orderIds, long lastKey, boolean hasMore) {
+            this.orderIds = orderIds;
+            this.lastKey = lastKey;
+            this.hasMore = hasMore;
+        }
+        
+        public List<String> getOrderIds() {
+            return orderIds;
+        }
+        
+        // 作为下一页的afterKey
+        public long getLastKey() {
+            return lastKey;
+        }
+        
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+}
\ No newline at end of file
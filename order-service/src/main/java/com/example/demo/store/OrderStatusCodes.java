@@ -0,0 +1,75 @@
+package com.example.demo.store;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 订单状态驻留表：状态字符串在存储中只保存一个字节的编码
+public final class OrderStatusCodes {
+    
+    public static final int MAX_CODES = 256;
+    
+    public static final int PENDING_PAYMENT = 0;
+    public static final int PAID = 1;
+    public static final int CANCELLED = 2;
+    public static final int REFUNDING = 3;
+    
+    private static final Map<String, Integer> CODES = new ConcurrentHashMap<>();
+    private static final AtomicReferenceArray<String> NAMES = new AtomicReferenceArray<>(MAX_CODES);
+    private static int nextCode = 0;
+    
+    static {
+        register("PENDING_PAYMENT");
+        register("PAID");
+        register("CANCELLED");
+        register("REFUNDING");
+    }
+    
+    private OrderStatusCodes() {
+    }
+    
+    // 获取状态编码，未知状态首次出现时自动登记
+    public static int codeOf(String status) {
+        Integer code = CODES.get(status);
+        if (code != null) {
+            return code;
+        }
+        return register(status);
+    }
+    
+    // 查找已登记的状态编码，未知状态返回-1且不登记；只读查询使用，任意字符串不会占满编码表
+    public static int find(String status) {
+        Integer code = status == null ? null : CODES.get(status);
+        return code == null ? -1 : code;
+    }
+    
+    public static String nameOf(int code) {
+        String name = NAMES.get(code);
+        if (name == null) {
+            throw new IllegalArgumentException("Unknown status code: " + code);
+        }
+        return name;
+    }
+    
+    // 当前已登记的状态数量，用于按编码分配直方图等数组
+    public static synchronized int count() {
+        return nextCode;
+    }
+    
+    private static synchronized int register(String status) {
+        if (status == null) {
+            throw new IllegalArgumentException("Status must not be null");
+        }
+        Integer existing = CODES.get(status);
+        if (existing != null) {
+            return existing;
+        }
+        if (nextCode >= MAX_CODES) {
+            throw new IllegalStateException("Too many distinct order statuses");
+        }
+        int code = nextCode++;
+        NAMES.set(code, status.intern());
+        CODES.put(status, code);
+        return code;
+    }
+}
\ No newline at end of file
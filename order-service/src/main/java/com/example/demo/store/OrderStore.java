@@ -0,0 +1,42 @@
+package com.example.demo.store;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+// 订单存储引擎
+public interface OrderStore {
+    
+    // 写入新订单，orderId已存在时抛出IllegalStateException
+    void put(OrderRecord record);
+    
+    OrderRecord get(String orderId);
+    
+    // 原子地更新订单状态，返回更新前的记录；订单不存在时返回null
+    OrderRecord updateStatus(String orderId, int statusCode, long updateTime);
+    
+    // 删除订单并返回被删除的记录，订单不存在时返回null。用于把订单迁出存储
+    OrderRecord remove(String orderId);
+    
+    int size();
+    
+    void forEach(Consumer<OrderRecord> action);
+    
+    // 遍历时订单的商品明细可能为空，用于只需要订单头部的索引重建。默认同forEach
+    default void forEachWithoutItems(Consumer<OrderRecord> action) {
+        forEach(action);
+    }
+    
+    // 快照需要包含的订单。自身持久化了一部分订单的存储只遍历其余部分，默认为全部订单
+    default void forEachInSnapshot(Consumer<OrderRecord> action) {
+        forEach(action);
+    }
+    
+    // 从快照加载订单。快照中的版本比存储自身持久化的同一订单更新
+    default void restore(OrderRecord record) {
+        put(record);
+    }
+    
+    // 快照开始前调用，把存储自身持久化的部分刷盘
+    default void sync() throws IOException {
+    }
+}
\ No newline at end of file
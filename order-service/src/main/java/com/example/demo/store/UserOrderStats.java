@@ -0,0 +1,106 @@
+package com.example.demo.store;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+// 按用户增量维护的订单统计，在下单和状态变更时通过CAS整体替换快照，读取为O(1)
+public class UserOrderStats {
+    
+    private static final Snapshot EMPTY = new Snapshot(0, 0.0, new long[0], 0L);
+    
+    private final Map<String, AtomicReference<Snapshot>> stats = new ConcurrentHashMap<>();
+    
+    public void recordCreated(String userId, int statusCode, double amount, long createTime) {
+        AtomicReference<Snapshot> ref = stats.computeIfAbsent(userId, k -> new AtomicReference<>(EMPTY));
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = ref.get();
+            long[] counts = copyCounts(current.statusCounts, statusCode);
+            counts[statusCode]++;
+            next = new Snapshot(current.orderCount + 1, current.totalSpent + amount, counts,
+                    Math.max(current.lastOrderTime, createTime));
+        } while (!ref.compareAndSet(current, next));
+    }
+    
+    // 订单落盘后才登记下单，期间到达的状态变更可能先于recordCreated，计数暂时为负，登记下单后抵消
+    public void recordStatusChange(String userId, int oldStatusCode, int newStatusCode) {
+        if (oldStatusCode == newStatusCode) {
+            return;
+        }
+        AtomicReference<Snapshot> ref = stats.computeIfAbsent(userId, k -> new AtomicReference<>(EMPTY));
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = ref.get();
+            long[] counts = copyCounts(current.statusCounts, Math.max(oldStatusCode, newStatusCode));
+            counts[oldStatusCode]--;
+            counts[newStatusCode]++;
+            next = new Snapshot(current.orderCount, current.totalSpent, counts, current.lastOrderTime);
+        } while (!ref.compareAndSet(current, next));
+    }
+    
+    // 订单迁到其他实例后撤销它的计数；最近下单时间无法回退，保持不变
+    public void recordRemoved(String userId, int statusCode, double amount) {
+        AtomicReference<Snapshot> ref = stats.get(userId);
+        if (ref == null) {
+            return;
+        }
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = ref.get();
+            long[] counts = copyCounts(current.statusCounts, statusCode);
+            counts[statusCode]--;
+            next = new Snapshot(current.orderCount - 1, current.totalSpent - amount, counts, current.lastOrderTime);
+        } while (!ref.compareAndSet(current, next));
+    }
+    
+    public Snapshot get(String userId) {
+        AtomicReference<Snapshot> ref = stats.get(userId);
+        return ref == null ? EMPTY : ref.get();
+    }
+    
+    private static long[] copyCounts(long[] counts, int maxCode) {
+        long[] copy = new long[Math.max(counts.length, maxCode + 1)];
+        System.arraycopy(counts, 0, copy, 0, counts.length);
+        return copy;
+    }
+    
+    public static final class Snapshot {
+        private final int orderCount;
+        private final double totalSpent;
+        private final long[] statusCounts;
+        private final long lastOrderTime;
+        
+        Snapshot(int orderCount, double totalSpent, long[] statusCounts, long lastOrderTime) {
+            this.orderCount = orderCount;
+            this.totalSpent = totalSpent;
+            this.statusCounts = statusCounts;
+            this.lastOrderTime = lastOrderTime;
+        }
+        
+        public int getOrderCount() {
+            return orderCount;
+        }
+        
+        public double getTotalSpent() {
+            return totalSpent;
+        }
+        
+        // 按状态编码计数，编码超出数组长度时为0
+        public long getStatusCount(int statusCode) {
+            return statusCode < statusCounts.length ? statusCounts[statusCode] : 0L;
+        }
+        
+        public int getStatusCodeLimit() {
+            return statusCounts.length;
+        }
+        
+        // 0表示用户还没有订单
+        public long getLastOrderTime() {
+            return lastOrderTime;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,403 @@
+package com.example.demo.store.persistence;
+
+import com.example.demo.store.OrderChangeListener;
+import com.example.demo.store.OrderRecord;
+import com.example.demo.store.OrderStatusCodes;
+import com.example.demo.store.OrderStore;
+import com.example.demo.wal.WriteAheadLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 订单持久化：所有写操作先改内存存储再追加WAL，同一订单的两步在同一把分段锁内完成，
+// 保证WAL中的顺序与内存一致，变更回调也在同一把锁内发出；WAL拒绝追加时撤销内存中的修改，不发出回调。
+// 新订单的创建回调等到落盘后才发出，落盘失败的订单从存储撤回。
+// 快照是不停写的模糊快照，恢复时从快照位置重放日志，重放是幂等的，不会触发变更回调
+public class OrderPersistence implements Closeable {
+    
+    private static final byte CREATE = 1;
+    private static final byte STATUS = 2;
+    private static final byte REMOVE = 3;
+    private static final int STRIPES = 256;
+    
+    private final OrderStore store;
+    private final OrderChangeListener listener;
+    private final WriteAheadLog wal;
+    private final OrderSnapshotStore snapshots;
+    private final long snapshotIntervalSeconds;
+    private final Object[] stripes = new Object[STRIPES];
+    // 已写入存储和WAL、还没有落盘的新订单。落盘前不通知监听器，状态更新和迁出都当作订单不存在；
+    // 落盘失败时从存储中撤回，订阅方和索引从未见过这个订单
+    private final Set<String> unpublished = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService snapshotExecutor;
+    
+    private long recoveredOrders;
+    private long replayedRecords;
+    private long recoveryMillis;
+    
+    // 不开启持久化时只操作内存存储
+    public static OrderPersistence inMemory(OrderStore store, OrderChangeListener listener) {
+        return new OrderPersistence(store, listener, null, null, 0L);
+    }
+    
+    public static OrderPersistence durable(OrderStore store, OrderChangeListener listener, File dir, int segmentSize,
+                                           WriteAheadLog.Durability durability, long flushIntervalMillis,
+                                           long snapshotIntervalSeconds) throws IOException {
+        WriteAheadLog wal = new WriteAheadLog("order", dir, segmentSize, durability, flushIntervalMillis);
+        return new OrderPersistence(store, listener, wal, new OrderSnapshotStore(dir), snapshotIntervalSeconds);
+    }
+    
+    private OrderPersistence(OrderStore store, OrderChangeListener listener, WriteAheadLog wal,
+                             OrderSnapshotStore snapshots, long snapshotIntervalSeconds) {
+        this.store = store;
+        this.listener = listener;
+        this.wal = wal;
+        this.snapshots = snapshots;
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+    
+    // 加载最新快照并重放其后的日志，然后开始定期做快照
+    public void open() throws IOException {
+        if (wal == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        long snapshotLsn = snapshots.load(store::restore);
+        recoveredOrders = store.size();
+        wal.replay(snapshotLsn, (lsn, payload) -> redo(payload));
+        recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("Order recovery finished: " + store.size() + " orders, "
+                + recoveredOrders + " from snapshot, " + replayedRecords + " WAL records replayed in "
+                + recoveryMillis + " ms");
+        
+        if (snapshotIntervalSeconds > 0) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "order-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotExecutor.scheduleWithFixedDelay(this::snapshotQuietly,
+                    snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+    
+    public void create(OrderRecord record) {
+        awaitCreated(record, append(record, false));
+    }
+    
+    // 与create相同，但不阻塞调用线程，订单落盘后future完成
+    public CompletableFuture<Void> createAsync(OrderRecord record) {
+        long lsn = append(record, false);
+        if (lsn <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return wal.whenDurable(lsn).whenComplete((ignored, error) -> {
+            if (error == null) {
+                publishCreated(record);
+            } else {
+                withdrawCreated(record);
+            }
+        });
+    }
+    
+    // 写入从其他实例迁来的订单，本实例已有该订单时不写入并返回false
+    public boolean createIfAbsent(OrderRecord record) {
+        long lsn = append(record, true);
+        awaitCreated(record, lsn);
+        return lsn >= 0;
+    }
+    
+    // 订单迁到其他实例后删除本地副本。只在订单自导出后没有再变化（状态和更新时间都相同）时删除，
+    // 返回删除的记录；期间又被修改的订单保留，等下一轮迁移带着新状态再发送
+    public OrderRecord removeIfUnchanged(OrderRecord exported) {
+        String orderId = exported.getOrderId();
+        byte[] payload = wal == null ? null : encode(REMOVE, out -> OrderRecordCodec.writeString(out, orderId));
+        long lsn = 0L;
+        OrderRecord current;
+        synchronized (stripeOf(orderId)) {
+            current = unpublished.contains(orderId) ? null : store.get(orderId);
+            if (current == null || current.getStatusCode() != exported.getStatusCode()
+                    || current.getUpdateTime() != exported.getUpdateTime()) {
+                return null;
+            }
+            store.remove(orderId);
+            if (wal != null) {
+                try {
+                    lsn = wal.append(payload);
+                } catch (RuntimeException e) {
+                    store.put(current);
+                    throw e;
+                }
+            }
+            listener.onRemoved(current);
+        }
+        if (lsn > 0) {
+            wal.awaitDurable(lsn);
+        }
+        return current;
+    }
+    
+    // 返回更新前的记录，订单不存在时返回null且不写日志
+    public OrderRecord updateStatus(String orderId, int statusCode, long updateTime) {
+        OrderRecord[] previous = new OrderRecord[1];
+        long lsn = applyStatus(orderId, statusCode, updateTime, previous, 0);
+        if (lsn > 0) {
+            wal.awaitDurable(lsn);
+        }
+        return previous[0];
+    }
+    
+    // 与updateStatus相同，但不阻塞调用线程；内存中的状态立即更新，落盘后future完成
+    public CompletableFuture<OrderRecord> updateStatusAsync(String orderId, int statusCode, long updateTime) {
+        OrderRecord[] previous = new OrderRecord[1];
+        long lsn = applyStatus(orderId, statusCode, updateTime, previous, 0);
+        return whenDurable(lsn).thenApply(ignored -> previous[0]);
+    }
+    
+    // 批量更新状态，全部追加到WAL后只等待一次刷盘；返回每个订单更新前的记录，不存在的为null
+    public OrderRecord[] updateStatuses(String[] orderIds, int[] statusCodes, long updateTime) {
+        OrderRecord[] previous = new OrderRecord[orderIds.length];
+        long lastLsn = applyStatuses(orderIds, statusCodes, updateTime, previous);
+        if (lastLsn > 0) {
+            wal.awaitDurable(lastLsn);
+        }
+        return previous;
+    }
+    
+    public CompletableFuture<OrderRecord[]> updateStatusesAsync(String[] orderIds, int[] statusCodes, long updateTime) {
+        OrderRecord[] previous = new OrderRecord[orderIds.length];
+        long lastLsn = applyStatuses(orderIds, statusCodes, updateTime, previous);
+        return whenDurable(lastLsn).thenApply(ignored -> previous);
+    }
+    
+    // 写入存储并追加WAL，返回记录的LSN，未写日志时返回0；ifAbsent为true且订单已存在时返回-1。
+    // 写日志时不在这里通知监听器，由awaitCreated或createAsync在落盘后通知
+    private long append(OrderRecord record, boolean ifAbsent) {
+        if (wal == null) {
+            synchronized (stripeOf(record.getOrderId())) {
+                if (ifAbsent && store.get(record.getOrderId()) != null) {
+                    return -1L;
+                }
+                store.put(record);
+                listener.onCreated(record);
+            }
+            return 0L;
+        }
+        byte[] payload = encode(CREATE, out -> OrderRecordCodec.writeRecord(out, record));
+        synchronized (stripeOf(record.getOrderId())) {
+            if (ifAbsent && store.get(record.getOrderId()) != null) {
+                return -1L;
+            }
+            store.put(record);
+            long lsn;
+            try {
+                lsn = wal.append(payload);
+            } catch (RuntimeException e) {
+                store.remove(record.getOrderId());
+                throw e;
+            }
+            unpublished.add(record.getOrderId());
+            return lsn;
+        }
+    }
+    
+    private void awaitCreated(OrderRecord record, long lsn) {
+        if (lsn <= 0) {
+            return;
+        }
+        try {
+            wal.awaitDurable(lsn);
+        } catch (RuntimeException e) {
+            withdrawCreated(record);
+            throw e;
+        }
+        publishCreated(record);
+    }
+    
+    // 仍在条带锁内通知，同一订单的创建事件一定先于其状态变更事件
+    private void publishCreated(OrderRecord record) {
+        synchronized (stripeOf(record.getOrderId())) {
+            unpublished.remove(record.getOrderId());
+            listener.onCreated(record);
+        }
+    }
+    
+    // 落盘失败：调用方会收到异常，订单从存储撤回。WAL映射中的这条记录可能已经写到磁盘，重启后仍可能恢复出该订单
+    private void withdrawCreated(OrderRecord record) {
+        synchronized (stripeOf(record.getOrderId())) {
+            if (unpublished.remove(record.getOrderId())) {
+                store.remove(record.getOrderId());
+            }
+        }
+    }
+    
+    private long applyStatuses(String[] orderIds, int[] statusCodes, long updateTime, OrderRecord[] previous) {
+        long lastLsn = 0L;
+        for (int i = 0; i < orderIds.length; i++) {
+            // 编码为负表示调用方已确定订单不存在
+            if (statusCodes[i] >= 0) {
+                lastLsn = Math.max(lastLsn, applyStatus(orderIds[i], statusCodes[i], updateTime, previous, i));
+            }
+        }
+        return lastLsn;
+    }
+    
+    private CompletableFuture<Void> whenDurable(long lsn) {
+        return lsn > 0 ? wal.whenDurable(lsn) : CompletableFuture.completedFuture(null);
+    }
+    
+    // 在条带锁内更新存储并追加WAL，更新前的记录写入previous[index]；返回记录的LSN，未写日志时返回0。
+    // 状态没有变化时（如支付回调重试再次置为PAID）不修改存储、不写日志也不发出变更事件
+    private long applyStatus(String orderId, int statusCode, long updateTime, OrderRecord[] previous, int index) {
+        if (wal == null) {
+            synchronized (stripeOf(orderId)) {
+                if (unchanged(orderId, statusCode, previous, index)) {
+                    return 0L;
+                }
+                OrderRecord old = store.updateStatus(orderId, statusCode, updateTime);
+                if (old != null) {
+                    listener.onStatusChanged(old, statusCode, updateTime);
+                }
+                previous[index] = old;
+                return 0L;
+            }
+        }
+        byte[] payload = encode(STATUS, out -> {
+            OrderRecordCodec.writeString(out, orderId);
+            OrderRecordCodec.writeString(out, OrderStatusCodes.nameOf(statusCode));
+            out.writeLong(updateTime);
+        });
+        synchronized (stripeOf(orderId)) {
+            if (unpublished.contains(orderId) || unchanged(orderId, statusCode, previous, index)) {
+                return 0L;
+            }
+            OrderRecord old = store.updateStatus(orderId, statusCode, updateTime);
+            if (old == null) {
+                return 0L;
+            }
+            long lsn;
+            try {
+                lsn = wal.append(payload);
+            } catch (RuntimeException e) {
+                store.updateStatus(orderId, old.getStatusCode(), old.getUpdateTime());
+                throw e;
+            }
+            listener.onStatusChanged(old, statusCode, updateTime);
+            previous[index] = old;
+            return lsn;
+        }
+    }
+    
+    private boolean unchanged(String orderId, int statusCode, OrderRecord[] previous, int index) {
+        OrderRecord current = store.get(orderId);
+        if (current == null || current.getStatusCode() != statusCode) {
+            return false;
+        }
+        previous[index] = current;
+        return true;
+    }
+    
+    // 先记下WAL位置再遍历存储，位置之前的修改一定已经在内存中；
+    // 存储自身持久化的部分（如冷数据段）在记下位置后刷盘，这部分不写入快照
+    public void snapshot() throws IOException {
+        if (wal == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        long lsn = wal.position();
+        store.sync();
+        snapshots.write(lsn, store);
+        wal.deleteSegmentsBefore(lsn);
+        System.out.println("Order snapshot written at WAL position " + lsn + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+    
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+    
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+    
+    // 停机前做一次快照，下次启动只需加载快照而不必重放整段日志
+    @Override
+    public void close() {
+        if (wal == null) {
+            return;
+        }
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+        snapshotQuietly();
+        wal.close();
+    }
+    
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Order snapshot failed: " + e.getMessage());
+        }
+    }
+    
+    private void redo(byte[] payload) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            byte type = in.get();
+            if (type == CREATE) {
+                OrderRecord record = OrderRecordCodec.readRecord(in);
+                // 模糊快照可能已经包含该订单
+                if (store.get(record.getOrderId()) == null) {
+                    store.put(record);
+                }
+            } else if (type == STATUS) {
+                String orderId = OrderRecordCodec.readString(in);
+                int statusCode = OrderStatusCodes.codeOf(OrderRecordCodec.readString(in));
+                store.updateStatus(orderId, statusCode, in.getLong());
+            } else if (type == REMOVE) {
+                store.remove(OrderRecordCodec.readString(in));
+            } else {
+                throw new IOException("Unknown WAL record type: " + type);
+            }
+            replayedRecords++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replay order WAL", e);
+        }
+    }
+    
+    private Object stripeOf(String orderId) {
+        return stripes[(orderId.hashCode() & 0x7fffffff) % STRIPES];
+    }
+    
+    private static byte[] encode(byte type, RecordWriter writer) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            writer.write(out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,184 @@
+package com.example.demo.store.persistence;
+
+import com.example.demo.store.OrderRecord;
+import com.example.demo.store.OrderStatusCodes;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 订单记录的二进制编码，WAL和快照共用。状态以名称保存，因为状态编码只在进程内有效。
+// 解码直接读ByteBuffer，恢复大量订单时避免逐字节的流式读取
+public final class OrderRecordCodec {
+    
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte MAP = 6;
+    private static final byte LIST = 7;
+    private static final byte FLOAT = 8;
+    private static final byte DECIMAL = 9;
+    
+    private OrderRecordCodec() {
+    }
+    
+    public static void writeRecord(DataOutput out, OrderRecord record) throws IOException {
+        writeString(out, record.getOrderId());
+        writeString(out, record.getUserId());
+        out.writeLong(record.getCreateTime());
+        out.writeLong(record.getUpdateTime());
+        out.writeDouble(record.getTotalAmount());
+        writeString(out, record.getStatus());
+        writeValue(out, record.getItems());
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static OrderRecord readRecord(ByteBuffer in) throws IOException {
+        String orderId = readString(in);
+        String userId = readString(in);
+        long createTime = in.getLong();
+        long updateTime = in.getLong();
+        double totalAmount = in.getDouble();
+        int statusCode = OrderStatusCodes.codeOf(readString(in));
+        List<Map<String, Object>> items = (List<Map<String, Object>>) readValue(in);
+        return new OrderRecord(orderId, userId, items, createTime, statusCode, totalAmount, updateTime);
+    }
+    
+    // 只解码订单头部，商品明细留空且不移动到记录末尾，调用方按记录长度跳过。重建索引时不需要商品明细
+    public static OrderRecord readRecordWithoutItems(ByteBuffer in) throws IOException {
+        String orderId = readString(in);
+        String userId = readString(in);
+        long createTime = in.getLong();
+        long updateTime = in.getLong();
+        double totalAmount = in.getDouble();
+        int statusCode = OrderStatusCodes.codeOf(readString(in));
+        return new OrderRecord(orderId, userId, Collections.emptyList(), createTime, statusCode, totalAmount, updateTime);
+    }
+    
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    public static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new IOException("Truncated string of length " + length);
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+    
+    // 订单明细来自Dubbo反序列化后的Map/List，其他类型按字符串保存
+    private static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(INT);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(DECIMAL);
+            writeString(out, value.toString());
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(out, String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else {
+            out.writeByte(STRING);
+            writeString(out, value.toString());
+        }
+    }
+    
+    private static Object readValue(ByteBuffer in) throws IOException {
+        byte type = in.get();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INT:
+                return in.getInt();
+            case LONG:
+                return in.getLong();
+            case DOUBLE:
+                return in.getDouble();
+            case FLOAT:
+                return in.getFloat();
+            case BOOLEAN:
+                return in.get() != 0;
+            case DECIMAL:
+                return new BigDecimal(readString(in));
+            case MAP: {
+                int size = in.getInt();
+                Map<String, Object> map = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    String key = readString(in);
+                    map.put(key, readValue(in));
+                }
+                return map;
+            }
+            case LIST: {
+                int size = in.getInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            default:
+                throw new IOException("Unknown value type: " + type);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,211 @@
+package com.example.demo.store.tier;
+
+import com.example.demo.shard.OrderShards;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+// 冷订单的 订单ID -> 段内位置 索引。生成器格式的订单ID只保存其中的数值，
+// 键和位置放在两个并行的long数组中做开放寻址，每个订单约占30字节；其他格式的历史订单ID放在普通Map中
+class ColdOrderIndex {
+    
+    private static final int PARTITION_BITS = 6;
+    private static final int PARTITION_MASK = (1 << PARTITION_BITS) - 1;
+    
+    private final Partition[] partitions = new Partition[1 << PARTITION_BITS];
+    private final Map<String, Long> legacy = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    
+    ColdOrderIndex() {
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition();
+        }
+    }
+    
+    // 不存在时返回-1
+    long get(String orderId) {
+        long id = OrderShards.idOf(orderId);
+        if (id < 0) {
+            Long location = legacy.get(orderId);
+            return location == null ? -1L : location;
+        }
+        int hash = hash(id);
+        Partition partition = partitions[hash & PARTITION_MASK];
+        long stamp = partition.lock.tryOptimisticRead();
+        long location = partition.find(id + 1, hash);
+        if (!partition.lock.validate(stamp)) {
+            stamp = partition.lock.readLock();
+            try {
+                location = partition.find(id + 1, hash);
+            } finally {
+                partition.lock.unlockRead(stamp);
+            }
+        }
+        return location;
+    }
+    
+    void put(String orderId, long location) {
+        long id = OrderShards.idOf(orderId);
+        if (id < 0) {
+            if (legacy.put(orderId, location) == null) {
+                size.incrementAndGet();
+            }
+            return;
+        }
+        int hash = hash(id);
+        Partition partition = partitions[hash & PARTITION_MASK];
+        long stamp = partition.lock.writeLock();
+        try {
+            if (partition.put(id + 1, hash, location)) {
+                size.incrementAndGet();
+            }
+        } finally {
+            partition.lock.unlockWrite(stamp);
+        }
+    }
+    
+    // 返回删除前的位置，不存在时返回-1
+    long remove(String orderId) {
+        long id = OrderShards.idOf(orderId);
+        if (id < 0) {
+            Long location = legacy.remove(orderId);
+            if (location == null) {
+                return -1L;
+            }
+            size.decrementAndGet();
+            return location;
+        }
+        int hash = hash(id);
+        Partition partition = partitions[hash & PARTITION_MASK];
+        long stamp = partition.lock.writeLock();
+        try {
+            long location = partition.remove(id + 1, hash);
+            if (location >= 0) {
+                size.decrementAndGet();
+            }
+            return location;
+        } finally {
+            partition.lock.unlockWrite(stamp);
+        }
+    }
+    
+    int size() {
+        return size.get();
+    }
+    
+    // 数组部分占用的堆内存，不含历史格式订单ID的Map
+    long tableBytes() {
+        long bytes = 0L;
+        for (Partition partition : partitions) {
+            long stamp = partition.lock.readLock();
+            try {
+                bytes += 16L * partition.keys.length;
+            } finally {
+                partition.lock.unlockRead(stamp);
+            }
+        }
+        return bytes;
+    }
+    
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & 0x7fffffff;
+    }
+    
+    // 键为订单数值加1，0表示空位
+    private static final class Partition {
+        final StampedLock lock = new StampedLock();
+        long[] keys = new long[64];
+        long[] values = new long[64];
+        int size;
+        
+        long find(long key, int hash) {
+            long[] currentKeys = keys;
+            long[] currentValues = values;
+            int mask = currentKeys.length - 1;
+            // 乐观读时两个数组可能来自不同版本，长度不一致时由调用方的validate兜底
+            if (currentValues.length != currentKeys.length) {
+                return -1L;
+            }
+            for (int i = (hash >>> PARTITION_BITS) & mask; ; i = (i + 1) & mask) {
+                long k = currentKeys[i];
+                if (k == 0L) {
+                    return -1L;
+                }
+                if (k == key) {
+                    return currentValues[i];
+                }
+            }
+        }
+        
+        // 新增时返回true，已存在时覆盖位置并返回false
+        boolean put(long key, int hash, long location) {
+            int mask = keys.length - 1;
+            int i = (hash >>> PARTITION_BITS) & mask;
+            while (keys[i] != 0L) {
+                if (keys[i] == key) {
+                    values[i] = location;
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            if ((size + 1) * 10 > keys.length * 6) {
+                resize();
+                put(key, hash, location);
+                return true;
+            }
+            values[i] = location;
+            keys[i] = key;
+            size++;
+            return true;
+        }
+        
+        // 线性探测的后移删除，与ColumnarOrderStore一致
+        long remove(long key, int hash) {
+            int mask = keys.length - 1;
+            int i = (hash >>> PARTITION_BITS) & mask;
+            while (keys[i] != key) {
+                if (keys[i] == 0L) {
+                    return -1L;
+                }
+                i = (i + 1) & mask;
+            }
+            long location = values[i];
+            for (int j = (i + 1) & mask; keys[j] != 0L; j = (j + 1) & mask) {
+                int home = (hash(keys[j] - 1) >>> PARTITION_BITS) & mask;
+                boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+                if (movable) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    i = j;
+                }
+            }
+            keys[i] = 0L;
+            size--;
+            return location;
+        }
+        
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            long[] newKeys = new long[oldKeys.length << 1];
+            long[] newValues = new long[oldKeys.length << 1];
+            int mask = newKeys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == 0L) {
+                    continue;
+                }
+                int i = (hash(oldKeys[j] - 1) >>> PARTITION_BITS) & mask;
+                while (newKeys[i] != 0L) {
+                    i = (i + 1) & mask;
+                }
+                newKeys[i] = oldKeys[j];
+                newValues[i] = oldValues[j];
+            }
+            values = newValues;
+            keys = newKeys;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,365 @@
+package com.example.demo.store.tier;
+
+import com.example.demo.store.OrderRecord;
+import com.example.demo.store.persistence.OrderRecordCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 冷订单段文件：只追加，按固定大小分段并整段内存映射，文件名为段序号。
+// 订单按块压缩写入，每块为 [int 压缩长度][int 原始长度][int 订单数][int CRC32][Deflate数据]，压缩长度为0表示段内数据结束；
+// 块解压后每个订单为 [int 长度][OrderRecordCodec编码]。订单位置为 段序号(15位) | 块偏移(32位) | 块内序号(16位)
+class ColdOrderSegments implements Closeable {
+    
+    static final int MAX_BLOCK_RECORDS = 0xffff;
+    
+    private static final String PREFIX = "cold-";
+    private static final String SUFFIX = ".seg";
+    private static final int MAX_SEGMENTS = 1 << 15;
+    private static final int HEADER_BYTES = 16;
+    
+    private final File dir;
+    private final int segmentSize;
+    private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+    private Segment active;
+    
+    // 写入方只有分层线程，编码和压缩缓冲区复用
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final ByteArrayOutputStream rawBytes = new ByteArrayOutputStream(8192);
+    private final DataOutputStream rawOut = new DataOutputStream(rawBytes);
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+    private byte[] compressBuffer = new byte[8192];
+    
+    private final ThreadLocal<ReadBuffers> readBuffers = ThreadLocal.withInitial(ReadBuffers::new);
+    
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong rawTotalBytes = new AtomicLong();
+    
+    ColdOrderSegments(File dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create cold order directory: " + dir);
+        }
+    }
+    
+    // 打开已有的段文件，按写入顺序回调每个订单的ID和位置；同一订单后写入的位置覆盖先写入的
+    synchronized void open(BiConsumer<String, Long> consumer) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        for (File file : files) {
+            String name = file.getName();
+            int index = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            Segment segment = openSegment(index, file, Math.max(file.length(), segmentSize));
+            scan(segment, consumer);
+            active = segment;
+        }
+        if (active == null) {
+            active = createSegment(0);
+        }
+    }
+    
+    // 把一组订单压缩成一个块追加到当前段，返回每个订单的位置。写入后需调用sync才保证落盘
+    synchronized long[] append(List<OrderRecord> records) {
+        if (records.isEmpty() || records.size() > MAX_BLOCK_RECORDS) {
+            throw new IllegalArgumentException("Invalid cold block size: " + records.size());
+        }
+        try {
+            rawBytes.reset();
+            for (OrderRecord record : records) {
+                recordBytes.reset();
+                OrderRecordCodec.writeRecord(recordOut, record);
+                rawOut.writeInt(recordBytes.size());
+                recordBytes.writeTo(rawOut);
+            }
+            rawOut.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int rawLength = rawBytes.size();
+        int compressedLength = compress(rawBytes.toByteArray(), rawLength);
+        CRC32 crc = new CRC32();
+        crc.update(compressBuffer, 0, compressedLength);
+        
+        int blockSize = HEADER_BYTES + compressedLength;
+        if (blockSize + 4 > segmentSize) {
+            throw new IllegalArgumentException("Cold block too large: " + blockSize);
+        }
+        if (active.buffer.capacity() - active.buffer.position() < blockSize + 4) {
+            roll();
+        }
+        MappedByteBuffer buffer = active.buffer;
+        int offset = buffer.position();
+        buffer.putInt(compressedLength);
+        buffer.putInt(rawLength);
+        buffer.putInt(records.size());
+        buffer.putInt((int) crc.getValue());
+        buffer.put(compressBuffer, 0, compressedLength);
+        // 段内数据以0结尾，覆盖崩溃前可能残留的半个块
+        buffer.putInt(buffer.position(), 0);
+        
+        storedBytes.addAndGet(blockSize);
+        rawTotalBytes.addAndGet(rawLength);
+        long[] locations = new long[records.size()];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = location(active.index, offset, i);
+        }
+        return locations;
+    }
+    
+    OrderRecord read(long location) throws IOException {
+        Segment segment = segments.get((int) (location >>> 48));
+        if (segment == null) {
+            throw new IOException("Unknown cold segment in location " + Long.toHexString(location));
+        }
+        ByteBuffer in = segment.buffer.duplicate();
+        in.position((int) (location >>> 16));
+        int compressedLength = in.getInt();
+        int rawLength = in.getInt();
+        in.position(in.position() + 8);
+        ReadBuffers buffers = readBuffers.get();
+        byte[] raw = buffers.inflate(in, compressedLength, rawLength);
+        
+        int slot = (int) (location & 0xffff);
+        int position = 0;
+        for (int i = 0; i < slot; i++) {
+            position += 4 + readInt(raw, position);
+        }
+        int length = readInt(raw, position);
+        return OrderRecordCodec.readRecord(ByteBuffer.wrap(raw, position + 4, length));
+    }
+    
+    // 按写入顺序逐块解码调用时已写入的全部订单，回调参数为位置和订单；withItems为false时不解码商品明细
+    void forEach(BiConsumer<Long, OrderRecord> consumer, boolean withItems) throws IOException {
+        int lastIndex;
+        int lastEnd;
+        synchronized (this) {
+            lastIndex = active.index;
+            lastEnd = active.buffer.position();
+        }
+        ReadBuffers buffers = readBuffers.get();
+        for (int index = 0; index <= lastIndex; index++) {
+            ByteBuffer in = segments.get(index).buffer.duplicate();
+            in.position(0);
+            int end = index == lastIndex ? lastEnd : in.capacity();
+            while (end - in.position() >= HEADER_BYTES) {
+                int offset = in.position();
+                int compressedLength = in.getInt();
+                if (compressedLength <= 0) {
+                    break;
+                }
+                int rawLength = in.getInt();
+                int count = in.getInt();
+                in.getInt();
+                byte[] raw = buffers.inflate(in, compressedLength, rawLength);
+                ByteBuffer records = ByteBuffer.wrap(raw, 0, rawLength);
+                for (int i = 0; i < count; i++) {
+                    int length = records.getInt();
+                    int next = records.position() + length;
+                    consumer.accept(location(index, offset, i), withItems
+                            ? OrderRecordCodec.readRecord(records) : OrderRecordCodec.readRecordWithoutItems(records));
+                    records.position(next);
+                }
+            }
+        }
+    }
+    
+    synchronized void sync() {
+        active.buffer.force();
+    }
+    
+    synchronized int segmentCount() {
+        return active == null ? 0 : active.index + 1;
+    }
+    
+    // 已写入的块占用的字节数，包括已被新版本替代的订单
+    long storedBytes() {
+        return storedBytes.get();
+    }
+    
+    long rawBytes() {
+        return rawTotalBytes.get();
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (active != null) {
+            active.buffer.force();
+        }
+        for (int i = 0; i < MAX_SEGMENTS; i++) {
+            Segment segment = segments.get(i);
+            if (segment == null) {
+                break;
+            }
+            try {
+                segment.file.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close cold segment: " + e.getMessage());
+            }
+        }
+        deflater.end();
+    }
+    
+    private int compress(byte[] raw, int length) {
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == compressBuffer.length) {
+                compressBuffer = Arrays.copyOf(compressBuffer, compressBuffer.length * 2);
+            }
+            size += deflater.deflate(compressBuffer, size, compressBuffer.length - size);
+        }
+        return size;
+    }
+    
+    private void scan(Segment segment, BiConsumer<String, Long> consumer) throws IOException {
+        MappedByteBuffer buffer = segment.buffer;
+        ReadBuffers buffers = readBuffers.get();
+        CRC32 crc = new CRC32();
+        while (buffer.capacity() - buffer.position() >= HEADER_BYTES) {
+            int offset = buffer.position();
+            int compressedLength = buffer.getInt();
+            int rawLength = buffer.getInt();
+            int count = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (compressedLength <= 0 || compressedLength > buffer.remaining() || rawLength < 0 || count <= 0) {
+                buffer.position(offset);
+                break;
+            }
+            ByteBuffer data = buffer.duplicate();
+            byte[] compressed = buffers.compressed(compressedLength);
+            data.get(compressed, 0, compressedLength);
+            crc.reset();
+            crc.update(compressed, 0, compressedLength);
+            // 校验失败说明是崩溃时写了一半的块，之后的内容丢弃
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(offset);
+                break;
+            }
+            buffer.position(offset + HEADER_BYTES + compressedLength);
+            byte[] raw = buffers.inflate(ByteBuffer.wrap(compressed), compressedLength, rawLength);
+            ByteBuffer records = ByteBuffer.wrap(raw, 0, rawLength);
+            for (int i = 0; i < count; i++) {
+                int length = records.getInt();
+                int next = records.position() + length;
+                // 记录以订单ID开头，重建索引时不解码其余字段
+                consumer.accept(OrderRecordCodec.readString(records), location(segment.index, offset, i));
+                records.position(next);
+            }
+            storedBytes.addAndGet(HEADER_BYTES + compressedLength);
+            rawTotalBytes.addAndGet(rawLength);
+        }
+    }
+    
+    private void roll() {
+        active.buffer.force();
+        try {
+            active = createSegment(active.index + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot roll cold segment", e);
+        }
+    }
+    
+    private Segment createSegment(int index) throws IOException {
+        if (index >= MAX_SEGMENTS) {
+            throw new IOException("Too many cold segments");
+        }
+        return openSegment(index, new File(dir, String.format("%s%08d%s", PREFIX, index, SUFFIX)), segmentSize);
+    }
+    
+    private Segment openSegment(int index, File file, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        Segment segment = new Segment(index, raf, buffer);
+        segments.set(index, segment);
+        return segment;
+    }
+    
+    private static long location(int segment, int offset, int slot) {
+        return ((long) segment << 48) | ((offset & 0xffffffffL) << 16) | slot;
+    }
+    
+    private static int readInt(byte[] bytes, int position) {
+        return (bytes[position] << 24) | ((bytes[position + 1] & 0xff) << 16)
+                | ((bytes[position + 2] & 0xff) << 8) | (bytes[position + 3] & 0xff);
+    }
+    
+    private static final class Segment {
+        final int index;
+        final RandomAccessFile file;
+        final MappedByteBuffer buffer;
+        
+        Segment(int index, RandomAccessFile file, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+    
+    // 每个读线程复用解压器和缓冲区
+    private static final class ReadBuffers {
+        final Inflater inflater = new Inflater();
+        byte[] compressed = new byte[4096];
+        byte[] raw = new byte[16384];
+        
+        byte[] compressed(int length) {
+            if (compressed.length < length) {
+                compressed = new byte[Math.max(length, compressed.length * 2)];
+            }
+            return compressed;
+        }
+        
+        byte[] inflate(ByteBuffer in, int compressedLength, int rawLength) throws IOException {
+            byte[] input = in.hasArray() ? in.array() : compressed(compressedLength);
+            int inputOffset = in.hasArray() ? in.arrayOffset() + in.position() : 0;
+            if (!in.hasArray()) {
+                in.get(input, 0, compressedLength);
+            }
+            if (raw.length < rawLength) {
+                raw = new byte[Math.max(rawLength, raw.length * 2)];
+            }
+            inflater.reset();
+            inflater.setInput(input, inputOffset, compressedLength);
+            try {
+                int size = 0;
+                while (size < rawLength) {
+                    int n = inflater.inflate(raw, size, rawLength - size);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    size += n;
+                }
+                if (size != rawLength) {
+                    throw new IOException("Corrupted cold block");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted cold block", e);
+            }
+            return raw;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,403 @@
+package com.example.demo.store.tier;
+
+import com.example.demo.store.OrderRecord;
+import com.example.demo.store.OrderStatusCodes;
+import com.example.demo.store.OrderStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// 订单冷热分层：新订单和未完结的订单留在热存储，进入完结状态且超过保留时间的订单由后台线程
+// 压缩写入冷数据段后移出热存储，堆上只保留 订单ID -> 段内位置 的紧凑索引。
+// 读取先查热存储再查冷数据，对调用方透明；冷订单再次变更状态时读回热存储。
+// 冷数据段在订单移出热存储前刷盘，快照只包含热存储中的订单，恢复时快照中的版本优先
+public class TieredOrderStore implements OrderStore, Closeable {
+    
+    private static final int STRIPES = 256;
+    private static final int BLOCKS_PER_SYNC = 32;
+    private static final int LATENCY_BUCKETS = 32;
+    
+    private final OrderStore hot;
+    private final ColdOrderSegments cold;
+    private final ColdOrderIndex coldIndex = new ColdOrderIndex();
+    private final boolean[] tierable = new boolean[OrderStatusCodes.MAX_CODES];
+    private final long coldAfterMillis;
+    private final int blockRecords;
+    private final Object[] stripes = new Object[STRIPES];
+    
+    // 进入可分层状态的订单按变更时间排队，后台线程从队头取出到期的订单
+    private final ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private ScheduledExecutorService tierExecutor;
+    
+    private final LongAdder hotHits = new LongAdder();
+    private final LongAdder coldHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coldReadNanos = new LongAdder();
+    // 冷读取耗时直方图，第i个桶为 [2^(i-1), 2^i) 微秒
+    private final AtomicLongArray coldReadLatency = new AtomicLongArray(LATENCY_BUCKETS);
+    private final AtomicLong demoted = new AtomicLong();
+    private final AtomicLong promoted = new AtomicLong();
+    private final AtomicLong staleDemotions = new AtomicLong();
+    private final AtomicLong restoredFromSnapshot = new AtomicLong();
+    private volatile long lastRunMillis;
+    private volatile long lastRunDemoted;
+    
+    public TieredOrderStore(OrderStore hot, File dir, int segmentSize, Collection<String> tierableStatuses,
+                            long coldAfterMillis, int blockRecords) throws IOException {
+        if (blockRecords <= 0 || blockRecords > ColdOrderSegments.MAX_BLOCK_RECORDS) {
+            throw new IllegalArgumentException("Invalid block records: " + blockRecords);
+        }
+        this.hot = hot;
+        this.coldAfterMillis = coldAfterMillis;
+        this.blockRecords = blockRecords;
+        for (String status : tierableStatuses) {
+            tierable[OrderStatusCodes.codeOf(status.trim())] = true;
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        // 冷索引要在快照加载和WAL重放之前建好，恢复时才能判断订单是否已经存在
+        long start = System.nanoTime();
+        this.cold = new ColdOrderSegments(dir, segmentSize);
+        cold.open(coldIndex::put);
+        System.out.println("Cold order index rebuilt: " + coldIndex.size() + " orders in "
+                + cold.segmentCount() + " segments, " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+    
+    // 恢复完成后调用：恢复期间入队的订单按时间排序，然后开始定期迁移
+    public synchronized void start(long scanIntervalMillis) {
+        if (tierExecutor != null) {
+            return;
+        }
+        List<Pending> recovered = new ArrayList<>(pending);
+        recovered.sort(Comparator.comparingLong(p -> p.changeTime));
+        pending.clear();
+        pending.addAll(recovered);
+        
+        tierExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "order-tiering");
+            thread.setDaemon(true);
+            return thread;
+        });
+        tierExecutor.scheduleWithFixedDelay(this::demoteQuietly, scanIntervalMillis, scanIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    public void put(OrderRecord record) {
+        synchronized (stripeOf(record.getOrderId())) {
+            if (coldIndex.get(record.getOrderId()) >= 0) {
+                throw new IllegalStateException("Duplicate order id: " + record.getOrderId());
+            }
+            hot.put(record);
+        }
+        enqueueIfTierable(record.getOrderId(), record.getStatusCode(), lastChangeOf(record));
+    }
+    
+    @Override
+    public OrderRecord get(String orderId) {
+        OrderRecord record = hot.get(orderId);
+        if (record != null) {
+            hotHits.increment();
+            return record;
+        }
+        long location = coldIndex.get(orderId);
+        if (location < 0) {
+            // 冷订单读回热存储时先写热存储再删冷索引，两次查询之间被读回的订单在热存储中
+            record = hot.get(orderId);
+            if (record != null) {
+                hotHits.increment();
+            } else {
+                misses.increment();
+            }
+            return record;
+        }
+        coldHits.increment();
+        return readCold(location);
+    }
+    
+    @Override
+    public OrderRecord updateStatus(String orderId, int statusCode, long updateTime) {
+        OrderRecord previous;
+        synchronized (stripeOf(orderId)) {
+            previous = hot.updateStatus(orderId, statusCode, updateTime);
+            if (previous == null) {
+                long location = coldIndex.get(orderId);
+                if (location < 0) {
+                    return null;
+                }
+                previous = readCold(location);
+                hot.put(previous.withStatus(statusCode, updateTime));
+                coldIndex.remove(orderId);
+                promoted.incrementAndGet();
+            }
+        }
+        enqueueIfTierable(orderId, statusCode, updateTime);
+        return previous;
+    }
+    
+    @Override
+    public OrderRecord remove(String orderId) {
+        synchronized (stripeOf(orderId)) {
+            OrderRecord previous = hot.remove(orderId);
+            if (previous != null) {
+                return previous;
+            }
+            long location = coldIndex.remove(orderId);
+            return location < 0 ? null : readCold(location);
+        }
+    }
+    
+    @Override
+    public int size() {
+        return hot.size() + coldIndex.size();
+    }
+    
+    // 遍历热存储后按写入顺序逐块解码冷数据段，只返回冷索引中仍指向的版本
+    @Override
+    public void forEach(Consumer<OrderRecord> action) {
+        forEach(action, true);
+    }
+    
+    // 冷订单只解码订单头部，启动重建索引时不必还原每个冷订单的商品明细
+    @Override
+    public void forEachWithoutItems(Consumer<OrderRecord> action) {
+        forEach(action, false);
+    }
+    
+    private void forEach(Consumer<OrderRecord> action, boolean withItems) {
+        hot.forEach(action);
+        try {
+            cold.forEach((location, record) -> {
+                if (coldIndex.get(record.getOrderId()) == location) {
+                    action.accept(record);
+                }
+            }, withItems);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read cold orders", e);
+        }
+    }
+    
+    @Override
+    public void forEachInSnapshot(Consumer<OrderRecord> action) {
+        hot.forEach(action);
+    }
+    
+    // 快照中的订单同时在冷数据中时，说明它在快照之后才迁出，以快照版本加上之后的WAL为准
+    @Override
+    public void restore(OrderRecord record) {
+        synchronized (stripeOf(record.getOrderId())) {
+            if (coldIndex.remove(record.getOrderId()) >= 0) {
+                restoredFromSnapshot.incrementAndGet();
+            }
+            hot.put(record);
+        }
+        enqueueIfTierable(record.getOrderId(), record.getStatusCode(), lastChangeOf(record));
+    }
+    
+    @Override
+    public void sync() {
+        cold.sync();
+    }
+    
+    // 迁移线程执行一次：把到期的订单分块压缩写入冷数据段，刷盘后再从热存储移除
+    public int demote() {
+        long cutoff = System.currentTimeMillis() - coldAfterMillis;
+        int batchLimit = blockRecords * BLOCKS_PER_SYNC;
+        List<OrderRecord> batch = new ArrayList<>(batchLimit);
+        int moved = 0;
+        while (true) {
+            Pending head = pending.peek();
+            if (head == null || head.changeTime > cutoff) {
+                break;
+            }
+            pending.poll();
+            pendingCount.decrementAndGet();
+            OrderRecord record = hot.get(head.orderId);
+            // 入队后又变更过状态的订单以最后一次入队为准
+            if (record == null || !tierable[record.getStatusCode()] || lastChangeOf(record) != head.changeTime) {
+                continue;
+            }
+            batch.add(record);
+            if (batch.size() == batchLimit) {
+                moved += moveToCold(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            moved += moveToCold(batch);
+        }
+        lastRunMillis = System.currentTimeMillis();
+        lastRunDemoted = moved;
+        return moved;
+    }
+    
+    public Map<String, Object> stats() {
+        long hotCount = hotHits.sum();
+        long coldCount = coldHits.sum();
+        long reads = hotCount + coldCount;
+        long stored = cold.storedBytes();
+        
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", true);
+        stats.put("hotOrders", hot.size());
+        stats.put("coldOrders", coldIndex.size());
+        stats.put("pendingDemotions", pendingCount.get());
+        stats.put("hotHits", hotCount);
+        stats.put("coldHits", coldCount);
+        stats.put("misses", misses.sum());
+        stats.put("hotHitRatio", reads == 0 ? 0.0 : (double) hotCount / reads);
+        stats.put("coldHitRatio", reads == 0 ? 0.0 : (double) coldCount / reads);
+        stats.put("coldReadAvgMicros", coldCount == 0 ? 0.0 : coldReadNanos.sum() / 1000.0 / coldCount);
+        stats.put("coldReadP99Micros", latencyPercentile(0.99));
+        stats.put("demoted", demoted.get());
+        stats.put("promoted", promoted.get());
+        stats.put("staleDemotions", staleDemotions.get());
+        stats.put("restoredFromSnapshot", restoredFromSnapshot.get());
+        stats.put("coldSegments", cold.segmentCount());
+        stats.put("coldStoredBytes", stored);
+        stats.put("compressionRatio", stored == 0 ? 0.0 : (double) cold.rawBytes() / stored);
+        stats.put("coldIndexBytes", coldIndex.tableBytes());
+        stats.put("coldAfterMillis", coldAfterMillis);
+        stats.put("lastRunTime", lastRunMillis);
+        stats.put("lastRunDemoted", lastRunDemoted);
+        return stats;
+    }
+    
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (tierExecutor != null) {
+                tierExecutor.shutdownNow();
+                try {
+                    tierExecutor.awaitTermination(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        cold.close();
+    }
+    
+    private int moveToCold(List<OrderRecord> batch) {
+        long[] locations = new long[batch.size()];
+        for (int from = 0; from < batch.size(); from += blockRecords) {
+            int to = Math.min(from + blockRecords, batch.size());
+            long[] blockLocations = cold.append(batch.subList(from, to));
+            System.arraycopy(blockLocations, 0, locations, from, blockLocations.length);
+        }
+        cold.sync();
+        
+        int moved = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            OrderRecord record = batch.get(i);
+            synchronized (stripeOf(record.getOrderId())) {
+                OrderRecord current = hot.get(record.getOrderId());
+                // 写入冷数据期间状态又变了，这次写入的副本作废，留在段文件中不被索引
+                if (current == null || current.getStatusCode() != record.getStatusCode()
+                        || current.getUpdateTime() != record.getUpdateTime()) {
+                    staleDemotions.incrementAndGet();
+                    continue;
+                }
+                // 先发布冷索引再移出热存储，并发读取总能在其中一处找到
+                coldIndex.put(record.getOrderId(), locations[i]);
+                hot.remove(record.getOrderId());
+            }
+            moved++;
+        }
+        demoted.addAndGet(moved);
+        return moved;
+    }
+    
+    private void demoteQuietly() {
+        try {
+            long start = System.nanoTime();
+            int moved = demote();
+            if (moved > 0) {
+                System.out.println("Order tiering moved " + moved + " orders to cold segments in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Order tiering failed: " + e.getMessage());
+        }
+    }
+    
+    private OrderRecord readCold(long location) {
+        long start = System.nanoTime();
+        try {
+            return cold.read(location);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read cold order", e);
+        } finally {
+            long nanos = System.nanoTime() - start;
+            coldReadNanos.add(nanos);
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            coldReadLatency.incrementAndGet(bucket);
+        }
+    }
+    
+    // 返回百分位所在桶的上界
+    private long latencyPercentile(double percentile) {
+        long total = 0L;
+        long[] counts = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            counts[i] = coldReadLatency.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0L;
+        }
+        long threshold = (long) Math.ceil(total * percentile);
+        long seen = 0L;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= threshold) {
+                return 1L << i;
+            }
+        }
+        return 1L << (LATENCY_BUCKETS - 1);
+    }
+    
+    private void enqueueIfTierable(String orderId, int statusCode, long changeTime) {
+        if (tierable[statusCode]) {
+            pending.add(new Pending(orderId, changeTime));
+            pendingCount.incrementAndGet();
+        }
+    }
+    
+    private static long lastChangeOf(OrderRecord record) {
+        return record.getUpdateTime() != 0L ? record.getUpdateTime() : record.getCreateTime();
+    }
+    
+    private Object stripeOf(String orderId) {
+        return stripes[(orderId.hashCode() & 0x7fffffff) % STRIPES];
+    }
+    
+    private static final class Pending {
+        final String orderId;
+        final long changeTime;
+        
+        Pending(String orderId, long changeTime) {
+            this.orderId = orderId;
+            this.changeTime = changeTime;
+        }
+    }
+}
\ No newline at end of file
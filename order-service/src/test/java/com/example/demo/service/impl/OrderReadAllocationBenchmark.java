@@ -0,0 +1,100 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.service.PaymentService;
+import com.example.demo.shard.OrderShards;
+import com.example.demo.store.ColumnarOrderStore;
+import com.example.demo.store.HeapOrderStore;
+import com.example.demo.store.OrderStore;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// getOrderById每次读取分配的内存和耗时：java -cp <order-service类路径>:order-service/target/test-classes com.example.demo.service.impl.OrderReadAllocationBenchmark [订单数] [读取轮数]
+// 分别用heap、columnar、offheap存储装配订单服务，按ThreadMXBean.getThreadAllocatedBytes统计读取线程的分配量，
+// 订单ID预先生成，不计入。分配量包括返回给调用方的订单视图；另报读完后比读取前多占的堆，即缓存在记录上的视图
+public class OrderReadAllocationBenchmark {
+    
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String[] orderIds = new String[orders];
+        for (int i = 0; i < orders; i++) {
+            orderIds[i] = OrderShards.orderId(1000000000000000000L + i, i % OrderShards.BUCKETS);
+        }
+        System.out.println("orders=" + orders + " reads=" + (long) orders * rounds);
+        
+        for (String mode : new String[]{"heap", "columnar", "offheap"}) {
+            OrderStore store = "heap".equals(mode) ? new HeapOrderStore() : new ColumnarOrderStore("offheap".equals(mode));
+            OrderServiceImpl service = new OrderServiceFixture(paymentService()).orderStore(store).build();
+            seed(service, orderIds);
+            long retainedBefore = usedHeap();
+            long sink = 0L;
+            // 预热
+            for (int r = 0; r < 3; r++) {
+                for (String orderId : orderIds) {
+                    sink += service.getOrderById(orderId).size();
+                }
+            }
+            long threadId = Thread.currentThread().getId();
+            long allocated = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (String orderId : orderIds) {
+                    sink += service.getOrderById(orderId).size();
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            allocated = THREADS.getThreadAllocatedBytes(threadId) - allocated;
+            double reads = (double) orders * rounds;
+            long retained = usedHeap() - retainedBefore;
+            // 测量结束前保持服务可达，否则JIT判定其已死，Full GC会连同存储一起回收
+            sink += service.getOrderById(orderIds[0]).size();
+            System.out.printf("%-9s %6.1f B/read  %6.0f ns/read  retained by reads %6.1f B/order  (%d)%n", mode,
+                    allocated / reads, nanos / reads, (double) retained / orders, sink % 10);
+        }
+    }
+    
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    private static void seed(OrderServiceImpl service, String[] orderIds) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("productId", "P001");
+        item.put("price", 199.99);
+        item.put("quantity", 2);
+        Map<String, Map<String, Object>> batch = new LinkedHashMap<>();
+        for (int i = 0; i < orderIds.length; i++) {
+            Map<String, Object> order = new HashMap<>();
+            order.put("orderId", orderIds[i]);
+            order.put("userId", "user_" + (i % 100));
+            order.put("items", Collections.singletonList(item));
+            order.put("createTime", new Date());
+            order.put("status", "PENDING_PAYMENT");
+            order.put("totalAmount", 399.98);
+            batch.put(orderIds[i], order);
+            if (batch.size() == 1000 || i == orderIds.length - 1) {
+                service.importOrders(batch);
+                batch = new LinkedHashMap<>();
+            }
+        }
+    }
+    
+    private static PaymentService paymentService() {
+        return (PaymentService) Proxy.newProxyInstance(PaymentService.class.getClassLoader(),
+                new Class<?>[]{PaymentService.class}, (proxy, method, args) -> null);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,72 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.event.OrderChangeStream;
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.service.PaymentService;
+import com.example.demo.shard.OrderShardPeers;
+import com.example.demo.store.HeapOrderStore;
+import com.example.demo.store.OrderChangeListener;
+import com.example.demo.store.OrderSecondaryIndex;
+import com.example.demo.store.OrderStore;
+import com.example.demo.store.persistence.OrderPersistence;
+
+import java.lang.reflect.Field;
+
+// 基准共用的订单服务装配：不启动Spring，按注入的字段名逐个赋值后调用初始化方法。
+// 默认用堆上存储、不落盘，二级索引和变更流与配置类一样挂在持久化的监听器上
+public class OrderServiceFixture {
+    
+    private final PaymentService payments;
+    private OrderStore store = new HeapOrderStore();
+    private OrderChangeStream changes = new OrderChangeStream(1024, false);
+    private boolean paymentStatusEnabled = true;
+    // 默认单实例，不扇出也不迁移
+    private OrderShardPeers peers = new OrderShardPeers(0L, 1);
+    
+    public OrderServiceFixture(PaymentService payments) {
+        this.payments = payments;
+    }
+    
+    // 换用其他存储实现，例如列存
+    public OrderServiceFixture orderStore(OrderStore store) {
+        this.store = store;
+        return this;
+    }
+    
+    public OrderServiceFixture orderChangeStream(OrderChangeStream changes) {
+        this.changes = changes;
+        return this;
+    }
+    
+    public OrderServiceFixture paymentStatusEnabled(boolean enabled) {
+        this.paymentStatusEnabled = enabled;
+        return this;
+    }
+    
+    public OrderServiceFixture orderShardPeers(OrderShardPeers peers) {
+        this.peers = peers;
+        return this;
+    }
+    
+    public OrderServiceImpl build() throws Exception {
+        OrderSecondaryIndex index = new OrderSecondaryIndex();
+        OrderServiceImpl service = new OrderServiceImpl();
+        set(service, "orderStore", store);
+        set(service, "orderSecondaryIndex", index);
+        set(service, "orderChangeStream", changes);
+        set(service, "orderPersistence", OrderPersistence.inMemory(store, OrderChangeListener.composite(index, changes)));
+        set(service, "idGenerator", new SnowflakeIdGenerator(1));
+        set(service, "paymentService", payments);
+        set(service, "paymentStatusEnabled", paymentStatusEnabled);
+        set(service, "orderShardPeers", peers);
+        service.rebuildUserIndexes();
+        return service;
+    }
+    
+    // 修改已装配服务的配置项，例如在同一份数据上切换开关
+    public static void set(OrderServiceImpl service, String name, Object value) throws Exception {
+        Field field = OrderServiceImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(service, value);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.service.PaymentService;
+
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 订单列表补全支付状态的延迟：java -cp <order-service类路径>:order-service/target/test-classes com.example.demo.service.impl.PaymentStatusLookupBenchmark [单次调用延迟us]
+// 支付服务用代理模拟，每次调用固定等待一段网络往返时间，一半订单有支付。
+// 分别为有1、100、1000个订单的用户测量getUserOrders：不查询支付、每个订单调用一次、按页批量调用一次
+public class PaymentStatusLookupBenchmark {
+    
+    private static final AtomicLong CALLS = new AtomicLong();
+    private static final Map<String, Map<String, Object>> PAYMENTS = new ConcurrentHashMap<>();
+    
+    public static void main(String[] args) throws Exception {
+        long rttMicros = args.length > 0 ? Long.parseLong(args[0]) : 1000L;
+        PaymentService payments = paymentService(rttMicros);
+        OrderServiceImpl service = new OrderServiceFixture(payments).build();
+        System.out.println("payment rpc round trip=" + rttMicros + "us");
+        
+        for (int orders : new int[]{1, 100, 1000}) {
+            String userId = "user-" + orders;
+            for (int i = 0; i < orders; i++) {
+                Map<String, Object> order = service.createOrder(userId, Collections.singletonList(item()));
+                if (i % 2 == 0) {
+                    String orderId = (String) order.get("orderId");
+                    Map<String, Object> payment = new HashMap<>();
+                    payment.put("paymentId", "PAY_" + orderId);
+                    payment.put("status", "SUCCESS");
+                    PAYMENTS.put(orderId, payment);
+                }
+            }
+            int iterations = orders >= 1000 ? 5 : 50;
+            
+            OrderServiceFixture.set(service, "paymentStatusEnabled", false);
+            Result none = measure(iterations, () -> service.getUserOrders(userId));
+            Result perOrder = measure(iterations, () -> perOrderLookup(service.getUserOrders(userId), payments));
+            OrderServiceFixture.set(service, "paymentStatusEnabled", true);
+            Result batched = measure(iterations, () -> service.getUserOrders(userId));
+            
+            List<Map<String, Object>> result = service.getUserOrders(userId);
+            long paid = result.stream().filter(order -> "SUCCESS".equals(order.get("paymentStatus"))).count();
+            System.out.printf("orders=%4d  no lookup %8.3fms  per-order %9.3fms (%4d rpc)  batched %8.3fms (%d rpc)  paid=%d%n",
+                    orders, none.millis, perOrder.millis, perOrder.calls, batched.millis, batched.calls, paid);
+            if (paid != (orders + 1) / 2) {
+                throw new AssertionError("payment status not applied: paid=" + paid);
+            }
+        }
+    }
+    
+    // 补全前的做法：每个订单调用一次支付服务
+    private static List<Map<String, Object>> perOrderLookup(List<Map<String, Object>> orders, PaymentService payments) {
+        for (Map<String, Object> order : orders) {
+            payments.getPaymentsByOrderIds(Collections.singletonList((String) order.get("orderId")));
+        }
+        return orders;
+    }
+    
+    private static Result measure(int iterations, Runnable call) {
+        // 预热
+        call.run();
+        long calls = CALLS.get();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            call.run();
+        }
+        Result result = new Result();
+        result.millis = (System.nanoTime() - start) / 1e6 / iterations;
+        result.calls = (CALLS.get() - calls) / iterations;
+        return result;
+    }
+    
+    private static Map<String, Object> item() {
+        Map<String, Object> item = new HashMap<>();
+        item.put("productId", "P001");
+        item.put("price", 19.9);
+        item.put("quantity", 1);
+        return item;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static PaymentService paymentService(long rttMicros) {
+        return (PaymentService) Proxy.newProxyInstance(PaymentService.class.getClassLoader(),
+                new Class<?>[]{PaymentService.class}, (proxy, method, methodArgs) -> {
+                    if ("getPaymentsByOrderIds".equals(method.getName())) {
+                        CALLS.incrementAndGet();
+                        long deadline = System.nanoTime() + rttMicros * 1000;
+                        while (System.nanoTime() < deadline) {
+                            Thread.sleep(0, 100_000);
+                        }
+                        Map<String, Map<String, Object>> found = new HashMap<>();
+                        for (String orderId : (Collection<String>) methodArgs[0]) {
+                            Map<String, Object> payment = PAYMENTS.get(orderId);
+                            if (payment != null) {
+                                found.put(orderId, payment);
+                            }
+                        }
+                        return found;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+    
+    private static final class Result {
+        double millis;
+        long calls;
+    }
+}
\ No newline at end of file
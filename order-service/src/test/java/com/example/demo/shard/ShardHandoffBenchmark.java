@@ -0,0 +1,350 @@
+package com.example.demo.shard;
+
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.service.OrderService;
+import com.example.demo.service.PaymentService;
+import com.example.demo.service.impl.OrderServiceFixture;
+import com.example.demo.service.impl.OrderServiceImpl;
+import com.example.demo.store.OrderStore;
+import com.example.demo.stream.StreamCursors;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.RpcContext;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// 订单服务两个实例的桶迁移和扇出查询：java -cp <order-service类路径>:order-service/target/test-classes com.example.demo.shard.ShardHandoffBenchmark [订单数] [分页大小]
+// 不启动Dubbo：两个实例用OrderServiceFixture装配，Dubbo引用用代理代替，按UserShardLoadBalance选出的地址在调用线程内直接调用该实例，
+// 只有一个提供者时与Dubbo一样不经过负载均衡；定向调用的附件在调用期间留在RpcContext中，与提供端看到的一致。
+// 先只有实例A，B加入后、迁移之前按路由读取和更新全部订单（B本地没有的转到A），然后A迁出不归它的桶，
+// 核对两边的订单和状态，按时间和状态分页扇出读完全部订单、扫描全部状态，逐个实例拉取变更流；最后B停机迁出，全部订单回到A
+public class ShardHandoffBenchmark {
+    
+    private static final String A = "10.0.0.1:20882";
+    private static final String B = "10.0.0.2:20882";
+    private static final int USERS = 5000;
+    
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        System.out.println("orders=" + orders + " pageSize=" + pageSize);
+        
+        Cluster cluster = new Cluster();
+        Instance a = new Instance(cluster, A);
+        Instance b = new Instance(cluster, B);
+        cluster.join(a);
+        List<String> orderIds = seed(a.service, orders);
+        a.handoff.tick();
+        
+        // B加入：路由立即按两个实例分桶，订单还都在A上
+        cluster.join(b);
+        b.handoff.tick();
+        OrderService consumer = cluster.proxy();
+        long start = System.nanoTime();
+        int onB = 0;
+        for (String orderId : orderIds) {
+            if (consumer.getOrderById(orderId) == null) {
+                throw new AssertionError("order not found before handoff: " + orderId);
+            }
+            if (B.equals(UserShardLoadBalance.ownerOf(OrderService.class, orderId))) {
+                onB++;
+            }
+        }
+        System.out.printf("reads before handoff: %d orders, %d routed to B and read from A, %.0f reads/s%n",
+                orderIds.size(), onB, orderIds.size() * 1e9 / (System.nanoTime() - start));
+        // 每10个订单支付一个，B上的订单转到A更新
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < orderIds.size(); i += 10) {
+            if (!consumer.updateOrderStatus(orderIds.get(i), "PAID")) {
+                throw new AssertionError("update not applied before handoff: " + orderIds.get(i));
+            }
+            expected.put(orderIds.get(i), "PAID");
+        }
+        
+        start = System.nanoTime();
+        a.handoff.tick();
+        long handoffNanos = System.nanoTime() - start;
+        check(a, b, orderIds, expected, cluster);
+        System.out.printf("handoff A -> B: %d orders in %d ms, %.0f orders/s; A=%d B=%d%n", onB,
+                TimeUnit.NANOSECONDS.toMillis(handoffNanos), onB * 1e9 / handoffNanos, a.store.size(), b.store.size());
+        
+        // 扇出查询：从任一实例开始分页读完全部订单
+        start = System.nanoTime();
+        Set<String> listed = readAll(consumer, null, pageSize);
+        long listNanos = System.nanoTime() - start;
+        Set<String> paid = readAll(consumer, "PAID", pageSize);
+        Set<String> scanned = scanAll(consumer, pageSize);
+        if (listed.size() != orders || scanned.size() != orders || paid.size() != expected.size()) {
+            throw new AssertionError("fan-out read " + listed.size() + " orders, " + paid.size() + " paid, scanned "
+                    + scanned.size() + ", expected " + orders + " and " + expected.size() + " paid");
+        }
+        System.out.printf("fan-out by create time: %d pages of %d in %d ms, %.2f ms/page%n", (orders + pageSize - 1) / pageSize,
+                pageSize, TimeUnit.NANOSECONDS.toMillis(listNanos), listNanos / 1e6 / ((orders + pageSize - 1) / pageSize));
+        int fed = checkChangeFeed(consumer);
+        
+        // B停机：先迁出，再从注册中心消失
+        start = System.nanoTime();
+        b.handoff.drain();
+        long drainNanos = System.nanoTime() - start;
+        cluster.leave(b);
+        a.handoff.tick();
+        if (b.store.size() != 0 || a.store.size() != orders + fed) {
+            throw new AssertionError("drain left A=" + a.store.size() + " B=" + b.store.size());
+        }
+        check(a, b, orderIds, expected, cluster);
+        System.out.printf("drain B -> A: %d orders in %d ms%n", onB, TimeUnit.NANOSECONDS.toMillis(drainNanos));
+        a.peers.close();
+        b.peers.close();
+    }
+    
+    // 变更流：逐个实例定向拉取，位置按streamId分别记录。先追到各实例的流尾，之后经路由新建的订单应当恰好各出现一次
+    private static int checkChangeFeed(OrderService consumer) {
+        StreamCursors cursors = new StreamCursors();
+        List<String> addresses = UserShardLoadBalance.providers(OrderService.class);
+        pollAll(consumer, cursors, addresses);
+        Set<String> created = new HashSet<>();
+        List<Map<String, Object>> items = Collections.singletonList(Collections.singletonMap("productId", "P1"));
+        for (int i = 0; i < 200; i++) {
+            created.add((String) consumer.createOrder("feed_user_" + i, items).get("orderId"));
+        }
+        List<String> streamed = pollAll(consumer, cursors, addresses);
+        if (cursors.size() != 2 || streamed.size() != created.size() || !created.equals(new HashSet<>(streamed))) {
+            throw new AssertionError("per-instance change feed returned " + streamed.size() + " of " + created.size()
+                    + " created orders from " + cursors.size() + " streams");
+        }
+        System.out.printf("change feed: %d orders created through routing, streamed once each from %d instances%n",
+                streamed.size(), cursors.size());
+        return streamed.size();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static List<String> pollAll(OrderService consumer, StreamCursors cursors, List<String> addresses) {
+        List<String> created = new ArrayList<>();
+        for (String address : addresses) {
+            List<Map<String, Object>> events;
+            do {
+                long after = cursors.after(address);
+                Map<String, Object> changes = UserShardLoadBalance.callAt(address, () -> consumer.pollOrderChanges(after, 100));
+                long streamId = ((Number) changes.get("streamId")).longValue();
+                cursors.restarted(address, streamId);
+                events = (List<Map<String, Object>>) changes.get("events");
+                for (Map<String, Object> event : events) {
+                    if ("CREATED".equals(event.get("type"))) {
+                        created.add((String) event.get("orderId"));
+                    }
+                }
+                cursors.advance(streamId, ((Number) changes.get("nextSequence")).longValue());
+            } while (!events.isEmpty());
+        }
+        return created;
+    }
+    
+    // 直接导入，不逐笔打印下单日志
+    private static List<String> seed(OrderServiceImpl service, int orders) {
+        SnowflakeIdGenerator ids = new SnowflakeIdGenerator(2);
+        List<String> orderIds = new ArrayList<>(orders);
+        Map<String, Map<String, Object>> batch = new LinkedHashMap<>();
+        for (int i = 0; i < orders; i++) {
+            String userId = "user-" + (i % USERS);
+            long id = ids.nextId();
+            String orderId = OrderShards.orderId(id, OrderShards.bucketOfUser(userId));
+            Map<String, Object> order = new HashMap<>();
+            order.put("orderId", orderId);
+            order.put("userId", userId);
+            order.put("items", Collections.singletonList(Collections.singletonMap("productId", "P" + i)));
+            order.put("createTime", new java.util.Date(SnowflakeIdGenerator.timestampOf(id)));
+            order.put("status", "PENDING_PAYMENT");
+            order.put("totalAmount", 10.0);
+            batch.put(orderId, order);
+            orderIds.add(orderId);
+            if (batch.size() == 1000 || i == orders - 1) {
+                service.importOrders(batch);
+                batch = new LinkedHashMap<>();
+            }
+        }
+        return orderIds;
+    }
+    
+    // 每个订单只在其桶的归属实例上，状态与更新一致
+    private static void check(Instance a, Instance b, List<String> orderIds, Map<String, String> expected, Cluster cluster) {
+        OrderService consumer = cluster.proxy();
+        for (String orderId : orderIds) {
+            String owner = cluster.size() == 1 ? A : UserShardLoadBalance.ownerOf(OrderService.class, orderId);
+            Instance holder = A.equals(owner) ? a : b;
+            Instance other = holder == a ? b : a;
+            if (holder.store.get(orderId) == null || other.store.get(orderId) != null) {
+                throw new AssertionError("order " + orderId + " not only on its owner " + owner);
+            }
+            Map<String, Object> order = consumer.getOrderById(orderId);
+            if (!expected.getOrDefault(orderId, "PENDING_PAYMENT").equals(order.get("status"))) {
+                throw new AssertionError("status lost for " + orderId + ": " + order.get("status"));
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Set<String> readAll(OrderService consumer, String status, int pageSize) {
+        Set<String> orderIds = new HashSet<>();
+        String cursor = null;
+        long lastCreateTime = 0L;
+        do {
+            Map<String, Object> page = status == null
+                    ? consumer.getOrdersByCreateTime(0L, 0L, cursor, pageSize)
+                    : consumer.getOrdersByStatus(status, 0L, 0L, cursor, pageSize);
+            for (Map<String, Object> order : (List<Map<String, Object>>) page.get("orders")) {
+                long createTime = ((java.util.Date) order.get("createTime")).getTime();
+                if (createTime < lastCreateTime || !orderIds.add((String) order.get("orderId"))) {
+                    throw new AssertionError("fan-out page out of order or repeated: " + order.get("orderId"));
+                }
+                lastCreateTime = createTime;
+            }
+            cursor = (String) page.get("nextCursor");
+        } while (cursor != null);
+        return orderIds;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Set<String> scanAll(OrderService consumer, int chunkSize) {
+        Set<String> orderIds = new HashSet<>();
+        String cursor = null;
+        boolean hasMore;
+        do {
+            Map<String, Object> chunk = consumer.scanOrderStatuses(cursor, chunkSize);
+            orderIds.addAll((List<String>) chunk.get("orderIds"));
+            cursor = (String) chunk.get("nextCursor");
+            hasMore = (Boolean) chunk.get("hasMore");
+        } while (hasMore);
+        return orderIds;
+    }
+    
+    private static final class Instance {
+        final OrderStore store;
+        final OrderShardPeers peers = new OrderShardPeers(TimeUnit.MINUTES.toMillis(5), 2);
+        final OrderServiceImpl service;
+        final OrderBucketHandoff handoff;
+        
+        Instance(Cluster cluster, String address) throws Exception {
+            Field reference = OrderShardPeers.class.getDeclaredField("orderService");
+            reference.setAccessible(true);
+            reference.set(peers, cluster.proxy());
+            OrderServiceFixture fixture = new OrderServiceFixture(paymentService()).orderShardPeers(peers).paymentStatusEnabled(false);
+            service = fixture.build();
+            Field storeField = OrderServiceImpl.class.getDeclaredField("orderStore");
+            storeField.setAccessible(true);
+            store = (OrderStore) storeField.get(service);
+            handoff = new OrderBucketHandoff(peers, store, service::removeHandedOff, 500);
+            // 只为drain标记已启动，迁移由main逐步驱动
+            handoff.start(TimeUnit.HOURS.toMillis(1));
+            cluster.services.put(address, service);
+        }
+    }
+    
+    // 注册中心和Dubbo集群调用的替身
+    private static final class Cluster {
+        final Map<String, OrderServiceImpl> services = new HashMap<>();
+        final UserShardLoadBalance loadBalance = new UserShardLoadBalance();
+        volatile List<Invoker<OrderService>> invokers = new ArrayList<>();
+        
+        void join(Instance instance) {
+            List<Invoker<OrderService>> next = new ArrayList<>(invokers);
+            for (Map.Entry<String, OrderServiceImpl> entry : services.entrySet()) {
+                if (entry.getValue() == instance.service) {
+                    next.add(invoker(entry.getKey()));
+                }
+            }
+            invokers = next;
+        }
+        
+        void leave(Instance instance) {
+            List<Invoker<OrderService>> next = new ArrayList<>();
+            for (Invoker<OrderService> invoker : invokers) {
+                if (services.get(invoker.getUrl().getAddress()) != instance.service) {
+                    next.add(invoker);
+                }
+            }
+            invokers = next;
+        }
+        
+        int size() {
+            return invokers.size();
+        }
+        
+        OrderService proxy() {
+            return (OrderService) Proxy.newProxyInstance(OrderService.class.getClassLoader(), new Class<?>[]{OrderService.class},
+                    (proxy, method, args) -> {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(this, args);
+                        }
+                        List<Invoker<OrderService>> current = invokers;
+                        Invoker<OrderService> chosen = current.size() == 1 ? current.get(0)
+                                : loadBalance.select(current, current.get(0).getUrl(), invocation(method, args));
+                        try {
+                            return method.invoke(services.get(chosen.getUrl().getAddress()), args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+        
+        @SuppressWarnings("unchecked")
+        private static Invoker<OrderService> invoker(String address) {
+            URL url = URL.valueOf("dubbo://" + address + "/" + OrderService.class.getName());
+            return (Invoker<OrderService>) Proxy.newProxyInstance(Invoker.class.getClassLoader(), new Class<?>[]{Invoker.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getInterface":
+                                return OrderService.class;
+                            case "getUrl":
+                                return url;
+                            case "isAvailable":
+                                return true;
+                            case "hashCode":
+                                return address.hashCode();
+                            case "equals":
+                                return proxy == args[0];
+                            case "toString":
+                                return address;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+        
+        // Dubbo在选择提供者之前把RpcContext中的附件带到调用上
+        private static Invocation invocation(Method method, Object[] args) {
+            return (Invocation) Proxy.newProxyInstance(Invocation.class.getClassLoader(), new Class<?>[]{Invocation.class},
+                    (proxy, m, mArgs) -> {
+                        switch (m.getName()) {
+                            case "getMethodName":
+                                return method.getName();
+                            case "getParameterTypes":
+                                return method.getParameterTypes();
+                            case "getArguments":
+                                return args;
+                            case "getAttachment":
+                                return RpcContext.getContext().getAttachment((String) mArgs[0]);
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+    
+    private static PaymentService paymentService() {
+        return (PaymentService) Proxy.newProxyInstance(PaymentService.class.getClassLoader(),
+                new Class<?>[]{PaymentService.class}, (proxy, method, args) -> null);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,110 @@
+package com.example.demo.store;
+
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.shard.OrderShards;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// 状态和创建时间索引的范围查询延迟：java -Xmx3g -XX:+UseParallelGC -cp <order-service类路径>:order-service/target/test-classes com.example.demo.store.OrderRangeQueryBenchmark [订单数]
+// 订单均匀分布在最近10天，70%已支付、20%待支付、10%已取消，只建索引不建存储。
+// 每类查询随机取20000次测p50/p99，最后按200条一页用游标读完一天内的全部待支付订单
+public class OrderRangeQueryBenchmark {
+    
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final int QUERIES = 20000;
+    
+    public static void main(String[] args) {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        long span = 10 * DAY;
+        long now = System.currentTimeMillis();
+        long start = now - span;
+        Random random = new Random(1);
+        List<Map<String, Object>> items = Collections.emptyList();
+        OrderSecondaryIndex index = new OrderSecondaryIndex();
+        long buildStart = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            long createTime = start + span * i / orders;
+            long id = (createTime - SnowflakeIdGenerator.EPOCH) << (SnowflakeIdGenerator.WORKER_ID_BITS + SnowflakeIdGenerator.SEQUENCE_BITS)
+                    | (1L << SnowflakeIdGenerator.SEQUENCE_BITS) | (i & ((1 << SnowflakeIdGenerator.SEQUENCE_BITS) - 1));
+            OrderRecord record = new OrderRecord(OrderShards.orderId(id, i % OrderShards.BUCKETS), "user", items, createTime,
+                    OrderStatusCodes.PENDING_PAYMENT, 1.0, 0L);
+            index.onCreated(record);
+            int draw = random.nextInt(10);
+            if (draw < 7) {
+                index.onStatusChanged(record, OrderStatusCodes.PAID, createTime);
+            } else if (draw < 8) {
+                index.onStatusChanged(record, OrderStatusCodes.CANCELLED, createTime);
+            }
+        }
+        long buildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - buildStart);
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("orders=%d built in %d ms, heap used %d MB%n", orders, buildMillis,
+                (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+        
+        // 预热
+        for (int i = 0; i < QUERIES; i++) {
+            index.query(i % 2 == 0 ? OrderStatusCodes.PENDING_PAYMENT : -1, start + (long) (random.nextDouble() * span), 0L, -1L, 100);
+        }
+        String[] names = {"PENDING older than 15 min", "any status, last hour", "PENDING, random 1 h window", "any status, random 1 h window"};
+        for (int q = 0; q < names.length; q++) {
+            long[] latencies = new long[QUERIES];
+            long rows = 0L;
+            for (int i = 0; i < QUERIES; i++) {
+                long from;
+                long to;
+                int status;
+                switch (q) {
+                    case 0:
+                        status = OrderStatusCodes.PENDING_PAYMENT;
+                        from = 0L;
+                        to = now - TimeUnit.MINUTES.toMillis(15);
+                        break;
+                    case 1:
+                        status = -1;
+                        from = now - HOUR;
+                        to = 0L;
+                        break;
+                    case 2:
+                        status = OrderStatusCodes.PENDING_PAYMENT;
+                        from = start + (long) (random.nextDouble() * (span - HOUR));
+                        to = from + HOUR;
+                        break;
+                    default:
+                        status = -1;
+                        from = start + (long) (random.nextDouble() * (span - HOUR));
+                        to = from + HOUR;
+                }
+                long queryStart = System.nanoTime();
+                OrderSecondaryIndex.Page page = index.query(status, from, to, -1L, 100);
+                latencies[i] = System.nanoTime() - queryStart;
+                rows += page.getOrderIds().size();
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-32s limit 100: p50 %5.1f us  p99 %5.1f us  avg rows %.0f%n", names[q],
+                    latencies[QUERIES / 2] / 1000.0, latencies[QUERIES * 99 / 100] / 1000.0, (double) rows / QUERIES);
+        }
+        
+        long walkStart = System.nanoTime();
+        long afterKey = -1L;
+        int pages = 0;
+        int rows = 0;
+        OrderSecondaryIndex.Page page;
+        do {
+            page = index.query(OrderStatusCodes.PENDING_PAYMENT, start, start + DAY, afterKey, 200);
+            afterKey = page.getLastKey();
+            pages++;
+            rows += page.getOrderIds().size();
+        } while (page.hasMore());
+        System.out.printf("cursor walk: %d PENDING orders of one day in %d pages of 200, %.1f us/page%n", rows, pages,
+                (System.nanoTime() - walkStart) / 1000.0 / pages);
+    }
+}
\ No newline at end of file
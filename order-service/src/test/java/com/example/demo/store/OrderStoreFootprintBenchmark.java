@@ -0,0 +1,105 @@
+package com.example.demo.store;
+
+import com.example.demo.shard.OrderShards;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 各存储每个订单常驻的内存：java -Xmx3g -cp <order-service类路径>:order-service/target/test-classes com.example.demo.store.OrderStoreFootprintBenchmark [订单数] [legacy|heap|columnar|offheap ...]
+// legacy为改造前的ConcurrentHashMap<String, HashMap<String, Object>>。订单ID、用户ID预先生成，商品列表所有订单共用一份，都不计入；
+// 写入前后各做几次Full GC，以已用堆的差值除以订单数，offheap另报直接内存。每种布局写完即丢弃，单独测一种时数值最稳定
+public class OrderStoreFootprintBenchmark {
+    
+    public static void main(String[] args) {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String[] layouts = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length)
+                : new String[]{"legacy", "heap", "columnar", "offheap"};
+        String[] orderIds = new String[orders];
+        String[] userIds = new String[orders];
+        for (int i = 0; i < orders; i++) {
+            orderIds[i] = OrderShards.orderId(1000000000000000000L + i, i % OrderShards.BUCKETS);
+            userIds[i] = "user_" + (i % 100000);
+        }
+        List<Map<String, Object>> items = new ArrayList<>();
+        long createTime = System.currentTimeMillis();
+        System.out.println("orders=" + orders);
+        
+        for (String layout : layouts) {
+            long heapBefore = usedHeap();
+            long directBefore = directMemory();
+            Object kept;
+            if ("legacy".equals(layout)) {
+                Map<String, Map<String, Object>> legacy = new ConcurrentHashMap<>();
+                for (int i = 0; i < orders; i++) {
+                    Map<String, Object> order = new HashMap<>();
+                    order.put("orderId", orderIds[i]);
+                    order.put("userId", userIds[i]);
+                    order.put("items", items);
+                    order.put("createTime", new Date(createTime));
+                    order.put("status", "PENDING_PAYMENT");
+                    order.put("totalAmount", 100.0 + i);
+                    order.put("userVerified", true);
+                    legacy.put(orderIds[i], order);
+                }
+                kept = legacy;
+            } else {
+                OrderStore store = store(layout);
+                for (int i = 0; i < orders; i++) {
+                    store.put(new OrderRecord(orderIds[i], userIds[i], items, createTime, OrderStatusCodes.PENDING_PAYMENT, 100.0 + i, 0L));
+                }
+                kept = store;
+            }
+            long heap = usedHeap() - heapBefore;
+            long direct = directMemory() - directBefore;
+            System.out.printf("%-9s heap %6.1f B/order  direct %5.1f B/order  (%d MB)%n", layout, (double) heap / orders,
+                    (double) direct / orders, (heap + direct) >> 20);
+            // 测量结束前保持存储可达
+            if (kept.hashCode() == 42) {
+                System.out.print("");
+            }
+        }
+    }
+    
+    private static OrderStore store(String layout) {
+        switch (layout) {
+            case "heap":
+                return new HeapOrderStore();
+            case "columnar":
+                return new ColumnarOrderStore(false);
+            case "offheap":
+                return new ColumnarOrderStore(true);
+            default:
+                throw new IllegalArgumentException("Unknown layout: " + layout);
+        }
+    }
+    
+    private static long usedHeap() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    private static long directMemory() {
+        long used = 0L;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                used += pool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,109 @@
+package com.example.demo.store.persistence;
+
+import com.example.demo.store.ColumnarOrderStore;
+import com.example.demo.store.HeapOrderStore;
+import com.example.demo.store.OrderChangeListener;
+import com.example.demo.store.OrderRecord;
+import com.example.demo.store.OrderStatusCodes;
+import com.example.demo.store.OrderStore;
+import com.example.demo.wal.WriteAheadLog;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 启动恢复耗时，分两个进程运行：
+//   java -cp <order-service类路径>:order-service/target/test-classes com.example.demo.store.persistence.OrderRecoveryBenchmark write <订单数> <目录> [snapshot] [每单商品数]
+//   java -Xms3g -Xmx3g -XX:+UseParallelGC -cp ... com.example.demo.store.persistence.OrderRecoveryBenchmark recover <目录> [heap|columnar|offheap]
+// write以async方式写入订单，每3个订单支付一个，带snapshot时最后做一次快照，随后直接退出，不做停机快照，
+// 不带snapshot时recover只能重放整段WAL。recover打开同一目录，报告恢复耗时并抽查订单状态。
+// 每单商品数为0时恢复不必还原商品Map，1000万单可以在3GB堆内跑完
+public class OrderRecoveryBenchmark {
+    
+    private static final int SEGMENT_SIZE = 64 << 20;
+    
+    public static void main(String[] args) throws Exception {
+        if ("write".equals(args[0])) {
+            write(Integer.parseInt(args[1]), new File(args[2]), args.length > 3 && "snapshot".equals(args[3]),
+                    args.length > 4 ? Integer.parseInt(args[4]) : 1);
+        } else {
+            recover(new File(args[1]), args.length > 2 ? args[2] : "heap");
+        }
+    }
+    
+    private static void write(int orders, File dir, boolean snapshot, int itemsPerOrder) throws Exception {
+        OrderPersistence persistence = open(new HeapOrderStore(), dir);
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = 0; i < itemsPerOrder; i++) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("productId", "P00" + (i + 1));
+            item.put("name", "Demo Product");
+            item.put("price", 199.99);
+            item.put("quantity", 2);
+            items.add(item);
+        }
+        long createTime = System.currentTimeMillis();
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            persistence.create(new OrderRecord(orderId(i), "user_" + (i % 100000), items, createTime + i,
+                    OrderStatusCodes.PENDING_PAYMENT, 399.98, 0L));
+            if (i % 3 == 0) {
+                persistence.updateStatus(orderId(i), OrderStatusCodes.PAID, createTime + i + 1);
+            }
+        }
+        System.out.printf("write: %d orders, %d status updates in %d ms%n", orders, (orders + 2) / 3,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (snapshot) {
+            start = System.nanoTime();
+            persistence.snapshot();
+            System.out.printf("snapshot: %d ms, %d MB%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    snapshotSize(dir) >> 20);
+        }
+        // 模拟进程崩溃：不调用close，没有停机快照；async方式下映射的WAL已在页缓存中，进程退出后仍在
+        System.exit(0);
+    }
+    
+    private static void recover(File dir, String mode) throws Exception {
+        OrderStore store = "heap".equals(mode) ? new HeapOrderStore() : new ColumnarOrderStore("offheap".equals(mode));
+        OrderPersistence persistence = open(store, dir);
+        System.out.printf("recover (%s): %d orders in %d ms, %d WAL records replayed%n", mode, store.size(),
+                persistence.getRecoveryMillis(), persistence.getReplayedRecords());
+        int wrong = 0;
+        for (int i = 0; i < store.size(); i += 997) {
+            OrderRecord record = store.get(orderId(i));
+            int expected = i % 3 == 0 ? OrderStatusCodes.PAID : OrderStatusCodes.PENDING_PAYMENT;
+            if (record == null || record.getStatusCode() != expected) {
+                wrong++;
+            }
+        }
+        if (wrong > 0) {
+            throw new AssertionError(wrong + " sampled orders missing or with a wrong status");
+        }
+        System.exit(0);
+    }
+    
+    private static OrderPersistence open(OrderStore store, File dir) throws Exception {
+        OrderPersistence persistence = OrderPersistence.durable(store, OrderChangeListener.NONE, dir, SEGMENT_SIZE,
+                WriteAheadLog.Durability.ASYNC, 2L, 0L);
+        persistence.open();
+        return persistence;
+    }
+    
+    private static String orderId(int i) {
+        return "ORDER_" + i;
+    }
+    
+    private static long snapshotSize(File dir) {
+        long size = 0L;
+        File[] files = dir.listFiles((d, name) -> name.startsWith("snapshot-"));
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+}
\ No newline at end of file
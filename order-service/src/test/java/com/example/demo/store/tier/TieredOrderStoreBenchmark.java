@@ -0,0 +1,191 @@
+package com.example.demo.store.tier;
+
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.shard.OrderShards;
+import com.example.demo.store.ColumnarOrderStore;
+import com.example.demo.store.HeapOrderStore;
+import com.example.demo.store.OrderChangeListener;
+import com.example.demo.store.OrderRecord;
+import com.example.demo.store.OrderStatusCodes;
+import com.example.demo.store.OrderStore;
+import com.example.demo.store.persistence.OrderPersistence;
+import com.example.demo.wal.WriteAheadLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// 冷热分层：java -Xmx3g -cp <order-service类路径>:order-service/target/test-classes com.example.demo.store.tier.TieredOrderStoreBenchmark [订单数] [heap|columnar|offheap] [每块订单数] [目录]
+// 写入订单后支付或取消其中90%，立即迁移到冷数据段(cold-after为0)，报告迁移前后的已用堆、迁移吞吐、冷热读取延迟和压缩率。
+// 之后修改部分冷订单、做快照、再修改一部分，不调用close直接重新打开同一目录，模拟跳过停机快照的崩溃，核对订单数和状态，
+// 并比较完整遍历和重建索引用的不解码冷订单商品的遍历耗时
+public class TieredOrderStoreBenchmark {
+    
+    private static final int SEGMENT_SIZE = 64 << 20;
+    private static final int READS = 200000;
+    
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String mode = args.length > 1 ? args[1] : "heap";
+        int blockRecords = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        File dir = args.length > 3 ? new File(args[3]) : Files.createTempDirectory("order-tier-bench").toFile();
+        delete(dir);
+        System.out.println("orders=" + orders + " mode=" + mode + " blockRecords=" + blockRecords + " dir=" + dir);
+        
+        long baseHeap = usedHeap();
+        TieredOrderStore store = open(mode, dir, blockRecords);
+        OrderPersistence persistence = persistence(store, dir);
+        SnowflakeIdGenerator ids = new SnowflakeIdGenerator(1);
+        Random random = new Random(1);
+        String[] orderIds = new String[orders];
+        for (int i = 0; i < orders; i++) {
+            long id = ids.nextId();
+            String userId = "user" + random.nextInt(100000);
+            List<Map<String, Object>> items = new ArrayList<>();
+            for (int k = 0; k < 2; k++) {
+                Map<String, Object> item = new HashMap<>();
+                item.put("productId", "P" + random.nextInt(1000));
+                item.put("price", 10.0 + random.nextInt(500));
+                item.put("quantity", 1 + random.nextInt(3));
+                items.add(item);
+            }
+            orderIds[i] = OrderShards.orderId(id, OrderShards.bucketOfUser(userId));
+            persistence.create(new OrderRecord(orderIds[i], userId, items, SnowflakeIdGenerator.timestampOf(id),
+                    OrderStatusCodes.PENDING_PAYMENT, 100.0, 0L));
+        }
+        // 每10个订单留1个待支付，其余支付或取消
+        for (int i = 0; i < orders; i++) {
+            if (i % 10 != 0) {
+                persistence.updateStatus(orderIds[i], i % 3 == 0 ? OrderStatusCodes.CANCELLED : OrderStatusCodes.PAID,
+                        System.currentTimeMillis() - 1);
+            }
+        }
+        long hotHeap = usedHeap() - baseHeap;
+        Map<String, OrderRecord> sampled = new HashMap<>();
+        for (int i = 0; i < orders; i += 97) {
+            sampled.put(orderIds[i], store.get(orderIds[i]));
+        }
+        
+        Thread.sleep(5);
+        long start = System.nanoTime();
+        int moved = store.demote();
+        long demoteNanos = System.nanoTime() - start;
+        long tieredHeap = usedHeap() - baseHeap;
+        Map<String, Object> stats = store.stats();
+        System.out.printf("demoted %d orders in %d ms (%.0f orders/s); heap all hot %d MB, after tiering %d MB (cold index %d MB)%n",
+                moved, TimeUnit.NANOSECONDS.toMillis(demoteNanos), moved * 1e9 / demoteNanos, hotHeap >> 20, tieredHeap >> 20,
+                ((Number) stats.get("coldIndexBytes")).longValue() >> 20);
+        System.out.printf("compression ratio %.1fx, %d cold segments%n", (Double) stats.get("compressionRatio"), stats.get("coldSegments"));
+        for (Map.Entry<String, OrderRecord> entry : sampled.entrySet()) {
+            OrderRecord record = store.get(entry.getKey());
+            if (record == null || !record.toMap().equals(entry.getValue().toMap())) {
+                throw new AssertionError("cold copy differs for " + entry.getKey());
+            }
+        }
+        
+        long[] latencies = new long[READS];
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < READS; i++) {
+                // 下标不是10的倍数的订单都在冷数据段
+                String orderId = orderIds[random.nextInt(orders / 10) * 10 + 1 + random.nextInt(9)];
+                long readStart = System.nanoTime();
+                store.get(orderId).view();
+                latencies[i] = System.nanoTime() - readStart;
+            }
+        }
+        report("cold get+view", latencies);
+        for (int i = 0; i < READS; i++) {
+            String orderId = orderIds[random.nextInt(orders / 10) * 10];
+            long readStart = System.nanoTime();
+            store.get(orderId).view();
+            latencies[i] = System.nanoTime() - readStart;
+        }
+        report("hot get+view", latencies);
+        
+        // 快照前后各读回一部分冷订单，然后不做停机快照直接重新打开
+        for (int i = 1; i < orders; i += 1000) {
+            persistence.updateStatus(orderIds[i], OrderStatusCodes.REFUNDING, System.currentTimeMillis());
+        }
+        persistence.snapshot();
+        for (int i = 2; i < orders; i += 1000) {
+            persistence.updateStatus(orderIds[i], OrderStatusCodes.REFUNDING, System.currentTimeMillis());
+        }
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < orders; i += 7) {
+            OrderRecord record = store.get(orderIds[i]);
+            expected.put(orderIds[i], record.getStatus() + "@" + record.getUpdateTime());
+        }
+        int size = store.size();
+        store.sync();
+        
+        TieredOrderStore reopened = open(mode, dir, blockRecords);
+        OrderPersistence recovered = persistence(reopened, dir);
+        int wrong = 0;
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            OrderRecord record = reopened.get(entry.getKey());
+            if (record == null || !(record.getStatus() + "@" + record.getUpdateTime()).equals(entry.getValue())) {
+                wrong++;
+            }
+        }
+        int[] iterated = {0, 0};
+        start = System.nanoTime();
+        reopened.forEach(record -> iterated[0]++);
+        long fullNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        reopened.forEachWithoutItems(record -> iterated[1]++);
+        long headerNanos = System.nanoTime() - start;
+        System.out.printf("after restart without final snapshot: %d orders (expected %d, iterated %d) in %d ms, %d of %d sampled wrong%n",
+                reopened.size(), size, iterated[0], recovered.getRecoveryMillis(), wrong, expected.size());
+        System.out.printf("full iteration %d ms, without cold items (index rebuild) %d ms%n",
+                TimeUnit.NANOSECONDS.toMillis(fullNanos), TimeUnit.NANOSECONDS.toMillis(headerNanos));
+        if (reopened.size() != size || iterated[0] != size || iterated[1] != size || wrong > 0) {
+            throw new AssertionError("recovery lost or changed orders");
+        }
+        System.exit(0);
+    }
+    
+    private static TieredOrderStore open(String mode, File dir, int blockRecords) throws IOException {
+        OrderStore hot = "heap".equals(mode) ? new HeapOrderStore() : new ColumnarOrderStore("offheap".equals(mode));
+        return new TieredOrderStore(hot, new File(dir, "cold"), SEGMENT_SIZE, Arrays.asList("PAID", "CANCELLED"), 0L, blockRecords);
+    }
+    
+    private static OrderPersistence persistence(OrderStore store, File dir) throws IOException {
+        OrderPersistence persistence = OrderPersistence.durable(store, OrderChangeListener.NONE, dir, SEGMENT_SIZE,
+                WriteAheadLog.Durability.ASYNC, 2L, 0L);
+        persistence.open();
+        return persistence;
+    }
+    
+    private static void report(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        System.out.printf("%-14s p50 %5.1f us  p99 %5.1f us%n", name, latencies[latencies.length / 2] / 1000.0,
+                latencies[latencies.length * 99 / 100] / 1000.0);
+    }
+    
+    private static long usedHeap() {
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    private static void delete(File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
\ No newline at end of file
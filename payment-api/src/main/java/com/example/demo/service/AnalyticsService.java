@@ -2,20 +2,34 @@ package com.example.demo.service;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface AnalyticsService {
     // 获取用户综合分析报告
     Map<String, Object> getUserAnalyticsReport(String userId);
     
+    // 异步获取用户综合分析报告，订单和支付数据并行获取，等待期间不占用调用线程
+    CompletableFuture<Map<String, Object>> getUserAnalyticsReportAsync(String userId);
+    
     // 获取系统整体分析数据
     Map<String, Object> getSystemAnalyticsData();
     
-    // 获取销售趋势分析
+    // 获取最近7天按天的销售趋势
     List<Map<String, Object>> getSalesTrend();
     
+    // 获取[from, to)（毫秒时间戳，to为0表示当前时间）内的销售趋势，每个时段一个点：date、timestamp、orders、paidOrders、sales、avgOrderValue。
+    // resolution为minute、hour或day，为空或auto时选择能覆盖该范围的最细分辨率；超出保留时长的时段不返回
+    List<Map<String, Object>> getSalesTrend(long from, long to, String resolution);
+    
     // 获取用户行为分析
     Map<String, Object> getUserBehaviorAnalysis(String userId);
     
+    // 异步获取用户行为分析
+    CompletableFuture<Map<String, Object>> getUserBehaviorAnalysisAsync(String userId);
+    
     // 获取支付方式分析
     Map<String, Object> getPaymentMethodAnalysis();
+    
+    // 分析结果缓存的条目数、估算占用、命中率、淘汰/过期/拒绝/失效次数和订单变更流的处理情况
+    Map<String, Object> getAnalyticsCacheStats();
 }
\ No newline at end of file
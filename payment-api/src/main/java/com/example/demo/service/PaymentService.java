@@ -1,23 +1,97 @@
 package com.example.demo.service;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface PaymentService {
     // 创建支付
     Map<String, Object> createPayment(String orderId, String userId, double amount, String paymentMethod);
     
+    // 携带客户端幂等键创建支付，保留期内相同的键返回第一次的结果；键为空时等同于上一个方法
+    Map<String, Object> createPayment(String orderId, String userId, double amount, String paymentMethod, String idempotencyKey);
+    
     // 查询支付状态
     Map<String, Object> getPaymentStatus(String paymentId);
     
     // 处理支付回调
     boolean handlePaymentCallback(String paymentId, String status, Map<String, Object> callbackData);
     
+    // 批量处理支付回调，每项包含paymentId、status和可选的data(回调数据)，返回 支付ID -> 是否处理
+    Map<String, Boolean> handlePaymentCallbacks(java.util.List<Map<String, Object>> callbacks);
+    
     // 退款
     Map<String, Object> refund(String paymentId, double amount, String reason);
     
-    // 获取用户支付历史
+    // 查询退款记录
+    Map<String, Object> getRefund(String refundId);
+    
+    // 查询支付的全部退款，按申请顺序
+    java.util.List<Map<String, Object>> getRefundsByPayment(String paymentId);
+    
+    // 按订单ID批量查询支付，返回 订单ID -> 支付摘要(paymentId、status、amount、paymentMethod、refundedAmount)，
+    // 没有支付的订单不在结果中。供订单服务在一次调用内补全一页订单的支付状态
+    Map<String, Map<String, Object>> getPaymentsByOrderIds(java.util.Collection<String> orderIds);
+    
+    // 获取用户支付历史，一次返回全部支付；支付较多的用户应使用分块接口
     java.util.List<Map<String, Object>> getUserPaymentHistory(String userId);
     
+    // 按游标分块获取用户支付历史，按创建顺序；cursor为空表示从头开始，limit默认100、最大500。
+    // 返回当前块(payments)、下一块游标(nextCursor)和是否还有更多(hasMore)，调用方处理完一块再取下一块
+    Map<String, Object> getUserPaymentHistoryPage(String userId, String cursor, int limit);
+    
     // 验证支付信息
     boolean validatePayment(String orderId, String userId);
+    
+    // 支付时间轮统计：待执行任务数、工作线程队列、每秒执行数和调度延迟(毫秒)
+    Map<String, Object> getPaymentTimerStats();
+    
+    // 订单状态更新批处理统计：提交数、被合并数、批量/单个调用次数、平均批大小和失败数
+    Map<String, Object> getOrderUpdateStats();
+    
+    // 订单近端缓存统计：缓存订单数、命中/不存在命中/格式拒绝/远程查询次数、命中率和变更流事件数
+    Map<String, Object> getOrderCacheStats();
+    
+    // 在后台开始支付与订单的对账并返回进度；resume为true时从上次中断的检查点继续，否则从头开始
+    Map<String, Object> startReconciliation(boolean resume);
+    
+    // 对账进度：状态、已扫描的订单和支付数、一致/同步中/各类不一致的数量、不一致明细样例、每秒记录数和检查点
+    Map<String, Object> getReconciliationStatus();
+    
+    // 拉取afterSequence之后的支付变更事件（首次传0），返回events、nextSequence、dropped、lag和streamId，含义与OrderService.pollOrderChanges相同。
+    // 事件包含sequence、type(CREATED/STATUS_CHANGED)、paymentId、orderId、userId、oldStatus、newStatus、amount和timestamp；状态未变的回调重试不产生事件
+    // 流只含接收请求的实例的支付，多实例部署时订阅方应逐个实例定向拉取，按streamId分别记录位置
+    Map<String, Object> pollPaymentChanges(long afterSequence, int maxEvents);
+    
+    // 支付变更流的容量、已发布事件数和被覆盖事件数
+    Map<String, Object> getPaymentChangeStreamStats();
+    
+    // 批量结算，每项包含paymentId和可选的status(SUCCESS/FAILED，默认SUCCESS)，只结算仍处于PENDING的支付。
+    // 后台并行处理，立即返回任务进度，之后用getBulkJobStatus查询
+    Map<String, Object> submitBulkSettlement(java.util.List<Map<String, Object>> settlements);
+    
+    // 批量退款，每项包含paymentId、可选的amount(默认退还剩余可退金额)和reason；后台并行处理，立即返回任务进度
+    Map<String, Object> submitBulkRefund(java.util.List<Map<String, Object>> refunds);
+    
+    // 批量任务进度：状态、总数、已处理/成功/失败数、按原因的失败计数和明细样例、耗时和每秒处理数；任务不存在时返回null
+    Map<String, Object> getBulkJobStatus(String jobId);
+    
+    // 以下为常用方法的异步版本，参数和结果与同名的同步方法相同，失败时future以同样的异常结束。
+    // 消费端调用后立即返回；提供端等待订单服务和退款日志刷盘期间不占用Dubbo线程
+    CompletableFuture<Map<String, Object>> createPaymentAsync(String orderId, String userId, double amount, String paymentMethod);
+    
+    CompletableFuture<Map<String, Object>> createPaymentAsync(String orderId, String userId, double amount, String paymentMethod, String idempotencyKey);
+    
+    CompletableFuture<Map<String, Object>> getPaymentStatusAsync(String paymentId);
+    
+    CompletableFuture<Boolean> handlePaymentCallbackAsync(String paymentId, String status, Map<String, Object> callbackData);
+    
+    CompletableFuture<Map<String, Object>> refundAsync(String paymentId, double amount, String reason);
+    
+    CompletableFuture<java.util.List<Map<String, Object>>> getUserPaymentHistoryAsync(String userId);
+    
+    CompletableFuture<Map<String, Object>> getUserPaymentHistoryPageAsync(String userId, String cursor, int limit);
+    
+    CompletableFuture<Map<String, Map<String, Object>>> getPaymentsByOrderIdsAsync(java.util.Collection<String> orderIds);
+    
+    CompletableFuture<Boolean> validatePaymentAsync(String orderId, String userId);
 }
\ No newline at end of file
@@ -0,0 +1,227 @@
+package com.example.demo.batch;
+
+import com.example.demo.service.OrderService;
+import com.example.demo.shard.UserShardLoadBalance;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// 订单状态更新的微批处理：支付服务产生的状态变更先放入待发送表，同一订单连续提交的相同状态合并为一条，
+// 不同的状态按提交顺序保留，每次转换都送达订单服务（订单服务的统计按转换计数，PAID->REFUNDING不能折叠成REFUNDING）。
+// 发送线程在第一条变更到达linger时间后（或攒满maxBatch条时）取走整批，按轮发送：每轮取每个订单的下一次转换，
+// 按订单服务实例分组，每组一次updateOrderStatuses调用，一轮全部完成后再发下一轮。
+// 只有一个发送线程，批次按顺序发送，同一订单的状态变更不会乱序
+public class OrderStatusBatcher implements Closeable {
+    
+    private final OrderService orderService;
+    private final boolean enabled;
+    private final int maxBatch;
+    private final long lingerNanos;
+    
+    private final Object lock = new Object();
+    // 订单ID -> 该订单待发送的状态转换，按提交顺序
+    private LinkedHashMap<String, List<Pending>> pending = new LinkedHashMap<>();
+    private int pendingUpdates;
+    private long firstPendingNanos;
+    private boolean running = true;
+    private final Thread sender;
+    
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder batchCalls = new LongAdder();
+    private final LongAdder batchedOrders = new LongAdder();
+    private final LongAdder singleCalls = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    
+    // enabled为false时每次变更直接调用updateOrderStatus，与原来的逐个调用相同
+    public OrderStatusBatcher(OrderService orderService, boolean enabled, int maxBatch, long lingerMillis) {
+        if (maxBatch <= 0 || lingerMillis < 0) {
+            throw new IllegalArgumentException("maxBatch must be positive and lingerMillis non-negative");
+        }
+        this.orderService = orderService;
+        this.enabled = enabled;
+        this.maxBatch = maxBatch;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.sender = new Thread(this::sendLoop, "order-status-batcher");
+        this.sender.setDaemon(true);
+        if (enabled) {
+            this.sender.start();
+        }
+    }
+    
+    // 提交一次状态变更，返回的结果在变更送达订单服务后完成（订单不存在时为false）；
+    // 与该订单上一条待发送变更的状态相同时合并，共用同一个结果
+    public CompletableFuture<Boolean> submit(String orderId, String status) {
+        submitted.increment();
+        if (!enabled) {
+            singleCalls.increment();
+            return CompletableFuture.completedFuture(orderService.updateOrderStatus(orderId, status));
+        }
+        synchronized (lock) {
+            if (!running) {
+                throw new IllegalStateException("Order status batcher is closed");
+            }
+            List<Pending> updates = pending.get(orderId);
+            if (updates == null) {
+                updates = new ArrayList<>(1);
+                pending.put(orderId, updates);
+            } else {
+                Pending last = updates.get(updates.size() - 1);
+                if (last.status.equals(status)) {
+                    coalesced.increment();
+                    return last.result;
+                }
+            }
+            Pending update = new Pending(orderId, status);
+            updates.add(update);
+            pendingUpdates++;
+            if (pendingUpdates == 1) {
+                firstPendingNanos = System.nanoTime();
+                lock.notifyAll();
+            } else if (pendingUpdates >= maxBatch) {
+                lock.notifyAll();
+            }
+            return update.result;
+        }
+    }
+    
+    public Map<String, Object> stats() {
+        long batches = batchCalls.sum();
+        long singles = singleCalls.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("maxBatch", maxBatch);
+        stats.put("lingerMillis", TimeUnit.NANOSECONDS.toMillis(lingerNanos));
+        synchronized (lock) {
+            stats.put("pending", pendingUpdates);
+        }
+        stats.put("submitted", submitted.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("batchCalls", batches);
+        stats.put("singleCalls", singles);
+        stats.put("rpcCalls", batches + singles);
+        stats.put("avgBatchSize", batches == 0 ? 0.0 : (double) batchedOrders.sum() / batches);
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+    
+    // 停止接收新的变更，已提交的变更发送完后返回，最多等待5秒
+    @Override
+    public void close() {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        if (!enabled) {
+            return;
+        }
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void sendLoop() {
+        try {
+            while (true) {
+                Map<String, List<Pending>> batch;
+                synchronized (lock) {
+                    while (pending.isEmpty() && running) {
+                        lock.wait();
+                    }
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    long deadline = firstPendingNanos + lingerNanos;
+                    long now;
+                    while (running && pendingUpdates < maxBatch && (now = System.nanoTime()) < deadline) {
+                        TimeUnit.NANOSECONDS.timedWait(lock, deadline - now);
+                    }
+                    batch = pending;
+                    pending = new LinkedHashMap<>();
+                    pendingUpdates = 0;
+                }
+                // 第round轮发送每个订单的第round次转换，多数订单在窗口内只有一次转换，只需一轮
+                for (int round = 0; ; round++) {
+                    List<Pending> updates = new ArrayList<>();
+                    for (List<Pending> transitions : batch.values()) {
+                        if (round < transitions.size()) {
+                            updates.add(transitions.get(round));
+                        }
+                    }
+                    if (updates.isEmpty()) {
+                        break;
+                    }
+                    send(updates);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // 按订单当前所在的实例分组，每组再按maxBatch切分
+    private void send(List<Pending> updates) {
+        Map<String, List<Pending>> groups = new LinkedHashMap<>();
+        for (Pending update : updates) {
+            String owner = String.valueOf(UserShardLoadBalance.ownerOf(OrderService.class, update.orderId));
+            groups.computeIfAbsent(owner, k -> new ArrayList<>()).add(update);
+        }
+        for (List<Pending> group : groups.values()) {
+            for (int from = 0; from < group.size(); from += maxBatch) {
+                sendBatch(group.subList(from, Math.min(group.size(), from + maxBatch)));
+            }
+        }
+    }
+    
+    private void sendBatch(List<Pending> updates) {
+        Map<String, String> statuses = new LinkedHashMap<>();
+        for (Pending update : updates) {
+            statuses.put(update.orderId, update.status);
+        }
+        Map<String, Boolean> results;
+        try {
+            results = orderService.updateOrderStatuses(statuses);
+            batchCalls.increment();
+            batchedOrders.add(statuses.size());
+        } catch (RuntimeException e) {
+            System.err.println("Batched order status update failed, retrying one by one: " + e.getMessage());
+            results = Collections.emptyMap();
+        }
+        for (Pending update : updates) {
+            if (Boolean.TRUE.equals(results.get(update.orderId))) {
+                update.result.complete(true);
+                continue;
+            }
+            // 分片映射变化时整批可能落到了不持有该订单的实例，未成功的订单按订单ID单独路由重试
+            try {
+                singleCalls.increment();
+                update.result.complete(orderService.updateOrderStatus(update.orderId, update.status));
+            } catch (RuntimeException e) {
+                failed.increment();
+                System.err.println("Order status update failed for " + update.orderId + ": " + e.getMessage());
+                update.result.completeExceptionally(e);
+            }
+        }
+    }
+    
+    private static final class Pending {
+        final String orderId;
+        final String status;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        
+        Pending(String orderId, String status) {
+            this.orderId = orderId;
+            this.status = status;
+        }
+    }
+}
\ No newline at end of file
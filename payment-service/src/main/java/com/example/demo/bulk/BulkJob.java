@@ -0,0 +1,118 @@
+package com.example.demo.bulk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// 一次批量结算或退款的进度。各分片并行记录每项的结果，失败按原因计数，只保留前若干条失败明细
+public class BulkJob {
+    
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+    
+    private final String jobId;
+    private final String type;
+    private final int total;
+    private final int parallelism;
+    private final int maxSamples;
+    private final long startNanos = System.nanoTime();
+    private final long startTime = System.currentTimeMillis();
+    
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Map<String, LongAdder> failureReasons = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Map<String, Object>> samples = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    
+    private volatile String state = RUNNING;
+    private volatile String error;
+    private volatile long endNanos;
+    
+    BulkJob(String jobId, String type, int total, int parallelism, int maxSamples) {
+        this.jobId = jobId;
+        this.type = type;
+        this.total = total;
+        this.parallelism = parallelism;
+        this.maxSamples = maxSamples;
+    }
+    
+    public void succeeded() {
+        succeeded.increment();
+    }
+    
+    // key为失败项的标识（支付ID），reason为固定的失败原因代码
+    public void failed(String key, String reason) {
+        failed.increment();
+        failureReasons.computeIfAbsent(reason, r -> new LongAdder()).increment();
+        if (sampleCount.get() < maxSamples && sampleCount.incrementAndGet() <= maxSamples) {
+            Map<String, Object> sample = new HashMap<>();
+            sample.put("key", key);
+            sample.put("reason", reason);
+            samples.add(sample);
+        }
+    }
+    
+    void finish(Throwable failure) {
+        endNanos = System.nanoTime();
+        if (failure != null) {
+            error = String.valueOf(failure.getMessage());
+            state = FAILED;
+        } else {
+            state = COMPLETED;
+        }
+    }
+    
+    public String getJobId() {
+        return jobId;
+    }
+    
+    public String getType() {
+        return type;
+    }
+    
+    public boolean isRunning() {
+        return RUNNING.equals(state);
+    }
+    
+    public long getStartTime() {
+        return startTime;
+    }
+    
+    public Map<String, Object> status() {
+        long succeededCount = succeeded.sum();
+        long failedCount = failed.sum();
+        long processed = succeededCount + failedCount;
+        long end = endNanos;
+        long elapsedNanos = (end != 0L ? end : System.nanoTime()) - startNanos;
+        
+        Map<String, Object> status = new HashMap<>();
+        status.put("jobId", jobId);
+        status.put("type", type);
+        status.put("state", state);
+        status.put("total", total);
+        status.put("processed", processed);
+        status.put("succeeded", succeededCount);
+        status.put("failed", failedCount);
+        status.put("progress", total == 0 ? 1.0 : (double) processed / total);
+        status.put("parallelism", parallelism);
+        status.put("startTime", startTime);
+        status.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        status.put("itemsPerSecond", elapsedNanos == 0L ? 0.0 : processed * 1e9 / elapsedNanos);
+        Map<String, Long> reasons = new HashMap<>();
+        failureReasons.forEach((reason, count) -> reasons.put(reason, count.sum()));
+        status.put("failureReasons", reasons);
+        List<Map<String, Object>> failureSamples = new ArrayList<>(samples);
+        status.put("failureSamples", failureSamples);
+        if (error != null) {
+            status.put("error", error);
+        }
+        return status;
+    }
+}
\ No newline at end of file
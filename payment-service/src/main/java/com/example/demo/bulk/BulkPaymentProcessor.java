@@ -0,0 +1,127 @@
+package com.example.demo.bulk;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 批量结算和退款的执行器：输入按下标二分成不超过leafSize项的分片，在专用的ForkJoinPool上并行处理，
+// 空闲线程窃取其他线程尚未处理的分片。每个分片交给调用方的处理器逐项处理并记录结果，
+// 处理器可以在分片内合并等待（例如整片只等一次日志刷盘）。任务异步执行，提交后通过jobId查询进度
+public class BulkPaymentProcessor implements Closeable {
+    
+    // 分片处理器，需要为分片内的每一项调用一次job.succeeded或job.failed
+    public interface SliceHandler<T> {
+        void process(List<T> slice, BulkJob job);
+    }
+    
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final int leafSize;
+    private final int maxJobs;
+    private final int maxSamples;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, BulkJob> jobs = new ConcurrentHashMap<>();
+    
+    public BulkPaymentProcessor(int parallelism, int leafSize, int maxJobs, int maxSamples) {
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.leafSize = Math.max(1, leafSize);
+        this.maxJobs = maxJobs;
+        this.maxSamples = maxSamples;
+        this.pool = new ForkJoinPool(this.parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("payment-bulk-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+    
+    // 提交一个批量任务，立即返回；items在任务结束前不能修改
+    public <T> BulkJob submit(String type, List<T> items, SliceHandler<T> handler) {
+        BulkJob job = new BulkJob(type + "_" + System.currentTimeMillis() + "_" + sequence.incrementAndGet(),
+                type, items.size(), parallelism, maxSamples);
+        retire();
+        jobs.put(job.getJobId(), job);
+        pool.execute(ForkJoinTask.adapt(() -> {
+            try {
+                new Slice<>(job, items, 0, items.size(), handler).invoke();
+                job.finish(null);
+            } catch (RuntimeException e) {
+                job.finish(e);
+            }
+            Map<String, Object> status = job.status();
+            System.out.println("Bulk " + type + " " + job.getJobId() + " " + status.get("state") + ": "
+                    + status.get("succeeded") + " succeeded, " + status.get("failed") + " failed in "
+                    + status.get("elapsedMillis") + " ms");
+        }));
+        return job;
+    }
+    
+    public BulkJob get(String jobId) {
+        return jobs.get(jobId);
+    }
+    
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    // 只保留最近maxJobs个任务的进度，超出时丢弃最早结束的
+    private void retire() {
+        while (jobs.size() >= maxJobs) {
+            BulkJob oldest = null;
+            for (Iterator<BulkJob> it = jobs.values().iterator(); it.hasNext(); ) {
+                BulkJob job = it.next();
+                if (!job.isRunning() && (oldest == null || job.getStartTime() < oldest.getStartTime())) {
+                    oldest = job;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            jobs.remove(oldest.getJobId(), oldest);
+        }
+    }
+    
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private final class Slice<T> extends RecursiveAction {
+        private final BulkJob job;
+        private final List<T> items;
+        private final int from;
+        private final int to;
+        private final SliceHandler<T> handler;
+        
+        Slice(BulkJob job, List<T> items, int from, int to, SliceHandler<T> handler) {
+            this.job = job;
+            this.items = items;
+            this.from = from;
+            this.to = to;
+            this.handler = handler;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from <= leafSize) {
+                handler.process(items.subList(from, to), job);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Slice<>(job, items, from, middle, handler), new Slice<>(job, items, middle, to, handler));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,20 @@
+package com.example.demo.config;
+
+import com.example.demo.bulk.BulkPaymentProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class BulkPaymentConfiguration {
+    
+    // 批量结算和退款专用的ForkJoinPool，parallelism为0时取CPU核数；leaf-size为每个分片的项数，
+    // 退款分片内只等待一次退款日志刷盘
+    @Bean(destroyMethod = "close")
+    public BulkPaymentProcessor bulkPaymentProcessor(@Value("${payment.bulk.parallelism:0}") int parallelism,
+                                                     @Value("${payment.bulk.leaf-size:256}") int leafSize,
+                                                     @Value("${payment.bulk.max-jobs:100}") int maxJobs,
+                                                     @Value("${payment.bulk.max-samples:100}") int maxSamples) {
+        return new BulkPaymentProcessor(parallelism, leafSize, maxJobs, maxSamples);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,37 @@
+package com.example.demo.config;
+
+import com.example.demo.nearcache.OrderNearCache;
+import com.example.demo.service.OrderService;
+import com.example.demo.shard.UserShardLoadBalance;
+import org.apache.dubbo.config.annotation.Reference;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class OrderNearCacheConfiguration {
+    
+    // 变更流逐个实例定向拉取，需要usershard负载均衡；getOrderById也因此直接路由到订单所在的实例
+    @Reference(loadbalance = UserShardLoadBalance.NAME)
+    private OrderService orderService;
+    
+    // 创建支付时先查本地缓存，未命中才远程调用getOrderById；订单服务分片部署时逐个实例拉取变更流
+    @Bean(destroyMethod = "close")
+    public OrderNearCache orderNearCache(@Value("${payment.order-cache.enabled:true}") boolean enabled,
+                                         @Value("${payment.order-cache.max-orders:100000}") int maxOrders,
+                                         @Value("${payment.order-cache.ttl-seconds:300}") long ttlSeconds,
+                                         @Value("${payment.order-cache.max-missing:10000}") int maxMissing,
+                                         @Value("${payment.order-cache.missing-ttl-seconds:10}") long missingTtlSeconds,
+                                         @Value("${payment.order-cache.change-feed:true}") boolean changeFeed,
+                                         @Value("${payment.order-cache.poll-interval-ms:200}") long pollIntervalMillis,
+                                         @Value("${payment.order-cache.poll-batch:1000}") int pollBatch) {
+        OrderNearCache cache = new OrderNearCache(orderService, enabled, maxOrders, TimeUnit.SECONDS.toMillis(ttlSeconds),
+                maxMissing, TimeUnit.SECONDS.toMillis(missingTtlSeconds), pollBatch);
+        if (changeFeed) {
+            cache.start(pollIntervalMillis);
+        }
+        return cache;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,23 @@
+package com.example.demo.config;
+
+import com.example.demo.batch.OrderStatusBatcher;
+import com.example.demo.service.OrderService;
+import org.apache.dubbo.config.annotation.Reference;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class OrderStatusBatchConfiguration {
+    
+    @Reference
+    private OrderService orderService;
+    
+    // 支付服务对订单状态的更新合并成批量调用，linger为一批等待的最长时间
+    @Bean(destroyMethod = "close")
+    public OrderStatusBatcher orderStatusBatcher(@Value("${payment.order-updates.batch-enabled:true}") boolean enabled,
+                                                 @Value("${payment.order-updates.max-batch:256}") int maxBatch,
+                                                 @Value("${payment.order-updates.linger-ms:5}") long lingerMillis) {
+        return new OrderStatusBatcher(orderService, enabled, maxBatch, lingerMillis);
+    }
+}
\ No newline at end of file
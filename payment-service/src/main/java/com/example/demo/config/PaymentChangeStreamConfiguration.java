@@ -0,0 +1,16 @@
+package com.example.demo.config;
+
+import com.example.demo.event.PaymentChangeStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class PaymentChangeStreamConfiguration {
+    
+    // 环形缓冲区容量，订阅方落后超过该条数时会丢失最旧的事件
+    @Bean
+    public PaymentChangeStream paymentChangeStream(@Value("${payment.events.capacity:65536}") int capacity) {
+        return new PaymentChangeStream(capacity);
+    }
+}
\ No newline at end of file
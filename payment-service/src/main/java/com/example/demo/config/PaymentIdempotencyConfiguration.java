@@ -0,0 +1,20 @@
+package com.example.demo.config;
+
+import com.example.demo.idempotency.IdempotencyCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class PaymentIdempotencyConfiguration {
+    
+    // 客户端幂等键 -> createPayment结果，保留时间应覆盖消费者超时重试的窗口
+    @Bean
+    public IdempotencyCache<Map<String, Object>> paymentIdempotencyCache(@Value("${payment.idempotency.ttl-seconds:600}") long ttlSeconds,
+                                                                         @Value("${payment.idempotency.max-keys:100000}") int maxKeys) {
+        return new IdempotencyCache<>(TimeUnit.SECONDS.toMillis(ttlSeconds), maxKeys);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,29 @@
+package com.example.demo.config;
+
+import com.example.demo.reconcile.PaymentReconciler;
+import com.example.demo.service.OrderService;
+import org.apache.dubbo.config.annotation.Reference;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class PaymentReconcileConfiguration {
+    
+    @Reference
+    private OrderService orderService;
+    
+    // 对账占用的内存由chunk-size决定（两侧各一块），与订单和支付的总量无关；关闭时正在运行的对账写入检查点后停止
+    @Bean(destroyMethod = "close")
+    public PaymentReconciler paymentReconciler(@Value("${payment.reconcile.dir:data/payment/reconcile}") String dir,
+                                               @Value("${payment.reconcile.chunk-size:1000}") int chunkSize,
+                                               @Value("${payment.reconcile.grace-seconds:60}") long graceSeconds,
+                                               @Value("${payment.reconcile.max-samples:100}") int maxSamples,
+                                               @Value("${payment.reconcile.checkpoint-interval-ms:1000}") long checkpointIntervalMillis) {
+        return new PaymentReconciler(orderService, new File(dir), chunkSize, TimeUnit.SECONDS.toMillis(graceSeconds),
+                maxSamples, checkpointIntervalMillis);
+    }
+}
\ No newline at end of file
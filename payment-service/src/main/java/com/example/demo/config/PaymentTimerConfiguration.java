@@ -0,0 +1,18 @@
+package com.example.demo.config;
+
+import com.example.demo.timer.HashedWheelTimer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class PaymentTimerConfiguration {
+    
+    // 支付结算、退款完成和支付超时共用的时间轮，延迟任务不再各自占用一个线程
+    @Bean(destroyMethod = "close")
+    public HashedWheelTimer paymentTimer(@Value("${payment.timer.tick-ms:10}") long tickMillis,
+                                         @Value("${payment.timer.wheel-size:512}") int wheelSize,
+                                         @Value("${payment.timer.workers:4}") int workers) {
+        return new HashedWheelTimer("payment-timer", tickMillis, wheelSize, workers);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,27 @@
+package com.example.demo.config;
+
+import com.example.demo.refund.RefundLedger;
+import com.example.demo.wal.WriteAheadLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.File;
+import java.io.IOException;
+
+@Configuration
+public class RefundLedgerConfiguration {
+    
+    // 创建时加载快照并重放其后的退款日志，支付服务拿到的是已经恢复好的账本
+    @Bean(destroyMethod = "close")
+    public RefundLedger refundLedger(@Value("${payment.refund-ledger.dir:data/payment/refunds}") String dir,
+                                     @Value("${payment.refund-ledger.segment-size-mb:16}") int segmentSizeMb,
+                                     @Value("${payment.refund-ledger.durability:group}") String durability,
+                                     @Value("${payment.refund-ledger.flush-interval-ms:2}") long flushIntervalMillis,
+                                     @Value("${payment.refund-ledger.snapshot-interval-seconds:300}") long snapshotIntervalSeconds) throws IOException {
+        RefundLedger ledger = new RefundLedger(new File(dir), segmentSizeMb << 20,
+                WriteAheadLog.Durability.valueOf(durability.toUpperCase()), flushIntervalMillis, snapshotIntervalSeconds);
+        ledger.open();
+        return ledger;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,47 @@
+package com.example.demo.event;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// 支付变更事件，只保存订阅方需要的字段，不引用支付记录本身
+public final class PaymentChangeEvent {
+    
+    public static final String CREATED = "CREATED";
+    public static final String STATUS_CHANGED = "STATUS_CHANGED";
+    
+    private final String type;
+    private final String paymentId;
+    private final String orderId;
+    private final String userId;
+    // 新建支付时为null
+    private final String oldStatus;
+    private final String newStatus;
+    private final double amount;
+    private final long timestamp;
+    
+    public PaymentChangeEvent(String type, String paymentId, String orderId, String userId, String oldStatus,
+                              String newStatus, double amount, long timestamp) {
+        this.type = type;
+        this.paymentId = paymentId;
+        this.orderId = orderId;
+        this.userId = userId;
+        this.oldStatus = oldStatus;
+        this.newStatus = newStatus;
+        this.amount = amount;
+        this.timestamp = timestamp;
+    }
+    
+    public Map<String, Object> toMap(long sequence) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("sequence", sequence);
+        map.put("type", type);
+        map.put("paymentId", paymentId);
+        map.put("orderId", orderId);
+        map.put("userId", userId);
+        map.put("oldStatus", oldStatus);
+        map.put("newStatus", newStatus);
+        map.put("amount", amount);
+        map.put("timestamp", timestamp);
+        return map;
+    }
+}
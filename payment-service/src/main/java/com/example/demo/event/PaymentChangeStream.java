@@ -0,0 +1,55 @@
+package com.example.demo.event;
+
+import com.example.demo.stream.ChangeRing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 支付变更事件流：新建支付和支付状态变更写入环形缓冲区，写入不阻塞；订阅方按序号拉取，
+// 结构与订单变更流相同。支付记录只在内存中，服务重启后streamId变化，订阅方据此判断出现缺口
+public class PaymentChangeStream {
+    
+    private final ChangeRing<PaymentChangeEvent> ring;
+    private final long streamId = System.currentTimeMillis();
+    
+    public PaymentChangeStream(int capacity) {
+        this.ring = new ChangeRing<>(capacity);
+    }
+    
+    public void publish(PaymentChangeEvent event) {
+        ring.publish(event);
+    }
+    
+    // 拉取afterSequence之后的事件，返回结构见PaymentService.pollPaymentChanges
+    public Map<String, Object> poll(long afterSequence, int maxEvents) {
+        ChangeRing.Batch<PaymentChangeEvent> batch = ring.poll(afterSequence, maxEvents);
+        List<PaymentChangeEvent> events = batch.getEvents();
+        long sequence = batch.getLastDeliveredSequence() - events.size() + 1;
+        List<Map<String, Object>> eventMaps = new ArrayList<>(events.size());
+        for (PaymentChangeEvent event : events) {
+            eventMaps.add(event.toMap(sequence++));
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("streamId", streamId);
+        result.put("events", eventMaps);
+        result.put("nextSequence", batch.getLastDeliveredSequence());
+        result.put("dropped", batch.getDropped());
+        result.put("lag", batch.getLag());
+        return result;
+    }
+    
+    public Map<String, Object> stats() {
+        long last = ring.lastSequence();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("streamId", streamId);
+        stats.put("capacity", ring.capacity());
+        stats.put("published", last);
+        stats.put("oldestSequence", ring.oldestSequence());
+        stats.put("lastSequence", last);
+        stats.put("overwritten", ring.overwritten());
+        return stats;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.demo.idempotency;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// 幂等键缓存：同一个键的并发请求只执行一次，其余请求等待并拿到同一个结果；成功的结果保留ttl时间，失败不缓存。
+// 所有键的ttl相同，插入顺序即过期顺序，用一个FIFO队列在写入时顺带淘汰过期和超出容量的键
+public class IdempotencyCache<V> {
+    
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry<V>> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    
+    public IdempotencyCache(long ttlMillis, int maxEntries) {
+        if (ttlMillis <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("ttlMillis and maxEntries must be positive");
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxEntries = maxEntries;
+    }
+    
+    // 返回该键的结果，键不存在或已过期时执行action。fingerprint为请求参数，
+    // 同一个键携带不同参数时抛出IllegalArgumentException；action抛出的异常原样抛给所有等待的请求
+    public V execute(String key, Object fingerprint, Supplier<V> action) {
+        return await(executeAsync(key, fingerprint, () -> CompletableFuture.completedFuture(action.get())));
+    }
+    
+    // execute的异步版本：action返回的future完成后结果才写入缓存，等待同一个键的请求拿到同一个future，不阻塞线程。
+    // 参数不一致或action失败时返回失败的future
+    public CompletableFuture<V> executeAsync(String key, Object fingerprint, Supplier<CompletableFuture<V>> action) {
+        Entry<V> entry = new Entry<>(key, fingerprint, System.nanoTime() + ttlNanos);
+        while (true) {
+            Entry<V> existing = entries.putIfAbsent(key, entry);
+            if (existing == null) {
+                break;
+            }
+            if (existing.expired(System.nanoTime()) && existing.result.isDone()) {
+                if (entries.remove(key, existing)) {
+                    size.decrementAndGet();
+                }
+                continue;
+            }
+            if (!Objects.equals(existing.fingerprint, fingerprint)) {
+                return failed(new IllegalArgumentException("Idempotency key " + key + " was used with different parameters"));
+            }
+            hits.increment();
+            return existing.result;
+        }
+        misses.increment();
+        size.incrementAndGet();
+        order.add(entry);
+        evict();
+        
+        CompletableFuture<V> started;
+        try {
+            started = action.get();
+        } catch (RuntimeException e) {
+            started = failed(e);
+        }
+        started.whenComplete((value, error) -> {
+            if (error == null) {
+                entry.result.complete(value);
+                return;
+            }
+            // 失败的请求不占用键，客户端可以用同一个键重试
+            if (entries.remove(key, entry)) {
+                size.decrementAndGet();
+            }
+            order.remove(entry);
+            entry.result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+        });
+        return entry.result;
+    }
+    
+    public int size() {
+        return size.get();
+    }
+    
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", size.get());
+        stats.put("maxEntries", maxEntries);
+        stats.put("ttlSeconds", TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("evicted", evicted.sum());
+        return stats;
+    }
+    
+    // 从队头淘汰过期的键，超出容量时提前淘汰最早的键；进行中的请求不受影响，只是之后的重试不再命中
+    private void evict() {
+        long now = System.nanoTime();
+        Entry<V> head;
+        while ((head = order.peek()) != null && (head.expired(now) || size.get() > maxEntries)) {
+            if (order.remove(head) && entries.remove(head.key, head)) {
+                size.decrementAndGet();
+                evicted.increment();
+            }
+        }
+    }
+    
+    private static <V> V await(CompletableFuture<V> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+    
+    private static <V> CompletableFuture<V> failed(Throwable error) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+    
+    private static final class Entry<V> {
+        final String key;
+        final Object fingerprint;
+        final long expiresAt;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        
+        Entry(String key, Object fingerprint, long expiresAt) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+        
+        boolean expired(long now) {
+            return now - expiresAt > 0;
+        }
+    }
+}
\ No newline at end of file
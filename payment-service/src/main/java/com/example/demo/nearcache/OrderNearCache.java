@@ -0,0 +1,351 @@
+package com.example.demo.nearcache;
+
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.service.OrderService;
+import com.example.demo.shard.OrderShards;
+import com.example.demo.shard.UserShardLoadBalance;
+import com.example.demo.stream.StreamCursors;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// 支付服务本地的订单近端缓存，只保存订单ID、下单用户、金额和状态。
+// 订单服务的变更流(pollOrderChanges)把新建和状态变更的订单推入缓存，条目在ttl后过期，数量超过上限时淘汰最早写入的；
+// 订单服务分片部署时逐个实例定向拉取，每个实例的流分别记录位置；
+// 查询不到的订单ID在一个较短的ttl内记为不存在，格式合法但不可能由生成器产生的ID（桶号越界、时间戳在未来）直接判定为不存在
+public class OrderNearCache implements Closeable {
+    
+    // 允许订单服务与本机的时钟偏差
+    private static final long CLOCK_SKEW_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    
+    private final OrderService orderService;
+    private final boolean enabled;
+    private final Region<OrderSummary> orders;
+    private final Region<Boolean> missing;
+    private final int pollBatch;
+    private ScheduledExecutorService feedExecutor;
+    
+    // 以下字段只由变更流线程访问
+    private final StreamCursors cursors = new StreamCursors();
+    private boolean feedFailing;
+    private volatile int feedInstances;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder missingHits = new LongAdder();
+    private final LongAdder rejectedIds = new LongAdder();
+    private final LongAdder remoteLookups = new LongAdder();
+    private final LongAdder feedEvents = new LongAdder();
+    private final LongAdder feedResets = new LongAdder();
+    private final LongAdder feedErrors = new LongAdder();
+    
+    // enabled为false时每次都远程查询，不缓存
+    public OrderNearCache(OrderService orderService, boolean enabled, int maxOrders, long ttlMillis,
+                          int maxMissing, long missingTtlMillis, int pollBatch) {
+        this.orderService = orderService;
+        this.enabled = enabled;
+        this.orders = new Region<>(maxOrders, ttlMillis);
+        this.missing = new Region<>(maxMissing, missingTtlMillis);
+        this.pollBatch = pollBatch;
+    }
+    
+    // 开始按间隔拉取订单变更流，每个间隔依次拉取每个实例直到追上积压
+    public void start(long pollIntervalMillis) {
+        if (!enabled) {
+            return;
+        }
+        feedExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "order-cache-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        feedExecutor.scheduleWithFixedDelay(this::pollFeed, 0L, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    // 返回订单摘要，订单不存在时返回null。未命中时远程查询一次并缓存结果
+    public OrderSummary find(String orderId) {
+        if (!enabled) {
+            remoteLookups.increment();
+            return OrderSummary.of(orderService.getOrderById(orderId));
+        }
+        long now = System.nanoTime();
+        OrderSummary cached = orders.get(orderId, now);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        if (missing.get(orderId, now) != null) {
+            missingHits.increment();
+            return null;
+        }
+        if (impossible(orderId)) {
+            rejectedIds.increment();
+            return null;
+        }
+        remoteLookups.increment();
+        OrderSummary loaded = OrderSummary.of(orderService.getOrderById(orderId));
+        if (loaded == null) {
+            missing.put(orderId, Boolean.TRUE, System.nanoTime());
+        } else {
+            orders.put(orderId, loaded, System.nanoTime());
+        }
+        return loaded;
+    }
+    
+    // find的异步版本：命中时返回已完成的future，未命中时异步远程查询，不占用调用线程
+    public CompletableFuture<OrderSummary> findAsync(String orderId) {
+        if (!enabled) {
+            remoteLookups.increment();
+            return orderService.getOrderByIdAsync(orderId).thenApply(OrderSummary::of);
+        }
+        long now = System.nanoTime();
+        OrderSummary cached = orders.get(orderId, now);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        if (missing.get(orderId, now) != null) {
+            missingHits.increment();
+            return CompletableFuture.completedFuture(null);
+        }
+        if (impossible(orderId)) {
+            rejectedIds.increment();
+            return CompletableFuture.completedFuture(null);
+        }
+        remoteLookups.increment();
+        return orderService.getOrderByIdAsync(orderId).thenApply(order -> {
+            OrderSummary loaded = OrderSummary.of(order);
+            if (loaded == null) {
+                missing.put(orderId, Boolean.TRUE, System.nanoTime());
+            } else {
+                orders.put(orderId, loaded, System.nanoTime());
+            }
+            return loaded;
+        });
+    }
+    
+    public Map<String, Object> stats() {
+        long hitCount = hits.sum();
+        long missingHitCount = missingHits.sum();
+        long rejected = rejectedIds.sum();
+        long remote = remoteLookups.sum();
+        long lookups = hitCount + missingHitCount + rejected + remote;
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("orders", orders.size());
+        stats.put("missingOrders", missing.size());
+        stats.put("lookups", lookups);
+        stats.put("hits", hitCount);
+        stats.put("missingHits", missingHitCount);
+        stats.put("rejectedIds", rejected);
+        stats.put("remoteLookups", remote);
+        stats.put("hitRatio", lookups == 0 ? 0.0 : (double) (lookups - remote) / lookups);
+        stats.put("evicted", orders.evicted.sum());
+        stats.put("feedEvents", feedEvents.sum());
+        stats.put("feedResets", feedResets.sum());
+        stats.put("feedErrors", feedErrors.sum());
+        stats.put("feedInstances", feedInstances);
+        return stats;
+    }
+    
+    @Override
+    public void close() {
+        if (feedExecutor != null) {
+            feedExecutor.shutdownNow();
+        }
+    }
+    
+    // 生成器格式的订单ID中桶号越界或时间戳在未来的，不可能存在
+    private static boolean impossible(String orderId) {
+        long id = OrderShards.idOf(orderId);
+        if (id < 0) {
+            return false;
+        }
+        return OrderShards.bucketOfOrder(orderId) < 0
+                || SnowflakeIdGenerator.timestampOf(id) > System.currentTimeMillis() + CLOCK_SKEW_MILLIS;
+    }
+    
+    private void pollFeed() {
+        List<String> addresses = UserShardLoadBalance.providers(OrderService.class);
+        if (addresses.isEmpty()) {
+            addresses = Collections.singletonList(null);
+        }
+        cursors.retain(addresses);
+        boolean failed = false;
+        for (String address : addresses) {
+            try {
+                // 追上积压后再拉取下一个实例。不定向的拉取在负载均衡看到多个提供者后停止，下个间隔改为定向拉取
+                while (pollOnce(address) == pollBatch
+                        && (address != null || UserShardLoadBalance.providers(OrderService.class).isEmpty())) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // 一个实例拉取失败不影响其他实例，它的位置保留到下个间隔
+                failed = true;
+                feedErrors.increment();
+                if (!feedFailing) {
+                    feedFailing = true;
+                    System.err.println("Order change feed for near-cache failed" + (address == null ? "" : " at " + address)
+                            + ": " + e.getMessage());
+                }
+            }
+        }
+        if (!failed && feedFailing) {
+            feedFailing = false;
+            System.out.println("Order change feed for near-cache recovered");
+        }
+        feedInstances = cursors.size();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private int pollOnce(String address) {
+        long after = cursors.after(address);
+        Map<String, Object> result = UserShardLoadBalance.callAt(address, () -> orderService.pollOrderChanges(after, pollBatch));
+        long streamId = ((Number) result.get("streamId")).longValue();
+        if (cursors.restarted(address, streamId)) {
+            // 该地址上的订单服务实例重启过。缓存的订单不会因此失效，只需从头拉取新的流
+            feedResets.increment();
+        }
+        if (!cursors.inPosition(streamId, after)) {
+            // 应答来自另一个流（实例重启或地址换了实例），按该流的位置重新拉取
+            return pollBatch;
+        }
+        List<Map<String, Object>> events = (List<Map<String, Object>>) result.get("events");
+        long now = System.nanoTime();
+        for (Map<String, Object> event : events) {
+            String orderId = (String) event.get("orderId");
+            OrderSummary summary = new OrderSummary(orderId, (String) event.get("userId"),
+                    ((Number) event.get("totalAmount")).doubleValue(), (String) event.get("newStatus"));
+            orders.update(orderId, summary, now);
+            missing.remove(orderId);
+        }
+        feedEvents.add(events.size());
+        cursors.advance(streamId, ((Number) result.get("nextSequence")).longValue());
+        return events.size();
+    }
+    
+    // 订单摘要，创建支付只需要这些字段
+    public static final class OrderSummary {
+        private final String orderId;
+        private final String userId;
+        private final double totalAmount;
+        private final String status;
+        
+        public OrderSummary(String orderId, String userId, double totalAmount, String status) {
+            this.orderId = orderId;
+            this.userId = userId;
+            this.totalAmount = totalAmount;
+            this.status = status;
+        }
+        
+        static OrderSummary of(Map<String, Object> order) {
+            if (order == null) {
+                return null;
+            }
+            Object amount = order.get("totalAmount");
+            return new OrderSummary((String) order.get("orderId"), (String) order.get("userId"),
+                    amount instanceof Number ? ((Number) amount).doubleValue() : 0.0, (String) order.get("status"));
+        }
+        
+        public String getOrderId() {
+            return orderId;
+        }
+        
+        public String getUserId() {
+            return userId;
+        }
+        
+        public double getTotalAmount() {
+            return totalAmount;
+        }
+        
+        public String getStatus() {
+            return status;
+        }
+    }
+    
+    // 有容量上限的ttl缓存区。所有条目ttl相同，写入顺序即过期顺序，写入时从FIFO队头淘汰过期和超出容量的条目；
+    // 已存在的条目由变更流原地更新，不改变过期时间，也不在队列中留下多余节点
+    private static final class Region<V> {
+        final int maxEntries;
+        final long ttlNanos;
+        final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+        final ConcurrentLinkedQueue<Entry<V>> order = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+        final LongAdder evicted = new LongAdder();
+        
+        Region(int maxEntries, long ttlMillis) {
+            this.maxEntries = maxEntries;
+            this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        }
+        
+        V get(String key, long now) {
+            Entry<V> entry = entries.get(key);
+            return entry == null || now - entry.expiresAt > 0 ? null : entry.value;
+        }
+        
+        void put(String key, V value, long now) {
+            Entry<V> entry = new Entry<>(key, value, now + ttlNanos);
+            if (entries.put(key, entry) == null) {
+                size.incrementAndGet();
+            }
+            order.add(entry);
+            evict(now);
+        }
+        
+        // 未过期的条目原地更新，否则作为新条目写入
+        void update(String key, V value, long now) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && now - entry.expiresAt <= 0) {
+                entry.value = value;
+            } else {
+                put(key, value, now);
+            }
+        }
+        
+        void remove(String key) {
+            if (entries.remove(key) != null) {
+                size.decrementAndGet();
+            }
+        }
+        
+        int size() {
+            return size.get();
+        }
+        
+        private void evict(long now) {
+            Entry<V> head;
+            while ((head = order.peek()) != null && (now - head.expiresAt > 0 || size.get() > maxEntries)) {
+                head = order.poll();
+                if (head != null && entries.remove(head.key, head)) {
+                    size.decrementAndGet();
+                    evicted.increment();
+                }
+            }
+        }
+    }
+    
+    private static final class Entry<V> {
+        final String key;
+        final long expiresAt;
+        volatile V value;
+        
+        Entry(String key, V value, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
\ No newline at end of file
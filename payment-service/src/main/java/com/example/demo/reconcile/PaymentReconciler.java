@@ -0,0 +1,622 @@
+package com.example.demo.reconcile;
+
+import com.example.demo.service.OrderService;
+import com.example.demo.shard.OrderShards;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// 支付与订单的流式对账：订单服务和本地支付两侧都按订单ID升序分块读取，归并比对支付状态与订单状态，
+// 内存中只有两侧当前的一个数据块，与数据总量无关。进度在块边界处定期写入检查点文件，中断后可以从检查点继续。
+// 订单状态更新经过微批异步送达，宽限期内变更过的记录计为同步中；其余疑似不一致的记录重新读取两侧后再确认。
+// 历史格式的订单ID不能与生成器格式的ID一起排序：订单一侧遇到时单独查本地支付，支付一侧直接跳过
+public class PaymentReconciler implements Closeable {
+    
+    // 支付成功但订单不是已支付
+    public static final String ORDER_NOT_PAID = "ORDER_NOT_PAID";
+    // 订单已支付（或退款中），但支付不是成功状态
+    public static final String PAID_WITHOUT_SUCCESS = "PAID_WITHOUT_SUCCESS";
+    // 订单已支付（或退款中），但没有支付记录
+    public static final String PAID_WITHOUT_PAYMENT = "PAID_WITHOUT_PAYMENT";
+    // 支付已申请退款，订单不是退款中
+    public static final String REFUND_NOT_REFLECTED = "REFUND_NOT_REFLECTED";
+    // 订单退款中，但支付没有退款记录
+    public static final String REFUNDING_WITHOUT_REFUND = "REFUNDING_WITHOUT_REFUND";
+    // 支付金额与订单金额不一致
+    public static final String AMOUNT_MISMATCH = "AMOUNT_MISMATCH";
+    // 支付对应的订单不存在
+    public static final String PAYMENT_WITHOUT_ORDER = "PAYMENT_WITHOUT_ORDER";
+    
+    private static final String[] TYPES = {ORDER_NOT_PAID, PAID_WITHOUT_SUCCESS, PAID_WITHOUT_PAYMENT,
+            REFUND_NOT_REFLECTED, REFUNDING_WITHOUT_REFUND, AMOUNT_MISMATCH, PAYMENT_WITHOUT_ORDER};
+    
+    private static final String CHECKPOINT_FILE = "reconcile.checkpoint";
+    
+    private final OrderService orderService;
+    private final File dir;
+    private final int chunkSize;
+    private final long graceMillis;
+    private final int maxSamples;
+    private final long checkpointIntervalMillis;
+    private final ExecutorService executor;
+    
+    private volatile Run current;
+    private boolean closed;
+    
+    public PaymentReconciler(OrderService orderService, File dir, int chunkSize, long graceMillis,
+                             int maxSamples, long checkpointIntervalMillis) {
+        if (chunkSize <= 0 || graceMillis < 0 || maxSamples < 0) {
+            throw new IllegalArgumentException("chunkSize must be positive, graceMillis and maxSamples non-negative");
+        }
+        this.orderService = orderService;
+        this.dir = dir;
+        this.chunkSize = chunkSize;
+        this.graceMillis = graceMillis;
+        this.maxSamples = maxSamples;
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "payment-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    // 在后台开始一次对账并返回当前进度。resume为true且有检查点时从检查点继续，否则丢弃检查点从头开始；
+    // 已有对账在运行时直接返回它的进度
+    public synchronized Map<String, Object> start(PaymentSource payments, boolean resume) {
+        if (closed) {
+            throw new IllegalStateException("Reconciler is closed");
+        }
+        Run running = current;
+        if (running != null && running.isRunning()) {
+            return running.status();
+        }
+        Checkpoint from = resume ? loadCheckpoint() : null;
+        if (from == null) {
+            deleteCheckpoint();
+        }
+        Run run = new Run(from);
+        current = run;
+        executor.execute(() -> execute(payments, run));
+        return run.status();
+    }
+    
+    // 当前或最近一次对账的进度；还没有运行过时只返回检查点信息
+    public Map<String, Object> status() {
+        Run run = current;
+        if (run != null) {
+            return run.status();
+        }
+        Map<String, Object> status = new HashMap<>();
+        status.put("state", "IDLE");
+        Checkpoint checkpoint = loadCheckpoint();
+        status.put("checkpoint", checkpoint == null ? null : checkpoint.lastOrderId);
+        return status;
+    }
+    
+    // 停止正在运行的对账，进度保留在检查点中，最多等待5秒
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            Run run = current;
+            if (run != null) {
+                run.stopRequested = true;
+            }
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void execute(PaymentSource payments, Run run) {
+        OrderStream orders = new OrderStream(run.orderCursor);
+        PaymentStream paymentStream = new PaymentStream(payments, run.lastOrderId);
+        try {
+            boolean ordersLeft = true;
+            while (!run.stopRequested) {
+                if (ordersLeft && !orders.available()) {
+                    // 当前订单块处理完时，不大于块内最后一个订单ID的支付也都处理完了，这里是一致的检查点
+                    if (orders.lastOrderId != null) {
+                        run.progress(orders.cursor, orders.lastOrderId);
+                        orders.lastOrderId = null;
+                        maybeCheckpoint(run, false);
+                    }
+                    ordersLeft = orders.fetch();
+                    continue;
+                }
+                if (!paymentStream.available() && !paymentStream.exhausted) {
+                    paymentStream.fetch();
+                    continue;
+                }
+                
+                OrderRow order = ordersLeft ? orders.peek() : null;
+                PaymentSnapshot payment = paymentStream.peek();
+                if (order == null && payment == null) {
+                    break;
+                }
+                if (payment != null && OrderShards.idOf(payment.getOrderId()) < 0) {
+                    // 历史格式订单的支付由订单一侧单独查询
+                    paymentStream.next();
+                    run.paymentsScanned++;
+                    continue;
+                }
+                if (order != null && OrderShards.idOf(order.orderId) < 0) {
+                    check(run, payments, order, payments.find(order.orderId));
+                    orders.next();
+                    run.ordersScanned++;
+                    continue;
+                }
+                int cmp = order == null ? 1 : payment == null ? -1 : order.orderId.compareTo(payment.getOrderId());
+                if (cmp < 0) {
+                    // 块中没有该订单的支付，但可能是支付一侧读过这个位置之后才创建的，单独查询一次
+                    check(run, payments, order, payments.find(order.orderId));
+                    orders.next();
+                    run.ordersScanned++;
+                } else if (cmp > 0) {
+                    check(run, payments, null, payment);
+                    paymentStream.next();
+                    run.paymentsScanned++;
+                    if (!ordersLeft && !paymentStream.available()) {
+                        // 订单已全部读完，剩余支付的每个块处理完也是一致的检查点
+                        run.progress(orders.cursor, payment.getOrderId());
+                        maybeCheckpoint(run, false);
+                    }
+                } else {
+                    check(run, payments, order, payment);
+                    orders.next();
+                    paymentStream.next();
+                    run.ordersScanned++;
+                    run.paymentsScanned++;
+                }
+            }
+            if (run.stopRequested) {
+                maybeCheckpoint(run, true);
+                run.finish("STOPPED", null);
+            } else {
+                deleteCheckpoint();
+                run.finish("COMPLETED", null);
+            }
+        } catch (RuntimeException e) {
+            maybeCheckpoint(run, true);
+            run.finish("FAILED", e.getMessage());
+            System.err.println("Payment reconciliation failed: " + e.getMessage());
+            return;
+        }
+        System.out.println("Payment reconciliation " + run.state.toLowerCase() + ": " + run.ordersScanned + " orders, "
+                + run.paymentsScanned + " payments, " + run.matched + " matched, " + run.inFlight + " in flight, mismatches "
+                + run.status().get("mismatches"));
+    }
+    
+    private void check(Run run, PaymentSource payments, OrderRow order, PaymentSnapshot payment) {
+        String type = classify(order, payment);
+        if (type == null) {
+            if (order != null && payment != null) {
+                run.matched++;
+            }
+            return;
+        }
+        long recentSince = run.startTime - graceMillis;
+        if ((order != null && order.updateTime >= recentSince) || (payment != null && payment.getUpdateTime() >= recentSince)) {
+            run.inFlight++;
+            return;
+        }
+        // 读取数据块之后两侧都可能有变更，重新读取后再确认
+        String orderId = order != null ? order.orderId : payment.getOrderId();
+        OrderRow currentOrder = OrderRow.of(orderService.getOrderById(orderId));
+        PaymentSnapshot currentPayment = payments.find(orderId);
+        type = classify(currentOrder, currentPayment);
+        if (type == null) {
+            run.inFlight++;
+            return;
+        }
+        run.mismatch(type, orderId, currentOrder, currentPayment, maxSamples);
+    }
+    
+    // 返回不一致的类型，一致时返回null
+    static String classify(OrderRow order, PaymentSnapshot payment) {
+        if (order == null) {
+            return payment == null ? null : PAYMENT_WITHOUT_ORDER;
+        }
+        boolean orderPaid = "PAID".equals(order.status);
+        boolean orderRefunding = "REFUNDING".equals(order.status);
+        if (payment == null) {
+            return orderPaid || orderRefunding ? PAID_WITHOUT_PAYMENT : null;
+        }
+        if (!"SUCCESS".equals(payment.getStatus())) {
+            return orderPaid || orderRefunding ? PAID_WITHOUT_SUCCESS : null;
+        }
+        if (payment.isRefunded()) {
+            if (!orderRefunding) {
+                return REFUND_NOT_REFLECTED;
+            }
+        } else if (orderRefunding) {
+            return REFUNDING_WITHOUT_REFUND;
+        } else if (!orderPaid) {
+            return ORDER_NOT_PAID;
+        }
+        if (Math.round(payment.getAmount() * 100) != Math.round(order.totalAmount * 100)) {
+            return AMOUNT_MISMATCH;
+        }
+        return null;
+    }
+    
+    private void maybeCheckpoint(Run run, boolean force) {
+        Checkpoint checkpoint = run.lastProgress;
+        if (checkpoint == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!force && now - run.lastCheckpointTime < checkpointIntervalMillis) {
+            return;
+        }
+        try {
+            writeCheckpoint(checkpoint);
+            run.lastCheckpointTime = now;
+            run.checkpoints++;
+        } catch (IOException e) {
+            // 检查点只影响中断后能否续跑，写入失败不中止对账
+            System.err.println("Failed to write reconciliation checkpoint: " + e.getMessage());
+        }
+    }
+    
+    private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create reconciliation directory " + dir);
+        }
+        Properties properties = checkpoint.toProperties();
+        File tmp = new File(dir, CHECKPOINT_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, "payment reconciliation checkpoint");
+            out.getFD().sync();
+        }
+        File target = new File(dir, CHECKPOINT_FILE);
+        if (!tmp.renameTo(target)) {
+            throw new IOException("Cannot rename checkpoint to " + target);
+        }
+    }
+    
+    private Checkpoint loadCheckpoint() {
+        File file = new File(dir, CHECKPOINT_FILE);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            return Checkpoint.of(properties);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable reconciliation checkpoint " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private void deleteCheckpoint() {
+        File file = new File(dir, CHECKPOINT_FILE);
+        if (file.exists() && !file.delete()) {
+            System.err.println("Failed to delete reconciliation checkpoint: " + file);
+        }
+    }
+    
+    private static long timeOf(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+    
+    // 订单一侧的一条记录
+    static final class OrderRow {
+        final String orderId;
+        final String status;
+        final double totalAmount;
+        final long updateTime;
+        
+        OrderRow(String orderId, String status, double totalAmount, long updateTime) {
+            this.orderId = orderId;
+            this.status = status;
+            this.totalAmount = totalAmount;
+            this.updateTime = updateTime;
+        }
+        
+        static OrderRow of(Map<String, Object> order) {
+            if (order == null) {
+                return null;
+            }
+            Object amount = order.get("totalAmount");
+            return new OrderRow((String) order.get("orderId"), (String) order.get("status"),
+                    amount instanceof Number ? ((Number) amount).doubleValue() : 0.0, timeOf(order.get("updateTime")));
+        }
+    }
+    
+    // 按块读取订单服务的scanOrderStatuses
+    private final class OrderStream {
+        String cursor;
+        boolean hasMore = true;
+        // 当前块最后一个订单ID，块处理完记录进度后清空
+        String lastOrderId;
+        List<String> orderIds = Collections.emptyList();
+        List<String> statuses;
+        List<Number> totalAmounts;
+        List<Number> updateTimes;
+        int index;
+        
+        OrderStream(String cursor) {
+            this.cursor = cursor;
+        }
+        
+        boolean available() {
+            return index < orderIds.size();
+        }
+        
+        // 读取下一块，已经没有更多订单时返回false
+        @SuppressWarnings("unchecked")
+        boolean fetch() {
+            if (!hasMore) {
+                return false;
+            }
+            Map<String, Object> chunk = orderService.scanOrderStatuses(cursor, chunkSize);
+            orderIds = (List<String>) chunk.get("orderIds");
+            statuses = (List<String>) chunk.get("statuses");
+            totalAmounts = (List<Number>) chunk.get("totalAmounts");
+            updateTimes = (List<Number>) chunk.get("updateTimes");
+            index = 0;
+            String next = (String) chunk.get("nextCursor");
+            if (next != null) {
+                cursor = next;
+            }
+            hasMore = Boolean.TRUE.equals(chunk.get("hasMore"));
+            lastOrderId = orderIds.isEmpty() ? null : orderIds.get(orderIds.size() - 1);
+            return hasMore || !orderIds.isEmpty();
+        }
+        
+        OrderRow peek() {
+            if (!available()) {
+                return null;
+            }
+            return new OrderRow(orderIds.get(index), statuses.get(index),
+                    totalAmounts.get(index).doubleValue(), updateTimes.get(index).longValue());
+        }
+        
+        void next() {
+            index++;
+        }
+    }
+    
+    // 按块读取本地支付
+    private final class PaymentStream {
+        final PaymentSource source;
+        String after;
+        boolean exhausted;
+        List<PaymentSnapshot> chunk = Collections.emptyList();
+        int index;
+        
+        PaymentStream(PaymentSource source, String after) {
+            this.source = source;
+            this.after = after;
+        }
+        
+        boolean available() {
+            return index < chunk.size();
+        }
+        
+        void fetch() {
+            if (exhausted) {
+                return;
+            }
+            chunk = source.scan(after, chunkSize);
+            index = 0;
+            if (chunk.size() < chunkSize) {
+                exhausted = true;
+            }
+            if (!chunk.isEmpty()) {
+                after = chunk.get(chunk.size() - 1).getOrderId();
+            }
+        }
+        
+        PaymentSnapshot peek() {
+            return available() ? chunk.get(index) : null;
+        }
+        
+        void next() {
+            index++;
+        }
+    }
+    
+    // 检查点：订单一侧的游标、已处理到的订单ID和到此为止的累计计数
+    private static final class Checkpoint {
+        final String orderCursor;
+        final String lastOrderId;
+        final long startTime;
+        final long ordersScanned;
+        final long paymentsScanned;
+        final long matched;
+        final long inFlight;
+        final long[] mismatches;
+        
+        Checkpoint(String orderCursor, String lastOrderId, long startTime, long ordersScanned, long paymentsScanned,
+                   long matched, long inFlight, long[] mismatches) {
+            this.orderCursor = orderCursor;
+            this.lastOrderId = lastOrderId;
+            this.startTime = startTime;
+            this.ordersScanned = ordersScanned;
+            this.paymentsScanned = paymentsScanned;
+            this.matched = matched;
+            this.inFlight = inFlight;
+            this.mismatches = mismatches;
+        }
+        
+        Properties toProperties() {
+            Properties properties = new Properties();
+            if (orderCursor != null) {
+                properties.setProperty("orderCursor", orderCursor);
+            }
+            if (lastOrderId != null) {
+                properties.setProperty("lastOrderId", lastOrderId);
+            }
+            properties.setProperty("startTime", String.valueOf(startTime));
+            properties.setProperty("ordersScanned", String.valueOf(ordersScanned));
+            properties.setProperty("paymentsScanned", String.valueOf(paymentsScanned));
+            properties.setProperty("matched", String.valueOf(matched));
+            properties.setProperty("inFlight", String.valueOf(inFlight));
+            for (int i = 0; i < TYPES.length; i++) {
+                properties.setProperty("mismatch." + TYPES[i], String.valueOf(mismatches[i]));
+            }
+            return properties;
+        }
+        
+        static Checkpoint of(Properties properties) {
+            long[] mismatches = new long[TYPES.length];
+            for (int i = 0; i < TYPES.length; i++) {
+                mismatches[i] = Long.parseLong(properties.getProperty("mismatch." + TYPES[i], "0"));
+            }
+            return new Checkpoint(properties.getProperty("orderCursor"), properties.getProperty("lastOrderId"),
+                    Long.parseLong(properties.getProperty("startTime", "0")),
+                    Long.parseLong(properties.getProperty("ordersScanned", "0")),
+                    Long.parseLong(properties.getProperty("paymentsScanned", "0")),
+                    Long.parseLong(properties.getProperty("matched", "0")),
+                    Long.parseLong(properties.getProperty("inFlight", "0")), mismatches);
+        }
+    }
+    
+    // 一次对账的状态。计数只由对账线程修改，其他线程读取进度时允许看到稍旧的值
+    private static final class Run {
+        final boolean resumed;
+        final String orderCursor;
+        final String lastOrderId;
+        final long firstStartTime;
+        final long startTime = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        final long scannedBefore;
+        
+        volatile long ordersScanned;
+        volatile long paymentsScanned;
+        volatile long matched;
+        volatile long inFlight;
+        final AtomicLongArray mismatches = new AtomicLongArray(TYPES.length);
+        final List<Map<String, Object>> samples = Collections.synchronizedList(new ArrayList<>());
+        
+        volatile String state = "RUNNING";
+        volatile String error;
+        volatile long endNanos;
+        volatile boolean stopRequested;
+        volatile String progressOrderId;
+        volatile Checkpoint lastProgress;
+        long lastCheckpointTime = System.currentTimeMillis();
+        volatile long checkpoints;
+        
+        Run(Checkpoint from) {
+            resumed = from != null;
+            orderCursor = from == null ? null : from.orderCursor;
+            lastOrderId = from == null ? null : from.lastOrderId;
+            firstStartTime = from == null ? startTime : from.startTime;
+            progressOrderId = lastOrderId;
+            if (from != null) {
+                ordersScanned = from.ordersScanned;
+                paymentsScanned = from.paymentsScanned;
+                matched = from.matched;
+                inFlight = from.inFlight;
+                for (int i = 0; i < TYPES.length; i++) {
+                    mismatches.set(i, from.mismatches[i]);
+                }
+            }
+            scannedBefore = ordersScanned + paymentsScanned;
+        }
+        
+        boolean isRunning() {
+            return "RUNNING".equals(state);
+        }
+        
+        void progress(String orderCursor, String lastOrderId) {
+            long[] counts = new long[TYPES.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = mismatches.get(i);
+            }
+            progressOrderId = lastOrderId;
+            lastProgress = new Checkpoint(orderCursor, lastOrderId, firstStartTime, ordersScanned, paymentsScanned,
+                    matched, inFlight, counts);
+        }
+        
+        void mismatch(String type, String orderId, OrderRow order, PaymentSnapshot payment, int maxSamples) {
+            for (int i = 0; i < TYPES.length; i++) {
+                if (TYPES[i].equals(type)) {
+                    mismatches.incrementAndGet(i);
+                    break;
+                }
+            }
+            // 只保留前maxSamples条明细，计数不受限制
+            if (samples.size() < maxSamples) {
+                Map<String, Object> sample = new LinkedHashMap<>();
+                sample.put("type", type);
+                sample.put("orderId", orderId);
+                sample.put("orderStatus", order == null ? null : order.status);
+                sample.put("orderAmount", order == null ? null : order.totalAmount);
+                sample.put("paymentId", payment == null ? null : payment.getPaymentId());
+                sample.put("paymentStatus", payment == null ? null : payment.getStatus());
+                sample.put("paymentAmount", payment == null ? null : payment.getAmount());
+                sample.put("refunded", payment != null && payment.isRefunded());
+                samples.add(sample);
+            }
+        }
+        
+        void finish(String finalState, String message) {
+            error = message;
+            endNanos = System.nanoTime();
+            state = finalState;
+        }
+        
+        Map<String, Object> status() {
+            long end = isRunning() ? System.nanoTime() : endNanos;
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+            long orders = ordersScanned;
+            long payments = paymentsScanned;
+            Map<String, Long> mismatchCounts = new LinkedHashMap<>();
+            long totalMismatches = 0L;
+            for (int i = 0; i < TYPES.length; i++) {
+                long count = mismatches.get(i);
+                mismatchCounts.put(TYPES[i], count);
+                totalMismatches += count;
+            }
+            Map<String, Object> status = new HashMap<>();
+            status.put("state", state);
+            status.put("resumed", resumed);
+            status.put("startTime", new Date(firstStartTime));
+            status.put("elapsedMillis", elapsedMillis);
+            status.put("ordersScanned", orders);
+            status.put("paymentsScanned", payments);
+            status.put("matched", matched);
+            status.put("inFlight", inFlight);
+            status.put("mismatches", mismatchCounts);
+            status.put("totalMismatches", totalMismatches);
+            synchronized (samples) {
+                status.put("samples", new ArrayList<>(samples));
+            }
+            // 吞吐只按本次运行读取的记录计算，不含检查点之前的部分
+            status.put("recordsPerSecond", elapsedMillis == 0 ? 0.0
+                    : (orders + payments - scannedBefore) * 1000.0 / elapsedMillis);
+            status.put("checkpoint", progressOrderId);
+            status.put("checkpoints", checkpoints);
+            status.put("error", error);
+            return status;
+        }
+    }
+}
\ No newline at end of file
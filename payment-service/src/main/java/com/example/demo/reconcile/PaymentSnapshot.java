@@ -0,0 +1,46 @@
+package com.example.demo.reconcile;
+
+// 对账用的支付快照，只包含与订单状态比对相关的字段
+public final class PaymentSnapshot {
+    private final String orderId;
+    private final String paymentId;
+    private final String status;
+    private final double amount;
+    private final long updateTime;
+    private final boolean refunded;
+    
+    public PaymentSnapshot(String orderId, String paymentId, String status, double amount, long updateTime, boolean refunded) {
+        this.orderId = orderId;
+        this.paymentId = paymentId;
+        this.status = status;
+        this.amount = amount;
+        this.updateTime = updateTime;
+        this.refunded = refunded;
+    }
+    
+    public String getOrderId() {
+        return orderId;
+    }
+    
+    public String getPaymentId() {
+        return paymentId;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public double getAmount() {
+        return amount;
+    }
+    
+    // 支付最近一次变更的时间，epoch毫秒
+    public long getUpdateTime() {
+        return updateTime;
+    }
+    
+    // 是否申请过退款
+    public boolean isRefunded() {
+        return refunded;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,12 @@
+package com.example.demo.reconcile;
+
+import java.util.List;
+
+// 对账时支付一侧的数据来源
+public interface PaymentSource {
+    // 订单ID大于afterOrderId（为null时从头开始）的前limit笔支付，按订单ID升序
+    List<PaymentSnapshot> scan(String afterOrderId, int limit);
+    
+    // 订单当前的支付，不存在时返回null
+    PaymentSnapshot find(String orderId);
+}
\ No newline at end of file
@@ -0,0 +1,421 @@
+package com.example.demo.refund;
+
+import com.example.demo.wal.WriteAheadLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// 退款账本：退款申请和退款完成都追加到分段日志，内存中按退款ID和支付ID建索引。定期把索引写成快照并删除快照之前的日志段，
+// 重启时加载快照后只重放快照之后的日志。每笔支付的累计退款额用CAS预占，超过支付金额的退款在写日志前被拒绝，不同支付之间没有共享锁
+public class RefundLedger implements Closeable {
+    
+    private static final byte REQUESTED = 1;
+    private static final byte COMPLETED = 2;
+    
+    private final WriteAheadLog log;
+    private final RefundSnapshotStore snapshots;
+    private final long snapshotIntervalSeconds;
+    private final Map<String, RefundRecord> refunds = new ConcurrentHashMap<>();
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    // 正在写完成日志的退款，同一退款只有一个线程能完成
+    private final Set<String> completing = ConcurrentHashMap.newKeySet();
+    // 已写日志、尚未写入索引的记录 -> 追加前的日志位置。快照位置不超过其中最小的，这些记录恢复时总会被重放
+    private final Map<Object, Long> appending = new ConcurrentHashMap<>();
+    
+    private long replayedRecords;
+    private long restoredRefunds;
+    private long recoveryMillis;
+    private volatile long snapshotLsn;
+    private volatile long snapshotRefunds;
+    private ScheduledExecutorService snapshotExecutor;
+    
+    public RefundLedger(File dir, int segmentSize, WriteAheadLog.Durability durability, long flushIntervalMillis,
+                        long snapshotIntervalSeconds) throws IOException {
+        this.log = new WriteAheadLog("refund", dir, segmentSize, durability, flushIntervalMillis);
+        this.snapshots = new RefundSnapshotStore(dir);
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+    }
+    
+    // 加载快照并重放其后的日志，恢复索引和累计退款额，之后才能写入
+    public void open() throws IOException {
+        long start = System.nanoTime();
+        snapshotLsn = snapshots.load(this::restore);
+        log.replay(snapshotLsn, this::redo);
+        recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("Refund ledger recovered: " + refunds.size() + " refunds for " + accounts.size()
+                + " payments, " + restoredRefunds + " from snapshot, " + replayedRecords + " records replayed in "
+                + recoveryMillis + " ms");
+        if (snapshotIntervalSeconds > 0) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "refund-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotExecutor.scheduleWithFixedDelay(this::snapshotQuietly,
+                    snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+    
+    // 登记退款申请，日志落盘后返回。金额不为正或累计退款额将超过支付金额时抛出IllegalArgumentException
+    public RefundRecord request(String refundId, String paymentId, String orderId, double paymentAmount,
+                                double amount, String reason) {
+        Pending pending = append(refundId, paymentId, orderId, paymentAmount, amount, reason);
+        try {
+            log.awaitDurable(pending.lsn);
+            return pending.publish();
+        } finally {
+            appending.remove(pending.token);
+        }
+    }
+    
+    // request的异步版本，日志落盘后future完成，等待刷盘期间不占用调用线程；金额校验失败时同步抛出
+    public CompletableFuture<RefundRecord> requestAsync(String refundId, String paymentId, String orderId,
+                                                        double paymentAmount, double amount, String reason) {
+        Pending pending = append(refundId, paymentId, orderId, paymentAmount, amount, reason);
+        return log.whenDurable(pending.lsn).thenApply(ignored -> pending.publish())
+                .whenComplete((record, error) -> appending.remove(pending.token));
+    }
+    
+    // 预占金额并追加日志，落盘后再调用publish写入索引
+    private Pending append(String refundId, String paymentId, String orderId, double paymentAmount,
+                           double amount, String reason) {
+        long cents = toCents(amount);
+        if (cents <= 0) {
+            throw new IllegalArgumentException("Refund amount must be positive");
+        }
+        long paymentCents = toCents(paymentAmount);
+        Account account = accounts.computeIfAbsent(paymentId, id -> new Account(paymentCents));
+        if (!account.reserve(cents)) {
+            throw new IllegalArgumentException("Refund exceeds payment amount, refundable: "
+                    + (account.paymentCents - account.refundedCents.get()) / 100.0);
+        }
+        
+        RefundRecord record = new RefundRecord(refundId, paymentId, orderId, cents, reason,
+                RefundRecord.PROCESSING, System.currentTimeMillis(), 0L);
+        Object token = new Object();
+        appending.put(token, log.position());
+        try {
+            long lsn = log.append(encode(REQUESTED, out -> {
+                writeRecord(out, record);
+                out.writeLong(account.paymentCents);
+            }));
+            return new Pending(record, account, lsn, token);
+        } catch (RuntimeException e) {
+            appending.remove(token);
+            account.release(cents);
+            throw e;
+        }
+    }
+    
+    // 把处理中的退款标记为完成，返回完成后的记录；退款不存在、已完成或正在由其他线程完成时返回null。
+    // 完成日志落盘后才写入索引，写日志失败时退款仍为处理中
+    public RefundRecord complete(String refundId) {
+        RefundRecord record = refunds.get(refundId);
+        if (record == null || !RefundRecord.PROCESSING.equals(record.getStatus()) || !completing.add(refundId)) {
+            return null;
+        }
+        Object token = new Object();
+        try {
+            record = refunds.get(refundId);
+            if (!RefundRecord.PROCESSING.equals(record.getStatus())) {
+                return null;
+            }
+            RefundRecord completed = record.completed(System.currentTimeMillis());
+            appending.put(token, log.position());
+            long lsn = log.append(encode(COMPLETED, out -> {
+                writeString(out, refundId);
+                out.writeLong(completed.getCompleteTime());
+            }));
+            log.awaitDurable(lsn);
+            refunds.put(refundId, completed);
+            return completed;
+        } finally {
+            appending.remove(token);
+            completing.remove(refundId);
+        }
+    }
+    
+    public RefundRecord get(String refundId) {
+        return refunds.get(refundId);
+    }
+    
+    // 按申请顺序返回该支付的全部退款
+    public List<RefundRecord> listByPayment(String paymentId) {
+        Account account = accounts.get(paymentId);
+        if (account == null) {
+            return new ArrayList<>();
+        }
+        List<RefundRecord> records = new ArrayList<>();
+        for (Entry entry : account.entries) {
+            RefundRecord record = refunds.get(entry.refundId);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+    
+    // 已申请（含处理中）的累计退款金额
+    public double refundedAmount(String paymentId) {
+        Account account = accounts.get(paymentId);
+        return account == null ? 0.0 : account.refundedCents.get() / 100.0;
+    }
+    
+    // 遍历仍在处理中的退款，重启后据此重新调度退款完成
+    public void forEachProcessing(Consumer<RefundRecord> action) {
+        for (RefundRecord record : refunds.values()) {
+            if (RefundRecord.PROCESSING.equals(record.getStatus())) {
+                action.accept(record);
+            }
+        }
+    }
+    
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("refunds", refunds.size());
+        stats.put("payments", accounts.size());
+        stats.put("restoredRefunds", restoredRefunds);
+        stats.put("replayedRecords", replayedRecords);
+        stats.put("recoveryMillis", recoveryMillis);
+        stats.put("snapshotLsn", snapshotLsn);
+        stats.put("snapshotRefunds", snapshotRefunds);
+        return stats;
+    }
+    
+    // 先定快照位置再遍历索引：位置之前的记录要么已在索引中，要么还在appending里把位置压在它之前。
+    // 申请记录在位置之后的退款不写入快照，由重放恢复，持续写入时遍历不会追着新退款跑；
+    // 完成记录在位置之后的退款可能已以完成状态写入快照，重放时重复应用结果不变
+    public synchronized void snapshot() throws IOException {
+        long start = System.nanoTime();
+        long lsn = log.position();
+        for (long pending : appending.values()) {
+            lsn = Math.min(lsn, pending);
+        }
+        final long snapshotLsn = lsn;
+        snapshotRefunds = snapshots.write(snapshotLsn, entries -> {
+            for (Account account : accounts.values()) {
+                for (Entry entry : account.entries) {
+                    RefundRecord record = entry.lsn <= snapshotLsn ? refunds.get(entry.refundId) : null;
+                    if (record != null) {
+                        entries.accept(encode(RefundRecord.COMPLETED.equals(record.getStatus()) ? COMPLETED : REQUESTED, out -> {
+                            writeRecord(out, record);
+                            out.writeLong(account.paymentCents);
+                            out.writeLong(record.getCompleteTime());
+                        }));
+                    }
+                }
+            }
+        });
+        this.snapshotLsn = snapshotLsn;
+        log.deleteSegmentsBefore(snapshotLsn);
+        System.out.println("Refund snapshot written at log position " + snapshotLsn + " (" + snapshotRefunds
+                + " refunds) in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+    
+    // 停机前做一次快照，下次启动只需加载快照
+    @Override
+    public void close() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+        if (!log.isFailed()) {
+            snapshotQuietly();
+        }
+        log.close();
+    }
+    
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Refund snapshot failed: " + e.getMessage());
+        }
+    }
+    
+    // 快照条目：类型为退款当时的状态，记录之后是支付金额和完成时间
+    private void restore(ByteBuffer in) {
+        try {
+            byte type = in.get();
+            RefundRecord record = readRecord(in);
+            long paymentCents = in.getLong();
+            long completeTime = in.getLong();
+            if (type == COMPLETED) {
+                record = record.completed(completeTime);
+            }
+            add(record, paymentCents, 0L);
+            restoredRefunds++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load refund snapshot", e);
+        }
+    }
+    
+    // 日志中的退款都已通过金额校验，重放时直接累加；快照只包含申请记录在快照位置之前的退款，与重放的退款不重复
+    private void redo(long lsn, byte[] payload) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            byte type = in.get();
+            if (type == REQUESTED) {
+                RefundRecord record = readRecord(in);
+                long paymentCents = in.getLong();
+                add(record, paymentCents, lsn);
+            } else if (type == COMPLETED) {
+                String refundId = readString(in);
+                long completeTime = in.getLong();
+                refunds.computeIfPresent(refundId, (id, record) -> record.completed(completeTime));
+            } else {
+                throw new IOException("Unknown refund log record type: " + type);
+            }
+            replayedRecords++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replay refund ledger", e);
+        }
+    }
+    
+    private void add(RefundRecord record, long paymentCents, long lsn) {
+        Account account = accounts.computeIfAbsent(record.getPaymentId(), id -> new Account(paymentCents));
+        account.refundedCents.addAndGet(record.getAmountCents());
+        account.entries.add(new Entry(record.getRefundId(), lsn));
+        refunds.put(record.getRefundId(), record);
+    }
+    
+    private static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+    
+    private static void writeRecord(DataOutputStream out, RefundRecord record) throws IOException {
+        writeString(out, record.getRefundId());
+        writeString(out, record.getPaymentId());
+        writeString(out, record.getOrderId());
+        out.writeLong(record.getAmountCents());
+        writeString(out, record.getReason());
+        out.writeLong(record.getCreateTime());
+    }
+    
+    private static RefundRecord readRecord(ByteBuffer in) throws IOException {
+        String refundId = readString(in);
+        String paymentId = readString(in);
+        String orderId = readString(in);
+        long amountCents = in.getLong();
+        String reason = readString(in);
+        long createTime = in.getLong();
+        return new RefundRecord(refundId, paymentId, orderId, amountCents, reason, RefundRecord.PROCESSING, createTime, 0L);
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new IOException("Truncated string of length " + length);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+    
+    private static byte[] encode(byte type, RecordWriter writer) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            writer.write(out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+    
+    // 已写入日志、尚未落盘的退款申请
+    private final class Pending {
+        final RefundRecord record;
+        final Account account;
+        final long lsn;
+        final Object token;
+        
+        Pending(RefundRecord record, Account account, long lsn, Object token) {
+            this.record = record;
+            this.account = account;
+            this.lsn = lsn;
+            this.token = token;
+        }
+        
+        RefundRecord publish() {
+            refunds.put(record.getRefundId(), record);
+            account.entries.add(new Entry(record.getRefundId(), lsn));
+            return record;
+        }
+    }
+    
+    // 支付名下的一笔退款：退款ID和申请记录结束的日志位置，从快照恢复的为0
+    private static final class Entry {
+        final String refundId;
+        final long lsn;
+        
+        Entry(String refundId, long lsn) {
+            this.refundId = refundId;
+            this.lsn = lsn;
+        }
+    }
+    
+    // 单笔支付的退款账户：支付金额、累计退款额和按申请顺序排列的退款
+    private static final class Account {
+        final long paymentCents;
+        final AtomicLong refundedCents = new AtomicLong();
+        final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<>();
+        
+        Account(long paymentCents) {
+            this.paymentCents = paymentCents;
+        }
+        
+        boolean reserve(long cents) {
+            while (true) {
+                long current = refundedCents.get();
+                if (current + cents > paymentCents) {
+                    return false;
+                }
+                if (refundedCents.compareAndSet(current, current + cents)) {
+                    return true;
+                }
+            }
+        }
+        
+        void release(long cents) {
+            refundedCents.addAndGet(-cents);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+package com.example.demo.refund;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+// 退款记录：金额以分为单位保存，累计退款额的比较不受浮点误差影响；对象不可变，状态变更生成新记录
+public final class RefundRecord {
+    
+    public static final String PROCESSING = "PROCESSING";
+    public static final String COMPLETED = "COMPLETED";
+    
+    private final String refundId;
+    private final String paymentId;
+    private final String orderId;
+    private final long amountCents;
+    private final String reason;
+    private final String status;
+    private final long createTime;
+    private final long completeTime;
+    
+    public RefundRecord(String refundId, String paymentId, String orderId, long amountCents, String reason,
+                        String status, long createTime, long completeTime) {
+        this.refundId = refundId;
+        this.paymentId = paymentId;
+        this.orderId = orderId;
+        this.amountCents = amountCents;
+        this.reason = reason;
+        this.status = status;
+        this.createTime = createTime;
+        this.completeTime = completeTime;
+    }
+    
+    public String getRefundId() {
+        return refundId;
+    }
+    
+    public String getPaymentId() {
+        return paymentId;
+    }
+    
+    public String getOrderId() {
+        return orderId;
+    }
+    
+    public long getAmountCents() {
+        return amountCents;
+    }
+    
+    public String getReason() {
+        return reason;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public long getCreateTime() {
+        return createTime;
+    }
+    
+    // 0表示尚未完成
+    public long getCompleteTime() {
+        return completeTime;
+    }
+    
+    public RefundRecord completed(long time) {
+        return new RefundRecord(refundId, paymentId, orderId, amountCents, reason, COMPLETED, createTime, time);
+    }
+    
+    // 字段与原来refund接口返回的Map保持一致
+    public Map<String, Object> toMap() {
+        Map<String, Object> refund = new HashMap<>();
+        refund.put("refundId", refundId);
+        refund.put("paymentId", paymentId);
+        refund.put("orderId", orderId);
+        refund.put("amount", amountCents / 100.0);
+        refund.put("reason", reason);
+        refund.put("status", status);
+        refund.put("createTime", new Date(createTime));
+        if (completeTime != 0L) {
+            refund.put("completeTime", new Date(completeTime));
+        }
+        return refund;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,140 @@
+package com.example.demo.refund;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+// 退款账本快照：文件名中带有快照对应的日志位置，恢复时加载快照后只重放该位置之后的日志。
+// 先写临时文件并fsync，再重命名，目录中最新的快照文件总是完整的；条目的编码由账本决定，这里只按长度前缀存取
+public class RefundSnapshotStore {
+    
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int MAGIC = 0x52464e53;
+    private static final int BUFFER_SIZE = 1 << 20;
+    
+    private final File dir;
+    
+    public RefundSnapshotStore(File dir) {
+        this.dir = dir;
+    }
+    
+    // entries把每个条目交给传入的Consumer，返回写入的条目数
+    public long write(long lsn, Consumer<Consumer<byte[]>> entries) throws IOException {
+        File tmp = new File(dir, PREFIX + lsn + SUFFIX + ".tmp");
+        long count;
+        try (FileOutputStream file = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeLong(lsn);
+            long[] written = new long[1];
+            entries.accept(entry -> {
+                try {
+                    out.writeInt(entry.length);
+                    out.write(entry);
+                    written[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            count = written[0];
+            out.writeInt(-1);
+            out.writeLong(count);
+            out.writeInt(MAGIC);
+            out.flush();
+            file.getFD().sync();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        File target = new File(dir, String.format("%s%020d%s", PREFIX, lsn, SUFFIX));
+        if (!tmp.renameTo(target)) {
+            throw new IOException("Cannot rename refund snapshot to " + target);
+        }
+        // 只保留最新的快照
+        for (File old : list()) {
+            if (!old.equals(target) && !old.delete()) {
+                System.err.println("Failed to delete old refund snapshot: " + old);
+            }
+        }
+        return count;
+    }
+    
+    // 加载最新快照，返回其日志位置；没有快照时返回0。传给consumer的缓冲区只包含一个条目
+    public long load(Consumer<ByteBuffer> consumer) throws IOException {
+        File[] snapshots = list();
+        if (snapshots.length == 0) {
+            return 0L;
+        }
+        File latest = snapshots[snapshots.length - 1];
+        try (FileInputStream file = new FileInputStream(latest)) {
+            FileChannel channel = file.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.flip();
+            buffer = fill(channel, buffer, 12);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Corrupted refund snapshot: " + latest);
+            }
+            long lsn = buffer.getLong();
+            long count = 0;
+            while (true) {
+                buffer = fill(channel, buffer, 4);
+                int length = buffer.getInt();
+                if (length < 0) {
+                    break;
+                }
+                buffer = fill(channel, buffer, length);
+                int end = buffer.position() + length;
+                ByteBuffer entry = buffer.duplicate();
+                entry.limit(end);
+                consumer.accept(entry.slice());
+                buffer.position(end);
+                count++;
+            }
+            buffer = fill(channel, buffer, 12);
+            if (buffer.getLong() != count || buffer.getInt() != MAGIC) {
+                throw new IOException("Corrupted refund snapshot: " + latest);
+            }
+            return lsn;
+        }
+    }
+    
+    // 保证缓冲区中至少有needed个可读字节，必要时扩容；返回可能替换后的缓冲区
+    private static ByteBuffer fill(FileChannel channel, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        if (needed > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < needed) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated refund snapshot");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    private File[] list() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        return files;
+    }
+}
\ No newline at end of file
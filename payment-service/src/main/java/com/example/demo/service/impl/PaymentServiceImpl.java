@@ -1,26 +1,102 @@
 package com.example.demo.service.impl;
 
-import com.example.demo.service.OrderService;
+import com.example.demo.batch.OrderStatusBatcher;
+import com.example.demo.bulk.BulkJob;
+import com.example.demo.bulk.BulkPaymentProcessor;
+import com.example.demo.event.PaymentChangeEvent;
+import com.example.demo.event.PaymentChangeStream;
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.idempotency.IdempotencyCache;
+import com.example.demo.index.UserIdIndex;
+import com.example.demo.nearcache.OrderNearCache;
+import com.example.demo.reconcile.PaymentReconciler;
+import com.example.demo.reconcile.PaymentSnapshot;
+import com.example.demo.reconcile.PaymentSource;
+import com.example.demo.refund.RefundLedger;
+import com.example.demo.refund.RefundRecord;
 import com.example.demo.service.PaymentService;
-import org.apache.dubbo.config.annotation.Reference;
+import com.example.demo.timer.HashedWheelTimer;
 import org.apache.dubbo.config.annotation.Service;
 import org.apache.skywalking.apm.toolkit.trace.Tag;
 import org.apache.skywalking.apm.toolkit.trace.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Component
 public class PaymentServiceImpl implements PaymentService {
     
-    @Reference
-    private OrderService orderService;
+    private static final int DEFAULT_HISTORY_PAGE_SIZE = 100;
+    private static final int MAX_HISTORY_PAGE_SIZE = 500;
+    private static final int DEFAULT_EVENT_BATCH = 100;
+    private static final int MAX_EVENT_BATCH = 1000;
+    
+    @Autowired
+    private SnowflakeIdGenerator idGenerator;
+    
+    // 结算、退款和超时任务都由时间轮调度，工作线程数固定
+    @Autowired
+    private HashedWheelTimer paymentTimer;
+    
+    // 退款记录持久化在只追加的账本中，累计退款额按支付独立校验
+    @Autowired
+    private RefundLedger refundLedger;
+    
+    @Autowired
+    private IdempotencyCache<Map<String, Object>> paymentIdempotencyCache;
+    
+    // 创建支付时的订单校验先查本地近端缓存
+    @Autowired
+    private OrderNearCache orderNearCache;
+    
+    // 订单状态更新经过微批合并，同一订单的更新按提交顺序送达
+    @Autowired
+    private OrderStatusBatcher orderStatusBatcher;
+    
+    @Autowired
+    private PaymentReconciler paymentReconciler;
+    
+    @Autowired
+    private BulkPaymentProcessor bulkPaymentProcessor;
+    
+    // 新建支付和状态变更发布到变更流，供分析服务等订阅方按序号拉取
+    @Autowired
+    private PaymentChangeStream paymentChangeStream;
+    
+    @Value("${payment.processing.settle-delay-ms:1000}")
+    private long settleDelayMillis;
+    
+    @Value("${payment.processing.refund-delay-ms:1500}")
+    private long refundDelayMillis;
+    
+    // 超过该时间仍未结算的支付标记为TIMEOUT
+    @Value("${payment.processing.timeout-ms:30000}")
+    private long paymentTimeoutMillis;
     
     private Map<String, Map<String, Object>> paymentStore = new ConcurrentHashMap<>();
-    private Map<String, List<String>> userPaymentMap = new ConcurrentHashMap<>();
-    private Map<String, String> orderPaymentMap = new ConcurrentHashMap<>();
+    // 用户的支付ID按创建顺序只追加，追加不复制已有元素，位置即分页游标
+    private final UserIdIndex userPaymentIndex = new UserIdIndex();
+    // 按订单ID排序，对账时按块顺序读取
+    private ConcurrentSkipListMap<String, String> orderPaymentMap = new ConcurrentSkipListMap<>();
+    private Map<String, HashedWheelTimer.Timeout> paymentTimeouts = new ConcurrentHashMap<>();
+    // 正在创建支付的订单，同一订单的并发请求等待第一个请求的结果
+    private Map<String, CompletableFuture<Map<String, Object>>> pendingPayments = new ConcurrentHashMap<>();
+    
+    // 重启前未完成的退款重新调度完成
+    @PostConstruct
+    public void resumeRefunds() {
+        refundLedger.forEachProcessing(record -> paymentTimer.schedule(
+                () -> processRefund(record.getRefundId()), refundDelayMillis, TimeUnit.MILLISECONDS));
+    }
     
     @Override
     @Tags({
@@ -31,19 +107,92 @@ public class PaymentServiceImpl implements PaymentService {
         @Tag(key = "result", value = "returnedObj")
     })
     public Map<String, Object> createPayment(String orderId, String userId, double amount, String paymentMethod) {
-        // 验证订单
-        Map<String, Object> order = orderService.getOrderById(orderId);
-        if (order == null) {
-            throw new IllegalArgumentException("Order not found");
+        return awaitPayment(createPaymentAsync(orderId, userId, amount, paymentMethod));
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "orderId", value = "arg[0]"),
+        @Tag(key = "userId", value = "arg[1]"),
+        @Tag(key = "amount", value = "arg[2]"),
+        @Tag(key = "paymentMethod", value = "arg[3]"),
+        @Tag(key = "idempotencyKey", value = "arg[4]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Object> createPayment(String orderId, String userId, double amount, String paymentMethod, String idempotencyKey) {
+        return awaitPayment(createPaymentAsync(orderId, userId, amount, paymentMethod, idempotencyKey));
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "orderId", value = "arg[0]"),
+        @Tag(key = "userId", value = "arg[1]"),
+        @Tag(key = "amount", value = "arg[2]"),
+        @Tag(key = "paymentMethod", value = "arg[3]")
+    })
+    public CompletableFuture<Map<String, Object>> createPaymentAsync(String orderId, String userId, double amount, String paymentMethod) {
+        // 检查是否已存在支付，重试直接返回，不再调用订单服务
+        String existingPaymentId = orderPaymentMap.get(orderId);
+        if (existingPaymentId != null) {
+            return CompletableFuture.completedFuture(copyOf(paymentStore.get(existingPaymentId)));
         }
         
-        // 检查是否已存在支付
-        if (orderPaymentMap.containsKey(orderId)) {
-            String existingPaymentId = orderPaymentMap.get(orderId);
-            return paymentStore.get(existingPaymentId);
+        // 按订单预占，同一订单只有一个请求执行创建，其余请求拿到同一个future
+        CompletableFuture<Map<String, Object>> reservation = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> inFlight = pendingPayments.putIfAbsent(orderId, reservation);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        CompletableFuture<Map<String, Object>> created;
+        try {
+            // 预占前可能刚有请求完成创建并释放预占
+            existingPaymentId = orderPaymentMap.get(orderId);
+            created = existingPaymentId != null
+                    ? CompletableFuture.completedFuture(copyOf(paymentStore.get(existingPaymentId)))
+                    // 近端缓存未命中时异步查询订单服务，等待期间不占用线程
+                    : orderNearCache.findAsync(orderId)
+                            .thenApply(order -> doCreatePayment(order, orderId, userId, amount, paymentMethod));
+        } catch (RuntimeException e) {
+            created = failedFuture(e);
+        }
+        created.whenComplete((payment, error) -> {
+            if (error != null) {
+                reservation.completeExceptionally(unwrap(error));
+            } else {
+                reservation.complete(payment);
+            }
+            pendingPayments.remove(orderId, reservation);
+        });
+        return reservation;
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "orderId", value = "arg[0]"),
+        @Tag(key = "userId", value = "arg[1]"),
+        @Tag(key = "amount", value = "arg[2]"),
+        @Tag(key = "paymentMethod", value = "arg[3]"),
+        @Tag(key = "idempotencyKey", value = "arg[4]")
+    })
+    public CompletableFuture<Map<String, Object>> createPaymentAsync(String orderId, String userId, double amount,
+                                                                     String paymentMethod, String idempotencyKey) {
+        if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+            return createPaymentAsync(orderId, userId, amount, paymentMethod);
+        }
+        // 幂等键按用户隔离，同一个键携带不同的支付参数时拒绝
+        return paymentIdempotencyCache.executeAsync(userId + ":" + idempotencyKey,
+                Arrays.asList(orderId, userId, amount, paymentMethod),
+                () -> createPaymentAsync(orderId, userId, amount, paymentMethod));
+    }
+    
+    // 调用方已持有该订单的预占，order为订单校验的结果
+    private Map<String, Object> doCreatePayment(OrderNearCache.OrderSummary order, String orderId, String userId,
+                                                double amount, String paymentMethod) {
+        if (order == null) {
+            throw new IllegalArgumentException("Order not found");
         }
         
-        String paymentId = "PAY_" + UUID.randomUUID().toString().substring(0, 8);
+        String paymentId = idGenerator.nextId("PAY_");
         Map<String, Object> payment = new HashMap<>();
         payment.put("paymentId", paymentId);
         payment.put("orderId", orderId);
@@ -55,14 +204,17 @@ public class PaymentServiceImpl implements PaymentService {
         payment.put("orderVerified", true);
         
         paymentStore.put(paymentId, payment);
-        userPaymentMap.computeIfAbsent(userId, k -> new ArrayList<>()).add(paymentId);
+        userPaymentIndex.append(userId, paymentId);
         orderPaymentMap.put(orderId, paymentId);
+        publishChange(payment, null);
         
-        // 模拟异步支付处理
-        new Thread(() -> processPayment(paymentId)).start();
+        // 支付超时在结算或回调时取消；模拟的异步支付处理在结算延迟后由时间轮执行
+        paymentTimeouts.put(paymentId,
+                paymentTimer.schedule(() -> expirePayment(paymentId), paymentTimeoutMillis, TimeUnit.MILLISECONDS));
+        paymentTimer.schedule(() -> processPayment(paymentId), settleDelayMillis, TimeUnit.MILLISECONDS);
         
         logPaymentCreation(paymentId, orderId);
-        return payment;
+        return copyOf(payment);
     }
     
     @Override
@@ -87,15 +239,25 @@ public class PaymentServiceImpl implements PaymentService {
     public boolean handlePaymentCallback(String paymentId, String status, Map<String, Object> callbackData) {
         Map<String, Object> payment = paymentStore.get(paymentId);
         if (payment != null) {
-            payment.put("status", status);
-            payment.put("callbackTime", new Date());
-            payment.put("callbackData", callbackData);
+            cancelPaymentTimeout(paymentId);
+            synchronized (payment) {
+                String oldStatus = (String) payment.put("status", status);
+                payment.put("callbackTime", new Date());
+                payment.put("callbackData", callbackData);
+                // 回调重试不改变状态，不发布事件
+                if (!Objects.equals(status, oldStatus)) {
+                    publishChange(payment, oldStatus);
+                }
+            }
             
-            // 如果支付成功，更新订单状态
+            // 如果支付成功，更新订单状态；订单更新随批次送达后再标记
             if ("SUCCESS".equals(status)) {
                 String orderId = (String) payment.get("orderId");
-                orderService.updateOrderStatus(orderId, "PAID");
-                payment.put("orderUpdated", true);
+                orderStatusBatcher.submit(orderId, "PAID").thenAccept(updated -> {
+                    synchronized (payment) {
+                        payment.put("orderUpdated", updated);
+                    }
+                });
             }
             
             logPaymentCallback(paymentId, status);
@@ -104,6 +266,23 @@ public class PaymentServiceImpl implements PaymentService {
         return false;
     }
     
+    @Override
+    @Tags({
+        @Tag(key = "callbacks", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Boolean> handlePaymentCallbacks(List<Map<String, Object>> callbacks) {
+        // 订单状态更新在批处理器中合并，一批回调只产生少量订单服务调用
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for (Map<String, Object> callback : callbacks) {
+            String paymentId = (String) callback.get("paymentId");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> callbackData = (Map<String, Object>) callback.get("data");
+            results.put(paymentId, handlePaymentCallback(paymentId, (String) callback.get("status"), callbackData));
+        }
+        return results;
+    }
+    
     @Override
     @Tags({
         @Tag(key = "paymentId", value = "arg[0]"),
@@ -112,29 +291,106 @@ public class PaymentServiceImpl implements PaymentService {
         @Tag(key = "result", value = "returnedObj")
     })
     public Map<String, Object> refund(String paymentId, double amount, String reason) {
+        Map<String, Object> payment = refundablePayment(paymentId);
+        String refundId = idGenerator.nextId("REFUND_");
+        // 累计退款额超过支付金额时抛出IllegalArgumentException，退款记录落盘后才返回
+        RefundRecord refund = refundLedger.request(refundId, paymentId, (String) payment.get("orderId"),
+                (Double) payment.get("amount"), amount, reason);
+        return onRefundRequested(refund);
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "paymentId", value = "arg[0]"),
+        @Tag(key = "amount", value = "arg[1]"),
+        @Tag(key = "reason", value = "arg[2]")
+    })
+    public CompletableFuture<Map<String, Object>> refundAsync(String paymentId, double amount, String reason) {
+        try {
+            Map<String, Object> payment = refundablePayment(paymentId);
+            String refundId = idGenerator.nextId("REFUND_");
+            // 等待退款日志刷盘期间不占用线程
+            return refundLedger.requestAsync(refundId, paymentId, (String) payment.get("orderId"),
+                    (Double) payment.get("amount"), amount, reason).thenApply(this::onRefundRequested);
+        } catch (RuntimeException e) {
+            return failedFuture(e);
+        }
+    }
+    
+    private Map<String, Object> refundablePayment(String paymentId) {
         Map<String, Object> payment = paymentStore.get(paymentId);
         if (payment == null || !"SUCCESS".equals(payment.get("status"))) {
             throw new IllegalArgumentException("Invalid payment for refund");
         }
+        return payment;
+    }
+    
+    // 退款申请落盘后调度退款完成并更新订单状态
+    private Map<String, Object> onRefundRequested(RefundRecord refund) {
+        scheduleRefund(refund);
+        logRefund(refund.getRefundId(), refund.getPaymentId());
+        return refund.toMap();
+    }
+    
+    private void scheduleRefund(RefundRecord refund) {
+        String refundId = refund.getRefundId();
+        // 模拟退款处理，退款完成由时间轮在处理延迟后执行
+        paymentTimer.schedule(() -> processRefund(refundId), refundDelayMillis, TimeUnit.MILLISECONDS);
         
-        String refundId = "REFUND_" + UUID.randomUUID().toString().substring(0, 8);
-        Map<String, Object> refund = new HashMap<>();
-        refund.put("refundId", refundId);
-        refund.put("paymentId", paymentId);
-        refund.put("amount", amount);
-        refund.put("reason", reason);
-        refund.put("status", "PROCESSING");
-        refund.put("createTime", new Date());
-        
-        // 模拟退款处理
-        new Thread(() -> processRefund(refundId)).start();
-        
-        // 更新订单状态
-        String orderId = (String) payment.get("orderId");
-        orderService.updateOrderStatus(orderId, "REFUNDING");
-        
-        logRefund(refundId, paymentId);
-        return refund;
+        // 更新订单状态，与支付成功的更新走同一个批处理器以保证顺序
+        orderStatusBatcher.submit(refund.getOrderId(), "REFUNDING");
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "refundId", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Object> getRefund(String refundId) {
+        RefundRecord refund = refundLedger.get(refundId);
+        return refund == null ? null : refund.toMap();
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "paymentId", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public List<Map<String, Object>> getRefundsByPayment(String paymentId) {
+        List<Map<String, Object>> refunds = new ArrayList<>();
+        for (RefundRecord refund : refundLedger.listByPayment(paymentId)) {
+            refunds.add(refund.toMap());
+        }
+        return refunds;
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "orderIds", value = "arg[0].size()")
+    })
+    public Map<String, Map<String, Object>> getPaymentsByOrderIds(Collection<String> orderIds) {
+        Map<String, Map<String, Object>> payments = new HashMap<>();
+        if (orderIds == null) {
+            return payments;
+        }
+        for (String orderId : orderIds) {
+            String paymentId = orderPaymentMap.get(orderId);
+            Map<String, Object> payment = paymentId == null ? null : paymentStore.get(paymentId);
+            if (payment == null) {
+                continue;
+            }
+            // 只返回补全订单需要的字段，不复制整条支付记录
+            Map<String, Object> summary = new HashMap<>();
+            synchronized (payment) {
+                summary.put("paymentId", paymentId);
+                summary.put("status", payment.get("status"));
+                summary.put("amount", payment.get("amount"));
+                summary.put("paymentMethod", payment.get("paymentMethod"));
+            }
+            summary.put("refundedAmount", refundLedger.refundedAmount(paymentId));
+            payments.put(orderId, summary);
+        }
+        return payments;
     }
     
     @Override
@@ -143,7 +399,7 @@ public class PaymentServiceImpl implements PaymentService {
         @Tag(key = "result", value = "returnedObj")
     })
     public List<Map<String, Object>> getUserPaymentHistory(String userId) {
-        List<String> paymentIds = userPaymentMap.getOrDefault(userId, Collections.emptyList());
+        List<String> paymentIds = userPaymentIndex.list(userId);
         List<Map<String, Object>> payments = new ArrayList<>();
         
         for (String paymentId : paymentIds) {
@@ -156,6 +412,35 @@ public class PaymentServiceImpl implements PaymentService {
         return payments;
     }
     
+    @Override
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]"),
+        @Tag(key = "cursor", value = "arg[1]"),
+        @Tag(key = "limit", value = "arg[2]")
+    })
+    public Map<String, Object> getUserPaymentHistoryPage(String userId, String cursor, int limit) {
+        int position = parseCursor(cursor);
+        int pageSize = limit <= 0 ? DEFAULT_HISTORY_PAGE_SIZE : Math.min(limit, MAX_HISTORY_PAGE_SIZE);
+        
+        // 用户的支付ID只追加，游标即索引中的位置；只读取本块范围内的支付
+        List<String> paymentIds = userPaymentIndex.range(userId, position, pageSize);
+        List<Map<String, Object>> payments = new ArrayList<>(paymentIds.size());
+        for (String paymentId : paymentIds) {
+            Map<String, Object> payment = getPaymentStatus(paymentId);
+            if (payment != null) {
+                payments.add(payment);
+            }
+        }
+        
+        int end = position + paymentIds.size();
+        boolean hasMore = end < userPaymentIndex.count(userId);
+        Map<String, Object> page = new HashMap<>();
+        page.put("payments", payments);
+        page.put("nextCursor", hasMore ? String.valueOf(end) : null);
+        page.put("hasMore", hasMore);
+        return page;
+    }
+    
     @Override
     @Tags({
         @Tag(key = "orderId", value = "arg[0]"),
@@ -171,6 +456,133 @@ public class PaymentServiceImpl implements PaymentService {
         return false;
     }
     
+    @Override
+    @Tags({
+        @Tag(key = "paymentId", value = "arg[0]")
+    })
+    public CompletableFuture<Map<String, Object>> getPaymentStatusAsync(String paymentId) {
+        // 只读本地内存，直接在调用线程完成
+        return CompletableFuture.completedFuture(getPaymentStatus(paymentId));
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "paymentId", value = "arg[0]"),
+        @Tag(key = "status", value = "arg[1]")
+    })
+    public CompletableFuture<Boolean> handlePaymentCallbackAsync(String paymentId, String status, Map<String, Object> callbackData) {
+        // 订单状态更新本来就经过批处理器异步送达，回调本身只修改本地状态
+        return CompletableFuture.completedFuture(handlePaymentCallback(paymentId, status, callbackData));
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]")
+    })
+    public CompletableFuture<List<Map<String, Object>>> getUserPaymentHistoryAsync(String userId) {
+        return CompletableFuture.completedFuture(getUserPaymentHistory(userId));
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "userId", value = "arg[0]"),
+        @Tag(key = "cursor", value = "arg[1]"),
+        @Tag(key = "limit", value = "arg[2]")
+    })
+    public CompletableFuture<Map<String, Object>> getUserPaymentHistoryPageAsync(String userId, String cursor, int limit) {
+        try {
+            return CompletableFuture.completedFuture(getUserPaymentHistoryPage(userId, cursor, limit));
+        } catch (RuntimeException e) {
+            return failedFuture(e);
+        }
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "orderIds", value = "arg[0].size()")
+    })
+    public CompletableFuture<Map<String, Map<String, Object>>> getPaymentsByOrderIdsAsync(Collection<String> orderIds) {
+        return CompletableFuture.completedFuture(getPaymentsByOrderIds(orderIds));
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "orderId", value = "arg[0]"),
+        @Tag(key = "userId", value = "arg[1]")
+    })
+    public CompletableFuture<Boolean> validatePaymentAsync(String orderId, String userId) {
+        return CompletableFuture.completedFuture(validatePayment(orderId, userId));
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "settlements", value = "arg[0].size()")
+    })
+    public Map<String, Object> submitBulkSettlement(List<Map<String, Object>> settlements) {
+        return bulkPaymentProcessor.submit("SETTLEMENT", new ArrayList<>(settlements), this::settleSlice).status();
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "refunds", value = "arg[0].size()")
+    })
+    public Map<String, Object> submitBulkRefund(List<Map<String, Object>> refunds) {
+        return bulkPaymentProcessor.submit("REFUND", new ArrayList<>(refunds), this::refundSlice).status();
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "jobId", value = "arg[0]")
+    })
+    public Map<String, Object> getBulkJobStatus(String jobId) {
+        BulkJob job = bulkPaymentProcessor.get(jobId);
+        return job == null ? null : job.status();
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "afterSequence", value = "arg[0]"),
+        @Tag(key = "maxEvents", value = "arg[1]")
+    })
+    public Map<String, Object> pollPaymentChanges(long afterSequence, int maxEvents) {
+        int batchSize = maxEvents <= 0 ? DEFAULT_EVENT_BATCH : Math.min(maxEvents, MAX_EVENT_BATCH);
+        return paymentChangeStream.poll(afterSequence, batchSize);
+    }
+    
+    @Override
+    public Map<String, Object> getPaymentChangeStreamStats() {
+        return paymentChangeStream.stats();
+    }
+    
+    @Override
+    public Map<String, Object> getPaymentTimerStats() {
+        return paymentTimer.stats();
+    }
+    
+    @Override
+    public Map<String, Object> getOrderUpdateStats() {
+        return orderStatusBatcher.stats();
+    }
+    
+    @Override
+    public Map<String, Object> getOrderCacheStats() {
+        return orderNearCache.stats();
+    }
+    
+    @Override
+    @Tags({
+        @Tag(key = "resume", value = "arg[0]"),
+        @Tag(key = "result", value = "returnedObj")
+    })
+    public Map<String, Object> startReconciliation(boolean resume) {
+        return paymentReconciler.start(new LocalPayments(), resume);
+    }
+    
+    @Override
+    public Map<String, Object> getReconciliationStatus() {
+        return paymentReconciler.status();
+    }
+    
     @Tags({
         @Tag(key = "paymentId", value = "arg[0]"),
         @Tag(key = "orderId", value = "arg[1]")
@@ -195,28 +607,102 @@ public class PaymentServiceImpl implements PaymentService {
         System.out.println("Refund initiated: " + refundId + " for payment: " + paymentId);
     }
     
+    // 时间轮到期后执行，只结算仍处于PENDING的支付
     @Tags({
         @Tag(key = "paymentId", value = "arg[0]")
     })
     private void processPayment(String paymentId) {
-        // 模拟支付处理延迟
-        try {
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        
         Map<String, Object> payment = paymentStore.get(paymentId);
-        if (payment != null) {
+        if (payment == null) {
+            return;
+        }
+        boolean success;
+        synchronized (payment) {
+            if (!"PENDING".equals(payment.get("status"))) {
+                return;
+            }
             // 80%概率支付成功
-            boolean success = Math.random() < 0.8;
+            success = Math.random() < 0.8;
             payment.put("status", success ? "SUCCESS" : "FAILED");
             payment.put("processTime", new Date());
-            
-            if (success) {
-                String orderId = (String) payment.get("orderId");
-                orderService.updateOrderStatus(orderId, "PAID");
+            publishChange(payment, "PENDING");
+        }
+        cancelPaymentTimeout(paymentId);
+        
+        if (success) {
+            String orderId = (String) payment.get("orderId");
+            orderStatusBatcher.submit(orderId, "PAID");
+        }
+    }
+    
+    @Tags({
+        @Tag(key = "paymentId", value = "arg[0]")
+    })
+    private void expirePayment(String paymentId) {
+        paymentTimeouts.remove(paymentId);
+        Map<String, Object> payment = paymentStore.get(paymentId);
+        if (payment == null) {
+            return;
+        }
+        synchronized (payment) {
+            if (!"PENDING".equals(payment.get("status"))) {
+                return;
+            }
+            payment.put("status", "TIMEOUT");
+            payment.put("processTime", new Date());
+            publishChange(payment, "PENDING");
+        }
+        System.out.println("Payment timed out: " + paymentId);
+    }
+    
+    private static Map<String, Object> awaitPayment(CompletableFuture<Map<String, Object>> inFlight) {
+        try {
+            return inFlight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+    
+    private static int parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            int position = Integer.parseInt(cursor);
+            if (position >= 0) {
+                return position;
             }
+        } catch (NumberFormatException e) {
+            // 落到下方统一抛出
+        }
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+    
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+    
+    private static <T> CompletableFuture<T> failedFuture(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+    
+    // 在支付记录的锁内调用，同一支付的事件按状态变更的顺序发布
+    private void publishChange(Map<String, Object> payment, String oldStatus) {
+        paymentChangeStream.publish(new PaymentChangeEvent(
+                oldStatus == null ? PaymentChangeEvent.CREATED : PaymentChangeEvent.STATUS_CHANGED,
+                (String) payment.get("paymentId"), (String) payment.get("orderId"), (String) payment.get("userId"),
+                oldStatus, (String) payment.get("status"), (Double) payment.get("amount"), System.currentTimeMillis()));
+    }
+    
+    private void cancelPaymentTimeout(String paymentId) {
+        HashedWheelTimer.Timeout timeout = paymentTimeouts.remove(paymentId);
+        if (timeout != null) {
+            timeout.cancel();
         }
     }
     
@@ -224,14 +710,125 @@ public class PaymentServiceImpl implements PaymentService {
         @Tag(key = "refundId", value = "arg[0]")
     })
     private void processRefund(String refundId) {
-        // 模拟退款处理延迟
-        try {
-            Thread.sleep(1500);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        if (refundLedger.complete(refundId) != null) {
+            System.out.println("Refund completed: " + refundId);
+        }
+    }
+    
+    // 批量结算的一个分片，在ForkJoinPool的工作线程上执行；订单状态更新经批处理器合并后批量送达
+    private void settleSlice(List<Map<String, Object>> slice, BulkJob job) {
+        for (Map<String, Object> item : slice) {
+            String paymentId = (String) item.get("paymentId");
+            String status = item.get("status") == null ? "SUCCESS" : (String) item.get("status");
+            if (!"SUCCESS".equals(status) && !"FAILED".equals(status)) {
+                job.failed(paymentId, "INVALID_STATUS");
+                continue;
+            }
+            Map<String, Object> payment = paymentId == null ? null : paymentStore.get(paymentId);
+            if (payment == null) {
+                job.failed(paymentId, "PAYMENT_NOT_FOUND");
+                continue;
+            }
+            synchronized (payment) {
+                if (!"PENDING".equals(payment.get("status"))) {
+                    job.failed(paymentId, "NOT_PENDING");
+                    continue;
+                }
+                payment.put("status", status);
+                payment.put("processTime", new Date());
+                payment.put("settlementJob", job.getJobId());
+                publishChange(payment, "PENDING");
+            }
+            cancelPaymentTimeout(paymentId);
+            if ("SUCCESS".equals(status)) {
+                orderStatusBatcher.submit((String) payment.get("orderId"), "PAID");
+            }
+            job.succeeded();
+        }
+    }
+    
+    // 批量退款的一个分片：逐项校验并预占退款额、追加退款日志，整片只等待一次刷盘（日志按顺序刷盘，
+    // 最后一条落盘时之前的都已落盘），之后调度退款完成和订单状态更新
+    private void refundSlice(List<Map<String, Object>> slice, BulkJob job) {
+        List<String> paymentIds = new ArrayList<>(slice.size());
+        List<CompletableFuture<RefundRecord>> requests = new ArrayList<>(slice.size());
+        for (Map<String, Object> item : slice) {
+            String paymentId = (String) item.get("paymentId");
+            Map<String, Object> payment = paymentId == null ? null : paymentStore.get(paymentId);
+            if (payment == null || !"SUCCESS".equals(payment.get("status"))) {
+                job.failed(paymentId, "INVALID_PAYMENT");
+                continue;
+            }
+            double paymentAmount = (Double) payment.get("amount");
+            double amount = item.get("amount") instanceof Number
+                    ? ((Number) item.get("amount")).doubleValue()
+                    : paymentAmount - refundLedger.refundedAmount(paymentId);
+            if (amount <= 0) {
+                job.failed(paymentId, item.get("amount") == null ? "NOTHING_TO_REFUND" : "INVALID_AMOUNT");
+                continue;
+            }
+            String reason = item.get("reason") == null ? "Bulk refund " + job.getJobId() : (String) item.get("reason");
+            try {
+                requests.add(refundLedger.requestAsync(idGenerator.nextId("REFUND_"), paymentId,
+                        (String) payment.get("orderId"), paymentAmount, amount, reason));
+                paymentIds.add(paymentId);
+            } catch (IllegalArgumentException e) {
+                job.failed(paymentId, "REFUND_EXCEEDS_PAYMENT");
+            } catch (RuntimeException e) {
+                job.failed(paymentId, "LEDGER_ERROR");
+            }
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            try {
+                scheduleRefund(requests.get(i).join());
+                job.succeeded();
+            } catch (RuntimeException e) {
+                job.failed(paymentIds.get(i), "LEDGER_ERROR");
+            }
+        }
+    }
+    
+    private PaymentSnapshot snapshotOf(String paymentId) {
+        Map<String, Object> payment = paymentStore.get(paymentId);
+        if (payment == null) {
+            return null;
+        }
+        synchronized (payment) {
+            long updateTime = 0L;
+            for (String key : new String[]{"createTime", "processTime", "callbackTime"}) {
+                Object time = payment.get(key);
+                if (time instanceof Date) {
+                    updateTime = Math.max(updateTime, ((Date) time).getTime());
+                }
+            }
+            return new PaymentSnapshot((String) payment.get("orderId"), paymentId, (String) payment.get("status"),
+                    (Double) payment.get("amount"), updateTime, refundLedger.refundedAmount(paymentId) > 0);
+        }
+    }
+    
+    // 对账时支付一侧的数据，直接按块读取orderPaymentMap，不复制整张表
+    private final class LocalPayments implements PaymentSource {
+        @Override
+        public List<PaymentSnapshot> scan(String afterOrderId, int limit) {
+            Map<String, String> range = afterOrderId == null ? orderPaymentMap : orderPaymentMap.tailMap(afterOrderId, false);
+            List<PaymentSnapshot> chunk = new ArrayList<>(Math.min(limit, 1024));
+            for (String paymentId : range.values()) {
+                if (chunk.size() == limit) {
+                    break;
+                }
+                PaymentSnapshot snapshot = snapshotOf(paymentId);
+                if (snapshot != null) {
+                    chunk.add(snapshot);
+                }
+            }
+            return chunk;
         }
         
-        // 这里简化处理，实际应该有退款记录存储
+        @Override
+        public PaymentSnapshot find(String orderId) {
+            String paymentId = orderPaymentMap.get(orderId);
+            return paymentId == null ? null : snapshotOf(paymentId);
+        }
     }
     
     @Tags({
@@ -239,11 +836,22 @@ public class PaymentServiceImpl implements PaymentService {
         @Tag(key = "result", value = "returnedObj")
     })
     private Map<String, Object> enrichPaymentData(Map<String, Object> payment) {
-        Map<String, Object> enriched = new HashMap<>(payment);
+        Map<String, Object> enriched = copyOf(payment);
         // 添加一些额外信息
-        String orderId = (String) payment.get("orderId");
+        String orderId = (String) enriched.get("orderId");
         enriched.put("orderRef", orderId);
-        enriched.put("transactionTime", payment.getOrDefault("processTime", payment.get("createTime")));
+        enriched.put("transactionTime", enriched.getOrDefault("processTime", enriched.get("createTime")));
+        enriched.put("refundedAmount", refundLedger.refundedAmount((String) enriched.get("paymentId")));
         return enriched;
     }
+    
+    // 支付表中的Map由结算、回调和超时线程在持有其锁时修改，返回给调用方的是加锁复制的副本
+    private static Map<String, Object> copyOf(Map<String, Object> payment) {
+        if (payment == null) {
+            return null;
+        }
+        synchronized (payment) {
+            return new HashMap<>(payment);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,217 @@
+package com.example.demo.bulk;
+
+import com.example.demo.batch.OrderStatusBatcher;
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.refund.RefundLedger;
+import com.example.demo.service.OrderService;
+import com.example.demo.service.impl.PaymentServiceFixture;
+import com.example.demo.service.impl.PaymentServiceImpl;
+import com.example.demo.timer.HashedWheelTimer;
+import com.example.demo.wal.WriteAheadLog;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// 批量结算和退款的吞吐：java -cp <payment-service类路径>:payment-service/target/test-classes com.example.demo.bulk.BulkPaymentBenchmark [支付数] [并行度列表]
+// 每个并行度用新的支付服务和新的退款日志（组提交，落盘到临时目录），订单服务用代理代替，每次批量更新固定耗时1ms。
+// 先批量结算全部待支付的支付（另加1%不存在的支付ID），再全额退款全部支付（另有1%的支付重复出现在同一批里），
+// 核对成功和失败数；对比用同一个退款日志逐笔调用refund的吞吐
+public class BulkPaymentBenchmark {
+    
+    private static final AtomicLong RPC_CALLS = new AtomicLong();
+    private static final AtomicLong UPDATED_ORDERS = new AtomicLong();
+    
+    public static void main(String[] args) throws Exception {
+        int payments = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        String levels = args.length > 1 ? args[1] : "1,2,4,8";
+        System.out.println("payments=" + payments + " cpus=" + Runtime.getRuntime().availableProcessors());
+        
+        perItemRefunds(Math.min(payments, 2000));
+        boolean first = true;
+        for (String level : levels.split(",")) {
+            run(payments, Integer.parseInt(level.trim()), first);
+            first = false;
+        }
+    }
+    
+    // 对比：逐笔调用refund，每笔单独等待一次刷盘
+    private static void perItemRefunds(int payments) throws Exception {
+        try (Fixture fixture = new Fixture(1)) {
+            List<String> paymentIds = fixture.seed(payments, "SUCCESS");
+            long start = System.nanoTime();
+            for (String paymentId : paymentIds) {
+                fixture.service.refund(paymentId, 10.0, "bench");
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("per-item refund calls   items=%6d  %8.0f items/s%n", payments, payments * 1e9 / nanos);
+        }
+    }
+    
+    private static void run(int payments, int parallelism, boolean printProgress) throws Exception {
+        try (Fixture fixture = new Fixture(parallelism)) {
+            List<String> paymentIds = fixture.seed(payments, "PENDING");
+            int extra = Math.max(1, payments / 100);
+            RPC_CALLS.set(0L);
+            UPDATED_ORDERS.set(0L);
+            
+            List<Map<String, Object>> settlements = new ArrayList<>(payments + extra);
+            for (String paymentId : paymentIds) {
+                settlements.add(item(paymentId));
+            }
+            for (int i = 0; i < extra; i++) {
+                settlements.add(item("PAY_MISSING_" + i));
+            }
+            Map<String, Object> settled = await(fixture, fixture.service.submitBulkSettlement(settlements), printProgress);
+            check(settled, payments, extra, "PAYMENT_NOT_FOUND");
+            
+            // 重复的退款项与原项并行处理，每笔支付只能有一项成功
+            List<Map<String, Object>> refunds = new ArrayList<>(payments + extra);
+            for (String paymentId : paymentIds) {
+                refunds.add(item(paymentId));
+            }
+            for (int i = 0; i < extra; i++) {
+                refunds.add(item(paymentIds.get(i * (payments / extra))));
+            }
+            Map<String, Object> refunded = await(fixture, fixture.service.submitBulkRefund(refunds), printProgress);
+            @SuppressWarnings("unchecked")
+            Map<String, Long> reasons = (Map<String, Long>) refunded.get("failureReasons");
+            long rejected = reasons.getOrDefault("NOTHING_TO_REFUND", 0L) + reasons.getOrDefault("REFUND_EXCEEDS_PAYMENT", 0L);
+            if ((Long) refunded.get("succeeded") != payments || rejected != extra) {
+                throw new AssertionError("unexpected refund result: " + refunded);
+            }
+            
+            // 等待订单状态全部送达：结算的PAID和退款的REFUNDING，同一窗口内的两次变更被合并为一次
+            while (UPDATED_ORDERS.get() + (Long) fixture.batcher.stats().get("coalesced") < 2L * payments) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            System.out.printf("parallelism=%d  settlement %8.0f items/s  refund %8.0f items/s  order rpc calls=%d for %d updates%n",
+                    parallelism, (Double) settled.get("itemsPerSecond"), (Double) refunded.get("itemsPerSecond"),
+                    RPC_CALLS.get(), UPDATED_ORDERS.get());
+        }
+    }
+    
+    private static Map<String, Object> await(Fixture fixture, Map<String, Object> submitted, boolean printProgress) {
+        String jobId = (String) submitted.get("jobId");
+        while (true) {
+            Map<String, Object> status = fixture.service.getBulkJobStatus(jobId);
+            if (!BulkJob.RUNNING.equals(status.get("state"))) {
+                if (!BulkJob.COMPLETED.equals(status.get("state"))) {
+                    throw new AssertionError("job failed: " + status);
+                }
+                return status;
+            }
+            if (printProgress) {
+                System.out.printf("  %s progress %.1f%% (%d processed)%n", status.get("type"),
+                        (Double) status.get("progress") * 100, (Long) status.get("processed"));
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(printProgress ? 100 : 5));
+        }
+    }
+    
+    private static void check(Map<String, Object> status, long succeeded, long failed, String reason) {
+        @SuppressWarnings("unchecked")
+        Map<String, Long> reasons = (Map<String, Long>) status.get("failureReasons");
+        if ((Long) status.get("succeeded") != succeeded || (Long) status.get("failed") != failed
+                || reasons.getOrDefault(reason, 0L) != failed) {
+            throw new AssertionError("unexpected result: " + status);
+        }
+    }
+    
+    private static Map<String, Object> item(String paymentId) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("paymentId", paymentId);
+        return item;
+    }
+    
+    private static OrderService fakeOrderService() {
+        return (OrderService) Proxy.newProxyInstance(OrderService.class.getClassLoader(),
+                new Class<?>[]{OrderService.class}, (proxy, method, methodArgs) -> {
+                    switch (method.getName()) {
+                        case "updateOrderStatus":
+                            RPC_CALLS.incrementAndGet();
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                            UPDATED_ORDERS.incrementAndGet();
+                            return true;
+                        case "updateOrderStatuses":
+                            RPC_CALLS.incrementAndGet();
+                            @SuppressWarnings("unchecked")
+                            Map<String, String> statuses = (Map<String, String>) methodArgs[0];
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                            Map<String, Boolean> results = new HashMap<>();
+                            for (String orderId : statuses.keySet()) {
+                                results.put(orderId, true);
+                            }
+                            UPDATED_ORDERS.addAndGet(statuses.size());
+                            return results;
+                        default:
+                            return null;
+                    }
+                });
+    }
+    
+    private static final class Fixture implements AutoCloseable {
+        final PaymentServiceImpl service;
+        final File dir = Files.createTempDirectory("bulk-bench").toFile();
+        final HashedWheelTimer timer = new HashedWheelTimer("bench", 10, 512, 4);
+        final OrderStatusBatcher batcher = new OrderStatusBatcher(fakeOrderService(), true, 256, 5L);
+        final RefundLedger ledger = new RefundLedger(dir, 16 << 20, WriteAheadLog.Durability.GROUP, 2L, 0L);
+        final BulkPaymentProcessor processor;
+        final SnowflakeIdGenerator idGenerator = new SnowflakeIdGenerator(1);
+        
+        Fixture(int parallelism) throws Exception {
+            ledger.open();
+            processor = new BulkPaymentProcessor(parallelism, 256, 100, 100);
+            // 退款完成和支付超时推迟到测试结束之后
+            service = new PaymentServiceFixture(fakeOrderService(), timer)
+                    .idGenerator(idGenerator)
+                    .refundLedger(ledger)
+                    .orderStatusBatcher(batcher)
+                    .bulkPaymentProcessor(processor)
+                    .build();
+        }
+        
+        // 直接写入支付表，不经过createPayment，避免逐笔日志和订单查询
+        List<String> seed(int payments, String status) throws Exception {
+            Map<String, Map<String, Object>> store = PaymentServiceFixture.get(service, "paymentStore");
+            List<String> paymentIds = new ArrayList<>(payments);
+            for (int i = 0; i < payments; i++) {
+                String paymentId = idGenerator.nextId("PAY_");
+                Map<String, Object> payment = new HashMap<>();
+                payment.put("paymentId", paymentId);
+                payment.put("orderId", "ORDER_" + i);
+                payment.put("userId", "u" + (i % 1000));
+                payment.put("amount", 10.0);
+                payment.put("paymentMethod", "Alipay");
+                payment.put("status", status);
+                payment.put("createTime", new Date());
+                store.put(paymentId, payment);
+                paymentIds.add(paymentId);
+            }
+            return paymentIds;
+        }
+        
+        @Override
+        public void close() {
+            processor.close();
+            batcher.close();
+            timer.close();
+            ledger.close();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+}
\ No newline at end of file
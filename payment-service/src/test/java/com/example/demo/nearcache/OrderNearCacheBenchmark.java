@@ -0,0 +1,178 @@
+package com.example.demo.nearcache;
+
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.service.OrderService;
+import com.example.demo.shard.OrderShards;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// 订单近端缓存的命中率和查询延迟：java -cp <payment-service类路径>:payment-service/target/test-classes com.example.demo.nearcache.OrderNearCacheBenchmark [秒数] [每秒订单数]
+// 订单服务用代理代替，getOrderById固定耗时1ms，新建订单写入变更流。每个订单创建约300ms后为它查询一次订单，
+// 另有5%的查询使用不存在的订单ID（从2000个中随机取，会重复出现）、5%使用时间戳在未来的订单ID。
+// 依次比较不用缓存、只用ttl缓存（不拉取变更流）和拉取变更流（间隔200ms）三种方式的远程查询次数、命中率和find耗时
+public class OrderNearCacheBenchmark {
+    
+    private static final long RPC_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long PAY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+    private static final int UNKNOWN_IDS = 2000;
+    
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int ordersPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        System.out.println("seconds=" + seconds + " ordersPerSecond=" + ordersPerSecond
+                + " cpus=" + Runtime.getRuntime().availableProcessors());
+        run("no cache", false, false, seconds, ordersPerSecond);
+        run("ttl only", true, false, seconds, ordersPerSecond);
+        run("change feed", true, true, seconds, ordersPerSecond);
+    }
+    
+    private static void run(String name, boolean enabled, boolean changeFeed, int seconds, int ordersPerSecond) {
+        FakeOrderService remote = new FakeOrderService();
+        OrderNearCache cache = new OrderNearCache(remote.proxy(), enabled, 100000, TimeUnit.SECONDS.toMillis(300),
+                10000, TimeUnit.SECONDS.toMillis(10), 1000);
+        if (changeFeed) {
+            cache.start(200L);
+        }
+        SnowflakeIdGenerator ids = new SnowflakeIdGenerator(1);
+        Random random = new Random(1);
+        String[] unknown = new String[UNKNOWN_IDS];
+        for (int i = 0; i < UNKNOWN_IDS; i++) {
+            // 另一个worker生成的ID，格式合法但订单服务中不存在
+            unknown[i] = OrderShards.orderId(new SnowflakeIdGenerator(2).nextId(), random.nextInt(OrderShards.BUCKETS));
+        }
+        ArrayDeque<Object[]> due = new ArrayDeque<>();
+        List<Long> latencies = new ArrayList<>();
+        long tickNanos = TimeUnit.SECONDS.toNanos(1) / ordersPerSecond;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long created = 0;
+        long wrong = 0;
+        while (System.nanoTime() < end) {
+            // 按固定速率创建订单，查询落后时一次补齐
+            long now = System.nanoTime();
+            while (start + created * tickNanos <= now) {
+                String userId = "user" + random.nextInt(100000);
+                String orderId = OrderShards.orderId(ids.nextId(), OrderShards.bucketOfUser(userId));
+                remote.create(orderId, userId);
+                due.add(new Object[]{orderId, now + PAY_DELAY_NANOS});
+                created++;
+            }
+            Object[] head = due.peek();
+            if (head == null || (Long) head[1] > now) {
+                LockSupport.parkNanos(100000L);
+                continue;
+            }
+            due.poll();
+            String orderId = (String) head[0];
+            int kind = random.nextInt(100);
+            boolean exists = kind >= 10;
+            if (kind < 5) {
+                orderId = unknown[random.nextInt(UNKNOWN_IDS)];
+            } else if (kind < 10) {
+                long future = SnowflakeIdGenerator.minIdAt(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+                orderId = OrderShards.orderId(future + random.nextInt(1 << 20), random.nextInt(OrderShards.BUCKETS));
+            }
+            long findStart = System.nanoTime();
+            OrderNearCache.OrderSummary summary = cache.find(orderId);
+            latencies.add(System.nanoTime() - findStart);
+            if ((summary != null) != exists) {
+                wrong++;
+            }
+        }
+        cache.close();
+        
+        long[] sorted = new long[latencies.size()];
+        long total = 0L;
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+            total += sorted[i];
+        }
+        Arrays.sort(sorted);
+        Map<String, Object> stats = cache.stats();
+        System.out.printf("%-11s %6d lookups  %6d remote gets  hit ratio %5.1f%%  p50 %7.1f us  p99 %7.1f us  avg %7.1f us  %d polls%n",
+                name, sorted.length, remote.gets.get(), 100 * (Double) stats.get("hitRatio"),
+                sorted[sorted.length / 2] / 1000.0, sorted[sorted.length * 99 / 100] / 1000.0,
+                total / 1000.0 / sorted.length, remote.polls.get());
+        if (wrong > 0) {
+            throw new AssertionError(wrong + " lookups returned a wrong answer");
+        }
+    }
+    
+    // 订单服务：订单表和只保存新建事件的变更流
+    private static final class FakeOrderService {
+        final Map<String, Map<String, Object>> orders = new ConcurrentHashMap<>();
+        final List<Map<String, Object>> events = new ArrayList<>();
+        final long streamId = System.nanoTime();
+        final AtomicLong gets = new AtomicLong();
+        final AtomicLong polls = new AtomicLong();
+        
+        void create(String orderId, String userId) {
+            Map<String, Object> order = new HashMap<>();
+            order.put("orderId", orderId);
+            order.put("userId", userId);
+            order.put("totalAmount", 399.98);
+            order.put("status", "PENDING_PAYMENT");
+            orders.put(orderId, order);
+            Map<String, Object> event = new HashMap<>();
+            event.put("orderId", orderId);
+            event.put("userId", userId);
+            event.put("totalAmount", 399.98);
+            event.put("newStatus", "PENDING_PAYMENT");
+            synchronized (events) {
+                event.put("sequence", events.size() + 1L);
+                events.add(event);
+            }
+        }
+        
+        Map<String, Object> getOrderById(String orderId) {
+            gets.incrementAndGet();
+            long until = System.nanoTime() + RPC_NANOS;
+            while (System.nanoTime() < until) {
+                LockSupport.parkNanos(until - System.nanoTime());
+            }
+            return orders.get(orderId);
+        }
+        
+        Map<String, Object> poll(long afterSequence, int maxEvents) {
+            polls.incrementAndGet();
+            List<Map<String, Object>> batch;
+            synchronized (events) {
+                int from = (int) Math.min(afterSequence, events.size());
+                batch = new ArrayList<>(events.subList(from, Math.min(events.size(), from + maxEvents)));
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("streamId", streamId);
+            result.put("events", batch);
+            result.put("nextSequence", afterSequence + batch.size());
+            return result;
+        }
+        
+        OrderService proxy() {
+            return (OrderService) Proxy.newProxyInstance(OrderService.class.getClassLoader(),
+                    new Class<?>[]{OrderService.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getOrderById":
+                                return getOrderById((String) args[0]);
+                            case "getOrderByIdAsync":
+                                return CompletableFuture.supplyAsync(() -> getOrderById((String) args[0]));
+                            case "pollOrderChanges":
+                                return poll((Long) args[0], (Integer) args[1]);
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,252 @@
+package com.example.demo.reconcile;
+
+import com.example.demo.service.OrderService;
+import com.example.demo.shard.OrderShards;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 对账基准：java -Xmx64m -cp ... com.example.demo.reconcile.ReconciliationBenchmark [订单数] [块大小]
+// 订单和支付两侧都按需生成，不在内存中保存全集；按固定规则注入各类不一致，先完整跑一遍核对计数和吞吐，
+// 再在中途停止、从检查点继续，核对两段的累计结果与完整运行一致。运行过程中打印堆占用
+public class ReconciliationBenchmark {
+    
+    private static final long BASE_ID = 1L << 40;
+    
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        Map<String, Long> expected = expectedMismatches(orders);
+        System.out.println("orders=" + orders + " chunkSize=" + chunkSize + " expected mismatches=" + expected);
+        
+        File dir = Files.createTempDirectory("reconcile").toFile();
+        OrderService orderService = orderService(orders);
+        PaymentSource payments = new SyntheticPayments(orders);
+        
+        // 完整运行
+        PaymentReconciler reconciler = new PaymentReconciler(orderService, dir, chunkSize, 0L, 20, 1000L);
+        reconciler.start(payments, false);
+        Map<String, Object> full = await(reconciler);
+        reconciler.close();
+        System.out.println("full run: state=" + full.get("state") + " orders=" + full.get("ordersScanned")
+                + " payments=" + full.get("paymentsScanned") + " matched=" + full.get("matched")
+                + " elapsed=" + full.get("elapsedMillis") + "ms records/s=" + String.format("%.0f", (Double) full.get("recordsPerSecond")));
+        System.out.println("  mismatches=" + full.get("mismatches") + " -> " + (expected.equals(full.get("mismatches")) ? "OK" : "MISMATCH"));
+        
+        // 运行到约四成时停止，再从检查点继续
+        reconciler = new PaymentReconciler(orderService, dir, chunkSize, 0L, 20, 200L);
+        reconciler.start(payments, false);
+        while ((Long) reconciler.status().get("ordersScanned") < orders * 2L / 5) {
+            Thread.sleep(20);
+        }
+        reconciler.close();
+        Map<String, Object> stopped = reconciler.status();
+        System.out.println("stopped: state=" + stopped.get("state") + " orders=" + stopped.get("ordersScanned")
+                + " checkpoint=" + stopped.get("checkpoint"));
+        reconciler = new PaymentReconciler(orderService, dir, chunkSize, 0L, 20, 1000L);
+        reconciler.start(payments, true);
+        Map<String, Object> resumed = await(reconciler);
+        reconciler.close();
+        boolean same = full.get("ordersScanned").equals(resumed.get("ordersScanned"))
+                && full.get("paymentsScanned").equals(resumed.get("paymentsScanned"))
+                && full.get("matched").equals(resumed.get("matched"))
+                && full.get("mismatches").equals(resumed.get("mismatches"));
+        System.out.println("resumed: state=" + resumed.get("state") + " resumed=" + resumed.get("resumed")
+                + " orders=" + resumed.get("ordersScanned") + " payments=" + resumed.get("paymentsScanned")
+                + " matched=" + resumed.get("matched") + " records/s=" + String.format("%.0f", (Double) resumed.get("recordsPerSecond"))
+                + " -> totals " + (same ? "equal to full run" : "DIFFER from full run"));
+        System.out.println("sample: " + ((List<?>) full.get("samples")).get(0));
+        System.out.println("checkpoint left after completion: " + new File(dir, "reconcile.checkpoint").exists());
+    }
+    
+    private static Map<String, Object> await(PaymentReconciler reconciler) throws InterruptedException {
+        long nextReport = System.nanoTime();
+        while (true) {
+            Map<String, Object> status = reconciler.status();
+            if (!"RUNNING".equals(status.get("state"))) {
+                return status;
+            }
+            if (System.nanoTime() >= nextReport) {
+                System.out.printf("  scanned orders=%d payments=%d heapUsed=%dMB%n",
+                        status.get("ordersScanned"), status.get("paymentsScanned"), usedHeapMb());
+                nextReport += 5_000_000_000L;
+            }
+            Thread.sleep(50);
+        }
+    }
+    
+    private static long usedHeapMb() {
+        Runtime runtime = Runtime.getRuntime();
+        return (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+    }
+    
+    // 第i个订单的ID，相邻订单之间留出空位给没有订单的支付
+    private static String orderId(long i) {
+        return OrderShards.orderId(BASE_ID + i * 4, (int) (i % OrderShards.BUCKETS));
+    }
+    
+    private static String strayOrderId(long i) {
+        return OrderShards.orderId(BASE_ID + i * 4 + 2, (int) (i % OrderShards.BUCKETS));
+    }
+    
+    private static boolean hasStrayPayment(long i) {
+        return i % 10000 == 3;
+    }
+    
+    private static double amount(long i) {
+        return 10 + i % 500;
+    }
+    
+    // 每5个订单有1个没有支付；支付一成失败，成功的支付中每50笔有1笔退款
+    private static PaymentSnapshot payment(long i) {
+        if (i % 5 == 0) {
+            return null;
+        }
+        String status = i % 10 == 1 ? "FAILED" : "SUCCESS";
+        double amount = i % 1000 == 17 ? amount(i) + 1 : amount(i);
+        return new PaymentSnapshot(orderId(i), "PAY_" + i, status, amount, 0L, i % 50 == 2);
+    }
+    
+    // 订单状态与支付一致，按i % 1000注入各类不一致
+    private static String orderStatus(long i) {
+        PaymentSnapshot payment = payment(i);
+        if (payment == null) {
+            return i % 1000 == 15 ? "PAID" : "PENDING_PAYMENT";
+        }
+        if (!"SUCCESS".equals(payment.getStatus())) {
+            return i % 1000 == 11 ? "PAID" : "CANCELLED";
+        }
+        if (payment.isRefunded()) {
+            return i % 1000 == 52 ? "PAID" : "REFUNDING";
+        }
+        if (i % 1000 == 7) {
+            return "PENDING_PAYMENT";
+        }
+        return i % 1000 == 23 ? "REFUNDING" : "PAID";
+    }
+    
+    private static Map<String, Long> expectedMismatches(int orders) {
+        Map<String, Long> expected = new LinkedHashMap<>();
+        for (String type : new String[]{PaymentReconciler.ORDER_NOT_PAID, PaymentReconciler.PAID_WITHOUT_SUCCESS,
+                PaymentReconciler.PAID_WITHOUT_PAYMENT, PaymentReconciler.REFUND_NOT_REFLECTED,
+                PaymentReconciler.REFUNDING_WITHOUT_REFUND, PaymentReconciler.AMOUNT_MISMATCH,
+                PaymentReconciler.PAYMENT_WITHOUT_ORDER}) {
+            expected.put(type, 0L);
+        }
+        for (long i = 0; i < orders; i++) {
+            PaymentReconciler.OrderRow order = new PaymentReconciler.OrderRow(orderId(i), orderStatus(i), amount(i), 0L);
+            String type = PaymentReconciler.classify(order, payment(i));
+            if (type != null) {
+                expected.merge(type, 1L, Long::sum);
+            }
+            if (hasStrayPayment(i)) {
+                expected.merge(PaymentReconciler.PAYMENT_WITHOUT_ORDER, 1L, Long::sum);
+            }
+        }
+        return expected;
+    }
+    
+    // 只实现对账用到的两个方法
+    private static OrderService orderService(int orders) {
+        return (OrderService) Proxy.newProxyInstance(OrderService.class.getClassLoader(), new Class<?>[]{OrderService.class},
+                (proxy, method, args) -> {
+                    if ("scanOrderStatuses".equals(method.getName())) {
+                        String cursor = (String) args[0];
+                        int limit = (Integer) args[1];
+                        long from = cursor == null ? 0L : (Long.parseLong(cursor) - BASE_ID) / 4 + 1;
+                        long to = Math.min(orders, from + limit);
+                        List<String> orderIds = new ArrayList<>(limit);
+                        List<String> statuses = new ArrayList<>(limit);
+                        List<Double> totalAmounts = new ArrayList<>(limit);
+                        List<Long> updateTimes = new ArrayList<>(limit);
+                        for (long i = from; i < to; i++) {
+                            orderIds.add(orderId(i));
+                            statuses.add(orderStatus(i));
+                            totalAmounts.add(amount(i));
+                            updateTimes.add(0L);
+                        }
+                        Map<String, Object> chunk = new HashMap<>();
+                        chunk.put("orderIds", orderIds);
+                        chunk.put("statuses", statuses);
+                        chunk.put("totalAmounts", totalAmounts);
+                        chunk.put("updateTimes", updateTimes);
+                        long last = to > from ? to - 1 : from - 1;
+                        chunk.put("nextCursor", last >= 0 ? String.valueOf(BASE_ID + last * 4) : null);
+                        chunk.put("hasMore", to < orders);
+                        return chunk;
+                    }
+                    if ("getOrderById".equals(method.getName())) {
+                        String orderId = (String) args[0];
+                        long id = OrderShards.idOf(orderId) - BASE_ID;
+                        if (id % 4 != 0 || id / 4 >= orders) {
+                            return null;
+                        }
+                        long i = id / 4;
+                        Map<String, Object> order = new HashMap<>();
+                        order.put("orderId", orderId);
+                        order.put("status", orderStatus(i));
+                        order.put("totalAmount", amount(i));
+                        return order;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+    
+    private static final class SyntheticPayments implements PaymentSource {
+        private final int orders;
+        
+        SyntheticPayments(int orders) {
+            this.orders = orders;
+        }
+        
+        @Override
+        public List<PaymentSnapshot> scan(String afterOrderId, int limit) {
+            List<PaymentSnapshot> chunk = new ArrayList<>(limit);
+            long i = 0L;
+            boolean strayOnly = false;
+            if (afterOrderId != null) {
+                long offset = OrderShards.idOf(afterOrderId) - BASE_ID;
+                i = offset / 4;
+                // 上一块停在订单i的支付上时，从订单i之后的空位继续；停在空位上时从下一个订单继续
+                strayOnly = offset % 4 == 0;
+                if (!strayOnly) {
+                    i++;
+                }
+            }
+            for (; i < orders && chunk.size() < limit; i++) {
+                if (!strayOnly) {
+                    PaymentSnapshot payment = payment(i);
+                    if (payment != null) {
+                        chunk.add(payment);
+                        if (chunk.size() == limit) {
+                            break;
+                        }
+                    }
+                }
+                strayOnly = false;
+                if (hasStrayPayment(i)) {
+                    chunk.add(new PaymentSnapshot(strayOrderId(i), "PAY_STRAY_" + i, "SUCCESS", 1.0, 0L, false));
+                }
+            }
+            return chunk;
+        }
+        
+        @Override
+        public PaymentSnapshot find(String orderId) {
+            long offset = OrderShards.idOf(orderId) - BASE_ID;
+            if (offset / 4 >= orders) {
+                return null;
+            }
+            if (offset % 4 == 2 && hasStrayPayment(offset / 4)) {
+                return new PaymentSnapshot(orderId, "PAY_STRAY_" + offset / 4, "SUCCESS", 1.0, 0L, false);
+            }
+            return offset % 4 == 0 ? payment(offset / 4) : null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,201 @@
+package com.example.demo.refund;
+
+import com.example.demo.wal.WriteAheadLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// 退款账本的持续写入和启动恢复，分三种运行方式：
+//   java -cp <payment-service类路径>:payment-service/target/test-classes com.example.demo.refund.RefundLedgerBenchmark throughput [线程数列表] [秒数]
+//   java -cp ... com.example.demo.refund.RefundLedgerBenchmark write <退款数> <目录> [snapshot]
+//   java -Xmx2g -cp ... com.example.demo.refund.RefundLedgerBenchmark recover <目录> <退款数>
+// throughput对group和async两种落盘方式、每个线程数各用新的临时目录，每个线程持续申请退款并完成其中一半，报告每秒申请数；
+// 之后16个线程对100笔10.00的支付并发申请5000笔1.00的退款，核对恰好接受1000笔。
+// write用async方式写入退款（映射的日志在页缓存中，进程退出后仍在）并完成其中一半，带snapshot时写完后做一次快照，
+// 再追加10000笔退款，随后直接退出，不做停机快照；
+// recover打开同一目录，报告从快照恢复的退款数、重放的日志记录数和恢复耗时，并核对退款总数（write的退款数加10000）、
+// 每笔退款的状态和每笔支付的累计退款额
+public class RefundLedgerBenchmark {
+    
+    private static final int SEGMENT_SIZE = 16 << 20;
+    private static final int REFUNDS_PER_PAYMENT = 4;
+    private static final int TAIL_REFUNDS = 10000;
+    
+    public static void main(String[] args) throws Exception {
+        if ("write".equals(args[0])) {
+            write(Integer.parseInt(args[1]), new File(args[2]), args.length > 3 && "snapshot".equals(args[3]));
+        } else if ("recover".equals(args[0])) {
+            recover(new File(args[1]), Integer.parseInt(args[2]));
+        } else {
+            String levels = args.length > 1 ? args[1] : "1,16,64";
+            int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+            System.out.println("cpus=" + Runtime.getRuntime().availableProcessors());
+            for (WriteAheadLog.Durability durability : WriteAheadLog.Durability.values()) {
+                for (String level : levels.split(",")) {
+                    throughput(durability, Integer.parseInt(level.trim()), seconds);
+                }
+            }
+            race();
+        }
+    }
+    
+    private static void throughput(WriteAheadLog.Durability durability, int threads, int seconds) throws Exception {
+        File dir = Files.createTempDirectory("refund-bench").toFile();
+        RefundLedger ledger = open(dir, durability);
+        AtomicLong requests = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; System.nanoTime() < deadline; i++) {
+                    String refundId = "R" + worker + "_" + i;
+                    ledger.request(refundId, "PAY_" + worker + "_" + i, "ORDER_" + i, 100.0, 10.0, "bench");
+                    if (i % 2 == 0) {
+                        ledger.complete(refundId);
+                    }
+                    requests.incrementAndGet();
+                }
+            });
+            thread.start();
+            workers.add(thread);
+        }
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        System.out.printf("%-5s %3d threads  %8.0f req/s%n", durability.name().toLowerCase(), threads,
+                requests.get() / (double) seconds);
+        ledger.close();
+        delete(dir);
+    }
+    
+    private static void race() throws Exception {
+        File dir = Files.createTempDirectory("refund-bench").toFile();
+        RefundLedger ledger = open(dir, WriteAheadLog.Durability.GROUP);
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(16);
+        for (int t = 0; t < 16; t++) {
+            int worker = t;
+            new Thread(() -> {
+                for (int i = worker; i < 5000; i += 16) {
+                    try {
+                        ledger.request("R" + i, "PAY_" + (i % 100), "ORDER_" + (i % 100), 10.0, 1.0, "race");
+                        accepted.incrementAndGet();
+                    } catch (IllegalArgumentException e) {
+                        // 超出可退金额
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        double max = 0.0;
+        for (int p = 0; p < 100; p++) {
+            max = Math.max(max, ledger.refundedAmount("PAY_" + p));
+        }
+        System.out.printf("race: %d of 5000 accepted, max refunded %.2f%n", accepted.get(), max);
+        ledger.close();
+        delete(dir);
+        if (accepted.get() != 1000 || max > 10.0) {
+            throw new AssertionError("refund cap violated");
+        }
+    }
+    
+    private static void write(int refunds, File dir, boolean snapshot) throws Exception {
+        delete(dir);
+        RefundLedger ledger = open(dir, WriteAheadLog.Durability.ASYNC);
+        long start = System.nanoTime();
+        append(ledger, 0, refunds);
+        System.out.printf("write: %d refunds, %d completions in %d ms%n", refunds, (refunds + 1) / 2,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (snapshot) {
+            start = System.nanoTime();
+            ledger.snapshot();
+            System.out.printf("snapshot: %d ms, %d MB; %d MB of log left%n",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), size(dir, "snapshot-") >> 20,
+                    (size(dir, "") - size(dir, "snapshot-")) >> 20);
+        }
+        // 快照之后的日志在恢复时重放
+        append(ledger, refunds, refunds + TAIL_REFUNDS);
+        // 模拟进程崩溃：不调用close，没有停机快照
+        System.exit(0);
+    }
+    
+    // 每笔支付100.00，依次申请4笔10.00的退款，偶数号的退款随即完成
+    private static void append(RefundLedger ledger, int from, int to) {
+        for (int i = from; i < to; i++) {
+            ledger.request(refundId(i), paymentId(i), "ORDER_" + i / REFUNDS_PER_PAYMENT, 100.0, 10.0, "bench");
+            if (i % 2 == 0) {
+                ledger.complete(refundId(i));
+            }
+        }
+    }
+    
+    private static void recover(File dir, int refunds) throws Exception {
+        RefundLedger ledger = open(dir, WriteAheadLog.Durability.GROUP);
+        System.out.println("recover: " + ledger.stats());
+        int wrong = Math.abs((Integer) ledger.stats().get("refunds") - refunds);
+        for (int i = 0; i < refunds; i++) {
+            RefundRecord record = ledger.get(refundId(i));
+            String expected = i % 2 == 0 ? RefundRecord.COMPLETED : RefundRecord.PROCESSING;
+            if (record == null || !expected.equals(record.getStatus())) {
+                wrong++;
+            }
+        }
+        for (int i = 0; i < refunds; i += REFUNDS_PER_PAYMENT) {
+            int count = Math.min(REFUNDS_PER_PAYMENT, refunds - i);
+            if (Math.abs(ledger.refundedAmount(paymentId(i)) - count * 10.0) > 0.001
+                    || ledger.listByPayment(paymentId(i)).size() != count) {
+                wrong++;
+            }
+        }
+        if (wrong > 0) {
+            throw new AssertionError(wrong + " refunds or payments recovered wrong");
+        }
+        System.exit(0);
+    }
+    
+    private static RefundLedger open(File dir, WriteAheadLog.Durability durability) throws IOException {
+        RefundLedger ledger = new RefundLedger(dir, SEGMENT_SIZE, durability, 2L, 0L);
+        ledger.open();
+        return ledger;
+    }
+    
+    private static String refundId(int i) {
+        return "REFUND_" + i;
+    }
+    
+    private static String paymentId(int i) {
+        return "PAY_" + i / REFUNDS_PER_PAYMENT;
+    }
+    
+    private static long size(File dir, String prefix) {
+        long size = 0L;
+        File[] files = dir.listFiles((d, name) -> name.startsWith(prefix));
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+    
+    private static void delete(File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
\ No newline at end of file
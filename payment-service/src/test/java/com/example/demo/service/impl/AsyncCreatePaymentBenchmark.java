@@ -0,0 +1,129 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.service.OrderService;
+import com.example.demo.timer.HashedWheelTimer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 同步/异步createPayment对比：java -cp <payment-service类路径>:payment-service/target/test-classes com.example.demo.service.impl.AsyncCreatePaymentBenchmark [请求数] [并发数] [订单服务延迟ms]
+// 关闭近端缓存，每次创建支付都要远程校验订单；订单服务用代理模拟，同步调用在调用线程上sleep，异步调用由单个回调线程在延迟后完成。
+// 同一并发度下分别用200线程的业务线程池（Dubbo默认）和与并发数相同的线程池跑同步接口，再用200线程池跑异步接口，
+// 输出吞吐、业务线程同时被占用的峰值和JVM线程数峰值
+public class AsyncCreatePaymentBenchmark {
+    
+    private static final int DUBBO_THREADS = 200;
+    
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 20L;
+        System.out.println("requests=" + requests + " concurrency=" + concurrency + " orderServiceLatency=" + latencyMillis + "ms");
+        
+        ScheduledExecutorService remote = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "order-service-callback");
+            thread.setDaemon(true);
+            return thread;
+        });
+        HashedWheelTimer timer = new HashedWheelTimer("benchmark", 100, 512, 4);
+        OrderService orders = remoteOrderService(remote, latencyMillis);
+        
+        // 预热
+        run("warmup", new PaymentServiceFixture(orders, timer).build(), DUBBO_THREADS, Math.min(requests, 5000), concurrency, true);
+        run("warmup", new PaymentServiceFixture(orders, timer).build(), DUBBO_THREADS, Math.min(requests, 5000), concurrency, false);
+        
+        run("sync, " + DUBBO_THREADS + " threads", new PaymentServiceFixture(orders, timer).build(), DUBBO_THREADS, requests, concurrency, false);
+        run("sync, " + concurrency + " threads", new PaymentServiceFixture(orders, timer).build(), concurrency, requests, concurrency, false);
+        run("async, " + DUBBO_THREADS + " threads", new PaymentServiceFixture(orders, timer).build(), DUBBO_THREADS, requests, concurrency, true);
+        
+        remote.shutdownNow();
+        timer.close();
+    }
+    
+    // 客户端最多保持concurrency个未完成请求，请求交给业务线程池执行
+    private static void run(String name, PaymentServiceImpl service, int threads, int requests, int concurrency,
+                            boolean async) throws Exception {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicInteger busy = new AtomicInteger();
+        AtomicInteger peakBusy = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        // 等上一轮线程池的线程退出后再重置线程数峰值
+        Thread.sleep(500);
+        threadBean.resetPeakThreadCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            String orderId = "ORDER_" + name.hashCode() + "_" + System.nanoTime() + "_" + i;
+            inFlight.acquire();
+            pool.execute(() -> {
+                int current = busy.incrementAndGet();
+                peakBusy.accumulateAndGet(current, Math::max);
+                try {
+                    if (async) {
+                        CompletableFuture<Map<String, Object>> payment = service.createPaymentAsync(orderId, "u1", 99.9, "Alipay");
+                        payment.whenComplete((result, error) -> {
+                            if (error != null) {
+                                errors.incrementAndGet();
+                            }
+                            inFlight.release();
+                        });
+                    } else {
+                        try {
+                            service.createPayment(orderId, "u1", 99.9, "Alipay");
+                        } catch (RuntimeException e) {
+                            errors.incrementAndGet();
+                        }
+                        inFlight.release();
+                    }
+                } finally {
+                    busy.decrementAndGet();
+                }
+            });
+        }
+        inFlight.acquire(concurrency);
+        long elapsed = System.nanoTime() - start;
+        int peakThreads = threadBean.getPeakThreadCount();
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        if (name.startsWith("warmup")) {
+            return;
+        }
+        System.out.printf("%-20s throughput=%8.0f req/s  peakBusyWorkers=%5d  peakJvmThreads=%5d  errors=%d%n",
+                name, requests / (elapsed / 1e9), peakBusy.get(), peakThreads, errors.get());
+    }
+    
+    // 同步getOrderById阻塞调用线程，异步getOrderByIdAsync在回调线程上完成
+    private static OrderService remoteOrderService(ScheduledExecutorService remote, long latencyMillis) {
+        return (OrderService) Proxy.newProxyInstance(OrderService.class.getClassLoader(),
+                new Class<?>[]{OrderService.class}, (proxy, method, methodArgs) -> {
+                    if ("getOrderById".equals(method.getName())) {
+                        Thread.sleep(latencyMillis);
+                        return order((String) methodArgs[0]);
+                    }
+                    if ("getOrderByIdAsync".equals(method.getName())) {
+                        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+                        String orderId = (String) methodArgs[0];
+                        remote.schedule(() -> future.complete(order(orderId)), latencyMillis, TimeUnit.MILLISECONDS);
+                        return future;
+                    }
+                    return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+                });
+    }
+    
+    private static Map<String, Object> order(String orderId) {
+        Map<String, Object> order = new HashMap<>();
+        order.put("orderId", orderId);
+        return order;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,184 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.idempotency.IdempotencyCache;
+import com.example.demo.nearcache.OrderNearCache;
+import com.example.demo.service.OrderService;
+import com.example.demo.timer.HashedWheelTimer;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// 并发重试测试：java -cp <payment-service类路径>:payment-service/target/test-classes com.example.demo.service.impl.CreatePaymentContention [并发数] [订单数]
+// 每个订单由全部线程同时调用createPayment，模拟消费者超时重试；订单服务用代理代替并放慢订单查询以扩大竞争窗口。
+// 检查每个订单只创建一笔支付、所有调用拿到同一个支付ID、订单服务只被调用一次，失败时所有调用都收到同一个异常
+public class CreatePaymentContention {
+    
+    private static final Map<String, AtomicInteger> ORDER_LOOKUPS = new ConcurrentHashMap<>();
+    private static final Set<String> MISSING_ORDERS = ConcurrentHashMap.newKeySet();
+    // 模拟订单服务异步调用的响应线程
+    private static final ExecutorService REMOTE = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "order-service-callback");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int orders = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        
+        HashedWheelTimer timer = new HashedWheelTimer("contention", 10, 512, 4);
+        PaymentServiceImpl service = newService(timer, new IdempotencyCache<>(TimeUnit.MINUTES.toMillis(10), 100000));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        
+        check("same order, no key", run(pool, threads, orders,
+                orderId -> service.createPayment(orderId, "u1", 99.9, "Alipay")));
+        check("same order, same key", run(pool, threads, orders,
+                orderId -> service.createPayment(orderId, "u1", 99.9, "Alipay", "key-" + orderId)));
+        check("same order, key per retry", run(pool, threads, orders,
+                orderId -> service.createPayment(orderId, "u1", 99.9, "Alipay", "key-" + orderId + "-" + Thread.currentThread().getId())));
+        
+        // 同一个键换了参数
+        String orderId = "ORDER_REUSE";
+        service.createPayment(orderId, "u1", 10.0, "Alipay", "reused");
+        try {
+            service.createPayment(orderId, "u1", 20.0, "Alipay", "reused");
+            throw new AssertionError("key reuse with different amount accepted");
+        } catch (IllegalArgumentException expected) {
+            System.out.println("key reuse with different parameters rejected: " + expected.getMessage());
+        }
+        
+        // 订单不存在：所有并发调用收到同一个异常，之后可以用同一个键重试
+        String missing = "ORDER_MISSING";
+        MISSING_ORDERS.add(missing);
+        ORDER_LOOKUPS.remove(missing);
+        Result failed = runOnce(pool, threads, missing, id -> service.createPayment(id, "u1", 1.0, "Alipay", "missing"));
+        if (failed.errors != threads || ORDER_LOOKUPS.get(missing).get() != 1) {
+            throw new AssertionError("failed creation: errors=" + failed.errors + " lookups=" + ORDER_LOOKUPS.get(missing));
+        }
+        MISSING_ORDERS.remove(missing);
+        // 等待近端缓存中的不存在记录过期
+        Thread.sleep(200);
+        service.createPayment(missing, "u1", 1.0, "Alipay", "missing");
+        System.out.println("missing order: " + threads + " callers failed with 1 order lookup, retry with same key succeeded");
+        
+        // 容量上限
+        IdempotencyCache<Map<String, Object>> bounded = new IdempotencyCache<>(TimeUnit.MINUTES.toMillis(10), 1000);
+        for (int i = 0; i < 5000; i++) {
+            bounded.execute("k" + i, null, HashMap::new);
+        }
+        if (bounded.size() > 1000) {
+            throw new AssertionError("cache exceeded bound: " + bounded.size());
+        }
+        System.out.println("bounded cache after 5000 keys: " + bounded.stats());
+        
+        pool.shutdown();
+        timer.close();
+        System.out.println("OK");
+    }
+    
+    private static Result run(ExecutorService pool, int threads, int orders, Function<String, Map<String, Object>> call) throws Exception {
+        Result total = new Result();
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            String orderId = "ORDER_" + System.nanoTime() + "_" + i;
+            Result result = runOnce(pool, threads, orderId, call);
+            total.errors += result.errors;
+            total.paymentIds += result.paymentIds;
+            total.lookups += ORDER_LOOKUPS.get(orderId).get();
+            total.orders++;
+        }
+        total.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return total;
+    }
+    
+    // 全部线程在同一时刻对同一个订单发起调用
+    private static Result runOnce(ExecutorService pool, int threads, String orderId,
+                                  Function<String, Map<String, Object>> call) throws Exception {
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        Future<?>[] futures = new Future<?>[threads];
+        for (int t = 0; t < threads; t++) {
+            futures[t] = pool.submit(() -> {
+                ready.countDown();
+                go.await();
+                return call.apply(orderId).get("paymentId");
+            });
+        }
+        ready.await();
+        go.countDown();
+        Result result = new Result();
+        Set<Object> paymentIds = new HashSet<>();
+        for (Future<?> future : futures) {
+            try {
+                paymentIds.add(future.get());
+            } catch (java.util.concurrent.ExecutionException e) {
+                result.errors++;
+            }
+        }
+        result.paymentIds = paymentIds.size();
+        return result;
+    }
+    
+    private static void check(String name, Result result) {
+        System.out.printf("%-26s orders=%d distinctPayments/order=%.2f orderLookups/order=%.2f errors=%d time=%dms%n",
+                name, result.orders, (double) result.paymentIds / result.orders, (double) result.lookups / result.orders,
+                result.errors, result.millis);
+        if (result.paymentIds != result.orders || result.lookups != result.orders || result.errors != 0) {
+            throw new AssertionError(name + " failed");
+        }
+    }
+    
+    private static PaymentServiceImpl newService(HashedWheelTimer timer, IdempotencyCache<Map<String, Object>> cache) throws Exception {
+        OrderService orders = (OrderService) Proxy.newProxyInstance(OrderService.class.getClassLoader(),
+                new Class<?>[]{OrderService.class}, (proxy, method, methodArgs) -> {
+                    if ("getOrderById".equals(method.getName())) {
+                        return lookupOrder((String) methodArgs[0]);
+                    }
+                    if ("getOrderByIdAsync".equals(method.getName())) {
+                        String orderId = (String) methodArgs[0];
+                        return CompletableFuture.supplyAsync(() -> lookupOrder(orderId), REMOTE);
+                    }
+                    return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+                });
+        return new PaymentServiceFixture(orders, timer)
+                .orderNearCache(new OrderNearCache(orders, true, 100000, TimeUnit.MINUTES.toMillis(10), 10000, 100L, 1000))
+                .idempotencyCache(cache)
+                .delays(1000L, 1500L, 30000L)
+                .build();
+    }
+    
+    private static Map<String, Object> lookupOrder(String orderId) {
+        ORDER_LOOKUPS.computeIfAbsent(orderId, k -> new AtomicInteger()).incrementAndGet();
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (MISSING_ORDERS.contains(orderId)) {
+            return null;
+        }
+        Map<String, Object> order = new HashMap<>();
+        order.put("orderId", orderId);
+        return order;
+    }
+    
+    private static final class Result {
+        int orders;
+        int paymentIds;
+        int lookups;
+        int errors;
+        long millis;
+    }
+}
\ No newline at end of file
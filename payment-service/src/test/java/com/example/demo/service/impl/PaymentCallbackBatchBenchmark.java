@@ -0,0 +1,133 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.batch.OrderStatusBatcher;
+import com.example.demo.service.OrderService;
+import com.example.demo.timer.HashedWheelTimer;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// 回调批处理基准：java -cp <payment-service类路径>:payment-service/target/test-classes com.example.demo.service.impl.PaymentCallbackBatchBenchmark [回调数] [并发数] [RPC耗时微秒]
+// 订单服务用代理代替，每次调用固定耗时（批量调用每个订单再加2微秒）。分别用逐个调用、微批和批量回调接口处理同样数量的SUCCESS回调，
+// 统计订单服务调用次数和从第一个回调到最后一个订单状态送达的吞吐
+public class PaymentCallbackBatchBenchmark {
+    
+    private static final AtomicLong RPC_CALLS = new AtomicLong();
+    private static final AtomicLong UPDATED_ORDERS = new AtomicLong();
+    private static long rpcNanos;
+    
+    public static void main(String[] args) throws Exception {
+        int callbacks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        rpcNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 2 ? Long.parseLong(args[2]) : 1000);
+        
+        run("per-call", callbacks, threads, false, 1, 0L);
+        run("micro-batch 256/5ms", callbacks, threads, true, 1, 5L);
+        run("micro-batch 64/1ms", callbacks, threads, true, 1, 1L);
+        run("callback batches of 100", callbacks, threads, true, 100, 5L);
+    }
+    
+    private static void run(String name, int callbacks, int threads, boolean batchEnabled, int callbackBatch, long lingerMillis) throws Exception {
+        OrderService orders = fakeOrderService();
+        HashedWheelTimer timer = new HashedWheelTimer("bench", 10, 512, 4);
+        OrderStatusBatcher batcher = new OrderStatusBatcher(orders, batchEnabled, lingerMillis == 1L ? 64 : 256, lingerMillis);
+        // 结算和超时任务推迟到测试结束之后，只统计回调产生的订单更新
+        PaymentServiceImpl service = new PaymentServiceFixture(orders, timer)
+                .orderStatusBatcher(batcher)
+                .delays(TimeUnit.HOURS.toMillis(1), 1500L, TimeUnit.HOURS.toMillis(1))
+                .build();
+        List<String> paymentIds = new ArrayList<>(callbacks);
+        for (int i = 0; i < callbacks; i++) {
+            paymentIds.add((String) service.createPayment("ORDER_" + name.hashCode() + "_" + i, "u" + (i % 1000), 10.0, "Alipay").get("paymentId"));
+        }
+        RPC_CALLS.set(0L);
+        UPDATED_ORDERS.set(0L);
+        
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        int chunk = (callbacks + threads - 1) / threads;
+        for (int t = 0; t < threads; t++) {
+            List<String> mine = paymentIds.subList(Math.min(callbacks, t * chunk), Math.min(callbacks, (t + 1) * chunk));
+            futures.add(pool.submit(() -> {
+                for (int from = 0; from < mine.size(); from += callbackBatch) {
+                    List<String> ids = mine.subList(from, Math.min(mine.size(), from + callbackBatch));
+                    if (callbackBatch == 1) {
+                        service.handlePaymentCallback(ids.get(0), "SUCCESS", new HashMap<>());
+                    } else {
+                        List<Map<String, Object>> batch = new ArrayList<>();
+                        for (String id : ids) {
+                            Map<String, Object> callback = new HashMap<>();
+                            callback.put("paymentId", id);
+                            callback.put("status", "SUCCESS");
+                            batch.add(callback);
+                        }
+                        service.handlePaymentCallbacks(batch);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long handledNanos = System.nanoTime() - start;
+        // 等待全部订单状态送达
+        while (UPDATED_ORDERS.get() < callbacks) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        long deliveredNanos = System.nanoTime() - start;
+        Map<String, Object> stats = batcher.stats();
+        System.out.printf("%-24s callbacks=%d rpcCalls=%d (%.1f orders/rpc) callbacks/s=%.0f delivered/s=%.0f avgBatch=%.1f%n",
+                name, callbacks, RPC_CALLS.get(), (double) callbacks / RPC_CALLS.get(),
+                callbacks * 1e9 / handledNanos, callbacks * 1e9 / deliveredNanos, (Double) stats.get("avgBatchSize"));
+        pool.shutdown();
+        batcher.close();
+        timer.close();
+    }
+    
+    private static OrderService fakeOrderService() {
+        return (OrderService) Proxy.newProxyInstance(OrderService.class.getClassLoader(),
+                new Class<?>[]{OrderService.class}, (proxy, method, methodArgs) -> {
+                    switch (method.getName()) {
+                        case "getOrderById":
+                            return order((String) methodArgs[0]);
+                        case "getOrderByIdAsync":
+                            return CompletableFuture.completedFuture(order((String) methodArgs[0]));
+                        case "updateOrderStatus":
+                            RPC_CALLS.incrementAndGet();
+                            LockSupport.parkNanos(rpcNanos);
+                            UPDATED_ORDERS.incrementAndGet();
+                            return true;
+                        case "updateOrderStatuses":
+                            RPC_CALLS.incrementAndGet();
+                            @SuppressWarnings("unchecked")
+                            Map<String, String> statuses = (Map<String, String>) methodArgs[0];
+                            LockSupport.parkNanos(rpcNanos + TimeUnit.MICROSECONDS.toNanos(2) * statuses.size());
+                            Map<String, Boolean> results = new HashMap<>();
+                            for (String orderId : statuses.keySet()) {
+                                results.put(orderId, true);
+                            }
+                            UPDATED_ORDERS.addAndGet(statuses.size());
+                            return results;
+                        default:
+                            return null;
+                    }
+                });
+    }
+    
+    private static Map<String, Object> order(String orderId) {
+        Map<String, Object> order = new HashMap<>();
+        order.put("orderId", orderId);
+        return order;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.batch.OrderStatusBatcher;
+import com.example.demo.bulk.BulkPaymentProcessor;
+import com.example.demo.event.PaymentChangeStream;
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.idempotency.IdempotencyCache;
+import com.example.demo.nearcache.OrderNearCache;
+import com.example.demo.refund.RefundLedger;
+import com.example.demo.service.OrderService;
+import com.example.demo.timer.HashedWheelTimer;
+
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 基准共用的支付服务装配：不启动Spring，按注入的字段名逐个赋值。
+// 默认不开近端缓存和微批，结算、退款和超时推迟一小时，基准只替换它要测的组件
+public class PaymentServiceFixture {
+    
+    private final Map<String, Object> fields = new LinkedHashMap<>();
+    
+    public PaymentServiceFixture(OrderService orders, HashedWheelTimer timer) {
+        fields.put("orderNearCache", new OrderNearCache(orders, false, 0, 0L, 0, 0L, 1000));
+        fields.put("orderStatusBatcher", new OrderStatusBatcher(orders, false, 1, 0L));
+        fields.put("idGenerator", new SnowflakeIdGenerator(1));
+        fields.put("paymentTimer", timer);
+        fields.put("paymentIdempotencyCache", new IdempotencyCache<Map<String, Object>>(TimeUnit.MINUTES.toMillis(10), 100000));
+        fields.put("paymentChangeStream", new PaymentChangeStream(65536));
+        delays(TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+    }
+    
+    public PaymentServiceFixture orderNearCache(OrderNearCache nearCache) {
+        fields.put("orderNearCache", nearCache);
+        return this;
+    }
+    
+    public PaymentServiceFixture orderStatusBatcher(OrderStatusBatcher batcher) {
+        fields.put("orderStatusBatcher", batcher);
+        return this;
+    }
+    
+    public PaymentServiceFixture idGenerator(SnowflakeIdGenerator idGenerator) {
+        fields.put("idGenerator", idGenerator);
+        return this;
+    }
+    
+    public PaymentServiceFixture idempotencyCache(IdempotencyCache<Map<String, Object>> cache) {
+        fields.put("paymentIdempotencyCache", cache);
+        return this;
+    }
+    
+    public PaymentServiceFixture paymentChangeStream(PaymentChangeStream changes) {
+        fields.put("paymentChangeStream", changes);
+        return this;
+    }
+    
+    public PaymentServiceFixture refundLedger(RefundLedger ledger) {
+        fields.put("refundLedger", ledger);
+        return this;
+    }
+    
+    public PaymentServiceFixture bulkPaymentProcessor(BulkPaymentProcessor processor) {
+        fields.put("bulkPaymentProcessor", processor);
+        return this;
+    }
+    
+    // 结算延迟、退款完成延迟和支付超时，单位毫秒
+    public PaymentServiceFixture delays(long settleMillis, long refundMillis, long timeoutMillis) {
+        fields.put("settleDelayMillis", settleMillis);
+        fields.put("refundDelayMillis", refundMillis);
+        fields.put("paymentTimeoutMillis", timeoutMillis);
+        return this;
+    }
+    
+    public PaymentServiceImpl build() throws Exception {
+        PaymentServiceImpl service = new PaymentServiceImpl();
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            field(entry.getKey()).set(service, entry.getValue());
+        }
+        return service;
+    }
+    
+    // 读取服务的内部状态，例如直接写入支付表准备数据
+    @SuppressWarnings("unchecked")
+    public static <T> T get(PaymentServiceImpl service, String name) throws Exception {
+        return (T) field(name).get(service);
+    }
+    
+    private static Field field(String name) throws NoSuchFieldException {
+        Field field = PaymentServiceImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+}
\ No newline at end of file